@@ -25,6 +25,7 @@
 /////////////////////////////////////////////////////////////////////////
 
 package io.moquette.server;
+import io.moquette.BrokerConstants;
 import io.moquette.interception.AbstractInterceptHandler;
 import io.moquette.interception.InterceptHandler;
 import io.moquette.interception.messages.InterceptPublishMessage;
@@ -40,13 +41,18 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
 import static org.fusesource.hawtbuf.Buffer.utf8;
-import org.fusesource.mqtt.client.BlockingConnection;
+import org.fusesource.mqtt.client.Callback;
+import org.fusesource.mqtt.client.CallbackConnection;
+import org.fusesource.mqtt.client.Listener;
 import org.fusesource.mqtt.client.MQTT;
-import org.fusesource.mqtt.client.Message;
 import org.fusesource.mqtt.client.QoS;
 import org.fusesource.mqtt.client.Topic;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
@@ -54,47 +60,121 @@ import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MQTTEvent;
 /**
  * Launch a configured version of the server.
+ *
+ * The proxy is an embedded broker that clients connect to in place of the
+ * target broker. Publish, subscribe and unsubscribe requests are captured as
+ * events. Subscriptions are repeated on the target broker, and the messages
+ * it delivers are relayed to the embedded broker. The relay uses one
+ * persistent, callback based connection in each direction: to the target
+ * broker and to the embedded broker. A message is relayed as soon as it is
+ * delivered (no polling) and acknowledged to the target broker once it has
+ * been published locally.
  */
 public class MQTTProxy {
 
     /**
-     * The MQTT target broker.
+     * The maximum time (ms) startServer waits for the relay connections.
+     */
+    private static final long READY_TIMEOUT = 10000;
+
+    /**
+     * The port of the embedded broker; read from its configuration.
      */
     private int proxyPort = 1884;
-    private MQTTListen worker1;
-    private BlockingConnection brokerConnection;
 
+    /**
+     * The connection to the target broker.
+     */
+    private final CallbackConnection brokerConnection;
+
+    /**
+     * The connection that relays the messages of the target broker to the
+     * embedded broker; created when the server is started and used once
+     * relayReady is released.
+     */
+    private volatile CallbackConnection relayConnection;
+
+    /**
+     * Released once the connection to the target broker is established.
+     */
+    private final CountDownLatch brokerReady = new CountDownLatch(1);
+
+    /**
+     * Released once the relay connection to the embedded broker is established.
+     */
+    private final CountDownLatch relayReady = new CountDownLatch(1);
+
+    /**
+     * The number of messages relayed from the target broker.
+     */
+    private final AtomicLong relayed = new AtomicLong();
+
+    /**
+     * Logs the failure of an asynchronous MQTT operation.
+     * @param <T> The result type of the operation.
+     * @param operation The operation, for the log.
+     * @return The callback.
+     */
+    private static <T> Callback<T> logFailure(final String operation) {
+        return new Callback<T>() {
+            @Override
+            public void onSuccess(final T value) {
+                // nothing to do
+            }
+
+            @Override
+            public void onFailure(final Throwable ex) {
+                Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, "MQTT " + operation + " failed", ex);
+            }
+        };
+    }
 
     /**
-     * The thread that listens for events from the broker so they can be
-     * notified on the proxy.
+     * Receives the messages of the subscribed topics from the target broker
+     * and publishes them on the embedded broker.
      */
-    private class MQTTListen extends Thread {
+    private class BrokerListener implements Listener {
 
         @Override
-        public void run() {
-            // Loop for ten iterations.
-
-            while(true){
-                try {
-                    Message message = brokerConnection.receive(1000, TimeUnit.MILLISECONDS);
-                    if(message != null) {
-                        MQTT mqtt = new MQTT();
-                        mqtt.setHost("localhost", proxyPort);
-                        BlockingConnection workerConnection = mqtt.blockingConnection();
-                        workerConnection.connect();
-
-                        String topicName = message.getTopic();
-                        workerConnection.publish(topicName, message.getPayload(), QoS.EXACTLY_ONCE, true);
-                    }
-                    Thread.sleep(200);
-                } catch (InterruptedException e) {
-                    // break out of the loop to close the thread
-                    break;
-                } catch (Exception ex) {
-                    Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, null, ex);
-                }
+        public void onConnected() {
+            brokerReady.countDown();
+        }
+
+        @Override
+        public void onDisconnected() {
+            Logger.getLogger(MQTTProxy.class.getName()).log(Level.WARNING, "Disconnected from the target broker");
+        }
+
+        @Override
+        public void onPublish(final UTF8Buffer topic, final Buffer body, final Runnable ack) {
+            final CallbackConnection relay = relayConnection;
+            if (relay == null || relayReady.getCount() > 0) {
+                // the proxy is not started, so nothing can be subscribed to it
+                ack.run();
+                return;
             }
+            // the acknowledgement goes back on the target connection's queue
+            final Runnable brokerAck = () -> brokerConnection.getDispatchQueue().execute(ack);
+            // runs on the target connection's queue; publish on the relay connection's queue
+            relay.getDispatchQueue().execute(() ->
+                relay.publish(topic, body, QoS.EXACTLY_ONCE, true, new Callback<Void>() {
+                    @Override
+                    public void onSuccess(final Void value) {
+                        relayed.incrementAndGet();
+                        brokerAck.run();
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable ex) {
+                        Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, "Unable to relay message on " + topic, ex);
+                        brokerAck.run();
+                    }
+                }));
+        }
+
+        @Override
+        public void onFailure(final Throwable ex) {
+            Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, "Target broker connection failed", ex);
         }
     }
 
@@ -204,9 +284,19 @@ public class MQTTProxy {
                 rResp.addParameter(new Parameter("mqtt.qos", "" + qos.value()));
                 rResp.addParameter(new Parameter("mqtt.clientid", msg.getClientID()));
 
-                Topic[] topics = {new Topic(utf8(topicName), valQoS)};
-                byte[] qoses = brokerConnection.subscribe(topics);
-                stm.pushEvent(rResp);
+                final Topic[] topics = {new Topic(utf8(topicName), valQoS)};
+                brokerConnection.getDispatchQueue().execute(() ->
+                    brokerConnection.subscribe(topics, new Callback<byte[]>() {
+                        @Override
+                        public void onSuccess(final byte[] qoses) {
+                            stm.pushEvent(rResp);
+                        }
+
+                        @Override
+                        public void onFailure(final Throwable ex) {
+                            Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, "Unable to subscribe to " + topicName, ex);
+                        }
+                    }));
             } catch (Exception ex) {
                 Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, null, ex);
             }
@@ -218,8 +308,9 @@ public class MQTTProxy {
             try {
                 String topicName = msg.getTopicFilter();
 
-                String[] topics = {topicName};
-                brokerConnection.unsubscribe(topics);
+                final UTF8Buffer[] topics = {utf8(topicName)};
+                brokerConnection.getDispatchQueue().execute(() ->
+                    brokerConnection.unsubscribe(topics, MQTTProxy.<Void>logFailure("unsubscribe")));
 
                  final MQTTEvent rResp = new MQTTEvent();
 
@@ -245,57 +336,132 @@ public class MQTTProxy {
 
     private final Server server;
 
+    /**
+     * Create a proxy of a target broker, and start connecting to it.
+     * @param address The host of the target broker.
+     * @param port The port of the target broker.
+     * @param stm The interface the captured events are pushed to.
+     */
     public MQTTProxy(String address, int port, final EventCapture stm){
         stateMachine = stm;
-        MQTT mqtt = new MQTT();
+        final MQTT mqtt = new MQTT();
         try {
             mqtt.setHost(address, port);
-            brokerConnection = mqtt.blockingConnection();
-            brokerConnection.connect();
-
         } catch (URISyntaxException ex) {
             System.err.println("Invalid MQTT address:  " + ex.getReason());
-        } catch (Exception ex) {
-            System.err.println("Unable to connect to broker:  " + ex.getMessage());
         }
+        brokerConnection = mqtt.callbackConnection();
+        brokerConnection.listener(new BrokerListener());
+        brokerConnection.connect(MQTTProxy.<Void>logFailure("connection to the target broker"));
 
         server = new Server();
 
     }
 
     /**
-     * Starts the MQTT inteceptor
+     * Starts the MQTT inteceptor, and waits until the relay between the
+     * target broker and the embedded broker is connected.
      *
+     * @param stm The interface the captured events are pushed to.
      * @throws IOException
      *             in case of any IO error.
      */
     public void startServer(EventCapture stm) throws IOException {
+        startServer(stm, 0);
+    }
+
+    /**
+     * Starts the MQTT inteceptor on the given port, and waits until the
+     * relay between the target broker and the embedded broker is connected.
+     *
+     * @param stm The interface the captured events are pushed to.
+     * @param port The port of the embedded broker, or 0 for the configured port.
+     * @throws IOException
+     *             in case of any IO error.
+     */
+    public void startServer(EventCapture stm, int port) throws IOException {
         IResourceLoader classpathLoader = new ClasspathResourceLoader();
         final IConfig classPathConfig = new ResourceLoaderConfig(classpathLoader);
+        if (port > 0) {
+            classPathConfig.setProperty(BrokerConstants.PORT_PROPERTY_NAME, Integer.toString(port));
+        }
+        final String configuredPort = classPathConfig.getProperty(BrokerConstants.PORT_PROPERTY_NAME);
+        if (configuredPort != null) {
+            proxyPort = Integer.parseInt(configuredPort.trim());
+        }
 
         List<? extends InterceptHandler> userHandlers = Collections.singletonList(new PublisherListener(stm));
         server.startServer(classPathConfig, userHandlers);
+
+        // the embedded broker is bound; connect the relay to it
+        final MQTT mqtt = new MQTT();
         try {
-            Thread.sleep(5000);
+            mqtt.setHost("localhost", proxyPort);
+        } catch (URISyntaxException ex) {
+            throw new IOException("Invalid proxy port " + proxyPort, ex);
+        }
+        relayConnection = mqtt.callbackConnection();
+        relayConnection.connect(new Callback<Void>() {
+            @Override
+            public void onSuccess(final Void value) {
+                relayReady.countDown();
+            }
+
+            @Override
+            public void onFailure(final Throwable ex) {
+                Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, "Unable to connect the relay to the proxy", ex);
+            }
+        });
+
+        try {
+            if (!awaitReady(READY_TIMEOUT)) {
+                Logger.getLogger(MQTTProxy.class.getName()).log(Level.WARNING,
+                        "MQTT relay not connected after {0}ms - continuing", READY_TIMEOUT);
+            }
         } catch (InterruptedException ex) {
-            Logger.getLogger(MQTTProxy.class.getName()).log(Level.SEVERE, null, ex);
+            Thread.currentThread().interrupt();
         }
+    }
 
-//        server.startServer();
-//        server.addInterceptHandler(new PublisherListener());
+    /**
+     * Wait until the connections to the target broker and the embedded
+     * broker are established.
+     * @param timeout The maximum time to wait in milliseconds.
+     * @return true if the relay is connected, false if the time ran out.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    public boolean awaitReady(final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        return relayReady.await(timeout, TimeUnit.MILLISECONDS)
+                && brokerReady.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
 
-        //Create a thread that listens for events and then sends them back to this proxy
-        worker1 = new MQTTListen();
-        worker1.start();
+    /**
+     * The number of messages relayed from the target broker to the proxy.
+     * @return The relayed message count.
+     */
+    public long getRelayed() {
+        return relayed.get();
     }
 
     /**
-     * Stop the MQTT interceptor
+     * Stop the MQTT interceptor and close the relay connections.
      *
      */
     public void stopServer() {
+       disconnect(relayConnection);
+       disconnect(brokerConnection);
        server.stopServer();
-       worker1.interrupt();
+    }
+
+    /**
+     * Close a relay connection, on its dispatch queue.
+     * @param connection The connection; may be null.
+     */
+    private static void disconnect(final CallbackConnection connection) {
+        if (connection != null) {
+            connection.getDispatchQueue().execute(() -> connection.disconnect(MQTTProxy.<Void>logFailure("disconnect")));
+        }
     }
 
 }
@@ -18,12 +18,19 @@
 package org.eclipse.californium.proxy;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Exchanger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,6 +61,7 @@ import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
 import org.apache.http.nio.protocol.HttpAsyncRequestHandlerRegistry;
 import org.apache.http.nio.protocol.HttpAsyncService;
 import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.ListenerEndpoint;
 import org.apache.http.nio.reactor.ListeningIOReactor;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
@@ -75,14 +83,19 @@ import org.eclipse.californium.core.network.config.NetworkConfig;
 
 /**
  * Class encapsulating the logic of a http server. The class create a receiver
- * thread that it is always blocked on the listen primitive. For each connection
- * this thread creates a new thread that handles the client/server dialog.
+ * thread that it is always blocked on the listen primitive. Each translated
+ * coap request is handed to a bounded pool of workers (virtual threads where
+ * the runtime provides them); the http response is sent from the thread that
+ * delivers the coap response, or by a timer when the gateway timeout expires.
+ * When the maximum number of requests are in flight, further requests are
+ * rejected with 503 (Service Unavailable). A request stays in flight until
+ * both its http response is sent and its worker has returned, so requests
+ * answered by the timer can not pile up on the workers.
  */
 public class HttpStack {
 	
 	private static final Logger LOGGER = Logger.getLogger(HttpStack.class.getCanonicalName());
 	
-	private static final Response Response_NULL = new Response(null); // instead of Response.NULL // TODO
 	
 	private static final int SOCKET_TIMEOUT = NetworkConfig.getStandard().getInt(
 			NetworkConfig.Keys.HTTP_SERVER_SOCKET_TIMEOUT);
@@ -90,6 +103,21 @@ public class HttpStack {
 			NetworkConfig.Keys.HTTP_SERVER_SOCKET_BUFFER_SIZE);
 	private static final int GATEWAY_TIMEOUT = SOCKET_TIMEOUT * 3 / 4;
 	private static final String SERVER_NAME = "Californium Http Proxy";
+
+	/**
+	 * The network configuration key of the number of worker threads that
+	 * handle the coap requests (not used with virtual threads).
+	 */
+	public static final String WORKERS_KEY = "HTTP_SERVER_WORKERS";
+
+	/**
+	 * The network configuration key of the maximum number of requests in
+	 * flight; further requests are rejected with 503.
+	 */
+	public static final String MAX_IN_FLIGHT_KEY = "HTTP_SERVER_MAX_IN_FLIGHT";
+
+	public static final int DEFAULT_WORKERS = 32;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
 	
 	/**
 	 * Resource associated with the proxying behavior. If a client requests
@@ -107,13 +135,23 @@ public class HttpStack {
 	 */
 	public static final String LOCAL_RESOURCE_NAME = "local";
 
-	private final ConcurrentHashMap<Request, Exchanger<Response>> exchangeMap = new ConcurrentHashMap<Request, Exchanger<Response>>();
+	/**
+	 * The http exchanges waiting for the response to their coap request.
+	 * Whoever removes an entry (the response or the timeout) completes it.
+	 */
+	private final ConcurrentHashMap<Request, PendingExchange> exchangeMap = new ConcurrentHashMap<Request, PendingExchange>();
+
+	private final ExecutorService workers;
+	private final ScheduledExecutorService timer;
+	private final Semaphore inFlight;
+	private ListeningIOReactor ioReactor;
 
 	private RequestHandler requestHandler;
 	
 	/**
 	 * Instantiates a new http stack on the requested port. It creates an http
-	 * listener thread on the port.
+	 * listener thread on the port. The number of workers and the maximum
+	 * requests in flight are read from the network configuration.
 	 * 
 	 * @param httpPort
 	 *            the http port
@@ -121,9 +159,137 @@ public class HttpStack {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	public HttpStack(int httpPort) throws IOException {
+		this(httpPort, getConfigured(WORKERS_KEY, DEFAULT_WORKERS), getConfigured(MAX_IN_FLIGHT_KEY, DEFAULT_MAX_IN_FLIGHT));
+	}
+
+	/**
+	 * Instantiates a new http stack on the requested port.
+	 * 
+	 * @param httpPort
+	 *            the http port
+	 * @param workerCount
+	 *            the number of worker threads handling coap requests
+	 * @param maxInFlight
+	 *            the maximum number of requests in flight
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public HttpStack(int httpPort, int workerCount, int maxInFlight) throws IOException {
+		this.workers = createWorkers(Math.max(1, workerCount));
+		this.timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("HttpStack timer"));
+		this.inFlight = new Semaphore(Math.max(1, maxInFlight));
 		new HttpServer(httpPort);
 	}
 
+	/**
+	 * Read a positive integer from the network configuration.
+	 * 
+	 * @param key
+	 *            the configuration key
+	 * @param defaultValue
+	 *            the value if the key is not set or invalid
+	 * @return the configured value
+	 */
+	private static int getConfigured(String key, int defaultValue) {
+		String value = NetworkConfig.getStandard().getString(key);
+		if (value != null) {
+			try {
+				int configured = Integer.parseInt(value.trim());
+				if (configured > 0) {
+					return configured;
+				}
+			} catch (NumberFormatException e) {
+				LOGGER.warning("Invalid value of " + key + ": " + value);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Create the executor of the coap requests: one virtual thread per
+	 * request where the runtime supports them, or else a fixed pool.
+	 * 
+	 * @param workerCount
+	 *            the size of the fixed pool
+	 * @return the executor
+	 */
+	private static ExecutorService createWorkers(int workerCount) {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			LOGGER.info("HttpStack using virtual threads");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(workerCount, new DaemonThreadFactory("HttpStack worker"));
+		}
+	}
+
+	/**
+	 * Creates numbered daemon threads.
+	 */
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, name + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * An http exchange waiting for the response to its coap request.
+	 */
+	private static final class PendingExchange {
+		private final HttpAsyncExchange httpExchange;
+		private final HttpRequest httpRequest;
+		private volatile ScheduledFuture<?> timeout;
+		// the response and the worker each hold the place in flight
+		private final AtomicInteger holders = new AtomicInteger(2);
+
+		PendingExchange(HttpAsyncExchange httpExchange, HttpRequest httpRequest) {
+			this.httpExchange = httpExchange;
+			this.httpRequest = httpRequest;
+		}
+	}
+
+	/**
+	 * Stops listening and releases the worker threads. Requests still in
+	 * flight are answered with 503.
+	 */
+	public void stop() {
+		workers.shutdownNow();
+		timer.shutdownNow();
+		for (Request request : exchangeMap.keySet()) {
+			PendingExchange pending = exchangeMap.remove(request);
+			if (pending != null) {
+				complete(pending, HttpStatus.SC_SERVICE_UNAVAILABLE);
+			}
+		}
+		// the graceful shutdown of the reactor flushes the responses above
+		if (ioReactor != null) {
+			try {
+				ioReactor.shutdown();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Error shutting down HttpStack", e);
+			}
+		}
+	}
+
+	/**
+	 * The number of requests waiting for their coap response.
+	 * 
+	 * @return the requests in flight
+	 */
+	public int getInFlight() {
+		return exchangeMap.size();
+	}
+
 	/**
 	 * Checks if a thread is waiting for the arrive of a specific response.
 	 * 
@@ -185,146 +351,124 @@ public class HttpStack {
 //		if (Bench_Help.DO_LOG) 
 			LOGGER.fine("Handling response for request: " + request);
 
-		// fill the exchanger with the incoming response
-		Exchanger<Response> exchanger = exchangeMap.get(request);
-		if (exchanger != null) {
-			try {
-				exchanger.exchange(response);
-//				if (Bench_Help.DO_LOG) 
-					LOGGER.info("Exchanged correctly");
-			} catch (InterruptedException e) {
-				LOGGER.log(Level.WARNING, "Exchange interrupted", e);
+		// claim the waiting exchange; if the timeout has already claimed it
+		// the response is too late
+		PendingExchange pending = exchangeMap.remove(request);
+		if (pending == null) {
+			LOGGER.warning("No http exchange waiting for request "+request+" with hash "+request.hashCode());
+			return;
+		}
+		ScheduledFuture<?> timeout = pending.timeout;
+		if (timeout != null) {
+			timeout.cancel(false);
+		}
 
-				// remove the entry from the map
-				exchangeMap.remove(request);
-				return;
-			}
-		} else {
-			LOGGER.warning("exchanger was null for request "+request+" with hash "+request.hashCode());
+		if (response == null) {
+			LOGGER.warning("No coap response");
+			complete(pending, HttpTranslator.STATUS_NOT_FOUND);
+			return;
 		}
-	}
-        /**
-	 * The Class CoapResponseWorker. This thread request a response from the
-         * lower layers. It is the producer of the producer/consumer pattern.
-	 */
-        private final class CoapRequestWorker extends Thread {
-		private final Request coapRequest;
 
-		/**
-		 * Instantiates a new coap response worker.
-		 *
-		 * @param name
-		 *            the name
-		 * @param coapRequest
-		 *            the coap request
-		 */
-		public CoapRequestWorker(String name, Request coapRequest) {
-			super(name);
-			this.coapRequest = coapRequest;
-                }
+		// get the sample http response
+		HttpResponse httpResponse = pending.httpExchange.getResponse();
 
-		@Override
-		public void run() {
-                    doReceiveMessage(coapRequest);
-                }
-        }
+		try {
+			// translate the coap response in an http response
+			HttpTranslator.getHttpResponse(pending.httpRequest, response, httpResponse);
+
+//			if (Bench_Help.DO_LOG) 
+				LOGGER.finer("Outgoing http response: " + httpResponse.getStatusLine());
+		} catch (TranslationException e) {
+			LOGGER.warning("Failed to translate coap response to http response: " + e.getMessage());
+			complete(pending, HttpTranslator.STATUS_TRANSLATION_ERROR);
+			return;
+		}
+
+		// send the response
+		pending.httpExchange.submitResponse();
+		release(pending);
+	}
 
 	/**
-	 * The Class CoapResponseWorker. This thread waits a response from the lower
-	 * layers. It is the consumer of the producer/consumer pattern.
+	 * Release the hold of the response or of the worker on the place in
+	 * flight of an exchange; the place is freed when both are released.
+	 * 
+	 * @param pending
+	 *            the exchange
 	 */
-	private final class CoapResponseWorker extends Thread {
-		private final HttpAsyncExchange httpExchange;
-		private final HttpRequest httpRequest;
-		private final Request coapRequest;
-                private final Thread responseWorker;
-
-		/**
-		 * Instantiates a new coap response worker.
-		 * 
-		 * @param name
-		 *            the name
-		 * @param coapRequest
-		 *            the coap request
-		 * @param httpExchange
-		 *            the http exchange
-		 * @param httpRequest
-		 *            the http request
-                 * @param responseWorker
-		 *            the coap response worker
-		 */
-		public CoapResponseWorker(String name, Request coapRequest, HttpAsyncExchange httpExchange, HttpRequest httpRequest, Thread responseWorker) {
-			super(name);
-			this.coapRequest = coapRequest;
-			this.httpExchange = httpExchange;
-			this.httpRequest = httpRequest;
-                        this.responseWorker = responseWorker;
+	private void release(PendingExchange pending) {
+		if (pending.holders.decrementAndGet() == 0) {
+			inFlight.release();
 		}
+	}
 
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Thread#run()
-		 */
-		@Override
-		public void run() {
-			// get the exchanger
-			Exchanger<Response> exchanger = exchangeMap.get(coapRequest);
-
-			// if the map does not contain the key, send an error response
-			if (exchanger == null) {
-				LOGGER.warning("exchanger == null");
-				sendSimpleHttpResponse(httpExchange, HttpStatus.SC_INTERNAL_SERVER_ERROR);
-				return;
-			}
+	/**
+	 * Send a simple http response for a claimed exchange and release the
+	 * hold of its response on the place in flight.
+	 * 
+	 * @param pending
+	 *            the exchange removed from the map
+	 * @param httpCode
+	 *            the http code
+	 */
+	private void complete(PendingExchange pending, int httpCode) {
+		try {
+			sendSimpleHttpResponse(pending.httpExchange, httpCode);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Unable to send http response", e);
+		} finally {
+			release(pending);
+		}
+	}
 
-			// get the response
-			Response coapResponse = null;
-			try {
-				coapResponse = exchanger.exchange(Response_NULL, GATEWAY_TIMEOUT, TimeUnit.MILLISECONDS);
-			} catch (TimeoutException e) {
-				LOGGER.warning("Timeout occurred");
-				// send the timeout error message
-				sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TIMEOUT);
-				return;
-			} catch (InterruptedException e) {
-				// if the thread is interrupted, terminate
-				if (isInterrupted()) {
-					LOGGER.warning("Thread interrupted");
-					sendSimpleHttpResponse(httpExchange, HttpStatus.SC_INTERNAL_SERVER_ERROR);
-					return;
+	/**
+	 * Register the exchange, start its gateway timeout and hand the coap
+	 * request to a worker.
+	 * 
+	 * @param coapRequest
+	 *            the translated coap request
+	 * @param httpExchange
+	 *            the http exchange
+	 * @param httpRequest
+	 *            the http request
+	 */
+	private void dispatch(final Request coapRequest, HttpAsyncExchange httpExchange, HttpRequest httpRequest) {
+		final PendingExchange pending = new PendingExchange(httpExchange, httpRequest);
+		exchangeMap.put(coapRequest, pending);
+		try {
+			pending.timeout = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (exchangeMap.remove(coapRequest, pending)) {
+						LOGGER.warning("Timeout occurred");
+						// send the timeout error message
+						complete(pending, HttpTranslator.STATUS_TIMEOUT);
+					}
 				}
-			} finally {
-				// remove the entry from the map
-				exchangeMap.remove(coapRequest);
-                                // the producer thread was unable to deliver a response at time, so we kill it.
-                                responseWorker.interrupt();
-//				if (Bench_Help.DO_LOG) 
-					LOGGER.finer("Entry removed from map");
-			}
-
-			if (coapResponse == null) {
-				LOGGER.warning("No coap response");
-				sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_NOT_FOUND);
-				return;
-			}
-
-			// get the sample http response
-			HttpResponse httpResponse = httpExchange.getResponse();
-
-			try {
-				// translate the coap response in an http response
-				HttpTranslator.getHttpResponse(httpRequest, coapResponse, httpResponse);
-
-//				if (Bench_Help.DO_LOG) 
-					LOGGER.finer("Outgoing http response: " + httpResponse.getStatusLine());
-			} catch (TranslationException e) {
-				LOGGER.warning("Failed to translate coap response to http response: " + e.getMessage());
-				sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TRANSLATION_ERROR);
-				return;
+			}, GATEWAY_TIMEOUT, TimeUnit.MILLISECONDS);
+
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						doReceiveMessage(coapRequest);
+					} catch (RuntimeException e) {
+						LOGGER.log(Level.WARNING, "Error handling coap request", e);
+						if (exchangeMap.remove(coapRequest, pending)) {
+							pending.timeout.cancel(false);
+							complete(pending, HttpStatus.SC_INTERNAL_SERVER_ERROR);
+						}
+					} finally {
+						release(pending);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the stack is stopping, no worker runs
+			release(pending);
+			if (exchangeMap.remove(coapRequest, pending)) {
+				complete(pending, HttpStatus.SC_SERVICE_UNAVAILABLE);
 			}
-
-			// send the response
-			httpExchange.submitResponse();
 		}
 	}
 
@@ -361,13 +505,12 @@ public class HttpStack {
 			// Create server-side I/O event dispatch
 			final IOEventDispatch ioEventDispatch = new DefaultHttpServerIODispatch(protocolHandler, connFactory);
 
-			final ListeningIOReactor ioReactor;
 			try {
 				// Create server-side I/O reactor
 				ioReactor = new DefaultListeningIOReactor();
 				// Listen of the given port
 				LOGGER.info("HttpStack listening on port "+httpPort);
-				ioReactor.listen(new InetSocketAddress(httpPort));
+				ListenerEndpoint endpoint = ioReactor.listen(new InetSocketAddress(httpPort));
 
 				// create the listener thread
 				Thread listener = new Thread("HttpStack listener") {
@@ -390,9 +533,19 @@ public class HttpStack {
 
 				listener.setDaemon(false);
 				listener.start();
+
+				// the port is bound by the listener thread; wait for it so
+				// that requests can be sent as soon as the stack is created
+				endpoint.waitFor();
+				if (endpoint.getException() != null) {
+					LOGGER.severe("Unable to listen on port " + httpPort + ": " + endpoint.getException().getMessage());
+				}
 				LOGGER.info("HttpStack started");
 			} catch (IOException e) {
 				LOGGER.severe("I/O error: " + e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.warning("Interrupted waiting for HttpStack to listen");
 			}
 		}
 
@@ -421,7 +574,8 @@ public class HttpStack {
 
 		/**
 		 * Class associated with the http service to translate the http requests
-		 * in coap requests and to produce the http responses. Even if the class
+		 * in coap requests and to produce the http responses. Requests beyond
+		 * the maximum in flight are rejected with 503. Even if the class
 		 * accepts a string indicating the name of the proxy resource, it is
 		 * still thread-safe because the local resource is set in the
 		 * constructor and then only read by the methods.
@@ -458,40 +612,38 @@ public class HttpStack {
 //				if (Bench_Help.DO_LOG) 
 					LOGGER.finer("Incoming http request: " + httpRequest.getRequestLine());
 
+				// reject the request if the proxy is saturated
+				if (!inFlight.tryAcquire()) {
+					LOGGER.warning("Too many requests in flight, rejecting " + httpRequest.getRequestLine());
+					sendSimpleHttpResponse(httpExchange, HttpStatus.SC_SERVICE_UNAVAILABLE);
+					return;
+				}
+
 				try {
 					// translate the request in a valid coap request
 					Request coapRequest = HttpTranslator.getCoapRequest(httpRequest, localResource, proxyingEnabled);
 //					if (Bench_Help.DO_LOG) 
 						LOGGER.info("Received HTTP request and translate to "+coapRequest);
 
-					// fill the maps
-					exchangeMap.put(coapRequest, new Exchanger<Response>());
-//					if (Bench_Help.DO_LOG) 
-						LOGGER.finer("Fill exchange with: " + coapRequest+" with hash="+coapRequest.hashCode());
-
-					// We create two threads
-                                        // The responseWorker will be in charge of producing a CoapResponse (producer)
-                                        // The requestWorker will be in charge of using this response to return it to the client
-                                        Thread requestWorker = new CoapRequestWorker("HttpStart Worker: consummer", coapRequest);
-                                        Thread responseWorker = new CoapResponseWorker("HttpStack Worker: producer", coapRequest, httpExchange, httpRequest, requestWorker);
-
-					// starting the producer and consummer thread
-					requestWorker.start();
-					responseWorker.start();
-
+					// register the exchange and hand the request to a worker;
+					// the response is sent when the coap response is delivered
+					dispatch(coapRequest, httpExchange, httpRequest);
 //					if (Bench_Help.DO_LOG) 
-						LOGGER.finer("Started thread 'httpStack worker' to wait the response");
+						LOGGER.finer("Dispatched: " + coapRequest+" with hash="+coapRequest.hashCode());
 
 				} catch (InvalidMethodException e) {
 					LOGGER.warning("Method not implemented" + e.getMessage());
+					inFlight.release();
 					sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_WRONG_METHOD);
 					return;
 				} catch (InvalidFieldException e) {
 					LOGGER.warning("Request malformed" + e.getMessage());
+					inFlight.release();
 					sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_URI_MALFORMED);
 					return;
 				} catch (TranslationException e) {
 					LOGGER.warning("Failed to translate the http request in a valid coap request: " + e.getMessage());
+					inFlight.release();
 					sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TRANSLATION_ERROR);
 					return;
                                 }
@@ -19,6 +19,7 @@
 package org.eclipse.californium.proxy;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -35,7 +36,8 @@ import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.UnmappableCharacterException;
 import java.nio.charset.UnsupportedCharsetException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
@@ -54,7 +56,6 @@ import org.apache.http.StatusLine;
 import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.EnglishReasonPhraseCatalog;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
@@ -80,20 +81,20 @@ import org.eclipse.californium.core.coap.Response;
  */
 public final class HttpTranslator {
 
-	private static final String KEY_COAP_CODE = "coap.response.code.";
-	private static final String KEY_COAP_OPTION = "coap.message.option.";
-	private static final String KEY_COAP_MEDIA = "coap.message.media.";
-	private static final String KEY_HTTP_CODE = "http.response.code.";
-	private static final String KEY_HTTP_METHOD = "http.request.method.";
-	private static final String KEY_HTTP_HEADER = "http.message.header.";
-	private static final String KEY_HTTP_CONTENT_TYPE = "http.message.content-type.";
-
 	/**
 	 * Property file containing the mappings between coap messages and http
 	 * messages.
 	 */
 	public static final Properties HTTP_TRANSLATION_PROPERTIES = new MappingProperties("Proxy.properties");
 
+	/**
+	 * The mappings of the property file compiled into lookup tables.
+	 */
+	private static volatile TranslationTables tables = new TranslationTables(HTTP_TRANSLATION_PROPERTIES);
+
+	/** The cache-control header value set when a response has no max-age. */
+	private static final String DEFAULT_CACHE_CONTROL = "max-age=" + Long.toString(OptionNumberRegistry.Defaults.MAX_AGE);
+
 	// Error constants
 	public static final int STATUS_TIMEOUT = HttpStatus.SC_GATEWAY_TIMEOUT;
 	public static final int STATUS_NOT_FOUND = HttpStatus.SC_BAD_GATEWAY;
@@ -103,6 +104,15 @@ public final class HttpTranslator {
 
 	protected static final Logger LOGGER = Logger.getLogger(HttpTranslator.class.getName());
 
+	/**
+	 * Recompiles the lookup tables from the property file. The translations
+	 * read the tables compiled when the class is loaded, so changes made to
+	 * HTTP_TRANSLATION_PROPERTIES afterwards only apply once this is called.
+	 */
+	public static void reloadTranslationTables() {
+		tables = new TranslationTables(HTTP_TRANSLATION_PROPERTIES);
+	}
+
 	/**
 	 * Gets the coap media type associated to the http entity. Firstly, it looks
 	 * for a valid mapping in the property file. If this step fails, then it
@@ -154,13 +164,16 @@ public final class HttpTranslator {
 			// get the value of the content-type
 			String httpContentTypeString = contentType.getMimeType();
 			// delete the last part (if any)
-			httpContentTypeString = httpContentTypeString.split(";")[0];
+			int parameters = httpContentTypeString.indexOf(';');
+			if (parameters >= 0) {
+				httpContentTypeString = httpContentTypeString.substring(0, parameters);
+			}
 
 			// retrieve the mapping from the property file
-			String coapContentTypeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_CONTENT_TYPE + httpContentTypeString);
+			Integer mappedContentType = tables.getMediaType(httpContentTypeString);
 
-			if (coapContentTypeString != null) {
-				coapContentType = Integer.parseInt(coapContentTypeString);
+			if (mappedContentType != null) {
+				coapContentType = mappedContentType;
 			} else {
 				// try to parse the media type if the property file has given to
 				// mapping
@@ -196,36 +209,30 @@ public final class HttpTranslator {
 			throw new IllegalArgumentException("httpMessage == null");
 		}
 
-		List<Option> optionList = new LinkedList<Option>();
+		TranslationTables mappings = tables;
+		List<Option> optionList = new ArrayList<Option>(headers.length);
 
 		// iterate over the headers
 		for (Header header : headers) {
 			try {
-				String headerName = header.getName().toLowerCase();
+				String headerName = header.getName();
 				
 				// FIXME: CoAP does no longer support multiple accept-options.
 				// If an HTTP request contains multiple accepts, this method
 				// fails. Therefore, we currently skip accepts at the moment.
-				if (headerName.startsWith("accept"))
+				if (headerName.regionMatches(true, 0, "accept", 0, 6))
 						continue;
 	
 				// get the mapping from the property file
-				String optionCodeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_HEADER + headerName);
+				Integer optionCode = mappings.getOptionNumber(headerName);
 	
 				// ignore the header if not found in the properties file
-				if (optionCodeString == null || optionCodeString.isEmpty()) {
+				if (optionCode == null) {
 					continue;
 				}
 	
 				// get the option number
-				int optionNumber = OptionNumberRegistry.RESERVED_0;
-				try {
-					optionNumber = Integer.parseInt(optionCodeString.trim());
-				} catch (Exception e) {
-					LOGGER.warning("Problems in the parsing: " + e.getMessage());
-					// ignore the option if not recognized
-					continue;
-				}
+				int optionNumber = optionCode;
 	
 				// ignore the content-type because it will be handled within the
 				// payload
@@ -399,24 +406,16 @@ public final class HttpTranslator {
 		}
 
 		// get the http method
-		String httpMethod = httpRequest.getRequestLine().getMethod().toLowerCase();
+		String httpMethod = httpRequest.getRequestLine().getMethod();
 
 		// get the coap method
-		String coapMethodString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_METHOD + httpMethod);
-		if (coapMethodString == null || coapMethodString.contains("error")) {
+		Code coapMethod = tables.getCoapMethod(httpMethod);
+		if (coapMethod == null) {
 			throw new InvalidMethodException(httpMethod + " method not mapped");
 		}
 
-		int coapMethod = 0;
-		try {
-			coapMethod = Integer.parseInt(coapMethodString.trim());
-		} catch (NumberFormatException e) {
-			LOGGER.warning("Cannot convert the http method in coap method: " + e);
-			throw new TranslationException("Cannot convert the http method in coap method", e);
-		}
-
 		// create the request -- since HTTP is reliable use CON
-		Request coapRequest = new Request(Code.valueOf(coapMethod), Type.CON);
+		Request coapRequest = new Request(coapMethod, Type.CON);
 
 		// get the uri
 		String uriString = httpRequest.getRequestLine().getUri();
@@ -443,7 +442,7 @@ public final class HttpTranslator {
 		// proxy resource: /proxy
 		// coap server: vslab-dhcp-17.inf.ethz.ch:5684
 		// coap resource: helloWorld
-		if (uriString.matches(".?" + proxyResource + ".*")) {
+		if (uriString.startsWith(proxyResource) || (!uriString.isEmpty() && uriString.startsWith(proxyResource, 1))) {
 
 			// find the first occurrence of the proxy resource
 			int index = uriString.indexOf(proxyResource);
@@ -453,7 +452,7 @@ public final class HttpTranslator {
 
 			if (proxyingEnabled) {
 				// if the uri hasn't the indication of the scheme, add it
-				if (!uriString.matches("^coaps?://.*")) {
+				if (!uriString.startsWith("coap://") && !uriString.startsWith("coaps://")) {
 					uriString = "coap://" + uriString;
 				}
 
@@ -545,18 +544,11 @@ public final class HttpTranslator {
 			}
 		} else {
 			// get the translation from the property file
-			String coapCodeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_CODE + httpCode);
-
-			if (coapCodeString == null || coapCodeString.isEmpty()) {
-				LOGGER.warning("coapCodeString == null");
-				throw new TranslationException("coapCodeString == null");
-			}
+			coapCode = tables.getCoapCode(httpCode);
 
-			try {
-				coapCode = ResponseCode.valueOf(Integer.parseInt(coapCodeString.trim()));
-			} catch (NumberFormatException e) {
-				LOGGER.warning("Cannot convert the status code in number: " + e.getMessage());
-				throw new TranslationException("Cannot convert the status code in number", e);
+			if (coapCode == null) {
+				LOGGER.warning("coapCode == null for http status " + httpCode);
+				throw new TranslationException("coapCode == null for http status " + httpCode);
 			}
 		}
 
@@ -604,8 +596,8 @@ public final class HttpTranslator {
 	 * content-type is recognized, and a mapping is present in the properties
 	 * file, it is translated to the correspondent in HTTP, otherwise it is set
 	 * to application/octet-stream. If the content-type has a charset, namely it
-	 * is printable, the payload is encapsulated in a StringEntity, if not it a
-	 * ByteArrayEntity is used.
+	 * is printable, the payload is converted to ISO-8859-1 where possible,
+	 * then it is encapsulated in a ByteArrayEntity.
 	 * 
 	 * 
 	 * @param coapMessage
@@ -635,26 +627,26 @@ public final class HttpTranslator {
 			} else {
 				int coapContentType = coapMessage.getOptions().getContentFormat();
 				// search for the media type inside the property file
-				String coapContentTypeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_COAP_MEDIA + coapContentType);
+				contentType = tables.getContentType(coapContentType);
 
 				// if the content-type has not been found in the property file,
 				// try to get its string value (expressed in mime type)
-				if (coapContentTypeString == null || coapContentTypeString.isEmpty()) {
-					coapContentTypeString = MediaTypeRegistry.toString(coapContentType);
+				if (contentType == null) {
+					String coapContentTypeString = MediaTypeRegistry.toString(coapContentType);
 
 					// if the coap content-type is printable, it is needed to
 					// set the default charset (i.e., UTF-8)
 					if (MediaTypeRegistry.isPrintable(coapContentType)) {
 						coapContentTypeString += "; charset=UTF-8";
 					}
-				}
 
-				// parse the content type
-				try {
-					contentType = ContentType.parse(coapContentTypeString);
-				} catch (UnsupportedCharsetException e) {
-					LOGGER.finer("Cannot convert string to ContentType: " + e.getMessage());
-					contentType = ContentType.APPLICATION_OCTET_STREAM;
+					// parse the content type
+					try {
+						contentType = ContentType.parse(coapContentTypeString);
+					} catch (UnsupportedCharsetException e) {
+						LOGGER.finer("Cannot convert string to ContentType: " + e.getMessage());
+						contentType = ContentType.APPLICATION_OCTET_STREAM;
+					}
 				}
 			}
 
@@ -683,17 +675,13 @@ public final class HttpTranslator {
 						contentType = ContentType.create(contentType.getMimeType(), isoCharset);
 					}
 				}
-
-				// create the content
-				String payloadString = new String(payload, contentType.getCharset());
-
-				// create the entity
-				httpEntity = new StringEntity(payloadString, contentType);
-			} else {
-				// create the entity
-				httpEntity = new ByteArrayEntity(payload);
 			}
 
+			// create the entity: a textual payload is already encoded in the
+			// charset of the content-type, so it is not decoded to a string
+			// just to be encoded again
+			httpEntity = new ByteArrayEntity(payload);
+
 			// set the content-type
 			((AbstractHttpEntity) httpEntity).setContentType(contentType.toString());
 		}
@@ -720,7 +708,9 @@ public final class HttpTranslator {
 			throw new IllegalArgumentException("coapMessage == null");
 		}
 
-		List<Header> headers = new LinkedList<Header>();
+		TranslationTables mappings = tables;
+		Header[] headers = new Header[optionList.size()];
+		int headerCount = 0;
 
 		// iterate over each option
 		for (Option option : optionList) {
@@ -730,17 +720,18 @@ public final class HttpTranslator {
 			int optionNumber = option.getNumber();
 			if (optionNumber != OptionNumberRegistry.CONTENT_FORMAT && optionNumber != OptionNumberRegistry.PROXY_URI) {
 				// get the mapping from the property file
-				String headerName = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_COAP_OPTION + optionNumber);
+				String headerName = mappings.getHeaderName(optionNumber);
 
 				// set the header
-				if (headerName != null && !headerName.isEmpty()) {
+				if (headerName != null) {
 					// format the value
 					String stringOptionValue = null;
-					if (OptionNumberRegistry.getFormatByNr(optionNumber) == optionFormats.STRING) {
+					optionFormats format = OptionNumberRegistry.getFormatByNr(optionNumber);
+					if (format == optionFormats.STRING) {
 						stringOptionValue = option.getStringValue();
-					} else if (OptionNumberRegistry.getFormatByNr(optionNumber) == optionFormats.INTEGER) {
+					} else if (format == optionFormats.INTEGER) {
 						stringOptionValue = Integer.toString(option.getIntegerValue());
-					} else if (OptionNumberRegistry.getFormatByNr(optionNumber) == optionFormats.OPAQUE) {
+					} else if (format == optionFormats.OPAQUE) {
 						stringOptionValue = new String(option.getValue());
 					} else {
 						// if the option is not formattable, skip it
@@ -753,13 +744,12 @@ public final class HttpTranslator {
 						stringOptionValue = "max-age=" + stringOptionValue;
 					}
 
-					Header header = new BasicHeader(headerName, stringOptionValue);
-					headers.add(header);
+					headers[headerCount++] = new BasicHeader(headerName, stringOptionValue);
 				}
 			}
 		}
 
-		return headers.toArray(new Header[0]);
+		return headerCount == headers.length ? headers : Arrays.copyOf(headers, headerCount);
 	}
 
 	/**
@@ -871,19 +861,11 @@ public final class HttpTranslator {
 
 		// get/set the response code
 		ResponseCode coapCode = coapResponse.getCode();
-		String httpCodeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_COAP_CODE + coapCode.value);
+		int httpCode = tables.getHttpCode(coapCode.value);
 
-		if (httpCodeString == null || httpCodeString.isEmpty()) {
-			LOGGER.warning("httpCodeString == null");
-			throw new TranslationException("httpCodeString == null");
-		}
-
-		int httpCode = 0;
-		try {
-			httpCode = Integer.parseInt(httpCodeString.trim());
-		} catch (NumberFormatException e) {
-			LOGGER.warning("Cannot convert the coap code in http status code" + e);
-			throw new TranslationException("Cannot convert the coap code in http status code", e);
+		if (httpCode == 0) {
+			LOGGER.warning("httpCode == null for coap code " + coapCode);
+			throw new TranslationException("httpCode == null for coap code " + coapCode);
 		}
 
 		// create the http response and set the status line
@@ -897,7 +879,7 @@ public final class HttpTranslator {
 
 		// set max-age if not already set
 		if (!httpResponse.containsHeader("cache-control")) {
-			httpResponse.setHeader("cache-control", "max-age=" + Long.toString(OptionNumberRegistry.Defaults.MAX_AGE));
+			httpResponse.setHeader("cache-control", DEFAULT_CACHE_CONTROL);
 		}
 
 		// get the http entity if the request was not HEAD
@@ -939,6 +921,11 @@ public final class HttpTranslator {
 	 *         exception
 	 */
 	private static byte[] changeCharset(byte[] payload, Charset fromCharset, Charset toCharset) throws TranslationException {
+		// nothing to translate if the charsets match, or if the payload is
+		// plain ascii and both charsets encode ascii the same way
+		if (fromCharset.equals(toCharset) || (isAsciiCompatible(fromCharset) && isAsciiCompatible(toCharset) && isAscii(payload))) {
+			return payload;
+		}
 		try {
 			// decode with the source charset
 			CharsetDecoder decoder = fromCharset.newDecoder();
@@ -949,7 +936,8 @@ public final class HttpTranslator {
 			CharsetEncoder encoder = toCharset.newEncoder();
 			ByteBuffer byteBuffer = encoder.encode(charBuffer);
 			encoder.flush(byteBuffer);
-			payload = byteBuffer.array();
+			// the backing array may be larger than the encoded bytes
+			payload = Arrays.copyOf(byteBuffer.array(), byteBuffer.limit());
 		} catch (UnmappableCharacterException e) {
 			// thrown when an input character (or byte) sequence is valid but
 			// cannot be mapped to an output byte (or character) sequence.
@@ -966,6 +954,19 @@ public final class HttpTranslator {
 		return payload;
 	}
 
+	private static boolean isAsciiCompatible(Charset charset) {
+		return charset.equals(UTF_8) || charset.equals(ISO_8859_1) || charset.equals(US_ASCII);
+	}
+
+	private static boolean isAscii(byte[] payload) {
+		for (byte b : payload) {
+			if (b < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * The Constructor is private because the class is an helper class and
 	 * cannot be instantiated.
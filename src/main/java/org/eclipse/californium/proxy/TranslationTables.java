@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and re-implementation
+ *    Francesco Corazza - HTTP cross-proxy
+ ******************************************************************************/
+package org.eclipse.californium.proxy;
+
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.apache.http.entity.ContentType;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+
+
+/**
+ * The mappings of the translation properties file compiled into lookup
+ * tables. The properties are read and parsed once; the codes, options and
+ * media types are then looked up by indexing arrays (CoAP numbers, HTTP
+ * status codes) or by a single hash lookup on interned names (HTTP methods,
+ * headers and mime types), without building a property key per message.
+ *
+ * Instances are immutable; a changed properties file is picked up by
+ * compiling a new instance.
+ */
+final class TranslationTables {
+
+	private static final Logger LOGGER = Logger.getLogger(TranslationTables.class.getName());
+
+	static final String KEY_COAP_CODE = "coap.response.code.";
+	static final String KEY_COAP_OPTION = "coap.message.option.";
+	static final String KEY_COAP_MEDIA = "coap.message.media.";
+	static final String KEY_HTTP_CODE = "http.response.code.";
+	static final String KEY_HTTP_METHOD = "http.request.method.";
+	static final String KEY_HTTP_HEADER = "http.message.header.";
+	static final String KEY_HTTP_CONTENT_TYPE = "http.message.content-type.";
+
+	/** The number of HTTP status codes (0-599) indexed by the table. */
+	private static final int HTTP_CODES = 600;
+
+	/** The number of CoAP codes (class.detail in a byte) indexed by the table. */
+	private static final int COAP_CODES = 256;
+
+	/** CoAP response code by HTTP status code; null if not mapped. */
+	private final ResponseCode[] coapCodes = new ResponseCode[HTTP_CODES];
+
+	/** HTTP status code by CoAP code value; 0 if not mapped. */
+	private final int[] httpCodes = new int[COAP_CODES];
+
+	/** HTTP header name by CoAP option number; null if not mapped. */
+	private final String[] headerNames;
+
+	/** HTTP content type by CoAP media type; null if not mapped. */
+	private final ContentType[] contentTypes;
+
+	/** CoAP method by HTTP method, in lower and upper case. */
+	private final Map<String, Code> methods = new HashMap<String, Code>();
+
+	/** CoAP option number by lower case HTTP header name. */
+	private final Map<String, Integer> options = new HashMap<String, Integer>();
+
+	/** CoAP media type by HTTP mime type. */
+	private final Map<String, Integer> mediaTypes = new HashMap<String, Integer>();
+
+	/**
+	 * Compiles the tables from the mapping properties. Mappings that cannot
+	 * be parsed are logged and left out, i.e. they are handled as not
+	 * mapped.
+	 *
+	 * @param properties
+	 *            the mapping properties
+	 */
+	TranslationTables(Properties properties) {
+		Map<Integer, String> optionHeaders = new HashMap<Integer, String>();
+		Map<Integer, ContentType> mediaContentTypes = new HashMap<Integer, ContentType>();
+		int maxOption = -1;
+		int maxMedia = -1;
+
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key).trim();
+			if (value.isEmpty()) {
+				continue;
+			}
+			try {
+				if (key.startsWith(KEY_HTTP_CODE)) {
+					int httpCode = Integer.parseInt(key.substring(KEY_HTTP_CODE.length()));
+					if (httpCode >= 0 && httpCode < HTTP_CODES) {
+						coapCodes[httpCode] = ResponseCode.valueOf(Integer.parseInt(value));
+					}
+				} else if (key.startsWith(KEY_COAP_CODE)) {
+					int coapCode = Integer.parseInt(key.substring(KEY_COAP_CODE.length()));
+					if (coapCode >= 0 && coapCode < COAP_CODES) {
+						httpCodes[coapCode] = Integer.parseInt(value);
+					}
+				} else if (key.startsWith(KEY_HTTP_METHOD)) {
+					// unsupported methods are mapped to an error (e.g. error.501)
+					if (!value.contains("error")) {
+						String method = key.substring(KEY_HTTP_METHOD.length());
+						Code code = Code.valueOf(Integer.parseInt(value));
+						methods.put(method.toLowerCase(Locale.ROOT).intern(), code);
+						methods.put(method.toUpperCase(Locale.ROOT).intern(), code);
+					}
+				} else if (key.startsWith(KEY_HTTP_HEADER)) {
+					String header = key.substring(KEY_HTTP_HEADER.length()).toLowerCase(Locale.ROOT);
+					options.put(header.intern(), Integer.parseInt(value));
+				} else if (key.startsWith(KEY_HTTP_CONTENT_TYPE)) {
+					String mimeType = key.substring(KEY_HTTP_CONTENT_TYPE.length());
+					mediaTypes.put(mimeType.intern(), Integer.parseInt(value));
+				} else if (key.startsWith(KEY_COAP_OPTION)) {
+					int optionNumber = Integer.parseInt(key.substring(KEY_COAP_OPTION.length()));
+					if (optionNumber >= 0) {
+						optionHeaders.put(optionNumber, value.intern());
+						maxOption = Math.max(maxOption, optionNumber);
+					}
+				} else if (key.startsWith(KEY_COAP_MEDIA)) {
+					int mediaType = Integer.parseInt(key.substring(KEY_COAP_MEDIA.length()));
+					if (mediaType >= 0) {
+						mediaContentTypes.put(mediaType, parseContentType(value));
+						maxMedia = Math.max(maxMedia, mediaType);
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				// also covers NumberFormatException
+				LOGGER.warning("Ignoring the invalid mapping " + key + "=" + value + ": " + e.getMessage());
+			}
+		}
+
+		headerNames = new String[maxOption + 1];
+		for (Map.Entry<Integer, String> entry : optionHeaders.entrySet()) {
+			headerNames[entry.getKey()] = entry.getValue();
+		}
+		contentTypes = new ContentType[maxMedia + 1];
+		for (Map.Entry<Integer, ContentType> entry : mediaContentTypes.entrySet()) {
+			contentTypes[entry.getKey()] = entry.getValue();
+		}
+	}
+
+	private static ContentType parseContentType(String value) {
+		try {
+			return ContentType.parse(value);
+		} catch (UnsupportedCharsetException e) {
+			LOGGER.finer("Cannot convert string to ContentType: " + e.getMessage());
+			return ContentType.APPLICATION_OCTET_STREAM;
+		}
+	}
+
+	/**
+	 * @param httpCode
+	 *            the HTTP status code
+	 * @return the mapped CoAP response code, or null if not mapped
+	 */
+	ResponseCode getCoapCode(int httpCode) {
+		if (httpCode < 0 || httpCode >= HTTP_CODES) {
+			return null;
+		}
+		return coapCodes[httpCode];
+	}
+
+	/**
+	 * @param coapCode
+	 *            the CoAP response code value
+	 * @return the mapped HTTP status code, or 0 if not mapped
+	 */
+	int getHttpCode(int coapCode) {
+		if (coapCode < 0 || coapCode >= COAP_CODES) {
+			return 0;
+		}
+		return httpCodes[coapCode];
+	}
+
+	/**
+	 * @param httpMethod
+	 *            the HTTP method, in any case
+	 * @return the mapped CoAP method, or null if not mapped or not supported
+	 */
+	Code getCoapMethod(String httpMethod) {
+		Code code = methods.get(httpMethod);
+		if (code == null) {
+			code = methods.get(httpMethod.toLowerCase(Locale.ROOT));
+		}
+		return code;
+	}
+
+	/**
+	 * @param headerName
+	 *            the HTTP header name, in any case
+	 * @return the mapped CoAP option number, or null if not mapped
+	 */
+	Integer getOptionNumber(String headerName) {
+		Integer optionNumber = options.get(headerName);
+		if (optionNumber == null) {
+			optionNumber = options.get(headerName.toLowerCase(Locale.ROOT));
+		}
+		return optionNumber;
+	}
+
+	/**
+	 * @param optionNumber
+	 *            the CoAP option number
+	 * @return the mapped HTTP header name, or null if not mapped
+	 */
+	String getHeaderName(int optionNumber) {
+		if (optionNumber < 0 || optionNumber >= headerNames.length) {
+			return null;
+		}
+		return headerNames[optionNumber];
+	}
+
+	/**
+	 * @param mimeType
+	 *            the HTTP mime type, without parameters
+	 * @return the mapped CoAP media type, or null if not mapped
+	 */
+	Integer getMediaType(String mimeType) {
+		return mediaTypes.get(mimeType);
+	}
+
+	/**
+	 * @param mediaType
+	 *            the CoAP media type
+	 * @return the mapped HTTP content type, or null if not mapped
+	 */
+	ContentType getContentType(int mediaType) {
+		if (mediaType < 0 || mediaType >= contentTypes.length) {
+			return null;
+		}
+		return contentTypes[mediaType];
+	}
+}
@@ -32,6 +32,26 @@ public interface CacheResource {
 
 	public CacheStats getCacheStats();
 
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHitCount();
+
+	/**
+	 * @return the number of requests not answered from the cache
+	 */
+	public long getMissCount();
+
+	/**
+	 * @return the number of expired responses revalidated with the origin
+	 */
+	public long getRevalidationCount();
+
+	/**
+	 * @return the number of expired responses that could not be revalidated
+	 */
+	public long getFailedRevalidationCount();
+
 	/**
 	 * Gets cached response.
 	 * 
@@ -17,33 +17,48 @@
  ******************************************************************************/
 package org.eclipse.californium.proxy.resources;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URISyntaxException;
-import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.OptionNumberRegistry;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
-import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.primitives.Ints;
 
 
 /**
  * Resource to handle the caching in the proxy.
+ * 
+ * The responses are indexed on two levels: the requested resource (proxy-uri
+ * and payload) and then the content format of each cached representation,
+ * so a request without an accept option is answered with a single lookup.
+ * An expired response that carries an ETag is revalidated with the origin
+ * server in the background; a 2.03 (Valid) response renews it. Requests for
+ * the response are cache misses until the revalidation completes.
  */
 public class ProxyCacheResource extends CoapResource implements CacheResource {
 	
@@ -62,10 +77,48 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 	private static final long CACHE_SIZE = 
 			NetworkConfig.getStandard().getInt(NetworkConfig.Keys.HTTP_CACHE_SIZE);
 
+	/**
+	 * Default time (ms) to wait for the origin server to revalidate a
+	 * response, if HTTP_CACHE_VALIDATION_TIMEOUT is not configured.
+	 */
+	public static final long DEFAULT_VALIDATION_TIMEOUT = 2000;
+
+	/**
+	 * Abandons the revalidations that the origin server has not answered in
+	 * time.
+	 */
+	private static final ScheduledExecutorService VALIDATION_TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "coap-cache-validation-timeouts");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The time (ms) to wait for the origin server to revalidate a response.
+	 */
+	private final long validationTimeout;
+
+	/**
+	 * The revalidations waiting for the origin server, so that an expired
+	 * response is revalidated once however often it is requested.
+	 */
+	private final Map<CacheKey, Request> validations = new ConcurrentHashMap<CacheKey, Request>();
+
 	/**
 	 * The cache. http://code.google.com/p/guava-libraries/wiki/CachesExplained
 	 */
-	private final LoadingCache<CacheKey, Response> responseCache;
+	private final Cache<CacheKey, Response> responseCache;
+
+	/**
+	 * The content formats cached for each resource. Kept in step with the
+	 * cache by its removal listener.
+	 */
+	private final Map<ResourceKey, NavigableSet<Integer>> representations = new ConcurrentHashMap<ResourceKey, NavigableSet<Integer>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong failedRevalidations = new AtomicLong();
 
 	private boolean enabled = false;
 
@@ -80,30 +133,52 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 	 * Instantiates a new proxy cache resource.
 	 */
 	public ProxyCacheResource(boolean enabled) {
+		this(enabled, readValidationTimeout());
+	}
+
+	/**
+	 * Instantiates a new proxy cache resource.
+	 * 
+	 * @param enabled
+	 *            whether responses are cached
+	 * @param validationTimeout
+	 *            the time (ms) to wait for the origin server to revalidate a
+	 *            response
+	 */
+	public ProxyCacheResource(boolean enabled, long validationTimeout) {
 		super("cache");
 		this.enabled = enabled;
+		this.validationTimeout = validationTimeout;
 
 		// builds a new cache that:
 		// - has a limited size of CACHE_SIZE entries
 		// - removes entries after CACHE_RESPONSE_MAX_AGE seconds from the last
 		// write
 		// - record statistics
-		responseCache = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).recordStats().expireAfterWrite(CACHE_RESPONSE_MAX_AGE, TimeUnit.SECONDS).build(new CacheLoader<CacheKey, Response>() {
+		// - removes the representations it drops from the index
+		responseCache = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).recordStats().expireAfterWrite(CACHE_RESPONSE_MAX_AGE, TimeUnit.SECONDS).removalListener(new RemovalListener<CacheKey, Response>() {
 			@Override
-			public Response load(CacheKey request) throws NullPointerException {
-				// retrieve the response from the incoming request, no
-				// exceptions are thrown
-				Response cachedResponse = request.getResponse();
-
-				// check for null and raise an exception that clients must
-				// handle
-				if (cachedResponse == null) {
-					throw new NullPointerException();
+			public void onRemoval(RemovalNotification<CacheKey, Response> notification) {
+				if (notification.getCause() != RemovalCause.REPLACED) {
+					unindex(notification.getKey());
 				}
+			}
+		}).build();
+	}
 
-				return cachedResponse;
+	/**
+	 * Read the revalidation timeout from the network configuration.
+	 */
+	private static long readValidationTimeout() {
+		String value = NetworkConfig.getStandard().getString("HTTP_CACHE_VALIDATION_TIMEOUT");
+		if (value != null) {
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				LOGGER.warning("Invalid HTTP_CACHE_VALIDATION_TIMEOUT " + value + ", using default");
 			}
-		});
+		}
+		return DEFAULT_VALIDATION_TIMEOUT;
 	}
 
 	/**
@@ -125,64 +200,29 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 		// only the response with success codes should be cached
 		ResponseCode code = response.getCode();
 		if (ResponseCode.isSuccess(code)) {
-			// get the request
-//			Request request = response.getRequest();
-			CacheKey cacheKey = null;
-			try {
-				cacheKey = CacheKey.fromContentTypeOption(request);
-			} catch (URISyntaxException e) {
-				LOGGER.warning("Cannot create the cache key: " + e.getMessage());
-			}
-
 			if (code == ResponseCode.CREATED || code == ResponseCode.DELETED || code == ResponseCode.CHANGED) {
 				// the stored response should be invalidated if the response has
 				// codes: 2.01, 2.02, 2.04.
-				invalidateRequest(cacheKey);
+				invalidateRequest(request);
 			} else if (code == ResponseCode.VALID) {
 				// increase the max-age value according to the new response
-//				Option maxAgeOption = response.getFirstOption(OptionNumberRegistry.MAX_AGE);
-				Long maxAgeOption = response.getOptions().getMaxAge();
-				if (maxAgeOption != null) {
-					// get the cached response
-					Response cachedResponse = responseCache.getUnchecked(cacheKey);
-
-					// calculate the new parameters
-					long newCurrentTime = response.getTimestamp();
-					long newMaxAge = maxAgeOption.longValue();
-
-					// set the new parameters
-					cachedResponse.getOptions().setMaxAge(newMaxAge);
-					cachedResponse.setTimestamp(newCurrentTime);
-
+				CacheKey cacheKey = CacheKey.fromContentTypeOption(request, response);
+				Response cachedResponse = responseCache.getIfPresent(cacheKey);
+				if (cachedResponse != null) {
+					renew(cachedResponse, response);
 					LOGGER.finer("Updated cached response");
-				} else {
-					LOGGER.warning("No max-age option set in response: " + response);
 				}
 			} else if (code == ResponseCode.CONTENT) {
 				// set max-age if not set
-//				Option maxAgeOption = response.getFirstOption(OptionNumberRegistry.MAX_AGE);
-				Long maxAgeOption = response.getOptions().getMaxAge();
-				if (maxAgeOption == null) {
+				if (response.getOptions().getMaxAge() == null) {
 					response.getOptions().setMaxAge(OptionNumberRegistry.Defaults.MAX_AGE);
 				}
 
-				if (maxAgeOption > 0) {
+				if (response.getOptions().getMaxAge() > 0) {
 					// cache the request
-					try {
-						// Caches loaded by a CacheLoader will call
-						// CacheLoader.load(K) to load new values into the cache
-						// when used the get method.
-						Response responseInserted = responseCache.get(cacheKey);
-						if (responseInserted != null) {
-//							if (Bench_Help.DO_LOG) 
-								LOGGER.finer("Cached response");
-						} else {
-							LOGGER.warning("Failed to insert the response in the cache");
-						}
-					} catch (Exception e) {
-						// swallow
-						LOGGER.log(Level.WARNING, "Exception while inserting the response in the cache", e);
-					}
+					insert(CacheKey.fromContentTypeOption(request, response), response);
+//					if (Bench_Help.DO_LOG) 
+						LOGGER.finer("Cached response");
 				} else {
 					// if the max-age option is set to 0, then the response
 					// should be invalidated
@@ -195,19 +235,74 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 		}
 	}
 
+	/**
+	 * Cache a response and index its content format.
+	 */
+	private void insert(CacheKey cacheKey, Response response) {
+		responseCache.put(cacheKey, response);
+		final int mediaType = cacheKey.mediaType;
+		representations.compute(cacheKey.resource, (resource, formats) -> {
+			NavigableSet<Integer> indexed = formats != null ? formats : new ConcurrentSkipListSet<Integer>();
+			indexed.add(mediaType);
+			return indexed;
+		});
+	}
+
+	/**
+	 * Remove a representation dropped from the cache from the index.
+	 */
+	private void unindex(CacheKey cacheKey) {
+		final int mediaType = cacheKey.mediaType;
+		representations.computeIfPresent(cacheKey.resource, (resource, formats) -> {
+			formats.remove(mediaType);
+			return formats.isEmpty() ? null : formats;
+		});
+	}
+
+	/**
+	 * Renew the freshness of a cached response from a 2.03 (Valid) response.
+	 */
+	private void renew(Response cachedResponse, Response validResponse) {
+		Long maxAgeOption = validResponse.getOptions().getMaxAge();
+		long newMaxAge = maxAgeOption != null ? maxAgeOption.longValue() : OptionNumberRegistry.Defaults.MAX_AGE;
+		cachedResponse.getOptions().setMaxAge(newMaxAge);
+		cachedResponse.setTimestamp(System.nanoTime());
+	}
+
 	@Override
 	public CacheStats getCacheStats() {
 		return responseCache.stats();
 	}
 
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	@Override
+	public long getFailedRevalidationCount() {
+		return failedRevalidations.get();
+	}
+
 	/**
 	 * Retrieves the response in the cache that matches the request passed, null
 	 * otherwise. The method creates the key for the cache starting from the
 	 * request and checks if the cache contains it. If present, the method
 	 * updates the max-age of the linked response to consider the time passed in
 	 * the cache (according to the freshness model) and returns it. On the
-	 * contrary, if the response has passed its expiration time, it is
-	 * invalidated and the method returns null.
+	 * contrary, if the response has passed its expiration time, the method
+	 * returns null; the response is revalidated in the background if it has
+	 * an ETag, or else invalidated.
 	 */
 	@Override
 	public Response getResponse(Request request) {
@@ -215,16 +310,27 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 			return null;
 		}
 
-		// search the desired representation
-		Response response = null;
+		// search the desired representation: the accepted content format, or
+		// any cached representation if the accept option is not set
+		ResourceKey resource = ResourceKey.fromRequest(request);
+		int accept = request.getOptions().getAccept();
 		CacheKey cacheKey = null;
-
-		for (CacheKey acceptKey : CacheKey.fromAcceptOptions(request)) {
-			response = responseCache.getIfPresent(acceptKey);
-			cacheKey = acceptKey;
-
-			if (response != null) {
-				break;
+		Response response = null;
+		if (accept >= 0) {
+			cacheKey = new CacheKey(resource, accept);
+			response = responseCache.getIfPresent(cacheKey);
+		} else {
+			NavigableSet<Integer> formats = representations.get(resource);
+			if (formats != null) {
+				// the first indexed format is normally cached; a later one is
+				// only probed if it has just been evicted
+				for (Integer format : formats) {
+					cacheKey = new CacheKey(resource, format);
+					response = responseCache.getIfPresent(cacheKey);
+					if (response != null) {
+						break;
+					}
+				}
 			}
 		}
 
@@ -244,22 +350,34 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 			} else {
 				LOGGER.finer("Expired response");
 
-				// try to validate the response
-				response = validate(cacheKey);
-				if (response != null) {
-					LOGGER.finer("Validation successful");
-				} else {
+				// the response is kept until the origin server answers the
+				// revalidation; meanwhile the request is forwarded
+				if (!validate(cacheKey, response)) {
 					invalidateRequest(cacheKey);
 				}
+				response = null;
 			}
 		}
 
+		if (response != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
 		return response;
 	}
 	
 	@Override
 	public void invalidateRequest(Request request) {
-		invalidateRequest(CacheKey.fromAcceptOptions(request));
+		ResourceKey resource = ResourceKey.fromRequest(request);
+		NavigableSet<Integer> formats = representations.get(resource);
+		if (formats != null) {
+			List<CacheKey> cacheKeys = new ArrayList<CacheKey>();
+			for (Integer format : formats) {
+				cacheKeys.add(new CacheKey(resource, format));
+			}
+			responseCache.invalidateAll(cacheKeys);
+		}
 		LOGGER.finer("Invalidated request");
 	}
 
@@ -276,11 +394,11 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 
 		// get cache values
 		builder.append("\nCached values:\n");
-		for (CacheKey cachedRequest : responseCache.asMap().keySet()) {
-			Response response = responseCache.asMap().get(cachedRequest);
+		for (Map.Entry<CacheKey, Response> cached : responseCache.asMap().entrySet()) {
+			CacheKey cachedRequest = cached.getKey();
 
 			builder.append(cachedRequest.getProxyUri()).append(" (").append(
-					MediaTypeRegistry.toString(cachedRequest.getMediaType())).append(") > ").append(getRemainingLifetime(response)).append(" seconds | (").append(cachedRequest.getMediaType()).append(")\n");
+					MediaTypeRegistry.toString(cachedRequest.getMediaType())).append(") > ").append(getRemainingLifetime(cached.getValue())).append(" seconds | (").append(cachedRequest.getMediaType()).append(")\n");
 		}
 
 		exchange.respond(ResponseCode.CONTENT, builder.toString());
@@ -329,104 +447,212 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 		responseCache.invalidate(cacheKey);
 	}
 
-	private void invalidateRequest(List<CacheKey> cacheKeys) {
-		responseCache.invalidateAll(cacheKeys);
+	/**
+	 * Revalidates an expired response with the origin server, sending a GET
+	 * with the ETag of the cached response. The method does not wait for the
+	 * origin server: a 2.03 (Valid) response renews the cached response, a
+	 * 2.05 (Content) response replaces it, and otherwise, or if there is no
+	 * response within the validation timeout, the cached response is
+	 * invalidated.
+	 * 
+	 * @param cachedRequest
+	 *            the key of the expired response
+	 * @param cachedResponse
+	 *            the expired response
+	 * @return true if the response is being revalidated, false if it cannot
+	 *         be
+	 */
+	private boolean validate(final CacheKey cachedRequest, final Response cachedResponse) {
+		List<byte[]> etags = cachedResponse.getOptions().getETags();
+		final String proxyUri = cachedRequest.getProxyUri();
+		// only coap origin servers can be revalidated with an ETag
+		if (etags.isEmpty() || proxyUri == null || !proxyUri.startsWith("coap")) {
+			return false;
+		}
+
+		final Request validation = Request.newGet();
+		if (validations.putIfAbsent(cachedRequest, validation) != null) {
+			// already being revalidated
+			return true;
+		}
+
+		// set by whichever of the response, the timeout or a failure ends the revalidation
+		final AtomicBoolean done = new AtomicBoolean();
+		final ScheduledFuture<?>[] expiry = new ScheduledFuture<?>[1];
+		validation.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onResponse(Response response) {
+				if (done.compareAndSet(false, true)) {
+					cancel(expiry[0]);
+					validated(cachedRequest, cachedResponse, response);
+				}
+			}
+
+			@Override
+			public void onReject() {
+				fail();
+			}
+
+			@Override
+			public void onTimeout() {
+				fail();
+			}
+
+			@Override
+			public void onCancel() {
+				fail();
+			}
+
+			private void fail() {
+				if (done.compareAndSet(false, true)) {
+					cancel(expiry[0]);
+					validated(cachedRequest, cachedResponse, null);
+				}
+			}
+		});
+
+		try {
+			validation.setURI(proxyUri);
+			for (byte[] etag : etags) {
+				validation.getOptions().addETag(etag);
+			}
+			validation.getOptions().setAccept(cachedRequest.getMediaType());
+			validation.send();
+		} catch (Exception e) {
+			LOGGER.warning("Failed to revalidate " + proxyUri + ": " + e.getMessage());
+			if (done.compareAndSet(false, true)) {
+				validated(cachedRequest, cachedResponse, null);
+			}
+			return true;
+		}
+
+		expiry[0] = VALIDATION_TIMEOUTS.schedule(() -> {
+			if (!done.get()) {
+				LOGGER.warning("No revalidation received in time from " + proxyUri);
+				validation.cancel();
+			}
+		}, validationTimeout, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Complete the revalidation of an expired response.
+	 * 
+	 * @param cachedRequest
+	 *            the key of the expired response
+	 * @param cachedResponse
+	 *            the expired response
+	 * @param response
+	 *            the response of the origin server, or null if there was none
+	 */
+	private void validated(CacheKey cachedRequest, Response cachedResponse, Response response) {
+		try {
+			if (response != null && response.getCode() == ResponseCode.VALID) {
+				renew(cachedResponse, response);
+				revalidations.incrementAndGet();
+				LOGGER.finer("Validation successful");
+				return;
+			} else if (response != null && response.getCode() == ResponseCode.CONTENT) {
+				// the representation has changed
+				if (response.getOptions().getMaxAge() == null) {
+					response.getOptions().setMaxAge(OptionNumberRegistry.Defaults.MAX_AGE);
+				}
+				response.setTimestamp(System.nanoTime());
+				insert(cachedRequest, response);
+				revalidations.incrementAndGet();
+				return;
+			}
+			failedRevalidations.incrementAndGet();
+			// a response cached meanwhile by a forwarded request is kept
+			responseCache.asMap().remove(cachedRequest, cachedResponse);
+		} finally {
+			validations.remove(cachedRequest);
+		}
 	}
 
-	private Response validate(CacheKey cachedRequest) {
-		// TODO
-		return null;
+	/**
+	 * Cancel the timeout of a completed revalidation.
+	 * 
+	 * @param expiry
+	 *            the scheduled timeout; may be null if not yet scheduled
+	 */
+	private static void cancel(ScheduledFuture<?> expiry) {
+		if (expiry != null) {
+			expiry.cancel(false);
+		}
 	}
 
 	/**
-	 * Nested class that normalizes the variable fields of the coap requests to
-	 * be used as a key for the cache. The class tries to handle also the
-	 * different requests that must refer to the same response (e.g., requests
-	 * that with or without the accept options produce the same response).
+	 * Nested class that identifies the requested resource: the proxy-uri and
+	 * the payload of the request. The first level of the cache index.
 	 */
-	private static final class CacheKey {
+	private static final class ResourceKey {
 		private final String proxyUri;
-		private final int mediaType;
-		private Response response;
 		private final byte[] payload;
+		private final int hash;
 
-		/**
-		 * Creates a list of keys for the cache from a request with multiple
-		 * accept options set. Method needed to search for content-type
-		 * wildcards in the cache (text/* means: text/plain, text/html,
-		 * text/xml, text/csv, etc.). If the accept option is not set, it simply
-		 * gives back the keys for every representation.
-		 * 
-		 * @param request
-		 * @return the list of cache keys
-		 */
-		private static List<CacheKey> fromAcceptOptions(Request request) {
+		private static ResourceKey fromRequest(Request request) {
 			if (request == null) {
 				throw new IllegalArgumentException("request == null");
 			}
+			return new ResourceKey(request.getOptions().getProxyUri(), request.getPayload());
+		}
 
-			List<CacheKey> cacheKeys = new LinkedList<ProxyCacheResource.CacheKey>();
-			String proxyUri = request.getOptions().getProxyUri();
-			try {
-				// TODO why not UTF-8?
-				proxyUri = URLEncoder.encode(proxyUri, "ISO-8859-1");
-			} catch (UnsupportedEncodingException e) {
-				LOGGER.severe("ISO-8859-1 encoding not supported: " + e.getMessage());
+		private ResourceKey(String proxyUri, byte[] payload) {
+			this.proxyUri = proxyUri;
+			this.payload = payload;
+			this.hash = 31 * Arrays.hashCode(payload) + (proxyUri == null ? 0 : proxyUri.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
 			}
-			byte[] payload = request.getPayload();
-
-			// Implementation in new Cf (Only one accept option allowed)
-			int accept = request.getOptions().getAccept();
-			if (accept < 0) {
-				// if the accept options are not set, simply set all media types
-				// FIXME not efficient
-				for (Integer acceptType : MediaTypeRegistry.getAllMediaTypes()) {
-					cacheKeys.add(new CacheKey(proxyUri, acceptType, payload));
-				}
-			} else {
-				cacheKeys.add(new CacheKey(proxyUri, accept, payload));
+			if (!(obj instanceof ResourceKey)) {
+				return false;
 			}
+			ResourceKey other = (ResourceKey) obj;
+			return hash == other.hash
+					&& (proxyUri == null ? other.proxyUri == null : proxyUri.equals(other.proxyUri))
+					&& Arrays.equals(payload, other.payload);
+		}
 
-			return cacheKeys;
+		@Override
+		public int hashCode() {
+			return hash;
 		}
+	}
+
+	/**
+	 * Nested class that normalizes the variable fields of the coap requests to
+	 * be used as a key for the cache: the requested resource and the content
+	 * format of the representation.
+	 */
+	private static final class CacheKey {
+		private final ResourceKey resource;
+		private final int mediaType;
 
 		/**
 		 * Create a key for the cache starting from a request and the
 		 * content-type of the corresponding response.
 		 * 
 		 * @param request
-		 * @return
-		 * @throws URISyntaxException
+		 * @param response
+		 * @return the cache key
 		 */
-		private static CacheKey fromContentTypeOption(Request request) throws URISyntaxException {
-			if (request == null) {
-				throw new IllegalArgumentException("request == null");
-			}
-
-			Response response = request.getResponse();
-			if (response == null) {
-				return fromAcceptOptions(request).get(0);
-			}
-
-			String proxyUri = request.getOptions().getProxyUri();
+		private static CacheKey fromContentTypeOption(Request request, Response response) {
 			int mediaType = response.getOptions().getContentFormat();
 			if (mediaType < 0) {
 				// content-format option not set, use default
 				mediaType = MediaTypeRegistry.TEXT_PLAIN;
 			}
-			byte[] payload = request.getPayload();
-
-			// create the new cacheKey
-			CacheKey cacheKey = new CacheKey(proxyUri, mediaType, payload);
-			cacheKey.setResponse(response);
-
-			return cacheKey;
+			return new CacheKey(ResourceKey.fromRequest(request), mediaType);
 		}
 
-		public CacheKey(String proxyUri, int mediaType, byte[] payload) {
-			this.proxyUri = proxyUri;
+		public CacheKey(ResourceKey resource, int mediaType) {
+			this.resource = resource;
 			this.mediaType = mediaType;
-			this.payload = payload;
 		}
 
 		/*
@@ -438,27 +664,11 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 			if (this == obj) {
 				return true;
 			}
-			if (obj == null) {
-				return false;
-			}
-			if (getClass() != obj.getClass()) {
+			if (!(obj instanceof CacheKey)) {
 				return false;
 			}
 			CacheKey other = (CacheKey) obj;
-			if (mediaType != other.mediaType) {
-				return false;
-			}
-			if (!Arrays.equals(payload, other.payload)) {
-				return false;
-			}
-			if (proxyUri == null) {
-				if (other.proxyUri != null) {
-					return false;
-				}
-			} else if (!proxyUri.equals(other.proxyUri)) {
-				return false;
-			}
-			return true;
+			return mediaType == other.mediaType && resource.equals(other.resource);
 		}
 
 		/**
@@ -472,14 +682,7 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 		 * @return the proxyUri
 		 */
 		public String getProxyUri() {
-			return proxyUri;
-		}
-
-		/**
-		 * @return the response
-		 */
-		public Response getResponse() {
-			return response;
+			return resource.proxyUri;
 		}
 
 		/*
@@ -488,17 +691,7 @@ public class ProxyCacheResource extends CoapResource implements CacheResource {
 		 */
 		@Override
 		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + mediaType;
-			result = prime * result + Arrays.hashCode(payload);
-			result = prime * result + (proxyUri == null ? 0 : proxyUri.hashCode());
-			return result;
-		}
-
-		private void setResponse(Response response) {
-			this.response = response;
-
+			return 31 * resource.hash + mediaType;
 		}
 	}
 
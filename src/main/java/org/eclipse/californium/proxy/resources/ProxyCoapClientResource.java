@@ -18,13 +18,26 @@
 package org.eclipse.californium.proxy.resources;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.proxy.CoapTranslator;
 import org.eclipse.californium.proxy.TranslationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
@@ -33,9 +46,75 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
 /**
  * Resource that forwards a coap request with the proxy-uri option set to the
  * desired coap server.
+ *
+ * By default requests are forwarded asynchronously: the exchange is
+ * completed from the response callback of the forwarded request, so no
+ * server thread waits on the target. A forward that has no response by the
+ * deadline is answered with 5.04 (Gateway Timeout), and a target that
+ * already has the maximum number of outstanding forwards is answered with
+ * 5.03 (Service Unavailable). A forward stays outstanding after its deadline
+ * until the target answers or the forwarded request times out or is
+ * rejected, so a slow target can not be sent more than the maximum.
  */
 public class ProxyCoapClientResource extends ForwardingResource {
 
+    /**
+     * Default time (ms) to wait for the response of the target.
+     */
+    public static final long DEFAULT_DEADLINE = 10000;
+
+    /**
+     * Default number of outstanding forwards to one target.
+     */
+    public static final int DEFAULT_MAX_PER_TARGET = 64;
+
+    /**
+     * Expires the deadlines of the asynchronous forwards.
+     */
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "coap-forward-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The permits for outstanding forwards, keyed by target host:port and
+     * the maximum number of forwards. Shared, as several resources may
+     * forward to the same target; resources with different maximums each
+     * have their own permits.
+     */
+    private static final Map<String, Semaphore> TARGETS = new ConcurrentHashMap<>();
+
+    /**
+     * Whether requests are forwarded asynchronously.
+     */
+    private final boolean asynchronous;
+
+    /**
+     * The time (ms) to wait for the response of the target.
+     */
+    private final long deadline;
+
+    /**
+     * The number of outstanding forwards allowed to one target.
+     */
+    private final int maxPerTarget;
+
+    /**
+     * The number of forwards that had no response by the deadline.
+     */
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * The number of responses that arrived after their forward timed out.
+     */
+    private final AtomicLong lateResponses = new AtomicLong();
+
+    /**
+     * The number of requests rejected as their target was saturated.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
     /**
      * The address that this proxy forwards messages to
      */
@@ -55,36 +134,250 @@ public class ProxyCoapClientResource extends ForwardingResource {
      * @param stm The test pointer observing the interaction where the intercepted messages are sent.
      */
     public ProxyCoapClientResource(String name, String URI, final EventCapture stm) {
+            this(name, URI, stm, Boolean.parseBoolean(readSetting("coap_async_forwarding", "true")),
+                    Long.parseLong(readSetting("coap_forward_deadline", Long.toString(DEFAULT_DEADLINE))),
+                    Integer.parseInt(readSetting("coap_max_forwards_per_target", Integer.toString(DEFAULT_MAX_PER_TARGET))));
+    }
+
+    /**
+     * Construct a specific instance of this proxy for a given URI
+     * @param name The proxy name (ID)
+     * @param URI The URI of the target of the proxy
+     * @param stm The test pointer observing the interaction where the intercepted messages are sent.
+     * @param async Whether requests are forwarded asynchronously.
+     * @param deadlineMs The time (ms) to wait for the response of the target.
+     * @param maxForwards The number of outstanding forwards allowed to one target.
+     */
+    public ProxyCoapClientResource(String name, String URI, final EventCapture stm, boolean async,
+            long deadlineMs, int maxForwards) {
             // set the resource hidden
             super(name, true);
             getAttributes().setTitle("Forward the requests to a CoAP server.");
             UriForwarder = URI;
             this.stateMachine = stm;
+            this.asynchronous = async;
+            this.deadline = deadlineMs;
+            this.maxPerTarget = Math.max(1, maxForwards);
     }
 
-    @Override
-    public Response forwardRequest(Request request) {
-        System.out.println("ProxyCoAP2CoAP forwards "+request);
-            Request incomingRequest = request;
+    /**
+     * Read a forwarding setting from the system properties.
+     * @param name The property name.
+     * @param defaultValue The value if the property is missing.
+     * @return The setting value.
+     */
+    private static String readSetting(final String name, final String defaultValue) {
+        try {
+            final String value = SystemProperties.readProperty(name);
+            if (value != null) {
+                return value.trim();
+            }
+        } catch (ConfigurationException ex) {
+            ServiceLogger.LOG.error("Unable to read CoAP forwarding setting " + name + " - using default", ex);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The number of forwards that had no response by the deadline.
+     * @return The timeout count.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * The number of responses that arrived after their forward timed out.
+     * @return The late response count.
+     */
+    public long getLateResponses() {
+        return lateResponses.get();
+    }
+
+    /**
+     * The number of requests rejected as their target was saturated.
+     * @return The rejected request count.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
 
-		// check the invariant: the request must have the proxy-uri set
-//		if (!incomingRequest.getOptions().hasProxyUri()) {
-//			LOGGER.warning("Proxy-uri option not set.");
-//			return new Response(ResponseCode.BAD_OPTION);
-//		}
+    /**
+     * The number of forwards outstanding to a target.
+     * @param target The target host:port.
+     * @return The outstanding forwards.
+     */
+    public int getOutstanding(String target) {
+        final Semaphore permits = TARGETS.get(targetKey(target));
+        return permits == null ? 0 : maxPerTarget - permits.availablePermits();
+    }
 
+    /**
+     * The key of the permits of this resource for a target.
+     * @param target The target host:port.
+     * @return The key in the shared permits.
+     */
+    private String targetKey(String target) {
+        return target + "#" + maxPerTarget;
+    }
+
+    /**
+     * The permits for forwards to the destination of a request.
+     * @param outgoingRequest The forwarded request.
+     * @return The permits of its target.
+     */
+    private Semaphore permits(Request outgoingRequest) {
+        final String target = outgoingRequest.getDestination().getHostAddress() + ":" + outgoingRequest.getDestinationPort();
+        return TARGETS.computeIfAbsent(targetKey(target), key -> new Semaphore(maxPerTarget));
+    }
+
+    /**
+     * Build the request forwarded to the target from the incoming request,
+     * and capture the incoming request event.
+     * @param incomingRequest The request received by the proxy.
+     * @return The request to forward.
+     * @throws TranslationException The request cannot be translated.
+     */
+    private Request prepare(Request incomingRequest) throws TranslationException {
 		// remove the fake uri-path
 		// FIXME: HACK // TODO: why? still necessary in new Cf?
 		incomingRequest.getOptions().clearUriPath();
                 incomingRequest.getOptions().setProxyUri(UriForwarder);
-//                incomingRequest.setURI(UriForwarder);
+
+                // create the new request from the original
+                Request outgoingRequest = CoapTranslator.getRequest(incomingRequest);
+                pre(incomingRequest, outgoingRequest);
+                return outgoingRequest;
+    }
+
+    @Override
+    public void handleRequest(final Exchange exchange) {
+        if (!asynchronous) {
+            super.handleRequest(exchange);
+            return;
+        }
+        exchange.sendAccept();
+
+        final Request outgoingRequest;
+        try {
+            outgoingRequest = prepare(exchange.getRequest());
+        } catch (TranslationException e) {
+            LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
+            exchange.sendResponse(new Response(CoapTranslator.STATUS_FIELD_MALFORMED));
+            return;
+        } catch (Exception e) {
+            LOGGER.warning("Failed to execute request: " + e.getMessage());
+            exchange.sendResponse(new Response(ResponseCode.INTERNAL_SERVER_ERROR));
+            return;
+        }
+
+        final Semaphore permits = permits(outgoingRequest);
+        if (!permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            LOGGER.warning("Too many outstanding forwards to " + outgoingRequest.getDestination());
+            exchange.sendResponse(new Response(ResponseCode.SERVICE_UNAVAILABLE));
+            return;
+        }
+
+        // set by whichever of the response, the deadline or a failure completes the exchange
+        final AtomicBoolean completed = new AtomicBoolean();
+        // set when the forward itself ends, which may be after the deadline; releases the permit
+        final AtomicBoolean finished = new AtomicBoolean();
+        final Runnable finish = () -> {
+            if (finished.compareAndSet(false, true)) {
+                permits.release();
+            }
+        };
+        final ScheduledFuture<?>[] expiry = new ScheduledFuture<?>[1];
+        outgoingRequest.addMessageObserver(new MessageObserverAdapter() {
+            @Override
+            public void onResponse(Response receivedResponse) {
+                finish.run();
+                if (!completed.compareAndSet(false, true)) {
+                    lateResponses.incrementAndGet();
+                    return;
+                }
+                cancel(expiry[0]);
+                try {
+                    // create the real response for the original request
+                    Response outgoingResponse = CoapTranslator.getResponse(receivedResponse);
+                    post(outgoingResponse);
+                    exchange.sendResponse(outgoingResponse);
+                } catch (Exception e) {
+                    LOGGER.warning("Failed to translate the response: " + e.getMessage());
+                    exchange.sendResponse(new Response(ResponseCode.INTERNAL_SERVER_ERROR));
+                }
+            }
+
+            @Override
+            public void onTimeout() {
+                fail(CoapTranslator.STATUS_TIMEOUT);
+            }
+
+            @Override
+            public void onReject() {
+                fail(ResponseCode.INTERNAL_SERVER_ERROR);
+            }
+
+            @Override
+            public void onCancel() {
+                fail(ResponseCode.INTERNAL_SERVER_ERROR);
+            }
+
+            private void fail(ResponseCode code) {
+                finish.run();
+                if (completed.compareAndSet(false, true)) {
+                    cancel(expiry[0]);
+                    LOGGER.warning("No response received.");
+                    exchange.sendResponse(new Response(code));
+                }
+            }
+        });
+
+        // scheduled before sending, so the response callback always sees it;
+        // the forward is not cancelled, so that a late response can be counted,
+        // and it keeps its permit until it ends
+        expiry[0] = DEADLINES.schedule(() -> {
+            if (completed.compareAndSet(false, true)) {
+                timeouts.incrementAndGet();
+                LOGGER.warning("No response received by the deadline from " + outgoingRequest.getDestination());
+                exchange.sendResponse(new Response(CoapTranslator.STATUS_TIMEOUT));
+            }
+        }, deadline, TimeUnit.MILLISECONDS);
+
+        LOGGER.info("ProxyCoapClient received CoAP request and sends a copy to CoAP target");
+        try {
+            outgoingRequest.send();
+        } catch (Exception e) {
+            finish.run();
+            if (completed.compareAndSet(false, true)) {
+                cancel(expiry[0]);
+                LOGGER.warning("Failed to execute request: " + e.getMessage());
+                exchange.sendResponse(new Response(ResponseCode.INTERNAL_SERVER_ERROR));
+            }
+        }
+    }
+
+    /**
+     * Cancel the deadline of a completed forward.
+     * @param expiry The scheduled deadline; may be null if not yet scheduled.
+     */
+    private static void cancel(ScheduledFuture<?> expiry) {
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+    }
+
+    @Override
+    public Response forwardRequest(Request request) {
+        System.out.println("ProxyCoAP2CoAP forwards "+request);
+            Request incomingRequest = request;
 
 		// create a new request to forward to the requested coap server
 		Request outgoingRequest = null;
 		try {
                     // create the new request from the original
-                    outgoingRequest = CoapTranslator.getRequest(incomingRequest);
-                    pre(incomingRequest, outgoingRequest);
+                    outgoingRequest = prepare(incomingRequest);
 
 //			// enable response queue for blocking I/O
 //			outgoingRequest.enableResponseQueue(true);
@@ -110,8 +403,8 @@ public class ProxyCoapClientResource extends ForwardingResource {
 		}
 
 		try {
-			// receive the response // TODO: don't wait for ever
-			Response receivedResponse = outgoingRequest.waitForResponse();
+			// receive the response, waiting no longer than the deadline
+			Response receivedResponse = outgoingRequest.waitForResponse(deadline);
 
 			if (receivedResponse != null) {
 				LOGGER.finer("Coap response received.");
@@ -122,6 +415,7 @@ public class ProxyCoapClientResource extends ForwardingResource {
 				return outgoingResponse;
 			} else {
 				LOGGER.warning("No response received.");
+				timeouts.incrementAndGet();
 				return new Response(CoapTranslator.STATUS_TIMEOUT);
 			}
 		} catch (InterruptedException e) {
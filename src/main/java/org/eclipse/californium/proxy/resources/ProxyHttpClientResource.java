@@ -22,19 +22,45 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLContext;
 
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.ResponseHandler;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.protocol.RequestAcceptEncoding;
 import org.apache.http.client.protocol.ResponseContentEncoding;
-import org.apache.http.impl.client.AbstractHttpClient;
-import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.protocol.HttpContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.nio.DefaultHttpClientIODispatch;
+import org.apache.http.impl.nio.pool.BasicNIOConnFactory;
+import org.apache.http.impl.nio.pool.BasicNIOConnPool;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
+import org.apache.http.nio.protocol.HttpAsyncRequester;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.SyncBasicHttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ImmutableHttpProcessor;
 import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
 import org.apache.http.protocol.RequestDate;
 import org.apache.http.protocol.RequestExpectContinue;
 import org.apache.http.protocol.RequestTargetHost;
@@ -42,50 +68,132 @@ import org.apache.http.protocol.RequestUserAgent;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.proxy.CoapTranslator;
 import org.eclipse.californium.proxy.HttpTranslator;
 import org.eclipse.californium.proxy.InvalidFieldException;
 import org.eclipse.californium.proxy.TranslationException;
 
 
+/**
+ * Resource that forwards a coap request with the proxy-uri option set to the
+ * desired http server. Requests are sent through a shared, non-blocking http
+ * client with a pool of keep-alive connections; the coap response is sent
+ * from the completion callback of the http request, so no coap server thread
+ * waits for the http server.
+ */
 public class ProxyHttpClientResource extends ForwardingResource {
 	
 	private static final int KEEP_ALIVE = 5000;
 	// TODO: Properties.std.getInt("HTTP_CLIENT_KEEP_ALIVE");
-	
+
 	/**
-	 * DefaultHttpClient is thread safe. It is recommended that the same
-	 * instance of this class is reused for multiple request executions.
+	 * The network configuration keys of the connection pool: the maximum
+	 * connections in total and per route (scheme, host and port), and the
+	 * time (ms) after which an idle connection is closed.
 	 */
-	private static final AbstractHttpClient HTTP_CLIENT = new DefaultHttpClient();
-
-	// http client static configuration
-	static {
-		// request interceptors
-		HTTP_CLIENT.addRequestInterceptor(new RequestAcceptEncoding());
-		HTTP_CLIENT.addRequestInterceptor(new RequestConnControl());
-		// HTTP_CLIENT.addRequestInterceptor(new RequestContent());
-		HTTP_CLIENT.addRequestInterceptor(new RequestDate());
-		HTTP_CLIENT.addRequestInterceptor(new RequestExpectContinue());
-		HTTP_CLIENT.addRequestInterceptor(new RequestTargetHost());
-		HTTP_CLIENT.addRequestInterceptor(new RequestUserAgent());
-
-		// response intercptors
-		HTTP_CLIENT.addResponseInterceptor(new ResponseContentEncoding());
-
-		HTTP_CLIENT.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
-			@Override
-			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
-				long keepAlive = super.getKeepAliveDuration(response, context);
-				if (keepAlive == -1) {
-					// Keep connections alive if a keep-alive value
-					// has not be explicitly set by the server
-					keepAlive = KEEP_ALIVE;
+	public static final String MAX_TOTAL_KEY = "HTTP_CLIENT_MAX_CONNECTIONS";
+	public static final String MAX_PER_ROUTE_KEY = "HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE";
+	public static final String IDLE_TIMEOUT_KEY = "HTTP_CLIENT_IDLE_TIMEOUT";
+
+	public static final int DEFAULT_MAX_TOTAL = 200;
+	public static final int DEFAULT_MAX_PER_ROUTE = 20;
+
+	private static final int SOCKET_TIMEOUT = 30000;
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * The non-blocking http client shared by all of the resources.
+	 */
+	private static final class AsyncHttpClient {
+
+		private static final Logger LOGGER = Logger.getLogger(AsyncHttpClient.class.getCanonicalName());
+
+		private static final AsyncHttpClient INSTANCE = new AsyncHttpClient();
+
+		private final HttpAsyncRequester requester;
+		private final BasicNIOConnPool pool;
+
+		private AsyncHttpClient() {
+			HttpParams params = new SyncBasicHttpParams();
+			params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, SOCKET_TIMEOUT)
+					.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, CONNECT_TIMEOUT)
+					.setBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true)
+					.setParameter(CoreProtocolPNames.USER_AGENT, "Californium Http Proxy");
+
+			HttpRequestInterceptor[] requestInterceptors = new HttpRequestInterceptor[] { new RequestAcceptEncoding(),
+					new RequestContent(), new RequestConnControl(), new RequestDate(), new RequestExpectContinue(),
+					new RequestTargetHost(), new RequestUserAgent() };
+			HttpResponseInterceptor[] responseInterceptors = new HttpResponseInterceptor[] { new ResponseContentEncoding() };
+			requester = new HttpAsyncRequester(new ImmutableHttpProcessor(requestInterceptors, responseInterceptors),
+					new DefaultConnectionReuseStrategy(), params);
+
+			final ConnectingIOReactor ioReactor;
+			try {
+				ioReactor = new DefaultConnectingIOReactor();
+			} catch (IOReactorException e) {
+				throw new IllegalStateException("Unable to create the http client I/O reactor", e);
+			}
+			SSLContext sslContext = null;
+			try {
+				sslContext = SSLContext.getDefault();
+			} catch (NoSuchAlgorithmException e) {
+				LOGGER.warning("No SSL context, https requests cannot be forwarded: " + e.getMessage());
+			}
+			pool = new BasicNIOConnPool(ioReactor, new BasicNIOConnFactory(sslContext, null, params), params);
+			pool.setMaxTotal(getConfigured(MAX_TOTAL_KEY, DEFAULT_MAX_TOTAL));
+			pool.setDefaultMaxPerRoute(getConfigured(MAX_PER_ROUTE_KEY, DEFAULT_MAX_PER_ROUTE));
+
+			final IOEventDispatch ioEventDispatch = new DefaultHttpClientIODispatch(new HttpAsyncRequestExecutor(), params);
+			Thread reactor = new Thread("ProxyHttpClient reactor") {
+				@Override
+				public void run() {
+					try {
+						ioReactor.execute(ioEventDispatch);
+					} catch (IOException e) {
+						LOGGER.severe("I/O Exception in the proxy http client: " + e.getMessage());
+					}
+				}
+			};
+			reactor.setDaemon(true);
+			reactor.start();
+
+			// close the connections that have expired or been idle too long
+			final long idleTimeout = getConfigured(IDLE_TIMEOUT_KEY, KEEP_ALIVE);
+			ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "ProxyHttpClient evictor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			evictor.scheduleWithFixedDelay(() -> {
+				pool.closeExpired();
+				pool.closeIdle(idleTimeout, TimeUnit.MILLISECONDS);
+			}, idleTimeout, Math.max(1, idleTimeout / 2), TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Read a positive integer from the network configuration.
+		 */
+		private static int getConfigured(String key, int defaultValue) {
+			String value = NetworkConfig.getStandard().getString(key);
+			if (value != null) {
+				try {
+					int configured = Integer.parseInt(value.trim());
+					if (configured > 0) {
+						return configured;
+					}
+				} catch (NumberFormatException e) {
+					LOGGER.warning("Invalid value of " + key + ": " + value);
 				}
-				return keepAlive;
 			}
+			return defaultValue;
+		}
 
-		});
+		private Future<HttpResponse> execute(HttpHost httpHost, HttpRequest httpRequest, FutureCallback<HttpResponse> callback) {
+			return requester.execute(new BasicAsyncRequestProducer(httpHost, httpRequest), new BasicAsyncResponseConsumer(),
+					pool, new BasicHttpContext(), callback);
+		}
 	}
 
 	public ProxyHttpClientResource() {
@@ -100,14 +208,24 @@ public class ProxyHttpClientResource extends ForwardingResource {
 		getAttributes().setTitle("Forward the requests to a HTTP client.");
 	}
 
-	@Override
-	public Response forwardRequest(Request request) {
-		final Request incomingCoapRequest = request;
-		
+	/**
+	 * The translated http request and its target host, or the coap response
+	 * to send if the request cannot be translated.
+	 */
+	private static final class Translation {
+		private HttpHost httpHost;
+		private HttpRequest httpRequest;
+		private Response error;
+	}
+
+	private Translation translate(Request incomingCoapRequest) {
+		Translation translation = new Translation();
+
 		// check the invariant: the request must have the proxy-uri set
 		if (!incomingCoapRequest.getOptions().hasProxyUri()) {
 			LOGGER.warning("Proxy-uri option not set.");
-			return new Response(ResponseCode.BAD_OPTION);
+			translation.error = new Response(ResponseCode.BAD_OPTION);
+			return translation;
 		}
 
 		// remove the fake uri-path // TODO: why? still necessary in new Cf?
@@ -121,21 +239,45 @@ public class ProxyHttpClientResource extends ForwardingResource {
 			proxyUri = new URI(proxyUriString);
 		} catch (UnsupportedEncodingException e) {
 			LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
-			return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+			translation.error = new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+			return translation;
 		} catch (URISyntaxException e) {
 			LOGGER.warning("Proxy-uri option malformed: " + e.getMessage());
-			return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+			translation.error = new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+			return translation;
 		}
 
-		// get the requested host, if the port is not specified, the constructor
-		// sets it to -1
-		HttpHost httpHost = new HttpHost(proxyUri.getHost(), proxyUri.getPort(), proxyUri.getScheme());
+		// get the requested host; the pool needs an explicit port
+		int port = proxyUri.getPort();
+		if (port == -1) {
+			port = "https".equalsIgnoreCase(proxyUri.getScheme()) ? 443 : 80;
+		}
+		translation.httpHost = new HttpHost(proxyUri.getHost(), port, proxyUri.getScheme());
 
-		HttpRequest httpRequest = null;
 		try {
 			// get the mapping to http for the incoming coap request
-			httpRequest = HttpTranslator.getHttpRequest(incomingCoapRequest);
-			LOGGER.finer("Outgoing http request: " + httpRequest.getRequestLine());
+			translation.httpRequest = HttpTranslator.getHttpRequest(incomingCoapRequest);
+			LOGGER.finer("Outgoing http request: " + translation.httpRequest.getRequestLine());
+		} catch (InvalidFieldException e) {
+			LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
+			translation.error = new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
+		} catch (TranslationException e) {
+			LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
+			translation.error = new Response(CoapTranslator.STATUS_TRANSLATION_ERROR);
+		}
+		return translation;
+	}
+
+	/**
+	 * Translate the received http response in a coap response.
+	 */
+	private static Response toCoapResponse(HttpResponse httpResponse, Request incomingCoapRequest) {
+		long timestamp = System.nanoTime();
+		LOGGER.finer("Incoming http response: " + httpResponse.getStatusLine());
+		try {
+			Response coapResponse = HttpTranslator.getCoapResponse(httpResponse, incomingCoapRequest);
+			coapResponse.setTimestamp(timestamp);
+			return coapResponse;
 		} catch (InvalidFieldException e) {
 			LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
 			return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
@@ -143,44 +285,69 @@ public class ProxyHttpClientResource extends ForwardingResource {
 			LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
 			return new Response(CoapTranslator.STATUS_TRANSLATION_ERROR);
 		}
+	}
 
-		ResponseHandler<Response> httpResponseHandler = new ResponseHandler<Response>() {
-			@Override
-			public Response handleResponse(HttpResponse httpResponse) throws ClientProtocolException, IOException {
-				long timestamp = System.nanoTime();
-				LOGGER.finer("Incoming http response: " + httpResponse.getStatusLine());
-				// the entity of the response, if non repeatable, could be
-				// consumed only one time, so do not debug it!
-				// System.out.println(EntityUtils.toString(httpResponse.getEntity()));
-
-				// translate the received http response in a coap response
-				try {
-					Response coapResponse = HttpTranslator.getCoapResponse(httpResponse, incomingCoapRequest);
-					coapResponse.setTimestamp(timestamp);
-					return coapResponse;
-				} catch (InvalidFieldException e) {
-					LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
-					return new Response(CoapTranslator.STATUS_FIELD_MALFORMED);
-				} catch (TranslationException e) {
-					LOGGER.warning("Problems during the http/coap translation: " + e.getMessage());
-					return new Response(CoapTranslator.STATUS_TRANSLATION_ERROR);
-				}
-			}
-		};
-
+	/**
+	 * Forwards the request without blocking the calling thread; the exchange
+	 * is completed from the callback of the http request.
+	 */
+	@Override
+	public void handleRequest(final Exchange exchange) {
 		// accept the request sending a separate response to avoid the timeout
 		// in the requesting client
+		exchange.sendAccept();
 		LOGGER.finer("Acknowledge message sent");
 
-		Response coapResponse = null;
+		final Request incomingCoapRequest = exchange.getRequest();
+		Translation translation = translate(incomingCoapRequest);
+		if (translation.error != null) {
+			exchange.sendResponse(translation.error);
+			return;
+		}
+
+		AsyncHttpClient.INSTANCE.execute(translation.httpHost, translation.httpRequest, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse httpResponse) {
+				exchange.sendResponse(toCoapResponse(httpResponse, incomingCoapRequest));
+			}
+
+			@Override
+			public void failed(Exception e) {
+				LOGGER.warning("Failed to get the http response: " + e.getMessage());
+				exchange.sendResponse(new Response(ResponseCode.INTERNAL_SERVER_ERROR));
+			}
+
+			@Override
+			public void cancelled() {
+				LOGGER.warning("The http request was cancelled");
+				exchange.sendResponse(new Response(ResponseCode.INTERNAL_SERVER_ERROR));
+			}
+		});
+	}
+
+	/**
+	 * Forwards the request and waits for the response, through the same
+	 * pooled client.
+	 */
+	@Override
+	public Response forwardRequest(Request request) {
+		final Request incomingCoapRequest = request;
+		Translation translation = translate(incomingCoapRequest);
+		if (translation.error != null) {
+			return translation.error;
+		}
+
 		try {
 			// execute the request
-			coapResponse = HTTP_CLIENT.execute(httpHost, httpRequest, httpResponseHandler, null);
-		} catch (IOException e) {
-			LOGGER.warning("Failed to get the http response: " + e.getMessage());
+			HttpResponse httpResponse = AsyncHttpClient.INSTANCE.execute(translation.httpHost, translation.httpRequest, null).get();
+			return toCoapResponse(httpResponse, incomingCoapRequest);
+		} catch (ExecutionException e) {
+			LOGGER.warning("Failed to get the http response: " + e.getCause().getMessage());
+			return new Response(ResponseCode.INTERNAL_SERVER_ERROR);
+		} catch (InterruptedException e) {
+			LOGGER.log(Level.WARNING, "Interrupted waiting for the http response", e);
+			Thread.currentThread().interrupt();
 			return new Response(ResponseCode.INTERNAL_SERVER_ERROR);
 		}
-
-		return coapResponse;
 	}
 }
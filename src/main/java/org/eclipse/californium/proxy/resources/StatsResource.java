@@ -138,6 +138,12 @@ public class StatsResource extends CoapResource {
 		private CacheStats relativeCacheStats;
 		private final CacheResource cacheResource;
 
+		// the counters of the cache when the statistics were reset
+		private long relativeHits;
+		private long relativeMisses;
+		private long relativeRevalidations;
+		private long relativeFailedRevalidations;
+
 		private static final long DEFAULT_LOGGING_DELAY = 5;
 		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
 
@@ -164,8 +170,14 @@ public class StatsResource extends CoapResource {
 			StringBuilder stringBuilder = new StringBuilder();
 			CacheStats cacheStats = cacheResource.getCacheStats().minus(relativeCacheStats);
 
-			stringBuilder.append(String.format("Total successful loaded values: %d %n", cacheStats.loadSuccessCount()));
-			stringBuilder.append(String.format("Total requests: %d %n", cacheStats.requestCount()));
+			long hits = cacheResource.getHitCount() - relativeHits;
+			long misses = cacheResource.getMissCount() - relativeMisses;
+			stringBuilder.append(String.format("Total requests: %d %n", hits + misses));
+			stringBuilder.append(String.format("Cache hits/misses: %d/%d %n", hits, misses));
+			stringBuilder.append(String.format("Revalidated responses: %d (failed: %d) %n",
+					cacheResource.getRevalidationCount() - relativeRevalidations,
+					cacheResource.getFailedRevalidationCount() - relativeFailedRevalidations));
+			stringBuilder.append(String.format("Total cache lookups: %d %n", cacheStats.requestCount()));
 			stringBuilder.append(String.format("Hits ratio: %d/%d - %.3f %n", cacheStats.hitCount(), cacheStats.missCount(), cacheStats.hitRate()));
 			stringBuilder.append(String.format("Average time spent loading new values (nanoseconds): %.3f %n", cacheStats.averageLoadPenalty()));
 			stringBuilder.append(String.format("Number of cache evictions: %d %n", cacheStats.evictionCount()));
@@ -177,6 +189,10 @@ public class StatsResource extends CoapResource {
 		public void handleDELETE(CoapExchange exchange) {
 			// reset the cache
 			relativeCacheStats = cacheResource.getCacheStats().minus(relativeCacheStats);
+			relativeHits = cacheResource.getHitCount();
+			relativeMisses = cacheResource.getMissCount();
+			relativeRevalidations = cacheResource.getRevalidationCount();
+			relativeFailedRevalidations = cacheResource.getFailedRevalidationCount();
 			exchange.respond(ResponseCode.DELETED);
 		}
 
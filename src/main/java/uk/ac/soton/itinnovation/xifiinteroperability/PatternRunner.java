@@ -0,0 +1,309 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CollectionExecutor;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CollectionListener;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.PatternExecutor;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.PatternResult;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.ExecutionListener;
+
+/**
+ * Command line runner of test patterns, for running interoperability tests
+ * without a display (e.g. on CI nodes). The patterns are run as a collection,
+ * sharing their data, with up to -p patterns running at the same time (a
+ * pattern referencing the data of another waits for it). The results are
+ * written as json, in the order the patterns were given.
+ *
+ * Usage: PatternRunner [-o results.json] [-t timeout-seconds] [-p workers] [-d trace-dir] [-v] pattern.xml|directory...
+ *
+ * The exit code is 0 if every test passed, 1 if a test failed and 2 if the
+ * runner could not be used (e.g. bad arguments).
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public final class PatternRunner {
+
+    /**
+     * Exit code when every test passed.
+     */
+    public static final int PASSED = 0;
+
+    /**
+     * Exit code when at least one test failed.
+     */
+    public static final int FAILED = 1;
+
+    /**
+     * Exit code for a usage or I/O error.
+     */
+    public static final int ERROR = 2;
+
+    /**
+     * The usage message.
+     */
+    private static final String USAGE = "Usage: PatternRunner [-o results.json] [-t timeout-seconds] "
+            + "[-p workers] [-d trace-dir] [-v] pattern.xml|directory...";
+
+    /**
+     * Utility class with private constructor.
+     */
+    private PatternRunner() {
+        // empty implementation
+    }
+
+    /**
+     * Run the patterns given on the command line and exit.
+     * @param args The command line arguments.
+     */
+    public static void main(final String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Run the patterns given as command line arguments.
+     * @param args The command line arguments.
+     * @param out The stream the results are written to when no output file is given.
+     * @param err The stream for usage and progress messages.
+     * @return The exit code.
+     */
+    public static int run(final String[] args, final PrintStream out, final PrintStream err) {
+        File output = null;
+        File traceDir = null;
+        long timeout = 0;
+        int workers = 0;
+        boolean verbose = false;
+        final List<File> patterns = new ArrayList();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-o":
+                        output = new File(args[++i]);
+                        break;
+                    case "-t":
+                        timeout = Long.parseLong(args[++i]) * 1000;
+                        break;
+                    case "-p":
+                        workers = Integer.parseInt(args[++i]);
+                        break;
+                    case "-d":
+                        traceDir = new File(args[++i]);
+                        break;
+                    case "-v":
+                        verbose = true;
+                        break;
+                    default:
+                        addPatterns(new File(args[i]), patterns);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            err.println(USAGE);
+            return ERROR;
+        } catch (IOException ex) {
+            err.println(ex.getMessage());
+            return ERROR;
+        }
+        if (patterns.isEmpty() || workers < 0) {
+            err.println(USAGE);
+            return ERROR;
+        }
+        if (traceDir != null && !traceDir.isDirectory() && !traceDir.mkdirs()) {
+            err.println("Unable to create trace directory: " + traceDir);
+            return ERROR;
+        }
+
+        final Map<String, String> tests = new LinkedHashMap();
+        for (File pattern : patterns) {
+            try {
+                tests.put(pattern.getName(), new String(Files.readAllBytes(pattern.toPath()), StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                err.println("Unable to read pattern " + pattern + ": " + ex.getMessage());
+                return ERROR;
+            }
+        }
+        if (tests.size() < patterns.size()) {
+            err.println("Pattern file names must be unique");
+            return ERROR;
+        }
+
+        final PatternExecutor executor = new PatternExecutor(verbose ? new ProgressListener(err) : null, timeout);
+        if (traceDir != null) {
+            // stream each trace to its file rather than holding it in memory
+            executor.setTraceDirectory(traceDir, PatternExecutor.traceTailFromProperties());
+        }
+        final CollectionExecutor collection = new CollectionExecutor(executor,
+                workers > 0 ? workers : CollectionExecutor.workersFromProperties());
+        final File traces = traceDir;
+        // report each result as it is produced
+        final CollectionListener progress = (result, completed, total) -> {
+            err.println((result.isSuccess() ? "PASSED " : "FAILED ") + result.getName() + " (" + result.getDuration() + "ms)"
+                    + (result.getError() == null ? "" : " - " + result.getError()) + " [" + completed + "/" + total + "]");
+            // a trace that could not be streamed is written once the test ends
+            if (traces != null && result.getTrace() != null) {
+                try {
+                    Files.write(PatternExecutor.traceFile(traces, result.getName()).toPath(),
+                            result.getTrace().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ex) {
+                    err.println("Unable to write trace of " + result.getName() + ": " + ex.getMessage());
+                }
+            }
+        };
+        final JSONArray results = new JSONArray();
+        int failures = 0;
+        try {
+            final List<PatternResult> executed = collection.execute(tests, progress);
+            for (PatternResult result : executed) {
+                if (!result.isSuccess()) {
+                    failures++;
+                }
+                results.put(toJSON(result));
+            }
+
+            final JSONObject summary = new JSONObject();
+            summary.put("tests", executed.size());
+            summary.put("passed", executed.size() - failures);
+            summary.put("failed", failures);
+            summary.put("results", results);
+            if (output == null) {
+                out.println(summary.toString(2));
+            } else {
+                final Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8);
+                try {
+                    writer.write(summary.toString(2));
+                } finally {
+                    writer.close();
+                }
+            }
+        } catch (IOException | JSONException ex) {
+            err.println("Unable to write results: " + ex.getMessage());
+            return ERROR;
+        } finally {
+            executor.shutdown();
+        }
+        return failures == 0 ? PASSED : FAILED;
+    }
+
+    /**
+     * Add a pattern file, or the xml files of a directory in name order.
+     * @param file The file or directory.
+     * @param patterns The list of patterns to add to.
+     * @throws IOException The file does not exist, or the directory cannot be read.
+     */
+    private static void addPatterns(final File file, final List<File> patterns) throws IOException {
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles((dir, name) -> name.endsWith(".xml"));
+            if (files == null) {
+                throw new IOException("Unable to read pattern directory: " + file);
+            }
+            Arrays.sort(files);
+            patterns.addAll(Arrays.asList(files));
+        } else if (file.isFile()) {
+            patterns.add(file);
+        } else {
+            throw new IOException("No such pattern file: " + file);
+        }
+    }
+
+    /**
+     * Convert a test result to json. The json report is included as json
+     * where it is valid, and as a string otherwise.
+     * @param result The test result.
+     * @return The json object.
+     * @throws JSONException Error building the json.
+     */
+    private static JSONObject toJSON(final PatternResult result) throws JSONException {
+        final JSONObject json = new JSONObject();
+        json.put("test", result.getName());
+        json.put("success", result.isSuccess());
+        json.put("timedOut", result.isTimedOut());
+        json.put("duration", result.getDuration());
+        if (result.getError() != null) {
+            json.put("error", result.getError());
+        }
+        if (result.getReport() != null) {
+            try {
+                json.put("report", new JSONArray(result.getReport()));
+            } catch (JSONException ex) {
+                json.put("report", result.getReport());
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Listener printing the progress of a test.
+     */
+    private static final class ProgressListener implements ExecutionListener {
+
+        /**
+         * The stream to print to.
+         */
+        private final transient PrintStream stream;
+
+        /**
+         * Create a listener.
+         * @param printOut The stream to print to.
+         */
+        ProgressListener(final PrintStream printOut) {
+            this.stream = printOut;
+        }
+
+        @Override
+        public void stateEntered(final String label) {
+            stream.println("\tstate: " + label);
+        }
+
+        @Override
+        public void timeoutStarted(final long timeout) {
+            stream.println("\twaiting up to " + timeout + "ms for an event");
+        }
+
+        @Override
+        public void timeoutEnded() {
+            // nothing to report
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out the ports the proxies of the interoperability tool listen on.
+ *
+ * A port is reserved from the requested port onwards (up to max_port) and is
+ * not handed out again until it is released, so proxies deployed at the
+ * same time are given different ports without having to bind them first.
+ * Ports already reserved are skipped without a bind probe; a port found in
+ * use by another process is remembered and not probed again for a while.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public final class PortAllocator {
+
+    /**
+     * The time (ms) a port found in use is skipped before being probed again.
+     */
+    private static final long BUSY_RECHECK = 30000;
+
+    /**
+     * The allocator shared by the proxies of the tool.
+     */
+    private static PortAllocator instance;
+
+    /**
+     * The first port after the range of ports handed out.
+     */
+    private final transient int maxPort;
+
+    /**
+     * The ports reserved and not yet released.
+     */
+    private final transient BitSet reserved = new BitSet();
+
+    /**
+     * Ports found in use by other processes, with the time they can be
+     * probed again.
+     */
+    private final transient Map<Integer, Long> busy = new HashMap();
+
+    /**
+     * Create an allocator for ports below the given limit.
+     * @param limit The first port after the range of ports handed out.
+     */
+    public PortAllocator(final int limit) {
+        this.maxPort = limit;
+    }
+
+    /**
+     * Access the allocator shared by the proxies of the tool; its range is
+     * bound by the max_port property.
+     * @return The shared port allocator.
+     * @throws ConfigurationException Error reading the max_port property.
+     */
+    public static synchronized PortAllocator getInstance() throws ConfigurationException {
+        if (instance == null) {
+            try {
+                instance = new PortAllocator(Integer.parseInt(SystemProperties.readProperty("max_port").trim()));
+            } catch (NumberFormatException | NullPointerException ex) {
+                throw new ConfigurationException("Invalid max_port property", ex);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Reserve the first available port from the given port onwards.
+     * @param port The preferred port.
+     * @return The reserved port.
+     * @throws ConfigurationException No port is available in the range.
+     */
+    public synchronized int allocate(final int port) throws ConfigurationException {
+        if (port <= 0 || port > 65535) {
+            throw new ConfigurationException("Invalid port: " + port);
+        }
+        final long now = System.currentTimeMillis();
+        // the preferred port is used even when it is beyond the range
+        int candidate = reserved.nextClearBit(port);
+        while (candidate <= 65535 && (candidate == port || candidate < maxPort)) {
+            // to avoid automatic protocol selection by clients for 443 do not
+            // create a proxy on port 443
+            final Long recheck = busy.get(candidate);
+            if (candidate != 443 && (recheck == null || recheck <= now)) {
+                if (available(candidate)) {
+                    busy.remove(candidate);
+                    reserved.set(candidate);
+                    return candidate;
+                }
+                busy.put(candidate, now + BUSY_RECHECK);
+            }
+            candidate = reserved.nextClearBit(candidate + 1);
+        }
+        throw new ConfigurationException("Unable to find an available port from " + port);
+    }
+
+    /**
+     * Release a reserved port so that it can be handed out again.
+     * @param port The port returned by allocate().
+     */
+    public synchronized void release(final int port) {
+        if (port > 0) {
+            reserved.clear(port);
+        }
+    }
+
+    /**
+     * Check if a port is reserved.
+     * @param port The port to check.
+     * @return true if the port has been handed out and not released.
+     */
+    public synchronized boolean isReserved(final int port) {
+        return port > 0 && reserved.get(port);
+    }
+
+    /**
+     * Test whether the TCP and UDP port can be bound.
+     * @param port The port to test.
+     * @return Whether the port is free.
+     */
+    private static boolean available(final int port) {
+        try (ServerSocket serverSock = new ServerSocket(port);
+                DatagramSocket dataSock = new DatagramSocket(port)) {
+            serverSock.setReuseAddress(true);
+            dataSock.setReuseAddress(true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -34,13 +34,19 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
  * The properties file is stored in the JAR resources location. N.b. Any changes
  * must then be followed by a re-build.
  *
- * This class provides the methods to read the properties.
+ * This class provides the methods to read the properties. The file is read
+ * once into an immutable snapshot that all reads use; reload() reads the file
+ * again. The host address is resolved once and kept for the host_identity_ttl
+ * period.
  *
  * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
  * & XIFI (http://www.fi-xifi.eu)
@@ -77,6 +83,27 @@ public final class SystemProperties {
      */
     public static final String PATTERNSCHEMA = "Pattern.xsd";
 
+    /**
+     * The time (ms) the host address is kept when no host_identity_ttl is
+     * configured.
+     */
+    private static final long DEFAULT_HOST_IDENTITY_TTL = 300000;
+
+    /**
+     * The properties read from the configuration file; null until first read.
+     */
+    private static volatile Map<String, String> snapshot;
+
+    /**
+     * The resolved host address; null until first resolved.
+     */
+    private static volatile String hostIdentity;
+
+    /**
+     * The time (ms) after which the host address is resolved again.
+     */
+    private static volatile long hostIdentityExpiry;
+
     /**
      * Find an available port. Tests if the port given is in use; if it is
      * available true is returned otherwise false.
@@ -173,7 +200,8 @@ public final class SystemProperties {
         if (available(availablePort)) {
             return availablePort;
         } else {
-            for (int i = availablePort + 1; i < Integer.parseInt(readProperty("max_port")); i++) {
+            final int maxPort = Integer.parseInt(readProperty("max_port"));
+            for (int i = availablePort + 1; i < maxPort; i++) {
                 if (available(i)) {
                     return i;
                 }
@@ -191,7 +219,44 @@ public final class SystemProperties {
      */
     public static String readProperty(final String propertyName)
                                             throws ConfigurationException {
-        return readProperties().getProperty(propertyName);
+        Map<String, String> properties = snapshot;
+        if (properties == null) {
+            synchronized (SystemProperties.class) {
+                if (snapshot == null) {
+                    snapshot = toSnapshot(readProperties());
+                }
+                properties = snapshot;
+            }
+        }
+        return properties.get(propertyName);
+    }
+
+    /**
+     * Read the configuration file again, replacing the properties returned
+     * by readProperty. The cached host address is also resolved again on
+     * its next use.
+     * @throws ConfigurationException Error reading the property file; the
+     * previous properties are kept.
+     */
+    public static void reload() throws ConfigurationException {
+        final Map<String, String> properties = toSnapshot(readProperties());
+        synchronized (SystemProperties.class) {
+            snapshot = properties;
+            hostIdentity = null;
+        }
+    }
+
+    /**
+     * Copy properties into an immutable map.
+     * @param prop The properties read from the file.
+     * @return The unmodifiable property map.
+     */
+    private static Map<String, String> toSnapshot(final Properties prop) {
+        final Map<String, String> properties = new HashMap();
+        for (String name : prop.stringPropertyNames()) {
+            properties.put(name, prop.getProperty(name));
+        }
+        return Collections.unmodifiableMap(properties);
     }
 
     /**
@@ -233,13 +298,56 @@ public final class SystemProperties {
      * remote IP address may be different from the one extracted from the
      * network card.
      *
-     * Uses an IP checker service.
+     * Uses an IP checker service. The address is resolved once and then
+     * returned from the cache until the host_identity_ttl (ms) has passed.
      *
      * @return The IPv4 String address of the machine running the Interopability Tool
      * @throws ConfigurationException Exception error when reading system properties.
      * @throws IOException when the interaction with the IP checker service fails.
      */
     public static String getIP() throws ConfigurationException, IOException {
+        String address = hostIdentity;
+        if (address != null && System.currentTimeMillis() < hostIdentityExpiry) {
+            return address;
+        }
+        synchronized (SystemProperties.class) {
+            // another thread may have resolved it while we waited
+            address = hostIdentity;
+            if (address == null || System.currentTimeMillis() >= hostIdentityExpiry) {
+                address = resolveIP();
+                hostIdentityExpiry = System.currentTimeMillis() + getHostIdentityTTL();
+                hostIdentity = address;
+            }
+            return address;
+        }
+    }
+
+    /**
+     * Read the time the host address is cached for.
+     * @return The time to live in ms.
+     * @throws ConfigurationException Error reading the property file.
+     */
+    private static long getHostIdentityTTL() throws ConfigurationException {
+        final String ttl = readProperty("host_identity_ttl");
+        if (ttl == null) {
+            return DEFAULT_HOST_IDENTITY_TTL;
+        }
+        try {
+            return Long.parseLong(ttl.trim());
+        } catch (NumberFormatException ex) {
+            ServiceLogger.LOG.error("Invalid host_identity_ttl property: " + ttl);
+            return DEFAULT_HOST_IDENTITY_TTL;
+        }
+    }
+
+    /**
+     * Resolve the IP address of the machine, either from the IP checker
+     * service or the local host address.
+     * @return The IPv4 String address.
+     * @throws ConfigurationException Exception error when reading system properties.
+     * @throws IOException when the interaction with the IP checker service fails.
+     */
+    private static String resolveIP() throws ConfigurationException, IOException {
 
         if (readProperty("virtualised").equalsIgnoreCase("true")) {
             final URL whatismyip = new URL(IPCHECKER);
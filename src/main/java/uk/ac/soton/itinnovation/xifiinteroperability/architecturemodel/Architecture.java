@@ -28,7 +28,7 @@ package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
 import java.io.ByteArrayInputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,21 +37,26 @@ import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jdom.xpath.XPath;
 import org.xml.sax.SAXException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.PortAllocator;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.InvalidWrapperException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.SharedProxyServer;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.WrapperDeploymentException;
-import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.HttpClientPool;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MQTTSessionPool;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.PatternValidation;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLDocument;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.ExecutionListener;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.InvalidStateMachineException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.TestDataStore;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidRESTMessage;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
-import uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.collections.CollectionsBrowserForm;
-import uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.tables.ExecutionPanel;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidPatternException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.utilities.FileUtils;
@@ -98,9 +103,47 @@ public class Architecture {
     private final transient StateMachine behaviourSequence;
 
     /**
-     * reference to the collections explorer to handle multi tests execution
+     * The HTTP listener shared by the HTTP interface proxies, when the
+     * shared_http_listener property is set; otherwise null and each
+     * interface has a proxy of its own. Stopped in cleanup().
      */
-    private final transient CollectionsBrowserForm collectionsExplorer;
+    private transient SharedProxyServer sharedProxies;
+
+    /**
+     * Access the HTTP listener shared by the HTTP interface proxies.
+     * @return The shared server, or null if each interface has its own proxy.
+     */
+    public final SharedProxyServer getSharedProxies() {
+        return sharedProxies;
+    }
+
+    /**
+     * The pooled HTTP client connectors used by the REST messages of this
+     * architecture. Released in cleanup().
+     */
+    private final transient HttpClientPool httpClients = new HttpClientPool();
+
+    /**
+     * Access the pooled HTTP client connectors of this architecture.
+     * @return The connector pool.
+     */
+    public final HttpClientPool getHttpClients() {
+        return httpClients;
+    }
+
+    /**
+     * The MQTT sessions shared by the MQTT messages of this architecture.
+     * Disconnected in cleanup().
+     */
+    private final transient MQTTSessionPool mqttSessions = new MQTTSessionPool();
+
+    /**
+     * Access the pooled MQTT sessions of this architecture.
+     * @return The session pool.
+     */
+    public final MQTTSessionPool getMqttSessions() {
+        return mqttSessions;
+    }
 
     /**
      * User defined data.
@@ -130,7 +173,7 @@ public class Architecture {
 
     /**
      * Construct a new architecture from a given specification in XML.
-     * Assumes execution panel as null
+     * Runs without an execution listener or data from previous tests.
      *
      * @param xml The architecture specification (pattern).
      * @param report The report to output tests to.
@@ -140,7 +183,7 @@ public class Architecture {
      * in the graph
      */
     public Architecture(final String xml, final InteroperabilityReport report, final boolean debugMode) throws InvalidStateMachineException, InvalidPatternException {
-        this(xml, report, debugMode, null, null);
+        this(xml, report, debugMode, null, null, null);
     }
 
     /**
@@ -148,19 +191,20 @@ public class Architecture {
      * @param xml The architecture specification (pattern).
      * @param report The report to output tests to.
      * @param debugMode whether the state machine is run in debug mode
-     * @param execPanel the execution panel to use for testing animations
-     * @param collectionsForm the collection form, to handle multiple tests execution
+     * @param listener the observer of the execution e.g. for testing animations, may be null
+     * @param testData the data of previous tests, to handle multiple tests execution, may be null
+     * @param testName the name the data of this test is stored under
      * @throws InvalidStateMachineException when the XML is invalid
      * @throws InvalidPatternException when there are more than one start nodes in the graph
      */
     @SuppressWarnings("LeakingThisInConstructor")
-    public Architecture(final String xml, final InteroperabilityReport report, final boolean debugMode, final ExecutionPanel execPanel, final CollectionsBrowserForm collectionsForm) throws InvalidStateMachineException, InvalidPatternException {
-        collectionsExplorer = collectionsForm;
+    public Architecture(final String xml, final InteroperabilityReport report, final boolean debugMode, final ExecutionListener listener,
+            final TestDataStore testData, final String testName) throws InvalidStateMachineException, InvalidPatternException {
         try {
             if (report == null) {
-                this.behaviourSequence = new StateMachine(debugMode, execPanel, collectionsExplorer);
+                this.behaviourSequence = new StateMachine(debugMode, listener, testData, testName);
             } else {
-                this.behaviourSequence = new StateMachine(report, debugMode, execPanel, collectionsExplorer);
+                this.behaviourSequence = new StateMachine(report, debugMode, listener, testData, testName);
             }
             // Validate the pattern
             final URL schemaUrl = FileUtils.getURL(SystemProperties.PATTERNSCHEMA);
@@ -189,16 +233,17 @@ public class Architecture {
                 final List<Element> children = data.getChildren();
                 for (Element dataElement : children) {
                     this.dataConstants.put(dataElement.getChildText(XMLStateMachine.DATA_NAME), dataElement.getChildText(XMLStateMachine.DATA_VALUE));
-                    if (collectionsExplorer != null){
-                        this.collectionsExplorer.getMultiTestsManager().putPatternValue(this.collectionsExplorer.getCurrentModel(),
+                    if (testData != null){
+                        testData.putPatternValue(testName,
                                 dataElement.getChildText(XMLStateMachine.DATA_NAME), dataElement.getChildText(XMLStateMachine.DATA_VALUE));
                     }
                 }
             }
 
             // Create the set of services that match the ADL description
+            this.sharedProxies = createSharedProxies();
             this.services = createServices(pattern.getRootElement().getChild("architecture"),
-                    this.behaviourSequence);
+                    this.behaviourSequence, this.sharedProxies);
 
             // Create the state machine describing the interoperability tests
             XMLStateMachine.createStateMachine(
@@ -243,7 +288,9 @@ public class Architecture {
     /**
      * The XML document has a <architecture> tag. Using this element only
      * we create a set of REST components that represent the service apis
-     * and where necessary generate the correct proxy.
+     * and where necessary generate the correct proxy. The proxies of all of
+     * the interfaces are started together; if any fails to start (or they
+     * are not ready within the proxy_deploy_timeout) they are all released.
      *
      * @param doc The DOM element for the <architecture> tag in the specification
      * @param eventCap A pointer to the
@@ -253,7 +300,23 @@ public class Architecture {
      */
     public static Map<String, RESTComponent> createServices(final Element doc,
              final EventCapture eventCap) throws InvalidArchitectureException {
+        return createServices(doc, eventCap, null);
+    }
+
+    /**
+     * Create the REST components of the <architecture> tag, with the HTTP
+     * interfaces proxied by a shared server.
+     *
+     * @param doc The DOM element for the <architecture> tag in the specification
+     * @param eventCap A pointer to the
+     * @param shared The shared HTTP proxy server; null for a proxy per interface.
+     * @return A hashtable of the created components.
+     * @throws InvalidArchitectureException Error indicator of an invalid specification.
+     */
+    public static Map<String, RESTComponent> createServices(final Element doc,
+             final EventCapture eventCap, final SharedProxyServer shared) throws InvalidArchitectureException {
       final HashMap<String, RESTComponent> components = new HashMap();
+        final long timeout = ProxyDeployer.getTimeout();
         try {
             final XPath xpa = XPath.newInstance("//" + XMLStateMachine.COMPONENT_LABEL);
             if (xpa == null) {
@@ -261,19 +324,74 @@ public class Architecture {
             }
             final List<Element> xmlStates = xpa.selectNodes(doc);
             for (Element eltIndex : xmlStates) {
-                final RESTComponent rComponent = new RESTComponent(eltIndex, eventCap);
+                final RESTComponent rComponent = new RESTComponent(eltIndex, eventCap, shared);
                 components.put(rComponent.getComponentID(), rComponent);
             }
         } catch (JDOMException ex) {
             ServiceLogger.LOG.error("Invalid Pattern specification" + ex.getMessage());
+            ProxyDeployer.release(getInterfaces(components), timeout);
             throw new InvalidArchitectureException("Error in <architecture> specification", ex);
+        } catch (InvalidArchitectureException ex) {
+            ProxyDeployer.release(getInterfaces(components), timeout);
+            throw ex;
         }
         if (components.size() < 1) {
             throw new InvalidArchitectureException("Architecture must have at least one component");
         }
+        ProxyDeployer.deploy(getInterfaces(components), timeout);
         return components;
      }
 
+    /**
+     * Start the HTTP listener shared by the interface proxies if the
+     * shared_http_listener property is set. It listens on the first free
+     * port from the default_port.
+     * @return The started server, or null if not configured.
+     * @throws InvalidArchitectureException Error starting the server.
+     */
+    private static SharedProxyServer createSharedProxies() throws InvalidArchitectureException {
+        int port = -1;
+        try {
+            if (!Boolean.parseBoolean(SystemProperties.readProperty("shared_http_listener"))) {
+                return null;
+            }
+            port = PortAllocator.getInstance().allocate(SystemProperties.getDefaultPort());
+            final SharedProxyServer server = new SharedProxyServer(port);
+            server.start();
+            return server;
+        } catch (ConfigurationException | InvalidWrapperException | WrapperDeploymentException ex) {
+            releasePort(port);
+            throw new InvalidArchitectureException("Could not start the shared HTTP listener", ex);
+        }
+    }
+
+    /**
+     * Release a port reserved by this architecture.
+     * @param port The port; ignored if not positive.
+     */
+    private static void releasePort(final int port) {
+        if (port > 0) {
+            try {
+                PortAllocator.getInstance().release(port);
+            } catch (ConfigurationException ex) {
+                ServiceLogger.LOG.error("Unable to release port " + port, ex);
+            }
+        }
+    }
+
+    /**
+     * Collect the interfaces of a set of components.
+     * @param components The components by identifier.
+     * @return The interfaces of all of the components.
+     */
+    private static List<RESTInterface> getInterfaces(final Map<String, RESTComponent> components) {
+        final List<RESTInterface> interfaces = new ArrayList();
+        for (RESTComponent rComponent : components.values()) {
+            interfaces.addAll(rComponent.getInterfaces());
+        }
+        return interfaces;
+    }
+
      /**
       * Begin testing of the architecture. This will start the state machine
       * executing; i.e. the pattern will be put into the first state and then
@@ -297,18 +415,23 @@ public class Architecture {
       */
      public final void cleanup() {
         if (services != null) {
-            final Collection<RESTComponent> entrySet = services.values();
-            for (RESTComponent rComponent : entrySet) {
-                for (RESTInterface ri : rComponent.getInterfaces()) {
-                    try {
-                        ri.release();
-                    } catch (WrapperDeploymentException ex) {
-                        ServiceLogger.LOG.error("Error releasing REST Intf" + ri.getInterface(), ex);
-                    }
-                }
-            }
+            ProxyDeployer.release(getInterfaces(services), ProxyDeployer.getTimeout());
             services.clear();
         }
+        if (sharedProxies != null) {
+            try {
+                sharedProxies.stop();
+            } catch (WrapperDeploymentException ex) {
+                ServiceLogger.LOG.error("Error stopping the shared HTTP listener", ex);
+            }
+            releasePort(sharedProxies.getPort());
+            sharedProxies = null;
+        }
+        if (behaviourSequence != null) {
+            behaviourSequence.getEventQueue().close();
+        }
+        httpClients.shutdown();
+        mqttSessions.shutdown();
      }
 
      /**
@@ -389,11 +512,11 @@ public class Architecture {
                     if (rEv.getDataBody().getType().equalsIgnoreCase("xml")) {
                         return XML.readValue(content, exprSplit[2]);
                     } else if (rEv.getDataBody().getType().equalsIgnoreCase("json")){
-                        return JSON.readValue(content, "$." + exprSplit[2]);
+                        return rEv.getJSONContext().readValue(content, "$." + exprSplit[2]);
                     } else if (rEv.getDataBody().getType().equalsIgnoreCase("application/xml")) {
                         return XML.readValue(content, exprSplit[2]);
                     } else if (rEv.getDataBody().getType().equalsIgnoreCase("application/json")){
-                        return JSON.readValue(content, "$." + exprSplit[2]);
+                        return rEv.getJSONContext().readValue(content, "$." + exprSplit[2]);
                     }
                     else {
                         return content;
@@ -483,12 +606,17 @@ public class Architecture {
             throw new InvalidPatternReferenceException("Invalid data reference for previous tests - " + expression + ".");
         }
 
+        final TestDataStore testData = this.behaviourSequence.getTestData();
+        if (testData == null){
+            throw new InvalidPatternReferenceException("No data from previous tests - " + expression + " can only be used when running a collection of tests.");
+        }
+
         final String testID = split[1];
 
         // pattern data extraction, format $$test.{test-id}.patterndata.{data-id}$$
         if (split[2].equals(XMLStateMachine.DATA_TAG)){
             final String patternDataID = split[3];
-            final String dataValue = this.collectionsExplorer.getMultiTestsManager().getPatternValue(testID, patternDataID);
+            final String dataValue = testData.getPatternValue(testID, patternDataID);
             if (dataValue == null){
                 throw new InvalidPatternReferenceException("No data value associated with the reference for previous tests data - " + expression + ".");
             }
@@ -508,7 +636,7 @@ public class Architecture {
             }
 
             final String path = secondSplit[1];
-            final String data = this.collectionsExplorer.getMultiTestsManager().getTestContent(testID, labelID);
+            final String data = testData.getTestContent(testID, labelID);
             if (data == null){
                 throw new InvalidPatternReferenceException("No data value associated with the reference for previous tests data - " + expression + ".");
             }
@@ -518,7 +646,7 @@ public class Architecture {
                 value = XML.readValue(data, path);
             }
             else {
-                value = JSON.readValue(data, "$." + path);
+                value = this.behaviourSequence.getTestContentContext().readValue(data, "$." + path);
             }
 
             if (value == null){
@@ -541,7 +669,7 @@ public class Architecture {
             }
 
             final String headerID = secondSplit[1];
-            final String headerValue = this.collectionsExplorer.getMultiTestsManager().getTestHeader(testID, labelID, headerID);
+            final String headerValue = testData.getTestHeader(testID, labelID, headerID);
             if (headerValue == null){
                 throw new InvalidPatternReferenceException("No data value associated with the reference for previous tests data - " + expression + ".");
             }
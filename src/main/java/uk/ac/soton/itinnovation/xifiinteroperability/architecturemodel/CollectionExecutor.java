@@ -0,0 +1,291 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
+
+/**
+ * Runs a collection of test patterns on a pool of worker threads. Each test
+ * is run by the PatternExecutor with its own architecture, state machine
+ * and proxies; all of the tests share the executor's test data store.
+ *
+ * Independent tests run at the same time. A test that references the data
+ * of another test of the collection ($$test.{test-id}...$$) is only started
+ * once that test has finished; where tests reference each other in a cycle
+ * the first of them (in collection order) is started without waiting.
+ *
+ * Results are passed to the listener as each test finishes.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class CollectionExecutor {
+
+    /**
+     * The number of tests run at the same time if none is configured.
+     */
+    public static final int DEFAULT_WORKERS = 4;
+
+    /**
+     * Configuration property for the number of tests run at the same time.
+     */
+    public static final String WORKERS_PROPERTY = "collection_workers";
+
+    /**
+     * A reference to the data of another test: $$test.{test-id}.
+     */
+    private static final Pattern TEST_REFERENCE = Pattern.compile(
+            "\\$\\$" + XMLStateMachine.TEST_TAG + "\\.([^.$]+)\\.");
+
+    /**
+     * The executor each test is run with.
+     */
+    private final transient PatternExecutor executor;
+
+    /**
+     * The number of tests run at the same time.
+     */
+    private final transient int workers;
+
+    /**
+     * Set once the collection run has been stopped; no more tests are started.
+     */
+    private volatile transient boolean stopped;
+
+    /**
+     * Create a collection executor.
+     * @param patternExecutor The executor to run each test with.
+     * @param workerCount The number of tests to run at the same time.
+     */
+    public CollectionExecutor(final PatternExecutor patternExecutor, final int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be at least 1");
+        }
+        this.executor = patternExecutor;
+        this.workers = workerCount;
+    }
+
+    /**
+     * Read the number of tests to run at the same time from the
+     * configuration, falling back to the default.
+     * @return The configured number of workers.
+     */
+    public static int workersFromProperties() {
+        try {
+            final String value = SystemProperties.readProperty(WORKERS_PROPERTY);
+            if (value != null && Integer.parseInt(value.trim()) > 0) {
+                return Integer.parseInt(value.trim());
+            }
+        } catch (ConfigurationException | NumberFormatException ex) {
+            ServiceLogger.LOG.error("Invalid collection worker configuration - using default: " + ex.getMessage());
+        }
+        return DEFAULT_WORKERS;
+    }
+
+    /**
+     * The identifiers of the tests whose data a pattern references.
+     * @param xml The pattern specification.
+     * @return The referenced test identifiers (test names without .xml).
+     */
+    public static Set<String> getReferencedTests(final String xml) {
+        final Set<String> referenced = new HashSet();
+        final Matcher matcher = TEST_REFERENCE.matcher(xml);
+        while (matcher.find()) {
+            referenced.add(matcher.group(1));
+        }
+        return referenced;
+    }
+
+    /**
+     * Run a collection of tests, returning once all of them have finished
+     * (or the run has been stopped).
+     * @param tests The test names mapped to their pattern specifications, in
+     * collection order.
+     * @param listener The observer of the results as they are produced; may be null.
+     * @return The results of the tests run, in collection order.
+     */
+    public final List<PatternResult> execute(final Map<String, String> tests, final CollectionListener listener) {
+        final Map<String, Set<String>> waitingOn = new HashMap();
+        final Map<String, List<String>> dependents = getDependencies(tests, waitingOn);
+        // Tell the store about every reference before any test runs, so
+        // that a test keeps the content that later tests read
+        if (executor.getTestData() != null) {
+            for (String xml : tests.values()) {
+                executor.getTestData().addReferences(xml);
+            }
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(workers, new WorkerFactory());
+        final CompletionService<PatternResult> completion = new ExecutorCompletionService(pool);
+        final Set<String> blocked = new LinkedHashSet(tests.keySet());
+        final Map<String, PatternResult> results = new HashMap();
+        int running = 0;
+        try {
+            while (running > 0 || (!stopped && !blocked.isEmpty())) {
+                if (!stopped) {
+                    final Iterator<String> iterator = blocked.iterator();
+                    while (iterator.hasNext()) {
+                        final String name = iterator.next();
+                        if (waitingOn.get(name).isEmpty()) {
+                            iterator.remove();
+                            final String xml = tests.get(name);
+                            completion.submit(() -> run(name, xml));
+                            running++;
+                        }
+                    }
+                    if (running == 0) {
+                        final String name = blocked.iterator().next();
+                        ServiceLogger.LOG.warn("Circular references between tests - running " + name
+                                + " without waiting for " + waitingOn.get(name));
+                        waitingOn.get(name).clear();
+                        continue;
+                    }
+                }
+                final PatternResult result = completion.take().get();
+                running--;
+                results.put(result.getName(), result);
+                for (String dependent : dependents.get(result.getName())) {
+                    waitingOn.get(dependent).remove(result.getName());
+                }
+                if (listener != null) {
+                    listener.testCompleted(result, results.size(), tests.size());
+                }
+            }
+        } catch (InterruptedException ex) {
+            stop();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            ServiceLogger.LOG.error("Error running the test collection", ex);
+            stop();
+        } finally {
+            pool.shutdown();
+        }
+
+        final List<PatternResult> ordered = new ArrayList();
+        for (String name : tests.keySet()) {
+            if (results.containsKey(name)) {
+                ordered.add(results.get(name));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Stop the collection run: tests not yet started are skipped and the
+     * running tests are stopped.
+     */
+    public final void stop() {
+        stopped = true;
+        executor.stop();
+    }
+
+    /**
+     * Run one test of the collection, unless the run has been stopped.
+     * @param name The test name.
+     * @param xml The pattern specification.
+     * @return The result of the test.
+     */
+    private PatternResult run(final String name, final String xml) {
+        if (stopped) {
+            return new PatternResult(name, false, false, null, null, "The collection run was stopped before the test started", 0);
+        }
+        return executor.execute(name, xml);
+    }
+
+    /**
+     * Work out which tests of the collection reference the data of other
+     * tests of the collection.
+     * @param tests The test names mapped to their pattern specifications.
+     * @param waitingOn Filled with each test mapped to the tests it must wait for.
+     * @return Each test mapped to the tests that wait for it.
+     */
+    private static Map<String, List<String>> getDependencies(final Map<String, String> tests,
+            final Map<String, Set<String>> waitingOn) {
+        // tests are referenced by their name without the .xml extension
+        final Map<String, List<String>> identifiers = new HashMap();
+        final Map<String, List<String>> dependents = new HashMap();
+        for (String name : tests.keySet()) {
+            identifiers.computeIfAbsent(name.replace(".xml", ""), id -> new ArrayList()).add(name);
+            dependents.put(name, new ArrayList());
+            waitingOn.put(name, new HashSet());
+        }
+        for (Map.Entry<String, String> test : tests.entrySet()) {
+            for (String referenced : getReferencedTests(test.getValue())) {
+                final List<String> names = identifiers.get(referenced);
+                if (names == null) {
+                    // data from a test outside the collection i.e. an earlier run
+                    continue;
+                }
+                for (String dependency : names) {
+                    if (!dependency.equals(test.getKey())) {
+                        waitingOn.get(test.getKey()).add(dependency);
+                        dependents.get(dependency).add(test.getKey());
+                    }
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Creates the named daemon worker threads of a collection run.
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+
+        /**
+         * The number of workers created.
+         */
+        private final transient AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread worker = new Thread(runnable, "collection-worker-" + count.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        }
+    }
+}
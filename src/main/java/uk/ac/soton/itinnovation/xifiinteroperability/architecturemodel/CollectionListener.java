@@ -0,0 +1,49 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+/**
+ * Observer of a collection run by the CollectionExecutor. Results are
+ * delivered as each test finishes, so reports can be produced while the
+ * remaining tests are still running.
+ *
+ * The method is called on the thread running the collection, one result at
+ * a time.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public interface CollectionListener {
+
+    /**
+     * A test of the collection has finished.
+     * @param result The result of the test.
+     * @param completed The number of tests finished so far (including this one).
+     * @param total The number of tests in the collection.
+     */
+    void testCompleted(PatternResult result, int completed, int total);
+}
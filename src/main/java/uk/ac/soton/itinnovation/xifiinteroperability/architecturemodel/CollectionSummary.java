@@ -0,0 +1,132 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+
+/**
+ * The summary report of a collection run, built up as each test finishes.
+ * The text has the same format as the summary of a collection run from the
+ * editor; tests are numbered in the order they finished.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class CollectionSummary implements CollectionListener {
+
+    /**
+     * The text of the summary report.
+     */
+    private final transient StringBuilder summary = new StringBuilder("Interoperability tests - Summary report\n\n\n");
+
+    /**
+     * Optional output that each entry is also written to as it is added
+     * (e.g. the testing panel of the editor); may be null.
+     */
+    private final transient InteroperabilityReport output;
+
+    /**
+     * The number of tests reported.
+     */
+    private transient int executed;
+
+    /**
+     * The number of failed tests reported.
+     */
+    private transient int failures;
+
+    /**
+     * Create a summary that is only held in memory.
+     */
+    public CollectionSummary() {
+        this(null);
+    }
+
+    /**
+     * Create a summary that is also written to a report as it is built.
+     * @param report The report to write each entry to; may be null.
+     */
+    public CollectionSummary(final InteroperabilityReport report) {
+        this.output = report;
+    }
+
+    @Override
+    public final synchronized void testCompleted(final PatternResult result, final int completed, final int total) {
+        executed++;
+        if (!result.isSuccess()) {
+            failures++;
+        }
+        final StringBuilder entry = new StringBuilder();
+        entry.append("Test number ").append(executed).append('\n');
+        entry.append("\tTest identifier - ").append(result.getName()).append('\n');
+        entry.append("\tTest execution passed - ").append(result.isSuccess()).append('\n');
+        if (result.isTimedOut()) {
+            entry.append("\tTest stopped after its timeout\n");
+        }
+        if (result.getError() != null) {
+            entry.append("\tTest error - ").append(result.getError()).append('\n');
+        }
+        summary.append(entry).append('\n');
+        if (output != null) {
+            output.println(entry.toString() + "\t(" + completed + " of " + total + " tests finished)");
+        }
+    }
+
+    /**
+     * Add the overall outcome to the end of the summary, once all of the
+     * tests have been reported.
+     */
+    public final synchronized void finish() {
+        final String outcome;
+        if (failures == 0) {
+            outcome = "Successful test execution\n" + executed + " tests were executed with no failures detected\n";
+        } else {
+            final String failureString = failures == 1 ? " failure" : " failures";
+            outcome = "Unsuccessful test execution\n" + executed + " tests were executed with " + failures + failureString + " detected\n";
+        }
+        summary.append(outcome);
+        if (output != null) {
+            output.println(outcome);
+        }
+    }
+
+    /**
+     * The number of failed tests reported so far.
+     * @return The failure count.
+     */
+    public final synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * The text of the summary report built so far.
+     * @return The summary report.
+     */
+    public final synchronized String getText() {
+        return summary.toString();
+    }
+}
@@ -55,4 +55,14 @@ public interface EventCapture {
      * is up to the listener to determine the exception type.
      */
     void logException(Exception excep);
+
+    /**
+     * Whether the events pushed to this interface must carry the message
+     * content (the body). When false the cradle may leave the body out of
+     * the events it builds and pass messages on without reading them.
+     * @return true if the message content may be used; the default.
+     */
+    default boolean requiresContent() {
+        return true;
+    }
 }
@@ -0,0 +1,318 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidPatternException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.ExecutionListener;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.InvalidStateMachineException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.MultiTestsExecutionManager;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.TestDataStore;
+
+/**
+ * Headless execution of test patterns: build the architecture of a pattern,
+ * run its state machine to completion and release the deployed proxies,
+ * without any of the editor (Swing/JGraphX) components.
+ *
+ * Patterns run by the same executor share a test data store, so a pattern
+ * can reference the data of patterns run before it ($$test.{test-id}...$$),
+ * as in a collection run from the editor.
+ *
+ * An executor can run several patterns at the same time (see the
+ * CollectionExecutor). Each run has its own architecture, state machine and
+ * proxies; the ports of the proxies are reserved by the PortAllocator so
+ * that concurrent patterns are given different free ports.
+ *
+ * The text trace of each pattern can be streamed to a file in a trace
+ * directory, with only its latest part (report_trace_tail characters) kept
+ * in memory while the pattern runs.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class PatternExecutor {
+
+    /**
+     * The number of trace characters kept in memory if none is configured.
+     */
+    public static final int DEFAULT_TRACE_TAIL = 65536;
+
+    /**
+     * Configuration property for the number of characters of a streamed
+     * trace kept in memory.
+     */
+    public static final String TRACE_TAIL_PROPERTY = "report_trace_tail";
+
+    /**
+     * The data remembered from the patterns run by this executor.
+     */
+    private final transient TestDataStore testData;
+
+    /**
+     * The store created by (and released with) this executor; null if the
+     * store was given to it.
+     */
+    private final transient MultiTestsExecutionManager ownStore;
+
+    /**
+     * The optional observer of each execution.
+     */
+    private final transient ExecutionListener listener;
+
+    /**
+     * The time a pattern may run for before it is stopped, in milliseconds;
+     * zero for no limit.
+     */
+    private final transient long timeout;
+
+    /**
+     * Timer stopping the patterns that run past the timeout.
+     */
+    private final transient Timer watchdog = new Timer("pattern-timeout", true);
+
+    /**
+     * The state machines of the patterns currently running.
+     */
+    private final transient Set<StateMachine> running = Collections.newSetFromMap(new ConcurrentHashMap());
+
+    /**
+     * The directory the traces are streamed to; null to keep each trace in
+     * memory.
+     */
+    private transient volatile File traceDirectory;
+
+    /**
+     * The number of characters of a streamed trace kept in memory.
+     */
+    private transient volatile int traceTail = DEFAULT_TRACE_TAIL;
+
+    /**
+     * Create an executor with its own test data store.
+     * @param listener The observer of each execution; may be null.
+     * @param timeoutMillis The time a pattern may run for, zero for no limit.
+     */
+    public PatternExecutor(final ExecutionListener listener, final long timeoutMillis) {
+        this(MultiTestsExecutionManager.fromProperties(), listener, timeoutMillis, true);
+    }
+
+    /**
+     * Create an executor.
+     * @param store The store of data shared between the patterns run.
+     * @param listener The observer of each execution; may be null.
+     * @param timeoutMillis The time a pattern may run for, zero for no limit.
+     */
+    public PatternExecutor(final TestDataStore store, final ExecutionListener listener, final long timeoutMillis) {
+        this(store, listener, timeoutMillis, false);
+    }
+
+    /**
+     * Create an executor.
+     * @param store The store of data shared between the patterns run.
+     * @param listener The observer of each execution; may be null.
+     * @param timeoutMillis The time a pattern may run for, zero for no limit.
+     * @param owned Whether the store is released when the executor is shut down.
+     */
+    private PatternExecutor(final TestDataStore store, final ExecutionListener listener, final long timeoutMillis,
+            final boolean owned) {
+        this.testData = store;
+        this.listener = listener;
+        this.timeout = timeoutMillis;
+        this.ownStore = owned ? (MultiTestsExecutionManager) store : null;
+    }
+
+    /**
+     * The data remembered from the patterns run.
+     * @return The test data store.
+     */
+    public final TestDataStore getTestData() {
+        return testData;
+    }
+
+    /**
+     * Read the report_trace_tail property.
+     * @return The configured number of characters, or the default if it is
+     * missing or invalid.
+     */
+    public static int traceTailFromProperties() {
+        try {
+            final String value = SystemProperties.readProperty(TRACE_TAIL_PROPERTY);
+            if (value != null && Integer.parseInt(value.trim()) >= 0) {
+                return Integer.parseInt(value.trim());
+            }
+        } catch (ConfigurationException | NumberFormatException ex) {
+            ServiceLogger.LOG.error("Invalid report trace configuration - using default: " + ex.getMessage());
+        }
+        return DEFAULT_TRACE_TAIL;
+    }
+
+    /**
+     * The file the trace of a test is streamed to.
+     * @param directory The trace directory.
+     * @param name The name of the test.
+     * @return The trace file.
+     */
+    public static File traceFile(final File directory, final String name) {
+        return new File(directory, name.replace(".xml", "") + ".txt");
+    }
+
+    /**
+     * Stream the text trace of each pattern run from now on to a file in a
+     * directory, keeping only its latest part in memory. The results of
+     * those patterns carry no trace.
+     * @param directory The directory to write the traces to; null to keep
+     * each trace in memory and return it in the result.
+     * @param tail The number of trace characters to keep in memory.
+     */
+    public final void setTraceDirectory(final File directory, final int tail) {
+        this.traceTail = Math.max(0, tail);
+        this.traceDirectory = directory;
+    }
+
+    /**
+     * Open the streamed report of a test.
+     * @param name The name of the test.
+     * @return The report streaming its trace to the trace directory; null if
+     * there is no trace directory or the trace file cannot be written.
+     */
+    private InteroperabilityReport openTrace(final String name) {
+        final File directory = traceDirectory;
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new InteroperabilityReport(traceFile(directory, name), traceTail);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.error("Unable to stream the trace of test " + name + " - keeping it in memory", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Run a pattern to completion (or until the timeout). Invalid patterns
+     * are reported in the result rather than thrown. When a trace directory
+     * is set, the trace is streamed to the test's file there instead of
+     * being returned in the result.
+     * @param name The name of the test; the name the data of the test is
+     * stored under for later patterns.
+     * @param xml The pattern specification.
+     * @return The result of the test.
+     */
+    public final PatternResult execute(final String name, final String xml) {
+        final long start = System.currentTimeMillis();
+        final InteroperabilityReport streamed = openTrace(name);
+        final InteroperabilityReport report = streamed == null ? new InteroperabilityReport() : streamed;
+        Architecture arch = null;
+        TimerTask stopper = null;
+        try {
+            if (testData != null) {
+                testData.addReferences(xml);
+            }
+            arch = new Architecture(xml, report, false, listener, testData, name);
+            final StateMachine machine = arch.getStateMachine();
+            if (machine.getStartState() == null) {
+                return new PatternResult(name, false, false, null, null,
+                        "Pattern is not valid: no start state found.", System.currentTimeMillis() - start);
+            }
+            final AtomicBoolean stopped = new AtomicBoolean();
+            if (timeout > 0) {
+                stopper = new TimerTask() {
+                    @Override
+                    public void run() {
+                        stopped.set(true);
+                        ServiceLogger.LOG.warn("Test " + name + " ran past " + timeout + "ms - stopping it");
+                        machine.stop();
+                    }
+                };
+                watchdog.schedule(stopper, timeout);
+            }
+            running.add(machine);
+            final InteroperabilityReport result;
+            try {
+                result = arch.executePattern();
+            } finally {
+                running.remove(machine);
+            }
+            if (stopper != null) {
+                stopper.cancel();
+            }
+            return new PatternResult(name, "true".equalsIgnoreCase(result.getSuccess()), stopped.get(),
+                    result.getReport(), streamed == null ? result.outputTrace() : null, null,
+                    System.currentTimeMillis() - start);
+        } catch (InvalidStateMachineException | InvalidPatternException ex) {
+            return new PatternResult(name, false, false, null, null,
+                    "Pattern is not valid: " + ex.getMessage(), System.currentTimeMillis() - start);
+        } catch (RuntimeException ex) {
+            ServiceLogger.LOG.error("Error running test " + name, ex);
+            return new PatternResult(name, false, false, null, streamed == null ? report.outputTrace() : null,
+                    "Error running the pattern: " + ex, System.currentTimeMillis() - start);
+        } finally {
+            if (stopper != null) {
+                stopper.cancel();
+            }
+            if (arch != null) {
+                arch.cleanup();
+            }
+            if (streamed != null) {
+                streamed.close();
+            }
+        }
+    }
+
+    /**
+     * Stop all of the patterns currently running. Their results report the
+     * state they were stopped in.
+     */
+    public final void stop() {
+        for (StateMachine machine : running) {
+            machine.stop();
+        }
+    }
+
+    /**
+     * Release the executor's timer, and the test data store if the executor
+     * created it.
+     */
+    public final void shutdown() {
+        watchdog.cancel();
+        if (ownStore != null) {
+            ownStore.close();
+        }
+    }
+}
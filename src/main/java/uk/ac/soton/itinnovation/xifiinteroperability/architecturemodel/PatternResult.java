@@ -0,0 +1,150 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+/**
+ * The outcome of running one test pattern with the PatternExecutor.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public final class PatternResult {
+
+    /**
+     * The name of the test (e.g. the pattern file name).
+     */
+    private final transient String name;
+
+    /**
+     * Whether the pattern reached a successful end state.
+     */
+    private final transient boolean success;
+
+    /**
+     * Whether the test was stopped because it ran past its deadline.
+     */
+    private final transient boolean timedOut;
+
+    /**
+     * The json interoperability report (an array of report elements).
+     */
+    private final transient String report;
+
+    /**
+     * The text trace of the execution.
+     */
+    private final transient String trace;
+
+    /**
+     * Why the pattern could not be run; null if it was run.
+     */
+    private final transient String error;
+
+    /**
+     * The run time of the test in milliseconds.
+     */
+    private final transient long duration;
+
+    /**
+     * Create a test result.
+     * @param testName The name of the test.
+     * @param passed Whether the pattern reached a successful end state.
+     * @param stopped Whether the test was stopped at its deadline.
+     * @param jsonReport The json interoperability report.
+     * @param textTrace The text trace of the execution.
+     * @param errorMessage Why the pattern could not be run, or null.
+     * @param millis The run time in milliseconds.
+     */
+    public PatternResult(final String testName, final boolean passed, final boolean stopped,
+            final String jsonReport, final String textTrace, final String errorMessage, final long millis) {
+        this.name = testName;
+        this.success = passed;
+        this.timedOut = stopped;
+        this.report = jsonReport;
+        this.trace = textTrace;
+        this.error = errorMessage;
+        this.duration = millis;
+    }
+
+    /**
+     * The name of the test.
+     * @return The test name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether the test passed.
+     * @return True if the pattern reached a successful end state.
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Whether the test was stopped at its deadline.
+     * @return True if the test timed out.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * The json interoperability report.
+     * @return The report; null if the pattern could not be run.
+     */
+    public String getReport() {
+        return report;
+    }
+
+    /**
+     * The text trace of the execution.
+     * @return The trace; null if the pattern could not be run, or if the
+     * trace was streamed to a file (see PatternExecutor.setTraceDirectory).
+     */
+    public String getTrace() {
+        return trace;
+    }
+
+    /**
+     * Why the pattern could not be run.
+     * @return The error message, or null if the pattern was run.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * The run time of the test.
+     * @return The duration in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+}
@@ -0,0 +1,244 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.WrapperDeploymentException;
+
+/**
+ * Starts and stops the proxies of the interfaces of an architecture. The
+ * proxies are started (and stopped) at the same time rather than one after
+ * another; the whole deployment is bound by a single timeout.
+ *
+ * If any proxy fails to start, or the proxies are not all ready before the
+ * timeout, every interface of the deployment is released again (each as
+ * soon as its own start has finished), so that no proxy or port is left
+ * behind by a failed architecture.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public final class ProxyDeployer {
+
+    /**
+     * The time (ms) to start or stop the proxies if none is configured.
+     */
+    private static final long DEFAULT_TIMEOUT = 30000;
+
+    /**
+     * The threads that start and stop the proxies.
+     */
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(new WorkerFactory());
+
+    /**
+     * Utility class with static methods only.
+     */
+    private ProxyDeployer() {
+    }
+
+    /**
+     * Read the proxy_deploy_timeout property.
+     * @return The time (ms) to wait for the proxies of an architecture.
+     */
+    public static long getTimeout() {
+        try {
+            final String timeout = SystemProperties.readProperty("proxy_deploy_timeout");
+            if (timeout != null) {
+                return Long.parseLong(timeout.trim());
+            }
+        } catch (ConfigurationException | NumberFormatException ex) {
+            ServiceLogger.LOG.error("Invalid proxy_deploy_timeout property", ex);
+        }
+        return DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * Start the proxies of the given interfaces at the same time and wait
+     * until all are ready. On failure all of the interfaces are released.
+     * @param interfaces The interfaces to deploy.
+     * @param timeout The time (ms) to wait for all of the proxies.
+     * @throws InvalidArchitectureException A proxy could not be started, or
+     * the proxies were not ready in time.
+     */
+    public static void deploy(final Collection<RESTInterface> interfaces, final long timeout)
+            throws InvalidArchitectureException {
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final CompletableFuture<Void> failure = new CompletableFuture();
+        final List<CompletableFuture<Void>> ready = new ArrayList();
+        for (RESTInterface intf : interfaces) {
+            final CompletableFuture<Void> started = CompletableFuture.runAsync(() -> {
+                // do not start proxies once the deployment has failed
+                if (!aborted.get()) {
+                    try {
+                        intf.deploy();
+                    } catch (InvalidInterfaceException ex) {
+                        throw new DeploymentError(ex);
+                    }
+                }
+            }, WORKERS);
+            started.whenComplete((result, ex) -> {
+                if (ex != null) {
+                    failure.completeExceptionally(ex);
+                }
+            });
+            ready.add(started);
+        }
+        final CompletableFuture<Void> all = CompletableFuture.allOf(ready.toArray(new CompletableFuture[ready.size()]));
+
+        try {
+            CompletableFuture.anyOf(all, failure).get(timeout, TimeUnit.MILLISECONDS);
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            rollback(interfaces, ready, aborted, timeout);
+            throw new InvalidArchitectureException("Interrupted while deploying the proxies", ex);
+        } catch (TimeoutException ex) {
+            rollback(interfaces, ready, aborted, timeout);
+            throw new InvalidArchitectureException("The proxies were not ready within " + timeout + "ms", ex);
+        } catch (ExecutionException ex) {
+            rollback(interfaces, ready, aborted, timeout);
+            Throwable cause = ex.getCause();
+            while ((cause instanceof CompletionException || cause instanceof DeploymentError) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            throw new InvalidArchitectureException("Could not deploy the proxies: " + cause.getMessage(),
+                    cause instanceof Exception ? (Exception) cause : ex);
+        }
+    }
+
+    /**
+     * Release every interface of a failed deployment once its start attempt
+     * has finished, waiting up to the timeout for them.
+     * @param interfaces The interfaces of the deployment.
+     * @param ready The start futures, in interface order.
+     * @param aborted Set to stop proxies not yet started from starting.
+     * @param timeout The time (ms) to wait for the proxies to be released.
+     */
+    private static void rollback(final Collection<RESTInterface> interfaces,
+            final List<CompletableFuture<Void>> ready, final AtomicBoolean aborted, final long timeout) {
+        aborted.set(true);
+        final List<CompletableFuture<Void>> released = new ArrayList();
+        int index = 0;
+        for (RESTInterface intf : interfaces) {
+            released.add(ready.get(index++).handleAsync((result, ex) -> {
+                releaseQuietly(intf);
+                return null;
+            }, WORKERS));
+        }
+        await(released, timeout, "rolling back");
+    }
+
+    /**
+     * Stop the proxies of the given interfaces at the same time, waiting up
+     * to the timeout for them. Errors are logged.
+     * @param interfaces The interfaces to release.
+     * @param timeout The time (ms) to wait for all of the proxies.
+     */
+    public static void release(final Collection<RESTInterface> interfaces, final long timeout) {
+        final List<CompletableFuture<Void>> released = new ArrayList();
+        for (RESTInterface intf : interfaces) {
+            released.add(CompletableFuture.runAsync(() -> releaseQuietly(intf), WORKERS));
+        }
+        await(released, timeout, "releasing");
+    }
+
+    /**
+     * Release an interface, logging any error.
+     * @param intf The interface to release.
+     */
+    private static void releaseQuietly(final RESTInterface intf) {
+        try {
+            intf.release();
+        } catch (WrapperDeploymentException | RuntimeException ex) {
+            ServiceLogger.LOG.error("Error releasing REST Intf" + intf.getInterface(), ex);
+        }
+    }
+
+    /**
+     * Wait for a set of futures, logging if they do not complete in time.
+     * @param futures The futures to wait for.
+     * @param timeout The time (ms) to wait.
+     * @param action The action reported in the log.
+     */
+    private static void await(final List<CompletableFuture<Void>> futures, final long timeout, final String action) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                    .get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ex) {
+            ServiceLogger.LOG.error("Proxies still running after " + action + " for " + timeout + "ms", ex);
+        }
+    }
+
+    /**
+     * Carries the failure of an interface deployment out of its task.
+     */
+    private static final class DeploymentError extends RuntimeException {
+
+        /**
+         * Wrap the deployment failure.
+         * @param cause The reason the interface could not be deployed.
+         */
+        DeploymentError(final InvalidInterfaceException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Creates the daemon threads that start and stop proxies.
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+
+        /**
+         * The number of workers created.
+         */
+        private final transient AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread worker = new Thread(runnable, "proxy-deployer-" + count.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        }
+    }
+}
@@ -29,6 +29,7 @@ package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
 import java.util.ArrayList;
 import java.util.List;
 import org.jdom.Element;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.SharedProxyServer;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
 
 /**
@@ -92,6 +93,7 @@ public class RESTComponent {
 
     /**
      * Construct a new component instance using the DOM <component> tag content.
+     * The proxies of the interfaces are not started until they are deployed.
      *
      * @param eltIndex The DOM element of the component.
      * @param capture The event capture interface.
@@ -100,6 +102,21 @@ public class RESTComponent {
      */
     public RESTComponent(final Element eltIndex, final EventCapture capture)
         throws InvalidArchitectureException {
+        this(eltIndex, capture, null);
+    }
+
+    /**
+     * Construct a new component instance using the DOM <component> tag content.
+     * The HTTP interfaces are proxied by the shared server, if one is given.
+     *
+     * @param eltIndex The DOM element of the component.
+     * @param capture The event capture interface.
+     * @param shared The shared HTTP proxy server; may be null.
+     * @throws InvalidArchitectureException Error indicating error in specifying
+     * .new architecture component.
+     */
+    public RESTComponent(final Element eltIndex, final EventCapture capture,
+            final SharedProxyServer shared) throws InvalidArchitectureException {
 
         this.interfaces = new ArrayList();
 
@@ -116,8 +133,10 @@ public class RESTComponent {
         final List<Element> xmlStates = eltIndex.getChildren(XMLStateMachine.INTERFACE_LABEL);
         for (Element eltIntfIndex : xmlStates) {
             try {
-                addInterface(new RESTInterface(eltIntfIndex, capture));
+                addInterface(new RESTInterface(eltIntfIndex, capture, shared, componentID));
             } catch (InvalidInterfaceException ex) {
+                // free the ports of the interfaces already created
+                ProxyDeployer.release(interfaces, ProxyDeployer.getTimeout());
                 throw new InvalidArchitectureException("Invalid Interface on Component", ex);
             }
         }
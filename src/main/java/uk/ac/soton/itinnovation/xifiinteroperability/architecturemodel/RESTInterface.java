@@ -36,8 +36,10 @@ import org.jdom.Element;
 import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.InvalidWrapperException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.Proxy;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.SharedProxyServer;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.WrapperDeploymentException;
-import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+import uk.ac.soton.itinnovation.xifiinteroperability.PortAllocator;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 
 /**
  * A RESTInterface is a representation of a HTTP REST endpoint. The input
@@ -54,6 +56,10 @@ import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
  Where a proxy cannot be created for a given interface (e.g. due to protocol
  and port issues, or firewall problems) then a WrapperDeploymentException
  is thrown
+
+ The port of the proxy is reserved when the interface is created; the proxy
+ itself is started by deploy(), so that the proxies of an architecture can
+ be started together (see ProxyDeployer).
  *
  * @author Paul Grace
  */
@@ -113,6 +119,41 @@ public class RESTInterface {
         return protocol;
     }
 
+    /**
+     * The URL of the interface the proxy redirects to.
+     */
+    private final transient URL targetURL;
+
+    /**
+     * The shared HTTP server proxying this interface; null if the interface
+     * has a proxy (and port) of its own.
+     */
+    private final transient SharedProxyServer sharedServer;
+
+    /**
+     * The path prefix of this interface on the shared server.
+     */
+    private final transient String sharedPrefix;
+
+    /**
+     * The URL applications call the interface through on the shared server.
+     */
+    private transient URL sharedURL;
+
+    /**
+     * Access the URL applications call the proxy of the interface through
+     * when it is attached to the shared HTTP server.
+     * @return The proxy URL, or null if the interface has its own proxy.
+     */
+    public final URL getSharedProxyURL() {
+        return sharedURL;
+    }
+
+    /**
+     * Set once the interface has been released.
+     */
+    private transient boolean released;
+
     /**
      * The port number of the interface. This is not accessed outside the class.
      */
@@ -167,6 +208,25 @@ public class RESTInterface {
      */
     public RESTInterface(final Element eltIntIndex, final EventCapture capture)
             throws InvalidInterfaceException {
+        this(eltIntIndex, capture, null, null);
+    }
+
+    /**
+     * Create a data object describing a REST interface in the architectural
+     * pattern. An HTTP interface is proxied by the shared server (if given)
+     * under the path prefix {componentID}/{interfaceID} rather than by a
+     * proxy with its own port.
+     *
+     * @param eltIntIndex The XML DOM element containing the <url>tag value
+     * @param capture The notification interface where events from this interface
+     * are sent to.
+     * @param shared The shared HTTP proxy server; null for a proxy of its own.
+     * @param componentID The identifier of the component of the interface.
+     * @throws InvalidInterfaceException Error creating the proxy from specification.
+     */
+    public RESTInterface(final Element eltIntIndex, final EventCapture capture,
+            final SharedProxyServer shared, final String componentID)
+            throws InvalidInterfaceException {
         try {
             url = eltIntIndex.getChildText(URLXMLTAG);
             String changedURL = url;
@@ -178,17 +238,40 @@ public class RESTInterface {
             this.interfaceID = eltIntIndex.getChildText(INTERFACEIDXMLTAG);
             this.protocol = eltIntIndex.getChildText(PROTOCOLXMLTAG);
 
-            this.port = SystemProperties.getAvailablePort(urlInFormat.getPort());
+            this.targetURL = urlInFormat;
 
-            this.pushEvents = capture;
+            if (shared != null && !"coap".equals(protocol) && !"mqtt".equals(protocol)) {
+                this.sharedServer = shared;
+                this.sharedPrefix = componentID + "/" + interfaceID;
+                this.port = shared.getPort();
+            } else {
+                this.sharedServer = null;
+                this.sharedPrefix = null;
+                this.port = PortAllocator.getInstance().allocate(urlInFormat.getPort());
+            }
 
-            addProxy(urlInFormat);
+            this.pushEvents = capture;
 
         } catch (MalformedURLException ex) {
 
             throw new InvalidInterfaceException("REST interface specification error (must be http://address:port)", ex);
         } catch (ConfigurationException ex) {
             throw new InvalidInterfaceException("Specified port fail", ex);
+        }
+    }
+
+    /**
+     * Create and start the proxy of this interface. If this fails the
+     * interface must still be released to stop any part of the proxy that
+     * was started and to free its port.
+     * @throws InvalidInterfaceException Error creating the proxy.
+     */
+    public final synchronized void deploy() throws InvalidInterfaceException {
+        if (released) {
+            throw new InvalidInterfaceException("The interface has been released");
+        }
+        try {
+            addProxy(targetURL);
         } catch (InvalidWrapperException ex) {
             throw new InvalidInterfaceException("Could not create a proxy", ex);
         }
@@ -225,7 +308,12 @@ public class RESTInterface {
                     mqttProxy = new MQTTProxy(urlIn.getHost(), urlIn.getPort(), this.pushEvents);
                     mqttProxy.startServer(pushEvents);
                     break;
-                default: interfaceRedirect = new Proxy(urlIn, org.restlet.data.Protocol.HTTP,
+                default:
+                    if (sharedServer != null) {
+                        sharedURL = sharedServer.attach(sharedPrefix, urlIn, pushEvents);
+                        break;
+                    }
+                    interfaceRedirect = new Proxy(urlIn, org.restlet.data.Protocol.HTTP,
                     port, pushEvents);
                     interfaceRedirect.startup();
             }
@@ -235,19 +323,38 @@ public class RESTInterface {
     }
 
     /**
-     * Release the resources employed by the proxy of the interface.
+     * Release the resources employed by the proxy of the interface. Only the
+     * first call has any effect.
      * @throws WrapperDeploymentException Error releasing the proxy resources.
      */
-    public final void release() throws WrapperDeploymentException {
-        if (this.interfaceRedirect != null) {
-            this.interfaceRedirect.shutdown();
-        }
-        if (this.coapProxy != null) {
-            coapProxy.stop();
-            coapProxy.destroy();
+    public final synchronized void release() throws WrapperDeploymentException {
+        if (released) {
+            return;
         }
-        if (this.mqttProxy != null) {
-            mqttProxy.stopServer();
+        released = true;
+        try {
+            if (this.interfaceRedirect != null) {
+                this.interfaceRedirect.shutdown();
+            }
+            if (this.coapProxy != null) {
+                coapProxy.stop();
+                coapProxy.destroy();
+            }
+            if (this.mqttProxy != null) {
+                mqttProxy.stopServer();
+            }
+            if (this.sharedURL != null) {
+                sharedServer.detach(sharedPrefix);
+            }
+        } finally {
+            // the port of a shared interface belongs to the shared server
+            if (this.sharedServer == null) {
+                try {
+                    PortAllocator.getInstance().release(port);
+                } catch (ConfigurationException ex) {
+                    ServiceLogger.LOG.error("Unable to release port " + port, ex);
+                }
+            }
         }
     }
 }
@@ -28,6 +28,8 @@ package uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.collections;
 
 import java.awt.CardLayout;
 import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.AbstractAction;
 import javax.swing.ImageIcon;
 import javax.swing.JMenuItem;
@@ -159,6 +161,14 @@ public class CollectionEditingMenu extends TreeEditingMenu {
                             return;
                         }
                         final boolean askUser = check == JOptionPane.NO_OPTION;
+                        if (!askUser) {
+                            final List<String> tests = new ArrayList<>();
+                            for (int j = 0; j < node.getChildCount(); j++) {
+                                tests.add(node.getChildAt(j).toString());
+                            }
+                            browser.executeTests(tests);
+                            return;
+                        }
 
                         final StringBuilder summaryReportTrace = new StringBuilder();
                         summaryReportTrace.append("Interoperability tests - Summary report\n\n\n");
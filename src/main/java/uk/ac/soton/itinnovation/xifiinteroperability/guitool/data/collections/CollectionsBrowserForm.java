@@ -28,6 +28,8 @@ package uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.collections;
 import java.awt.BorderLayout;
 import java.awt.CardLayout;
 import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
@@ -40,9 +42,11 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -55,10 +59,15 @@ import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 import org.apache.commons.io.FileUtils;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CollectionExecutor;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CollectionSummary;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.PatternExecutor;
+import uk.ac.soton.itinnovation.xifiinteroperability.guitool.editor.EditorToolBar;
+import uk.ac.soton.itinnovation.xifiinteroperability.guitool.editor.MainDisplayPanel;
 import uk.ac.soton.itinnovation.xifiinteroperability.guitool.editor.BasicGraphEditor;
-import uk.ac.soton.itinnovation.xifiinteroperability.guitool.editor.MultiTestsExecutionManager;
 import uk.ac.soton.itinnovation.xifiinteroperability.guitool.editor.actions.EditorActions;
 import uk.ac.soton.itinnovation.xifiinteroperability.guitool.editor.actions.FileActions;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.MultiTestsExecutionManager;
 
 /**
  * This panel represents the collections browser. It shows all the open models in the tool, either separated in user defined collections or
@@ -76,7 +85,7 @@ public class CollectionsBrowserForm extends JPanel {
     /**
      * handles the execution of multiple tests by storing captured and declared values from all past tests
      */
-    private final MultiTestsExecutionManager execManager = new MultiTestsExecutionManager();
+    private final MultiTestsExecutionManager execManager = MultiTestsExecutionManager.fromProperties();
 
     /**
      * a getter for the multiple tests execution manager
@@ -903,6 +912,76 @@ public class CollectionsBrowserForm extends JPanel {
         return null;
     }
 
+    /**
+     * executes a list of tests with no interventions, running independent tests at the same time
+     * (see CollectionExecutor), each test in the background without being opened in the editor;
+     * the summary report is written to the testing output as each test finishes
+     * @param testsToExecute the names of the models to execute
+     */
+    public void executeTests(List<String> testsToExecute){
+        if (editor.isRunning()){
+            JOptionPane.showMessageDialog(editor,
+                    "There is currently another test running. Either let the test finish or stop it before starting a new one.",
+                    "Multiple test executions", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        // make sure the latest version of the opened model is executed
+        if (currentModel != null && openedModels.containsKey(currentModel)) {
+            openedModels.get(currentModel).setXML(editor.getDataModel().getGraphXML());
+            openedModels.get(currentModel).setModified(editor.isModified());
+        }
+
+        final Map<String, String> tests = new LinkedHashMap<>();
+        for (String test: testsToExecute){
+            if (openedModels.containsKey(test)){
+                tests.put(test, openedModels.get(test).getXml());
+            }
+        }
+
+        editor.getCodePanel().getTestingPanel().clearTestingPanel();
+        final CardLayout cardLayout = (CardLayout) editor.getMainArea().getLayout();
+        cardLayout.show(editor.getMainArea(), MainDisplayPanel.REPORTPANEL);
+
+        final PatternExecutor patternExecutor = new PatternExecutor(execManager, null, 0);
+        final CollectionExecutor collectionExecutor = new CollectionExecutor(patternExecutor, CollectionExecutor.workersFromProperties());
+        final CollectionSummary summary = new CollectionSummary(editor.getCodePanel().getTestingPanel().getInteroperabilityReport());
+
+        // the stop button stops the whole collection run
+        final EditorToolBar toolBar = (EditorToolBar) ((BorderLayout) editor.getLayout()).getLayoutComponent(BorderLayout.NORTH);
+        final JButton stopButton = (JButton) toolBar.getComponentAtIndex(toolBar.getStopButtonIndex());
+        final ActionListener[] listeners = stopButton.getActionListeners();
+        if (listeners != null && listeners.length >= 1){
+            stopButton.removeActionListener(listeners[listeners.length-1]);
+        }
+        stopButton.addActionListener((ActionEvent e) -> collectionExecutor.stop());
+
+        editor.setRunning(true);
+        final Thread runThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    collectionExecutor.execute(tests, summary);
+                    summary.finish();
+                } finally {
+                    patternExecutor.shutdown();
+                    editor.setRunning(false);
+                }
+
+                // don't reset the test data maps, we want to keep them in memory (e.g. similar to cache)
+                editor.getCodePanel().getReportsPanel().addTabReport(summary.getText());
+                final int check = JOptionPane.showConfirmDialog(editor, "The execution of the tests has been completed. Do you want to view the summary test report?",
+                        "Completed execution", JOptionPane.YES_NO_OPTION);
+                if (check == JOptionPane.YES_OPTION) {
+                    final CardLayout sideLayout = (CardLayout) editor.getAttributePanel().getLayout();
+                    sideLayout.show(editor.getAttributePanel(), "empty");
+                    new EditorActions.ReportsAction(editor).actionPerformed(null);
+                }
+            }
+        };
+        runThread.start();
+    }
+
     /**
      * constructs the CategoriesBrowserForm
      * @param editor reference to the editor
@@ -1045,6 +1124,10 @@ public class CollectionsBrowserForm extends JPanel {
                         return;
                     }
                     final boolean askUser = check == JOptionPane.NO_OPTION;
+                    if (!askUser) {
+                        executeTests(testsToExecute);
+                        return;
+                    }
 
                     final StringBuilder summaryReportTrace = new StringBuilder();
                     summaryReportTrace.append("Interoperability tests - Summary report\n\n\n");
@@ -28,6 +28,8 @@ package uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.collections;
 
 import java.awt.CardLayout;
 import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.AbstractAction;
 import javax.swing.ImageIcon;
 import javax.swing.JMenuItem;
@@ -91,6 +93,17 @@ public class RootEditingMenu extends TreeEditingMenu {
                     return;
                 }
                 final boolean askUser = check == JOptionPane.NO_OPTION;
+                if (!askUser) {
+                    final List<String> tests = new ArrayList<>();
+                    for (int i = 0; i < browser.getRoot().getChildCount(); i++) {
+                        final TreeNode collection = browser.getRoot().getChildAt(i);
+                        for (int j = 0; j < collection.getChildCount(); j++) {
+                            tests.add(collection.getChildAt(j).toString());
+                        }
+                    }
+                    browser.executeTests(tests);
+                    return;
+                }
 
                 final StringBuilder summaryReportTrace = new StringBuilder();
                 summaryReportTrace.append("Interoperability tests - Summary report\n\n\n");
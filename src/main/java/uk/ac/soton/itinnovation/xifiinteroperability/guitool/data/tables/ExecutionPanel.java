@@ -84,7 +84,9 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MQTTEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.ExecutionListener;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateNode;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.TimerDialog;
 
 /**
  * A panel to display the behaviour and the system graph when running a test
@@ -93,7 +95,7 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine
  *
  * @author Nikolay Stanchev
  */
-public class ExecutionPanel extends JPanel {
+public class ExecutionPanel extends JPanel implements ExecutionListener {
     
     private static final String HEADERS_TAB_NAME = "Headers information";
     
@@ -161,7 +163,7 @@ public class ExecutionPanel extends JPanel {
         add(outer, BorderLayout.CENTER);
 
         JPanel tablePanel = new JPanel(new BorderLayout());
-        String[] columnNames = {"Interface:", "Proxy running on port:"};
+        String[] columnNames = {"Interface:", "Proxy running on port / URL:"};
         Object[][] data = {};
         DefaultTableModel model = new DefaultTableModel(data, columnNames);
         portsTable = new JTable(model) {
@@ -200,8 +202,15 @@ public class ExecutionPanel extends JPanel {
                     // replace the port of the interface url with the port url
                     String urlStr = portsTable.getValueAt(rowIndex, 0).toString();
                     String proxyPort = (String) portsTable.getValueAt(rowIndex, 1);
-                    URL url = new URL(urlStr);
-                    url = new URL(url.getProtocol(), url.getHost(), Integer.parseInt(proxyPort), url.getFile());
+                    URL url;
+                    if (proxyPort.contains("://")){
+                        // the interface is on the shared HTTP listener, its proxy url is shown as it is
+                        url = new URL(proxyPort);
+                    }
+                    else {
+                        url = new URL(urlStr);
+                        url = new URL(url.getProtocol(), url.getHost(), Integer.parseInt(proxyPort), url.getFile());
+                    }
 
                     // copy the url
                     StringSelection stringSel = new StringSelection(url.toString());
@@ -279,7 +288,10 @@ public class ExecutionPanel extends JPanel {
         List<List<String>> data = new ArrayList<>();
         restComponents.values().forEach((component) -> {
             component.getInterfaces().forEach((restInterface) -> {
-                data.add(new ArrayList<>(Arrays.asList(restInterface.getURL(), Integer.toString(restInterface.getPort()))));
+                // interfaces on the shared HTTP listener are reached through a path of its port
+                URL sharedURL = restInterface.getSharedProxyURL();
+                String proxy = sharedURL != null ? sharedURL.toString() : Integer.toString(restInterface.getPort());
+                data.add(new ArrayList<>(Arrays.asList(restInterface.getURL(), proxy)));
             });
         });
 
@@ -342,6 +354,41 @@ public class ExecutionPanel extends JPanel {
         isCellSelectable = false;
     }
 
+    /**
+     * the dialog showing the time left before a timeout transition, if one is shown
+     */
+    private transient TimerDialog timerDialog;
+
+    /**
+     * the state machine moved to a new state, select it in the graph
+     * @param label the label of the state
+     */
+    @Override
+    public void stateEntered(String label){
+        setTestState(label);
+    }
+
+    /**
+     * show the time left before the timeout transition
+     * @param timeout the timeout in milliseconds
+     */
+    @Override
+    public void timeoutStarted(long timeout){
+        timerDialog = new TimerDialog();
+        timerDialog.initGUI(timeout);
+    }
+
+    /**
+     * close the timeout dialog
+     */
+    @Override
+    public void timeoutEnded(){
+        if (timerDialog != null){
+            timerDialog.dispose();
+            timerDialog = null;
+        }
+    }
+
     public void setListener(mxGraphComponent graphComponent){
         graphComponent.setConnectable(false);
         
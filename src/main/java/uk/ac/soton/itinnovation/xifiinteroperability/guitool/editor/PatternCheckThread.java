@@ -99,7 +99,8 @@ public class PatternCheckThread extends Thread {
     @Override
     public final void run() {
         try {
-            arch = new Architecture(patternToTest, report, debugMode, editor.getExecPanel(), editor.getCollectionsBrowserPanel());
+            arch = new Architecture(patternToTest, report, debugMode, editor.getExecPanel(),
+                    editor.getCollectionsBrowserPanel().getMultiTestsManager(), editor.getCollectionsBrowserPanel().getCurrentModel());
             editor.getExecPanel().refreshGraph(arch.getServices());
             editor.setStateMachine(arch.getStateMachine());
             if (arch.getStateMachine().getStartState() == null) {
@@ -60,19 +60,28 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import org.restlet.Context;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Restlet;
 import org.restlet.data.Form;
+import org.restlet.data.MediaType;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 import org.restlet.data.Reference;
 import org.restlet.data.Status;
 import org.restlet.engine.header.HeaderConstants;
+import org.restlet.representation.InputRepresentation;
 import org.restlet.representation.Representation;
 
 /**
@@ -86,6 +95,7 @@ import org.restlet.routing.Template;
 import org.restlet.util.Series;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
 
 /**
  * Rewrites URIs then redirects the call or the client to a new destination.
@@ -198,15 +208,80 @@ public final class AOPRedirector extends Restlet {
     /** The target URI pattern. */
     private Map<String, String> targetTemplate;
 
+    /** Request attribute holding the target reference of the exchange. */
+    public static final String ATTR_TARGET = "org.interop.redirect.target";
+
+    /** Request attribute holding the time (System.nanoTime) the exchange was forwarded. */
+    public static final String ATTR_START = "org.interop.redirect.start";
+
+    /** Request attribute holding the event captured for the request. */
+    public static final String ATTR_EVENT = "org.interop.redirect.event";
+
+    /** Request attribute holding the tee on the request body. */
+    public static final String ATTR_CAPTURE = "org.interop.redirect.capture";
+
+    /** Request attribute holding the event sequence number of the request. */
+    public static final String ATTR_SEQUENCE = "org.interop.redirect.sequence";
+
+    /** The number of body bytes captured when none is configured. */
+    public static final int DEFAULT_CAPTURE_LIMIT = 65536;
+
+    /** The number of fixed parameters of a request event. */
+    private static final int REQUEST_FIELDS = 4;
+
+    /** The number of fixed parameters of a reply event. */
+    private static final int REPLY_FIELDS = 7;
+
+    /** The most header names whose event parameter keys are kept. */
+    private static final int MAX_HEADER_KEYS = 1024;
+
+    /**
+     * The event parameter keys of the header names seen so far, e.g.
+     * Content-Type to http.content-type; shared by all redirectors so that
+     * the keys are built once rather than for every message.
+     */
+    private static final Map<String, String> HEADER_KEYS = new ConcurrentHashMap();
+
+    /** The event parameter key of the content type of a message body. */
+    private static final String CONTENT_TYPE_KEY = headerKey("content-type");
+
     /** The redirection mode. */
     private int mode;
 
+    /**
+     * Whether exchanges are redirected concurrently. When false (the default)
+     * each exchange is handled one at a time.
+     */
+    private volatile boolean concurrent;
+
     /**
      * Added field. The reference to the state machine push event interface, i.e.
      * the redirector creates events and passes them to the state machine.
      */
     private transient EventCapture stateMachine;
 
+    /**
+     * Orders the events pushed to the state machine when exchanges are
+     * handled concurrently.
+     */
+    private final transient EventSequencer sequencer;
+
+    /**
+     * Lock guarding the count of exchanges being redirected.
+     */
+    private final transient Object idle = new Object();
+
+    /**
+     * The number of exchanges being redirected. Guarded by idle.
+     */
+    private transient int active;
+
+    /**
+     * The maximum number of bytes of a request or reply body copied into its
+     * event.
+     */
+    private volatile int captureLimit;
+
     /**
      * Constructor for the client dispatcher mode.
      *
@@ -237,10 +312,67 @@ public final class AOPRedirector extends Restlet {
     public AOPRedirector(final Context context, final String targetPattern, final int modeOp, final EventCapture stm) {
         super(context);
 
-        this.targetTemplate = new HashMap();
+        this.targetTemplate = new ConcurrentHashMap();
         setTargetTemplate(targetPattern);
         this.mode = modeOp;
         this.stateMachine = stm;
+        this.sequencer = new EventSequencer(stm);
+        this.captureLimit = readCaptureLimit();
+    }
+
+    /**
+     * Read the capture_max_body property.
+     * @return The configured limit, or the default if it is missing or invalid.
+     */
+    private static int readCaptureLimit() {
+        try {
+            final String value = SystemProperties.readProperty("capture_max_body");
+            if (value != null && Integer.parseInt(value.trim()) >= 0) {
+                return Integer.parseInt(value.trim());
+            }
+        } catch (Exception ex) {
+            ServiceLogger.LOG.error("Invalid capture_max_body property - using " + DEFAULT_CAPTURE_LIMIT);
+        }
+        return DEFAULT_CAPTURE_LIMIT;
+    }
+
+    /**
+     * The maximum number of bytes of a request or reply body copied into its
+     * event.
+     * @return The capture limit in bytes.
+     */
+    public int getCaptureLimit() {
+        return this.captureLimit;
+    }
+
+    /**
+     * Change the maximum number of bytes of a request or reply body copied
+     * into its event. Longer bodies are still forwarded in full; the event
+     * holds the start of the body and records the full size in the
+     * http.content-truncated parameter.
+     * @param limit The capture limit in bytes.
+     */
+    public void setCaptureLimit(final int limit) {
+        this.captureLimit = Math.max(0, limit);
+    }
+
+    /**
+     * Whether exchanges are redirected concurrently.
+     * @return true if the concurrent redirect mode is on.
+     */
+    public boolean isConcurrent() {
+        return this.concurrent;
+    }
+
+    /**
+     * Switch the concurrent redirect mode on or off. In concurrent mode
+     * several exchanges can be in flight to the target at once; the events
+     * they produce still reach the event capture interface in the order they
+     * were observed.
+     * @param concurrentMode true to redirect exchanges concurrently.
+     */
+    public void setConcurrent(final boolean concurrentMode) {
+        this.concurrent = concurrentMode;
     }
 
     /**
@@ -321,12 +453,64 @@ public final class AOPRedirector extends Restlet {
      *            The response to update.
      */
     @Override
-    public synchronized void handle(final Request request, final Response response) {
+    public void handle(final Request request, final Response response) {
+        synchronized (idle) {
+            active++;
+        }
+        try {
+            if (this.concurrent) {
+                redirect(request, response);
+            } else {
+                synchronized (this) {
+                    redirect(request, response);
+                }
+            }
+        } finally {
+            synchronized (idle) {
+                active--;
+                if (active == 0) {
+                    idle.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until no exchange is being redirected, e.g. so that the replies
+     * in progress are sent before the proxy is stopped.
+     * @param timeout The maximum time (ms) to wait.
+     * @return true if the redirector is idle, false if the time ran out.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    public boolean awaitIdle(final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        synchronized (idle) {
+            long remaining = timeout;
+            while (active > 0 && remaining > 0) {
+                idle.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return active == 0;
+        }
+    }
+
+    /**
+     * Redirect a single exchange. All of the state of the exchange is kept
+     * on the request (see the ATTR_ constants) so that this method can be
+     * called by several threads at once.
+     *
+     * @param request
+     *            The request to handle.
+     * @param response
+     *            The response to update.
+     */
+    private void redirect(final Request request, final Response response) {
         // Generate the target reference
         Reference targetRef = getTargetRef(request, response);
         if (targetRef == null) {
             targetRef = request.getResourceRef();
         }
+        request.getAttributes().put(ATTR_TARGET, targetRef);
         /**
          * IT Innovation Modification
          * Author: Paul Grace
@@ -334,16 +518,16 @@ public final class AOPRedirector extends Restlet {
          * Call the pre method interceptor to observe/process the incoming
          * HTTP request message.
          */
-        long reqTime = 0;
+        request.getAttributes().put(ATTR_START, System.nanoTime());
         try {
             pre(request);
-            reqTime = System.currentTimeMillis();
+            request.getAttributes().put(ATTR_START, System.nanoTime());
         } catch (Exception ex) {
             /**
              * We have to catch exceptions and then pass them to the pattern
              * engine before they are lost in restlet specific handlers
              */
-            this.stateMachine.logException(ex);
+            logException(ex);
             /**
              * The handle method should continue as normal i.e. don't return
              * return.
@@ -353,6 +537,116 @@ public final class AOPRedirector extends Restlet {
         /**
          * End modification
          */
+        try {
+            forward(targetRef, request, response);
+        } finally {
+            // The request body has now been forwarded (or dropped): finish
+            // its capture and release the request event
+            completeRequest(request);
+        }
+
+        /**
+         * IT Innovation modification
+         * Author: Paul Grace
+         *
+         * Call the post interceptor: void method as this may be made an
+         * asynchronous call if necessary.
+         */
+        final long responseTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - (Long) request.getAttributes().get(ATTR_START));
+        try {
+            post(request, response, responseTime);
+        } catch (WrapperDeploymentException ex) {
+            /**
+             * We have to catch exceptions and then pass them to the pattern
+             * engine before they are lost in restlet specific handlers
+             */
+            logException(ex);
+            /**
+             * The handle method should continue as normal i.e. don't return
+             * return.
+             */
+        }
+        /**
+         * End modification
+         */
+    }
+
+    /**
+     * Pass an exception to the event capture interface, if there is one.
+     * @param ex The exception observed.
+     */
+    private void logException(final Exception ex) {
+        if (this.stateMachine != null) {
+            this.stateMachine.logException(ex);
+        }
+    }
+
+    /**
+     * The event parameter key of a header, i.e. http. followed by the header
+     * name in lower case. Keys are kept for the first MAX_HEADER_KEYS header
+     * names seen; each distinct name is then converted only once.
+     * @param name The header name.
+     * @return The event parameter key.
+     */
+    private static String headerKey(final String name) {
+        String key = HEADER_KEYS.get(name);
+        if (key == null) {
+            key = RESTEvent.HTTP_CONFIG_HEAD + name.toLowerCase(Locale.ENGLISH);
+            if (HEADER_KEYS.size() < MAX_HEADER_KEYS) {
+                key = key.intern();
+                HEADER_KEYS.putIfAbsent(name, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * The character set of a message body.
+     * @param entity The body.
+     * @return Its declared character set, or UTF-8 if none is declared.
+     */
+    private static Charset charsetOf(final Representation entity) {
+        return entity.getCharacterSet() == null
+                ? StandardCharsets.UTF_8 : entity.getCharacterSet().toCharset();
+    }
+
+    /**
+     * Add the captured start of a message body to its event: as the event
+     * content and, for complete url encoded forms only, as the form
+     * parameters. A body cut at the capture limit is flagged with its size.
+     * @param event The event of the message.
+     * @param capture The copy of the start of the body.
+     * @param entity The body.
+     */
+    private static void addCapturedContent(final RESTEvent event, final BodyCapture capture,
+            final Representation entity) {
+        final MediaType mediaType = entity.getMediaType();
+        final String msgBody = capture.getText(charsetOf(entity));
+        event.addContent(mediaType == null ? "" : mediaType.getName(), msgBody);
+        if (capture.isTruncated()) {
+            event.addParameter(new Parameter(RESTEvent.HTTP_CONTENT_TRUNCATED, Long.toString(capture.getSize())));
+        } else if (MediaType.APPLICATION_WWW_FORM.equals(mediaType, true)) {
+            // Get the local parameters from the attached REST form
+            final Form iForm = new Form(msgBody);
+            for (org.restlet.data.Parameter parameter : iForm) {
+                final Parameter toCast = new Parameter(parameter.getName(), parameter.getValue());
+                event.addParameter(toCast);
+            }
+        }
+    }
+
+    /**
+     * Send the exchange on according to the redirection mode.
+     *
+     * @param targetRef
+     *            The target reference with URI variables resolved.
+     * @param request
+     *            The request to handle.
+     * @param response
+     *            The response to update.
+     */
+    private void forward(final Reference targetRef, final Request request, final Response response) {
         switch (this.mode) {
         case MODECLIENTPERM:
             if (request.isLoggable()) {
@@ -409,33 +703,6 @@ public final class AOPRedirector extends Restlet {
             inboundServerRedirect(targetRef, request, response);
             break;
         }
-
-        /**
-         * IT Innovation modification
-         * Author: Paul Grace
-         *
-         * Call the post interceptor: void method as this may be made an
-         * asynchronous call if necessary.
-         */
-        long responseTime = System.currentTimeMillis() - reqTime;
-        try {
-            post(request, response, responseTime);
-        } catch (WrapperDeploymentException ex) {
-            /**
-             * We have to catch exceptions and then pass them to the pattern
-             * engine before they are lost in restlet specific handlers
-             */
-            this.stateMachine.logException(ex);
-            /**
-             * The handle method should continue as normal i.e. don't return
-             * return.
-             */
-        }
-        /**
-         * End modification
-        /**
-         * End modification
-         */
     }
 
     /**
@@ -597,13 +864,36 @@ public final class AOPRedirector extends Restlet {
      * to the request
      * @throws WrapperDeploymentException Error when reading the response from the wrapper.
      */
-    private void post(final Request req, final Response response, long time) throws WrapperDeploymentException {
+    private void post(final Request req, final Response response, final long time) throws WrapperDeploymentException {
+        if (this.stateMachine == null) {
+            // No one observes the exchange: capture is off
+            return;
+        }
+        final long sequence = this.sequencer.nextSequence();
+        RESTEvent captured = null;
+        try {
+            captured = buildReplyEvent(req, response, time);
+        } finally {
+            this.sequencer.complete(sequence, captured);
+        }
+    }
+
+    /**
+     * Build the reply event from the HTTP response of an exchange.
+     *
+     * @param req The HTTP request of the exchange.
+     * @param response The HTTP response that the system has returned.
+     * @param time The response time of the exchange in milliseconds.
+     * @return The reply event.
+     */
+    private RESTEvent buildReplyEvent(final Request req, final Response response, final long time) {
 
         /*
          * Create a REST event about the Service Response i.e. capture and
          * uniform the data to be understood by the state machine rule checker
          */
-        final RESTEvent rResp = new RESTEvent();
+        final Series<Header> headers = (Series<Header>) response.getAttributes().get("org.restlet.http.headers");
+        final RESTEvent rResp = new RESTEvent(REPLY_FIELDS + (headers == null ? 0 : headers.size()));
         rResp.setResponseTime(time);
         rResp.addParameter(new Parameter(RESTEvent.RESPONSE_TIME, Long.toString(time)));
         rResp.addParameter(new Parameter(RESTEvent.HTTP_FROM, response.getServerInfo().getAddress()));
@@ -612,46 +902,51 @@ public final class AOPRedirector extends Restlet {
         rResp.addParameter(new Parameter(RESTEvent.HTTP_CODE, Integer.toString(response.getStatus().getCode())));
 
         // Build the headers from the HTTP headers
-        final Series<Header> headers = (Series<Header>) response.getAttributes().get("org.restlet.http.headers");
         if (headers != null) {
             for (Header h : headers) {
-                rResp.addParameter(new Parameter(RESTEvent.HTTP_CONFIG_HEAD + h.getName().toLowerCase(), h.getValue()));
+                rResp.addParameter(new Parameter(headerKey(h.getName()), h.getValue()));
             }
         }
         // Build the body data structure
         /*
          * Extract the parameter content. RESTLET reads off the stream, so the
-         * data must be rewritten or the response to the actual client
-         * will be interfered with.
+         * start of the body that is read for the event is replayed ahead of
+         * the rest of the stream, or the response to the actual client
+         * will be interfered with. At most the capture limit is read; the
+         * rest streams to the client as it arrives. The body is only read if
+         * the state machine can use it; otherwise it streams to the client
+         * untouched.
          */
         if (response.isEntityAvailable()) {
-            final String contentType = response.getEntity().getMediaType().getName();
-            final String msgBody = response.getEntityAsText();
-            rResp.addParameter(new Parameter(RESTEvent.HTTP_CONFIG_HEAD + "content-type", contentType));
-            rResp.addContent(contentType, msgBody);
-            // Get the local parameters from the attached REST form
-            try {
-                final Form iForm = new Form(msgBody);
-                for (org.restlet.data.Parameter parameter : iForm) {
-                    final Parameter toCast = new Parameter(parameter.getName(), parameter.getValue());
-                    rResp.addParameter(toCast);
+            final Representation entity = response.getEntity();
+            final MediaType mediaType = entity.getMediaType();
+            final String contentType = mediaType == null ? "" : mediaType.getName();
+            rResp.addParameter(new Parameter(CONTENT_TYPE_KEY, contentType));
+            if (this.stateMachine.requiresContent()) {
+                try {
+                    final InputStream body = entity.getStream();
+                    final BodyCapture capture = new BodyCapture(
+                            body == null ? new ByteArrayInputStream(new byte[0]) : body,
+                            captureLimit, entity.getSize());
+                    capture.fill();
+                    final InputRepresentation copy = new InputRepresentation(
+                            capture.replay(), mediaType, entity.getSize());
+                    copy.setCharacterSet(entity.getCharacterSet());
+                    copy.setEncodings(entity.getEncodings());
+                    copy.setLanguages(entity.getLanguages());
+                    copy.setTag(entity.getTag());
+                    copy.setModificationDate(entity.getModificationDate());
+                    copy.setExpirationDate(entity.getExpirationDate());
+                    response.setEntity(copy);
+
+                    addCapturedContent(rResp, capture, entity);
+                } catch (IOException | RuntimeException ex) {
+                    ServiceLogger.LOG.error("Error creating response event for state machine", ex);
                 }
-            } catch (Exception ex) {
-                ServiceLogger.LOG.error("Error creating response event for state machine", ex);
-            }
-            response.setEntity(msgBody, response.getEntity().getMediaType());
-        }
-
-        // Push the create event
-        try {
-            if (this.stateMachine != null) {
-                this.stateMachine.pushEvent(rResp);
             }
-        } catch (NullPointerException ex) {
-            throw new WrapperDeploymentException("Event capture interface not"
-                    + "configured for the wrapper: " + response.getLocationRef().toString(), ex);
         }
 
+        return rResp;
     }
 
     /**
@@ -661,6 +956,12 @@ public final class AOPRedirector extends Restlet {
      * @param request The Restlet Request object to read and build an event from
      */
     private void pre(final Request request) {
+        if (this.stateMachine == null) {
+            // No one observes the exchange: capture is off
+            return;
+        }
+        final long sequence = this.sequencer.nextSequence();
+        RESTEvent captured = null;
         try {
             /**
              * This method cannot fail (as it is part of redirect and must
@@ -669,7 +970,10 @@ public final class AOPRedirector extends Restlet {
              */
 
             // Build the basic information
-            final RESTEvent rReq = new RESTEvent();
+            final Series<Header> headers = (Series<Header>) request.getAttributes().get("org.restlet.http.headers");
+            final Form form = request.getResourceRef().getQueryAsForm();
+            final RESTEvent rReq = new RESTEvent(REQUEST_FIELDS + form.size()
+                    + (headers == null ? 0 : headers.size()));
 
             final String sTarget = this.getTargetTemplate(request.getOriginalRef().toUrl());
             if (sTarget == null) {
@@ -682,40 +986,71 @@ public final class AOPRedirector extends Restlet {
             rReq.addParameter(new Parameter(RESTEvent.HTTP_MSG, request.getMethod().getName()));
 
             // Build the headers from the HTTP headers
-            final Series<Header> headers = (Series<Header>) request.getAttributes().get("org.restlet.http.headers");
             if (headers != null) {
                 for (Header h : headers) {
-                    rReq.addParameter(new Parameter(RESTEvent.HTTP_CONFIG_HEAD + h.getName().toLowerCase(), h.getValue()));
+                    rReq.addParameter(new Parameter(headerKey(h.getName()), h.getValue()));
                 }
             }
             // Build the message parameters from the FORM input
-            final Form form = request.getResourceRef().getQueryAsForm();
             for (org.restlet.data.Parameter parameter : form) {
                 final Parameter toCast = new Parameter("query." + parameter.getName(), parameter.getValue());
                 rReq.addParameter(toCast);
             }
 
-            // Build the body data structure
-            if (request.isEntityAvailable()) {
-                final String contentType = request.getEntity().getMediaType().getName();
-                final String msgBody = request.getEntityAsText();
-                rReq.addContent(contentType, msgBody);
-                // Get the local parameters from the attached REST form
-                final Form iForm = new Form(msgBody);
-                for (org.restlet.data.Parameter parameter : iForm) {
-                    final Parameter toCast = new Parameter(parameter.getName(), parameter.getValue());
-                    rReq.addParameter(toCast);
-                }
-                request.setEntity(msgBody, request.getEntity().getMediaType());
-            }
-
-            // Push the constructed event to the state machine
-            if (this.stateMachine != null) {
-                this.stateMachine.pushEvent(rReq);
+            // Keep the event with the exchange; it is pushed to the state
+            // machine in the order it was observed
+            request.getAttributes().put(ATTR_EVENT, rReq);
+            captured = rReq;
+
+            // Tee the body: it streams on to the target and its start is
+            // added to the event once it has been forwarded. The body is
+            // left alone if the state machine does not use content
+            if (request.isEntityAvailable() && this.stateMachine.requiresContent()) {
+                final Representation entity = request.getEntity();
+                final BodyCapture capture = new BodyCapture(entity.getStream(), captureLimit, entity.getSize());
+                final InputRepresentation tee = new InputRepresentation(capture, entity.getMediaType(), entity.getSize());
+                tee.setCharacterSet(entity.getCharacterSet());
+                tee.setEncodings(entity.getEncodings());
+                tee.setLanguages(entity.getLanguages());
+                request.setEntity(tee);
+                request.getAttributes().put(ATTR_CAPTURE, capture);
+                request.getAttributes().put(ATTR_SEQUENCE, sequence);
+                captured = null;
             }
         } catch (Exception ex) {
             // Catch all exceptions so not as to interupt the RESTLet trace
             ServiceLogger.LOG.error("Invalid monitor redirect", ex);
+        } finally {
+            // A request with a body is completed once the body is forwarded
+            if (!request.getAttributes().containsKey(ATTR_SEQUENCE)) {
+                this.sequencer.complete(sequence, captured);
+            }
+        }
+    }
+
+    /**
+     * Complete the event of a request whose body was teed by pre. The
+     * captured start of the body is added as the event content and, for
+     * complete url encoded forms only, as the form parameters.
+     * @param request The Restlet Request whose body has been forwarded.
+     */
+    private void completeRequest(final Request request) {
+        final Long sequence = (Long) request.getAttributes().remove(ATTR_SEQUENCE);
+        if (sequence == null) {
+            return;
+        }
+        final BodyCapture capture = (BodyCapture) request.getAttributes().remove(ATTR_CAPTURE);
+        final RESTEvent rReq = (RESTEvent) request.getAttributes().get(ATTR_EVENT);
+        try {
+            if (this.mode != MODESRVOUTBOUND && this.mode != MODESRVINBOUND) {
+                // The body was not forwarded; read as much as is captured
+                capture.fill();
+            }
+            addCapturedContent(rReq, capture, request.getEntity());
+        } catch (IOException | RuntimeException ex) {
+            ServiceLogger.LOG.error("Unable to capture the request body", ex);
+        } finally {
+            this.sequencer.complete(sequence, rReq);
         }
     }
 
@@ -0,0 +1,228 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A tee on the body of a proxied message. The bytes are passed on unchanged
+ * to whoever reads the stream (i.e. the connector forwarding the message to
+ * the target) while a copy of at most a fixed number of bytes is kept for the
+ * event that describes the message. The body is therefore never buffered in
+ * full by the proxy, whatever its size.
+ *
+ * The copied text is available once the stream is finished; a body longer
+ * than the limit is cut at the last whole character within the limit. The
+ * text carries no marker: whether it was cut, and the size of the whole body,
+ * are reported separately.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class BodyCapture extends FilterInputStream {
+
+    /**
+     * The maximum number of bytes copied.
+     */
+    private final transient int limit;
+
+    /**
+     * The declared size of the body, or -1 if it is unknown.
+     */
+    private final transient long declaredSize;
+
+    /**
+     * The copy of the start of the body.
+     */
+    private final transient ByteArrayOutputStream copy;
+
+    /**
+     * The number of bytes read through the tee.
+     */
+    private transient long total;
+
+    /**
+     * Whether the end of the body has been read.
+     */
+    private transient boolean ended;
+
+    /**
+     * Create a tee on a message body.
+     * @param body The stream of the body.
+     * @param maxBytes The maximum number of bytes to copy.
+     * @param size The declared size of the body, or -1 if it is unknown.
+     */
+    public BodyCapture(final InputStream body, final int maxBytes, final long size) {
+        super(body);
+        this.limit = Math.max(0, maxBytes);
+        this.declaredSize = size;
+        final int initial = size >= 0 && size < limit ? (int) size : Math.min(limit, 8192);
+        this.copy = new ByteArrayOutputStream(Math.max(initial, 32));
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        final int value = super.read();
+        if (value == -1) {
+            ended = true;
+        } else {
+            total++;
+            if (copy.size() < limit) {
+                copy.write(value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        final int count = super.read(buffer, offset, length);
+        if (count == -1) {
+            ended = true;
+        } else {
+            total += count;
+            final int room = limit - copy.size();
+            if (room > 0) {
+                copy.write(buffer, offset, Math.min(room, count));
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized long skip(final long count) throws IOException {
+        // Skipped bytes are read so that they are still copied
+        final byte[] buffer = new byte[(int) Math.min(Math.max(count, 0), 8192)];
+        long skipped = 0;
+        while (skipped < count) {
+            final int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(final int readlimit) {
+        // Not supported: the copy cannot be rewound
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Read the body until the copy is full or the body ends. Used when no one
+     * else reads the body, e.g. the client is redirected elsewhere.
+     * @throws IOException Error reading the body.
+     */
+    public synchronized void fill() throws IOException {
+        final byte[] buffer = new byte[Math.min(Math.max(limit, 1), 8192)];
+        while (!ended && copy.size() < limit) {
+            read(buffer, 0, Math.min(buffer.length, limit - copy.size()));
+        }
+    }
+
+    /**
+     * A stream of the whole body, for a reader that takes over once fill()
+     * has read the start of it: the copied bytes followed by the rest of the
+     * body. Only valid if nothing but fill() has read the body.
+     * @return The stream of the body.
+     */
+    public synchronized InputStream replay() {
+        return new SequenceInputStream(new ByteArrayInputStream(copy.toByteArray()), this);
+    }
+
+    /**
+     * Whether the copy holds only the start of the body.
+     * @return true if bytes of the body were not copied.
+     */
+    public synchronized boolean isTruncated() {
+        if (total > copy.size()) {
+            return true;
+        }
+        if (ended) {
+            return false;
+        }
+        // Not read to the end: compare with the declared size if there is one
+        return declaredSize < 0 ? copy.size() >= limit : declaredSize > copy.size();
+    }
+
+    /**
+     * The size of the whole body, as far as it is known.
+     * @return The number of bytes of the body, or -1 if the body was not read
+     * to the end and its size was not declared.
+     */
+    public synchronized long getSize() {
+        if (ended) {
+            return total;
+        }
+        return declaredSize < 0 ? -1 : Math.max(total, declaredSize);
+    }
+
+    /**
+     * The copied text of the body. The copy of a truncated body may end part
+     * way through a multi-byte character; those trailing bytes are left out
+     * so that the text ends on a whole character.
+     * @param charset The character set of the body.
+     * @return The text of (the start of) the body.
+     */
+    public synchronized String getText(final Charset charset) {
+        if (!isTruncated()) {
+            return new String(copy.toByteArray(), charset);
+        }
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer in = ByteBuffer.wrap(copy.toByteArray());
+        final CharBuffer out = CharBuffer.allocate((int) (in.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+        // Not the end of input: an incomplete character at the end stays in
+        // the buffer instead of being decoded as malformed
+        decoder.decode(in, out, false);
+        out.flip();
+        return out.toString();
+    }
+}
@@ -0,0 +1,172 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * Delivers the events observed by a proxy to the event capture interface in
+ * a well-defined order, even when the exchanges that produced them are
+ * handled by several threads at the same time.
+ *
+ * Each observation point (e.g. the arrival of a request, or of a response)
+ * takes a sequence number first. The event built for that sequence number is
+ * then completed; events are held back until all of the earlier sequence
+ * numbers have been completed and are then pushed in sequence order. An
+ * observation that does not produce an event must still be completed (with
+ * a null event) so that later events are not held back forever.
+ *
+ * Events are pushed without holding the sequencer's lock, so a slow event
+ * capture does not block the threads completing later positions. One thread
+ * at a time pushes the events that are ready, in order; a thread completing
+ * a position while another is pushing leaves its events to that thread.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class EventSequencer {
+
+    /**
+     * The interface that ordered events are delivered to.
+     */
+    private final transient EventCapture target;
+
+    /**
+     * The next sequence number to hand out.
+     */
+    private final transient AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * The next sequence number to be delivered. Guarded by this.
+     */
+    private transient long nextDelivery;
+
+    /**
+     * Completed events waiting for earlier sequence numbers. A null value
+     * records a sequence number that produced no event. Guarded by this.
+     */
+    private final transient Map<Long, MsgEvent> completed = new HashMap();
+
+    /**
+     * Events released in order and waiting to be pushed. Guarded by this.
+     */
+    private final transient Deque<MsgEvent> ready = new ArrayDeque();
+
+    /**
+     * Whether a thread is pushing the ready events. Guarded by this.
+     */
+    private transient boolean delivering;
+
+    /**
+     * Create a new sequencer in front of an event capture interface.
+     * @param capture The interface to deliver the ordered events to; may be
+     * null in which case events are discarded.
+     */
+    public EventSequencer(final EventCapture capture) {
+        this.target = capture;
+    }
+
+    /**
+     * Reserve the next position in the event order.
+     * @return The sequence number to complete once the event is built.
+     */
+    public long nextSequence() {
+        return nextSequence.getAndIncrement();
+    }
+
+    /**
+     * Complete a reserved position. The event and any held back events that
+     * now follow in order are pushed to the event capture interface, by this
+     * thread unless another thread is already pushing events.
+     * @param sequence The sequence number returned by nextSequence().
+     * @param event The event built for that position, or null if there is none.
+     */
+    public void complete(final long sequence, final MsgEvent event) {
+        synchronized (this) {
+            completed.put(sequence, event);
+            while (completed.containsKey(nextDelivery)) {
+                final MsgEvent next = completed.remove(nextDelivery);
+                nextDelivery++;
+                if (next != null && target != null) {
+                    ready.add(next);
+                }
+            }
+            if (delivering || ready.isEmpty()) {
+                return;
+            }
+            delivering = true;
+        }
+        deliver();
+    }
+
+    /**
+     * Push the ready events, outside of the lock, until there are none left.
+     * Called by the one thread that set the delivering flag. Events are taken
+     * from the queue one at a time, so if the event capture fails the events
+     * after the failed one stay queued in order.
+     */
+    private void deliver() {
+        boolean finished = false;
+        try {
+            while (true) {
+                final MsgEvent next;
+                synchronized (this) {
+                    next = ready.poll();
+                    if (next == null) {
+                        delivering = false;
+                        finished = true;
+                        return;
+                    }
+                }
+                target.pushEvent(next);
+            }
+        } finally {
+            if (!finished) {
+                // the event capture failed; let the next completion push the rest
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of completed events still waiting on earlier positions.
+     * Events released in order but not yet pushed are not counted.
+     * @return The count of held back events.
+     */
+    public synchronized int pending() {
+        return completed.size();
+    }
+}
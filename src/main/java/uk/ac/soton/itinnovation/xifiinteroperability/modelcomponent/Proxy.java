@@ -69,6 +69,17 @@ public class Proxy extends Application {
      */
     private transient URL proxyURL;
 
+    /**
+     * The redirector that forwards and observes the calls to the target.
+     */
+    private final transient AOPRedirector redirector;
+
+    /**
+     * The time (ms) exchanges in progress are given to complete when the
+     * proxy is shut down.
+     */
+    private static final long SHUTDOWN_GRACE = 1000;
+
 
     /**
      * Construct a new instance of a wrapper around a REST API interface
@@ -96,13 +107,15 @@ public class Proxy extends Application {
         proxyComponent.getClients().add(Protocol.HTTPS);
 
         // Create the proxy Restlet
-        final AOPRedirector proxy = new AOPRedirector(
+        redirector = new AOPRedirector(
                 proxyComponent.getContext().createChildContext(),
                 target.toExternalForm(),
                 Redirector.MODE_SERVER_OUTBOUND, stm);
+        redirector.setConcurrent(Boolean.parseBoolean(
+                SystemProperties.readProperty("concurrent_redirect")));
 
         // Set the component roots
-        proxyComponent.getDefaultHost().attach("", proxy);
+        proxyComponent.getDefaultHost().attach("", redirector);
         proxyComponent.getServers().add(protocol, port);
 
         try {
@@ -125,6 +138,28 @@ public class Proxy extends Application {
         return this.proxyURL;
     }
 
+    /**
+     * Switch the concurrent redirect mode of this proxy on or off. The
+     * default is taken from the concurrent_redirect configuration property.
+     * @param concurrent true to allow several calls to be in flight to the
+     * target at once.
+     * @see AOPRedirector#setConcurrent(boolean)
+     */
+    public final void setConcurrent(final boolean concurrent) {
+        redirector.setConcurrent(concurrent);
+    }
+
+    /**
+     * Change the maximum number of bytes of a request or reply body captured
+     * in the events of this proxy. The default is taken from the capture_max_body
+     * configuration property.
+     * @param limit The capture limit in bytes.
+     * @see AOPRedirector#setCaptureLimit(int)
+     */
+    public final void setCaptureLimit(final int limit) {
+        redirector.setCaptureLimit(limit);
+    }
+
     /**
      * Start the operation of the proxy wrapper. Until this is called the
      * proxy will not respond to API calls. If there is an error starting the
@@ -145,13 +180,16 @@ public class Proxy extends Application {
 
     /**
      * Stop the operation of the proxy wrapper. After this is called the proxy
-     * will not respond to incoming requests.
+     * will not respond to incoming requests. Exchanges being redirected are
+     * given up to a second to complete.
      * @throws WrapperDeploymentException Error during shutdown of proxy.
      */
     public final void shutdown() throws WrapperDeploymentException {
         try {
-            // Create the server connectors
-            Thread.sleep(1000);
+            if (!redirector.awaitIdle(SHUTDOWN_GRACE)) {
+                ServiceLogger.LOG.warn("Stopping REST Interface proxy with exchanges in progress:"
+                        + this.proxyURL.toExternalForm());
+            }
             proxyComponent.stop();
         } catch (Exception ex) {
             ServiceLogger.LOG.error("Error shutting down REST Interface proxy:"
@@ -0,0 +1,249 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+package uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Protocol;
+import org.restlet.data.Reference;
+import org.restlet.data.Status;
+import org.restlet.routing.Redirector;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+
+/**
+ * A single HTTP listener shared by the proxies of many REST interfaces.
+ * Rather than a Restlet component, server connector and port for every
+ * interface, each interface is attached to the shared server under a path
+ * prefix and gets its own AOPRedirector, so events and timings are still
+ * captured per interface.
+ *
+ * A request is routed by the longest attached prefix its path starts with;
+ * the prefix is removed before the request is redirected, e.g. with the
+ * prefix "comp/intf" a call to http://proxy:port/comp/intf/service/x is
+ * redirected as /service/x to the target of that interface. A request that
+ * matches no prefix is routed by its Host header instead: the prefix with
+ * '/' replaced by '.' (e.g. Host: comp.intf) selects the interface and the
+ * path is kept.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class SharedProxyServer {
+
+    /**
+     * The time (ms) exchanges in progress are given to complete when an
+     * interface is detached or the server is stopped.
+     */
+    private static final long SHUTDOWN_GRACE = 1000;
+
+    /**
+     * The component holding the single server connector.
+     */
+    private final transient Component component;
+
+    /**
+     * The port the server listens on.
+     */
+    private final transient int port;
+
+    /**
+     * The base URL of the server, e.g. http://10.0.0.1:8192.
+     */
+    private final transient String baseURL;
+
+    /**
+     * The redirectors of the attached interfaces by path prefix.
+     */
+    private final transient Map<String, AOPRedirector> prefixes = new ConcurrentHashMap();
+
+    /**
+     * The redirectors of the attached interfaces by host name.
+     */
+    private final transient Map<String, AOPRedirector> hosts = new ConcurrentHashMap();
+
+    /**
+     * Whether redirectors are created in concurrent mode.
+     */
+    private final transient boolean concurrent;
+
+    /**
+     * Create a shared HTTP listener. It does not accept calls until started.
+     * @param listenPort The port to listen on.
+     * @throws InvalidWrapperException Error reading the configuration.
+     */
+    public SharedProxyServer(final int listenPort) throws InvalidWrapperException {
+        this.port = listenPort;
+        component = new Component();
+        component.getClients().add(Protocol.HTTP);
+        component.getClients().add(Protocol.HTTPS);
+        component.getServers().add(Protocol.HTTP, listenPort);
+        component.getDefaultHost().attach("", new Dispatcher());
+        try {
+            this.concurrent = Boolean.parseBoolean(SystemProperties.readProperty("concurrent_redirect"));
+            this.baseURL = "http://" + SystemProperties.getIP() + ":" + listenPort;
+        } catch (Exception ex) {
+            throw new InvalidWrapperException("Could not configure the shared proxy server", ex);
+        }
+    }
+
+    /**
+     * The port the server listens on.
+     * @return The port number.
+     */
+    public final int getPort() {
+        return port;
+    }
+
+    /**
+     * The number of interfaces attached.
+     * @return The count of attached interfaces.
+     */
+    public final int size() {
+        return prefixes.size();
+    }
+
+    /**
+     * Start listening for calls.
+     * @throws WrapperDeploymentException Error starting the server connector.
+     */
+    public final void start() throws WrapperDeploymentException {
+        try {
+            component.start();
+        } catch (Exception ex) {
+            ServiceLogger.LOG.error("Error starting the shared proxy server on port " + port, ex);
+            throw new WrapperDeploymentException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Stop listening; exchanges in progress are given up to a second to
+     * complete.
+     * @throws WrapperDeploymentException Error stopping the server connector.
+     */
+    public final void stop() throws WrapperDeploymentException {
+        try {
+            for (AOPRedirector redirector : prefixes.values()) {
+                redirector.awaitIdle(SHUTDOWN_GRACE);
+            }
+            component.stop();
+        } catch (Exception ex) {
+            ServiceLogger.LOG.error("Error stopping the shared proxy server on port " + port, ex);
+            throw new WrapperDeploymentException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Attach the proxy of an interface.
+     * @param prefix The path prefix of the interface, without leading or
+     * trailing '/', e.g. "comp/intf".
+     * @param target The URL of the interface the calls are redirected to.
+     * @param stm The state machine interface to push events to.
+     * @return The URL applications call the interface through.
+     * @throws InvalidWrapperException The prefix is already attached.
+     */
+    public final URL attach(final String prefix, final URL target, final EventCapture stm)
+            throws InvalidWrapperException {
+        final AOPRedirector redirector = new AOPRedirector(
+                component.getContext().createChildContext(),
+                target.toExternalForm(),
+                Redirector.MODE_SERVER_OUTBOUND, stm);
+        redirector.setConcurrent(concurrent);
+        if (prefixes.putIfAbsent(prefix, redirector) != null) {
+            throw new InvalidWrapperException("Proxy path /" + prefix + " is already in use", null);
+        }
+        hosts.put(prefix.replace('/', '.').toLowerCase(), redirector);
+        try {
+            return new URL(baseURL + "/" + prefix);
+        } catch (MalformedURLException ex) {
+            detach(prefix);
+            throw new InvalidWrapperException("Could not create a proxy URL for " + prefix, ex);
+        }
+    }
+
+    /**
+     * Detach the proxy of an interface; exchanges in progress are given up
+     * to a second to complete.
+     * @param prefix The path prefix the interface was attached with.
+     */
+    public final void detach(final String prefix) {
+        final AOPRedirector redirector = prefixes.remove(prefix);
+        if (redirector == null) {
+            return;
+        }
+        hosts.remove(prefix.replace('/', '.').toLowerCase(), redirector);
+        try {
+            redirector.awaitIdle(SHUTDOWN_GRACE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Routes each call to the redirector of its interface.
+     */
+    private final class Dispatcher extends Restlet {
+
+        @Override
+        public void handle(final Request request, final Response response) {
+            final Reference resourceRef = request.getResourceRef();
+            final String path = resourceRef.getPath();
+            if (path != null && path.length() > 1) {
+                // try the longest prefix first
+                int end = path.length();
+                while (end > 1) {
+                    final AOPRedirector redirector = prefixes.get(path.substring(1, end));
+                    if (redirector != null) {
+                        final String remaining = end == path.length() ? "/" : path.substring(end);
+                        final Reference routed = new Reference(resourceRef);
+                        routed.setPath(remaining);
+                        request.setResourceRef(routed);
+                        request.setOriginalRef(new Reference(routed));
+                        redirector.handle(request, response);
+                        return;
+                    }
+                    end = path.lastIndexOf('/', end - 1);
+                }
+            }
+            final Reference hostRef = request.getHostRef();
+            final String host = hostRef == null ? null : hostRef.getHostDomain();
+            final AOPRedirector redirector = host == null ? null : hosts.get(host.toLowerCase());
+            if (redirector == null) {
+                response.setStatus(Status.CLIENT_ERROR_NOT_FOUND, "No interface proxy at " + path);
+                return;
+            }
+            redirector.handle(request, response);
+        }
+    }
+}
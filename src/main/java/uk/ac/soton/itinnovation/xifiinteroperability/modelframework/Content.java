@@ -28,6 +28,7 @@ package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
 import java.io.Serializable;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSONEvaluationContext;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
 /**
  * Content refers to the content of a message. In HTTP and REST terms this is
@@ -98,6 +99,24 @@ public class Content implements Serializable {
         this.type = newType;
     }
 
+    /**
+     * The parsed form of json data, shared by every path expression applied
+     * to this content. Not serialized; it is rebuilt on first use.
+     */
+    private transient JSONEvaluationContext jsonContext;
+
+    /**
+     * Get the parsed-document handle of the (json) data. The data is parsed
+     * once when first read and then reused until the data changes.
+     * @return The handle for evaluating json path expressions.
+     */
+    public final synchronized JSONEvaluationContext getJSONContext() {
+        if (jsonContext == null) {
+            jsonContext = new JSONEvaluationContext();
+        }
+        return jsonContext;
+    }
+
     /**
      * Change the value of the data using a path expression on the input value.
      * That is change all or part of the message content.
@@ -121,7 +140,7 @@ public class Content implements Serializable {
      */
     public final String getFieldValue(final String pathLocation) {
         if (type.equalsIgnoreCase("json")) {
-            return JSON.readValue(data, pathLocation);
+            return getJSONContext().readValue(data, pathLocation);
         } else {
             return XML.readValue(data, pathLocation);
         }
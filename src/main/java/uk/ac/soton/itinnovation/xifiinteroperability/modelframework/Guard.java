@@ -33,6 +33,7 @@ import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Architect
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.InvalidPatternReferenceException;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PatternCache;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.InvalidInputException;
 
@@ -188,6 +189,24 @@ public class Guard {
      * @throws InvalidRegexException Thrown in case of an invalid regex syntax
      */
     public final boolean evaluate(final Object input) throws InvalidInputException, InvalidRegexException {
+        return evaluate(input, this.compareTo, null, null);
+    }
+
+    /**
+     * Evaluate this guard's function against the provided input and a given
+     * comparison value, e.g. one resolved from a data reference.
+     * @param input The input to test the guard against.
+     * @param compare The value to compare the input against.
+     * @param regex The compiled form of compare for a regex guard, or null
+     * to compile it here.
+     * @param number The numeric form of compare for a less than or greater
+     * than guard, or null to parse it here.
+     * @return The result of the evaluated guard against the input.
+     * @throws InvalidInputException Error in input and exception thrown during compare.
+     * @throws InvalidRegexException Thrown in case of an invalid regex syntax
+     */
+    public final boolean evaluate(final Object input, final String compare, final Pattern regex,
+            final Double number) throws InvalidInputException, InvalidRegexException {
         Object toCompare = input;
         if (dataType == String.class) {
             toCompare = ((String) input);
@@ -196,21 +215,21 @@ public class Guard {
         switch(this.guardCondType) {
             case EQUALS:
                 if (dataType == String.class) {
-                    return ((String) toCompare).equalsIgnoreCase(this.compareTo);
+                    return ((String) toCompare).equalsIgnoreCase(compare);
                 }
-                return toCompare.equals(this.compareTo);
+                return toCompare.equals(compare);
             case NOTEQUALS:
                 if (dataType == String.class) {
-                    return !((String) toCompare).equalsIgnoreCase(this.compareTo);
+                    return !((String) toCompare).equalsIgnoreCase(compare);
                 }
-                return !toCompare.equals(this.compareTo);
+                return !toCompare.equals(compare);
             case COUNTER:
-                Integer aC = new Integer(this.compareTo);
+                Integer aC = new Integer(compare);
                 Integer bC = (Integer) toCompare;
                 return aC==bC;
             case LESSTHAN:
                 try{
-                    double a = new Double(this.compareTo);
+                    double a = number != null ? number : new Double(compare);
                     double b = new Double(toCompare.toString());
                     return b < a;
                 } catch(Exception ex) {
@@ -218,7 +237,7 @@ public class Guard {
                 }
             case GREATERTHAN:
                 try{
-                    double a = new Double(this.compareTo);
+                    double a = number != null ? number : new Double(compare);
                     double b = new Double(toCompare.toString());
                     return b > a;
                 } catch(Exception ex) {
@@ -226,10 +245,11 @@ public class Guard {
                 }
             case CONTAINS:
                  final HashMap<String, Parameter> heads = (HashMap<String, Parameter>) input;
-                 return heads.containsKey(this.compareTo);
+                 return heads.containsKey(compare);
             case REGEX:
                 try {
-                    return Pattern.matches(this.compareTo, toCompare.toString());
+                    final Pattern compiled = regex != null ? regex : PatternCache.compile(compare);
+                    return compiled.matcher(toCompare.toString()).matches();
                 }
                 catch (PatternSyntaxException ex){
                     throw new InvalidRegexException("There is a regex guard with an invalid regular expression.");
@@ -0,0 +1,324 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import org.restlet.Client;
+import org.restlet.Context;
+import org.restlet.data.Protocol;
+import org.restlet.data.Reference;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+
+/**
+ * A pool of started, keep-alive RESTLET client connectors that are shared
+ * by the REST messages of an architecture. Connectors are keyed by the
+ * scheme, host and port of the target so that repeated requests to the same
+ * component reuse the connector (and its open connections) rather than
+ * paying the connector start-up and TCP/TLS handshake on every call.
+ *
+ * The number of requests in flight to one host is limited; connectors that
+ * have been idle for longer than the idle timeout are stopped and removed.
+ * The pool is shut down when the architecture is cleaned up.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class HttpClientPool {
+
+    /**
+     * Default number of requests that can be in flight to one host.
+     */
+    public static final int DEFAULT_MAX_PER_HOST = 8;
+
+    /**
+     * Default time in milliseconds an unused connector is kept for.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    /**
+     * A started connector for one scheme/host/port and the permits limiting
+     * the requests in flight through it.
+     */
+    private static final class Endpoint {
+
+        /** The started client connector. */
+        private final Client client;
+
+        /** The permits of the per-host connection limit. */
+        private final Semaphore permits;
+
+        /** The last time the connector was released. */
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        /**
+         * Create and start a new connector.
+         * @param maxPerHost The per-host connection limit.
+         */
+        Endpoint(final int maxPerHost) {
+            client = new Client(new Context(), Protocol.HTTPS);
+            client.getContext().getParameters().add("useForwardedForHeader", "false");
+            client.getContext().getParameters().add("persistingConnections", "true");
+            try {
+                client.start();
+            } catch (Exception ex) {
+                ServiceLogger.LOG.error("Unable to start HTTP client connector", ex);
+            }
+            permits = new Semaphore(maxPerHost, true);
+        }
+
+        /**
+         * Stop the connector.
+         */
+        void stop() {
+            try {
+                client.stop();
+            } catch (Exception ex) {
+                ServiceLogger.LOG.error("Unable to stop HTTP client connector", ex);
+            }
+        }
+    }
+
+    /**
+     * A connector borrowed from the pool for a single request. It must be
+     * released once the response has been read.
+     */
+    public static final class Lease {
+
+        /** The endpoint the lease was taken from. */
+        private final Endpoint endpoint;
+
+        /** Whether the lease has already been returned. */
+        private boolean released;
+
+        /**
+         * Create a lease on an endpoint whose permit is already held.
+         * @param owner The endpoint.
+         */
+        private Lease(final Endpoint owner) {
+            this.endpoint = owner;
+        }
+
+        /**
+         * The connector to send the request through.
+         * @return The started client connector.
+         */
+        public Client getClient() {
+            return endpoint.client;
+        }
+
+        /**
+         * Return the connector to the pool.
+         */
+        public void release() {
+            if (!released) {
+                released = true;
+                endpoint.lastUsed = System.currentTimeMillis();
+                endpoint.permits.release();
+            }
+        }
+    }
+
+    /**
+     * The connectors keyed by scheme://host:port.
+     */
+    private final transient Map<String, Endpoint> endpoints = new ConcurrentHashMap();
+
+    /**
+     * The number of requests that can be in flight to one host.
+     */
+    private final transient int maxPerHost;
+
+    /**
+     * The time in milliseconds an unused connector is kept for.
+     */
+    private final transient long idleTimeout;
+
+    /**
+     * The last time the idle connectors were evicted.
+     */
+    private transient volatile long lastEviction = System.currentTimeMillis();
+
+    /**
+     * Whether the pool has been shut down.
+     */
+    private transient volatile boolean closed;
+
+    /**
+     * Create a pool configured from the http_max_connections_per_host and
+     * http_idle_timeout properties (or the defaults where they are not set).
+     */
+    public HttpClientPool() {
+        this(readSetting("http_max_connections_per_host", DEFAULT_MAX_PER_HOST),
+                readSetting("http_idle_timeout", DEFAULT_IDLE_TIMEOUT));
+    }
+
+    /**
+     * Create a pool with the given limits.
+     * @param maxConnectionsPerHost The number of requests that can be in flight to one host.
+     * @param idleTime The time in milliseconds an unused connector is kept for.
+     */
+    public HttpClientPool(final int maxConnectionsPerHost, final long idleTime) {
+        this.maxPerHost = Math.max(1, maxConnectionsPerHost);
+        this.idleTimeout = idleTime;
+    }
+
+    /**
+     * Read a numeric pool setting from the system properties.
+     * @param name The property name.
+     * @param defaultValue The value to use if the property is missing or invalid.
+     * @return The setting value.
+     */
+    private static int readSetting(final String name, final int defaultValue) {
+        return (int) readSetting(name, (long) defaultValue);
+    }
+
+    /**
+     * Read a numeric pool setting from the system properties.
+     * @param name The property name.
+     * @param defaultValue The value to use if the property is missing or invalid.
+     * @return The setting value.
+     */
+    private static long readSetting(final String name, final long defaultValue) {
+        try {
+            final String value = SystemProperties.readProperty(name);
+            if (value != null) {
+                return Long.parseLong(value.trim());
+            }
+        } catch (ConfigurationException | NumberFormatException ex) {
+            ServiceLogger.LOG.error("Invalid HTTP client setting " + name + " - using default", ex);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Build the pool key of a target reference.
+     * @param target The URL the request is sent to.
+     * @return The scheme://host:port key.
+     */
+    private static String key(final Reference target) {
+        final String scheme = target.getScheme() == null ? "http" : target.getScheme().toLowerCase();
+        int port = target.getHostPort();
+        if (port == -1) {
+            port = scheme.equals("https") ? Protocol.HTTPS.getDefaultPort() : Protocol.HTTP.getDefaultPort();
+        }
+        return scheme + "://" + target.getHostDomain() + ":" + port;
+    }
+
+    /**
+     * Borrow the connector for a target, waiting if the per-host limit has
+     * been reached.
+     * @param target The URL the request is sent to.
+     * @return The lease to send the request through and release afterwards.
+     * @throws InterruptedException Interrupted while waiting for a connection.
+     */
+    public Lease acquire(final Reference target) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("HTTP client pool has been shut down");
+        }
+        evictIdle();
+        final String endpointKey = key(target);
+        while (true) {
+            Endpoint endpoint = endpoints.get(endpointKey);
+            if (endpoint == null) {
+                synchronized (endpoints) {
+                    endpoint = endpoints.get(endpointKey);
+                    if (endpoint == null) {
+                        endpoint = new Endpoint(maxPerHost);
+                        endpoints.put(endpointKey, endpoint);
+                    }
+                }
+            }
+            endpoint.permits.acquire();
+            // The connector may have been evicted while we waited for it
+            if (endpoints.get(endpointKey) == endpoint) {
+                return new Lease(endpoint);
+            }
+            endpoint.permits.release();
+            if (closed) {
+                throw new IllegalStateException("HTTP client pool has been shut down");
+            }
+        }
+    }
+
+    /**
+     * Stop and remove the connectors that have not been used for longer than
+     * the idle timeout. This is carried out at most once per half timeout.
+     */
+    public void evictIdle() {
+        final long now = System.currentTimeMillis();
+        if (now - lastEviction < idleTimeout / 2) {
+            return;
+        }
+        lastEviction = now;
+        synchronized (endpoints) {
+            final Iterator<Endpoint> iter = endpoints.values().iterator();
+            while (iter.hasNext()) {
+                final Endpoint endpoint = iter.next();
+                // Only a connector with no requests in flight can be removed
+                if (now - endpoint.lastUsed > idleTimeout
+                        && endpoint.permits.tryAcquire(maxPerHost)) {
+                    iter.remove();
+                    endpoint.stop();
+                    endpoint.permits.release(maxPerHost);
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of connectors currently held by the pool.
+     * @return The count of pooled connectors.
+     */
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * Stop all of the pooled connectors. The pool cannot be used afterwards.
+     */
+    public void shutdown() {
+        closed = true;
+        synchronized (endpoints) {
+            for (Endpoint endpoint : endpoints.values()) {
+                endpoint.stop();
+            }
+            final Endpoint[] stopped = endpoints.values().toArray(new Endpoint[0]);
+            endpoints.clear();
+            // Wake any request still waiting for one of the stopped connectors
+            for (Endpoint endpoint : stopped) {
+                endpoint.permits.release(maxPerHost);
+            }
+        }
+    }
+}
@@ -26,7 +26,17 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 
 /**
  * The Interoperability report is a generated report of the trace through
@@ -34,7 +44,11 @@ import java.io.PrintStream;
  * for a simple request response (e.g. POST) operation to monitor a system.
  * Alternatively the dynamic output stream can be used to monitor in progress
  * execution
- * 
+ *
+ * The text trace is an append-only buffer. For long running tests the trace
+ * can instead be streamed to a file or output stream, with only a bounded
+ * tail of the trace kept in memory.
+ *
  * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
  * & XIFI (http://www.fi-xifi.eu)
  *
@@ -52,18 +66,24 @@ public class InteroperabilityReport {
         return this.Success;
     }
 
+    /**
+     * The title the text trace is initialised with.
+     */
+    private static final String TITLE = "Beginning test: \n";
+
     /**
      * This is the editable content of the report (i.e. the body). We initialise
-     * with a title.
+     * with a title. When the trace is streamed this holds the latest part
+     * (tail) of the trace only.
      */
-    private transient String textTrace = "Beginning test: \n";
+    private final transient StringBuilder textTrace = new StringBuilder(TITLE);
 
     /**
      * a getter for the text trace of the report
      * @return the text trace of the report
      */
     public String getTextTrace(){
-        return this.textTrace;
+        return outputTrace();
     }
 
     /**
@@ -78,8 +98,14 @@ public class InteroperabilityReport {
      * {"type":"Literal","value":""},{"type":"Predicate and Class validation","value":""},
      * {"type":"Semantic Error","value":""},{"type":"Complete","value":""}],"syntactic_duration":"266 ms"}
      *
+     * The array is closed when the report is read.
      */
-    private transient String intReport = "[";
+    private final transient StringBuilder intReport = new StringBuilder("[");
+
+    /**
+     * The number of elements added to the json report.
+     */
+    private transient int reportCount;
 
     /**
      * The stream output of the text on the local host.
@@ -93,11 +119,26 @@ public class InteroperabilityReport {
     private final transient boolean realtime;
 
     /**
-     * Method to add a new line to the report. Simple formatting method.
+     * The writer the full text trace is streamed to; null when the whole
+     * trace is kept in memory.
      */
-    private void newline() {
-        this.textTrace += "\n";
-    }
+    private transient Writer traceSink;
+
+    /**
+     * The file the trace is streamed to; null if the trace is not streamed
+     * or is streamed to an output stream.
+     */
+    private final transient File traceFile;
+
+    /**
+     * The maximum number of characters of a streamed trace kept in memory.
+     */
+    private final transient int tailLimit;
+
+    /**
+     * The number of characters of a streamed trace no longer held in memory.
+     */
+    private transient long discarded;
 
     /**
      * The interoperability report outputs in realtime to the output stream.
@@ -106,7 +147,9 @@ public class InteroperabilityReport {
     public InteroperabilityReport(final PrintStream printOut) {
         this.output = printOut;
         this.realtime = true;
-        println(textTrace);
+        this.traceFile = null;
+        this.tailLimit = 0;
+        println(TITLE);
     }
 
     /**
@@ -115,16 +158,84 @@ public class InteroperabilityReport {
      */
     public InteroperabilityReport() {
         this.realtime = false;
+        this.traceFile = null;
+        this.tailLimit = 0;
+    }
+
+    /**
+     * Interoperability report whose text trace is streamed to a file. Only
+     * the latest part of the trace is kept in memory; the full trace is read
+     * back from the file when it is output.
+     * @param file The file to write the trace to (it is overwritten).
+     * @param tail The number of trace characters to keep in memory.
+     * @throws IOException Error opening the file.
+     */
+    public InteroperabilityReport(final File file, final int tail) throws IOException {
+        this.realtime = false;
+        this.traceFile = file;
+        this.tailLimit = tail;
+        this.traceSink = openFile(file);
+        this.traceSink.write(TITLE);
+    }
+
+    /**
+     * Interoperability report whose text trace is streamed to an output
+     * stream. Only the latest part of the trace is kept in memory, so the
+     * output of the report holds only that part once the trace exceeds it.
+     * @param stream The stream to write the trace to (UTF-8 text).
+     * @param tail The number of trace characters to keep in memory.
+     * @throws IOException Error writing to the stream.
+     */
+    public InteroperabilityReport(final OutputStream stream, final int tail) throws IOException {
+        this.realtime = false;
+        this.traceFile = null;
+        this.tailLimit = tail;
+        this.traceSink = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        this.traceSink.write(TITLE);
+    }
+
+    /**
+     * Open a buffered UTF-8 writer that overwrites the file.
+     * @param file The file to write to.
+     * @return The writer.
+     * @throws IOException Error opening the file.
+     */
+    private static Writer openFile(final File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Append text to the trace: to the buffer and, when streaming, to the
+     * sink, trimming the buffer to its tail.
+     * @param text The text to append.
+     */
+    private void append(final String text) {
+        final String value = String.valueOf(text);
+        textTrace.append(value);
+        if (traceSink == null) {
+            return;
+        }
+        try {
+            traceSink.write(value);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.error("Unable to stream the interoperability report trace", ex);
+        }
+        // Trim only once the buffer is twice the tail, so trimming is amortised
+        if (textTrace.length() > 2 * tailLimit) {
+            final int excess = textTrace.length() - tailLimit;
+            textTrace.delete(0, excess);
+            discarded += excess;
+        }
     }
 
     /**
      * Add a string to a new line.
      * @param newval String to report.
      */
-    public final void println(final String newval) {
-        newline();
-        this.textTrace += newval;
-        newline();
+    public final synchronized void println(final String newval) {
+        append("\n");
+        append(newval);
+        append("\n");
 
         if (realtime) {
             output.println(newval);
@@ -137,35 +248,33 @@ public class InteroperabilityReport {
      * interoperability report - as a JSON array element.
      * @param report The JSON String to add to the report.
      */
-    public final void addReport(final String report) {
-        // If this is the first input, we construct the first element of the json array
-        if(this.intReport.equalsIgnoreCase("[")) {
-            this.intReport +=report ;
-        } else {
-            // Otherwise we add the json to the array
-            this.intReport += "," + report ;
+    public final synchronized void addReport(final String report) {
+        // If this is not the first input, separate the json array elements
+        if (reportCount > 0) {
+            this.intReport.append(',');
         }
+        this.intReport.append(report);
+        reportCount++;
     }
 
     /**
      * A report is a statement of an evaluation of an event, whether
      * and individual test or a full model test. This is added to the JSON
      * interoperability report - as a JSON array element.
+     * @return The JSON array of the reports.
      */
-    public final String getReport() {
-        if(this.intReport.lastIndexOf(']')!= (this.intReport.length()-1)){
-            this.intReport += "]";
-        }
-        return this.intReport;
+    public final synchronized String getReport() {
+        return this.intReport.toString() + "]";
     }
 
     /**
     * Add a tabbed string new line.
     * @param newval The text to add as a tabbed line.
     */
-    public final void printtabline(final String newval) {
-        this.textTrace += "\t" + newval;
-        newline();
+    public final synchronized void printtabline(final String newval) {
+        append("\t");
+        append(newval);
+        append("\n");
 
         if (realtime) {
             output.println("\t" + newval);
@@ -173,10 +282,20 @@ public class InteroperabilityReport {
     }
 
     /**
-     * Clear the text trace of the report
+     * Clear the text trace of the report. A trace streamed to a file is
+     * restarted; one streamed to an output stream cannot be taken back.
      */
-    public final void clear(){
-        this.textTrace = "";
+    public final synchronized void clear(){
+        this.textTrace.setLength(0);
+        this.discarded = 0;
+        if (traceFile != null && traceSink != null) {
+            try {
+                traceSink.close();
+                traceSink = openFile(traceFile);
+            } catch (IOException ex) {
+                ServiceLogger.LOG.error("Unable to restart the interoperability report trace", ex);
+            }
+        }
     }
 
     /**
@@ -184,8 +303,37 @@ public class InteroperabilityReport {
      * a text field or the console.
      * @return The interoperability report as a single string.
      */
-    public final String outputTrace() {
-        return this.textTrace;
+    public final synchronized String outputTrace() {
+        if (discarded == 0) {
+            return this.textTrace.toString();
+        }
+        if (traceFile != null) {
+            try {
+                if (traceSink != null) {
+                    traceSink.flush();
+                }
+                return new String(Files.readAllBytes(traceFile.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                ServiceLogger.LOG.error("Unable to read the interoperability report trace", ex);
+            }
+        }
+        return "[" + discarded + " characters of the trace were streamed out]\n" + this.textTrace.toString();
+    }
+
+    /**
+     * Flush and close the stream the trace is written to, if any. Later
+     * lines are only kept in memory.
+     */
+    public final synchronized void close() {
+        if (traceSink == null) {
+            return;
+        }
+        try {
+            traceSink.close();
+        } catch (IOException ex) {
+            ServiceLogger.LOG.error("Unable to close the interoperability report trace", ex);
+        }
+        traceSink = null;
     }
 
 }
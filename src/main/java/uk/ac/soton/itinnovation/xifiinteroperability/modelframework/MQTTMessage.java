@@ -27,12 +27,10 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
 import java.net.MalformedURLException;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Locale;
 import static org.fusesource.hawtbuf.Buffer.utf8;
-import org.fusesource.mqtt.client.BlockingConnection;
-import org.fusesource.mqtt.client.MQTT;
+import org.fusesource.hawtbuf.UTF8Buffer;
 import org.fusesource.mqtt.client.QoS;
 import org.fusesource.mqtt.client.Topic;
 
@@ -181,60 +179,67 @@ public class MQTTMessage extends ProtocolMessage{
 
     /**
      * Create an invocation i.e. use the data in the REST message to perform
-     * a full client request.
+     * a full client request. The request is sent through the architecture's
+     * pooled session for the broker (and the client-id header if given);
+     * publishing does not wait for the broker's acknowledgement.
      * @return The Rest event received after the invocation complete.
      * @throws UnexpectedEventException Event not matching the state machine description.
      */
     @Override
     public final MQTTEvent invokeMessage() throws UnexpectedEventException {
+        MQTTSessionPool sessions = null;
+        MQTTSessionPool ownSessions = null;
         try {
 
             URL urlToInvoke = new URL(this.url);
-            MQTT mqtt = new MQTT();
-
-            /**
-             * Get the proxy from the list
-             */
-            mqtt.setHost(urlToInvoke.getHost(), urlToInvoke.getPort());
-
-            BlockingConnection connection = mqtt.blockingConnection();
-            connection.connect();
+            if (this.stateMachine != null) {
+                sessions = this.stateMachine.getMqttSessions();
+            } else {
+                // No architecture to share sessions with; use one for this message only
+                ownSessions = new MQTTSessionPool();
+                sessions = ownSessions;
+            }
+            final String host = urlToInvoke.getHost();
+            final int port = urlToInvoke.getPort();
+
+            String clientId = null;
+            QoS qos = QoS.AT_MOST_ONCE;
+            boolean retain = false;
+            if (headers != null) {
+                for (Parameter param : headers) {
+                    switch (param.getName().toLowerCase()) {
+                        case "qos":
+                             switch(param.getValue()) {
+                                 case "1":
+                                    qos = QoS.AT_LEAST_ONCE;
+                                    break;
+                                 case "2":
+                                     qos = QoS.EXACTLY_ONCE;
+                                     break;
+                             }
+                             break;
+                        case "retain-flag":
+                            if(param.getValue().equalsIgnoreCase("true")){
+                                retain=true;
+                            }
+                            break;
+                        case "client-id":
+                            clientId = param.getValue();
+                            break;
+                    }
+                }
+            }
 
             Topic[] topics = {new Topic(utf8(this.topic), QoS.AT_LEAST_ONCE)};
             long time= System.currentTimeMillis();
             switch (method.toUpperCase()) {
                 case "PUBLISH":
-                    String topic = this.topic;
-                    QoS qos = QoS.AT_MOST_ONCE;
-                    boolean retain = false;
-                    if (headers != null) {
-                        for (Parameter param : headers) {
-                            switch (param.getName().toLowerCase()) {
-                                case "qos":
-                                     switch(param.getValue()) {
-                                         case "1":
-                                            qos = QoS.AT_LEAST_ONCE;
-                                            break;
-                                         case "2":
-                                             qos = QoS.EXACTLY_ONCE;
-                                             break;
-                                     }
-                                     break;
-                                case "retain-flag":
-                                    if(param.getValue().equalsIgnoreCase("true")){
-                                        retain=true;
-                                    }
-                                    break;
-                            }
-                        }
-                    }
+                    final String data = this.dataBody.getData() == null ? "" : this.dataBody.getData();
                     // There are two headers mqtt.qos and mqtt.retain
-                    connection.publish(topic, this.dataBody.getData().getBytes(), qos, retain);
-                    time = System.currentTimeMillis() - time;
-//                    connection.disconnect();
+                    sessions.publish(host, port, clientId, this.topic, data.getBytes(), qos, retain);
                     return null;
                 case "SUBSCRIBE":
-                    byte[] values = connection.subscribe(topics);
+                    byte[] values = sessions.subscribe(host, port, clientId, topics);
                     time = System.currentTimeMillis() - time;
                     int[] intArray = new int[values.length];
 
@@ -242,23 +247,23 @@ public class MQTTMessage extends ProtocolMessage{
                     for (int i = 0; i < values.length; i++) {
                         intArray[i] = values[i];
                     };
-//                    connection.disconnect();
                     return fromSubResponse(intArray, time);
                 case "UNSUBSCRIBE":
-                    connection.unsubscribe(new String[]{this.topic});
+                    sessions.unsubscribe(host, port, clientId, new UTF8Buffer[]{utf8(this.topic)});
                     time = System.currentTimeMillis() - time;
-                    connection.disconnect();
                     return fromSubResponse(null, time);
             }
             throw new UnexpectedEventException("MQTT message, not publish, subscribe or unsubscribe");
-        } catch (InvalidRESTMessage | InvalidPatternReferenceException ex) {
-            throw new UnexpectedEventException(ex.getMessage(), ex);
-        } catch (URISyntaxException ex) {
+        } catch (InvalidRESTMessage ex) {
             throw new UnexpectedEventException(ex.getMessage(), ex);
         } catch (MalformedURLException ex) {
             throw new UnexpectedEventException(ex.getMessage(), ex);
-        } catch (Exception ex) {
+        } catch (RuntimeException ex) {
            throw new UnexpectedEventException(ex.getMessage(), ex);
+        } finally {
+            if (ownSessions != null) {
+                ownSessions.shutdown();
+            }
         }
     }
 
@@ -0,0 +1,456 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
+
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.mqtt.client.Callback;
+import org.fusesource.mqtt.client.CallbackConnection;
+import org.fusesource.mqtt.client.Listener;
+import org.fusesource.mqtt.client.MQTT;
+import org.fusesource.mqtt.client.QoS;
+import org.fusesource.mqtt.client.Topic;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+
+/**
+ * A pool of connected MQTT sessions that are shared by the MQTT messages of
+ * an architecture. Sessions are keyed by the broker address and the client
+ * identity so that repeated triggers to the same broker reuse the session
+ * rather than paying the CONNECT/CONNACK exchange (and leaving a connection
+ * open on the broker) on every message.
+ *
+ * Publishing does not wait for the broker. QoS 1 and 2 publishes can be
+ * limited to a window of messages in flight (awaiting PUBACK/PUBCOMP) per
+ * session; a publish waits only when the window is full. Subscribe and
+ * unsubscribe wait for the broker's acknowledgement, as their return codes
+ * are the events of the test. The pool is shut down when the architecture is
+ * cleaned up.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public final class MQTTSessionPool {
+
+    /**
+     * Default number of QoS 1 and 2 publishes in flight per session
+     * (0 = no limit).
+     */
+    public static final int DEFAULT_INFLIGHT_WINDOW = 0;
+
+    /**
+     * Default time in milliseconds to wait for the broker to acknowledge a
+     * connect, subscribe or unsubscribe, or for a place in the window.
+     */
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * A connected session to one broker with one client identity.
+     */
+    private final class Session implements Listener {
+
+        /** The connection to the broker. */
+        private final CallbackConnection connection;
+
+        /** The places of the in-flight window; null if there is no limit. */
+        private final Semaphore window;
+
+        /**
+         * The number of publishes awaiting the broker; notified when it
+         * falls to zero.
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /** The session key, to remove the session when it fails. */
+        private final String sessionKey;
+
+        /**
+         * Create a session; it is not connected until connect() is called.
+         * @param key The pool key of the session.
+         * @param mqtt The client configured with the broker and identity.
+         */
+        Session(final String key, final MQTT mqtt) {
+            this.sessionKey = key;
+            this.window = inFlightWindow > 0 ? new Semaphore(inFlightWindow) : null;
+            this.connection = mqtt.callbackConnection();
+            this.connection.listener(this);
+        }
+
+        /**
+         * Connect to the broker and wait for its acknowledgement.
+         * @throws UnexpectedEventException The broker did not accept the connection.
+         */
+        void connect() throws UnexpectedEventException {
+            final CompletableFuture<Void> result = new CompletableFuture();
+            connection.connect(complete(result));
+            await(result, "connect");
+        }
+
+        /**
+         * Publish a message without waiting for the broker; waits only for a
+         * place in the in-flight window.
+         * @param topic The topic to publish to.
+         * @param payload The message body.
+         * @param qos The quality of service.
+         * @param retain Whether the broker retains the message.
+         * @throws UnexpectedEventException No place in the window before the timeout.
+         */
+        void publish(final String topic, final byte[] payload, final QoS qos, final boolean retain)
+                throws UnexpectedEventException {
+            final boolean windowed = window != null && qos != QoS.AT_MOST_ONCE;
+            if (windowed) {
+                try {
+                    if (!window.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                        throw new UnexpectedEventException("MQTT publish window to " + sessionKey + " full");
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new UnexpectedEventException("Interrupted waiting to publish to " + sessionKey, ex);
+                }
+            }
+            inFlight.incrementAndGet();
+            final Callback<Void> done = new Callback<Void>() {
+                @Override
+                public void onSuccess(final Void value) {
+                    finished();
+                }
+
+                @Override
+                public void onFailure(final Throwable ex) {
+                    ServiceLogger.LOG.error("MQTT publish to " + sessionKey + " on " + topic + " failed", ex);
+                    finished();
+                }
+
+                private void finished() {
+                    if (inFlight.decrementAndGet() == 0) {
+                        synchronized (inFlight) {
+                            inFlight.notifyAll();
+                        }
+                    }
+                    if (windowed) {
+                        window.release();
+                    }
+                }
+            };
+            connection.getDispatchQueue().execute(() -> connection.publish(topic, payload, qos, retain, done));
+        }
+
+        /**
+         * Subscribe to topics and wait for the broker's return codes.
+         * @param topics The topics to subscribe to.
+         * @return The granted QoS (or failure) codes, one per topic.
+         * @throws UnexpectedEventException No acknowledgement from the broker.
+         */
+        byte[] subscribe(final Topic[] topics) throws UnexpectedEventException {
+            final CompletableFuture<byte[]> result = new CompletableFuture();
+            connection.getDispatchQueue().execute(() -> connection.subscribe(topics, complete(result)));
+            return await(result, "subscribe");
+        }
+
+        /**
+         * Unsubscribe from topics and wait for the broker's acknowledgement.
+         * @param topics The topics to unsubscribe from.
+         * @throws UnexpectedEventException No acknowledgement from the broker.
+         */
+        void unsubscribe(final UTF8Buffer[] topics) throws UnexpectedEventException {
+            final CompletableFuture<Void> result = new CompletableFuture();
+            connection.getDispatchQueue().execute(() -> connection.unsubscribe(topics, complete(result)));
+            await(result, "unsubscribe");
+        }
+
+        /**
+         * Wait (up to the timeout) for the publishes in flight, then
+         * disconnect from the broker.
+         */
+        void close() {
+            final long deadline = System.currentTimeMillis() + timeout;
+            synchronized (inFlight) {
+                try {
+                    long remaining = timeout;
+                    while (inFlight.get() > 0 && remaining > 0) {
+                        inFlight.wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final CompletableFuture<Void> result = new CompletableFuture();
+            connection.getDispatchQueue().execute(() -> connection.disconnect(complete(result)));
+            try {
+                await(result, "disconnect");
+            } catch (UnexpectedEventException ex) {
+                ServiceLogger.LOG.error(ex.getMessage(), ex);
+            }
+        }
+
+        /**
+         * Wait for the broker to complete an operation.
+         * @param <T> The result type.
+         * @param result The future completed by the operation's callback.
+         * @param operation The operation, for the error message.
+         * @return The result of the operation.
+         * @throws UnexpectedEventException The operation failed or timed out.
+         */
+        private <T> T await(final CompletableFuture<T> result, final String operation) throws UnexpectedEventException {
+            try {
+                return result.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException ex) {
+                throw new UnexpectedEventException("MQTT " + operation + " to " + sessionKey + " failed: "
+                        + ex.getCause().getMessage(), ex);
+            } catch (TimeoutException ex) {
+                throw new UnexpectedEventException("MQTT " + operation + " to " + sessionKey + " timed out", ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new UnexpectedEventException("Interrupted during MQTT " + operation, ex);
+            }
+        }
+
+        @Override
+        public void onConnected() {
+            ServiceLogger.LOG.debug("MQTT session connected to " + sessionKey);
+        }
+
+        @Override
+        public void onDisconnected() {
+            ServiceLogger.LOG.debug("MQTT session disconnected from " + sessionKey);
+        }
+
+        @Override
+        public void onPublish(final UTF8Buffer topic, final Buffer body, final Runnable ack) {
+            // Messages on subscribed topics are observed by the proxy, not the test client
+            ack.run();
+        }
+
+        @Override
+        public void onFailure(final Throwable ex) {
+            ServiceLogger.LOG.error("MQTT session to " + sessionKey + " failed", ex);
+            // The next message to the broker opens a new session
+            sessions.remove(sessionKey, this);
+        }
+    }
+
+    /**
+     * The sessions keyed by broker host:port and client identity.
+     */
+    private final transient Map<String, Session> sessions = new ConcurrentHashMap();
+
+    /**
+     * The number of QoS 1 and 2 publishes in flight per session (0 = no limit).
+     */
+    private final transient int inFlightWindow;
+
+    /**
+     * The time in milliseconds to wait for the broker.
+     */
+    private final transient long timeout;
+
+    /**
+     * Whether the pool has been shut down.
+     */
+    private transient volatile boolean closed;
+
+    /**
+     * Create a pool configured from the mqtt_inflight_window and mqtt_timeout
+     * properties (or the defaults where they are not set).
+     */
+    public MQTTSessionPool() {
+        this((int) readSetting("mqtt_inflight_window", DEFAULT_INFLIGHT_WINDOW),
+                readSetting("mqtt_timeout", DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * Create a pool with the given limits.
+     * @param window The number of QoS 1 and 2 publishes in flight per session (0 = no limit).
+     * @param waitTime The time in milliseconds to wait for the broker.
+     */
+    public MQTTSessionPool(final int window, final long waitTime) {
+        this.inFlightWindow = Math.max(0, window);
+        this.timeout = waitTime;
+    }
+
+    /**
+     * Read a numeric pool setting from the system properties.
+     * @param name The property name.
+     * @param defaultValue The value to use if the property is missing or invalid.
+     * @return The setting value.
+     */
+    private static long readSetting(final String name, final long defaultValue) {
+        try {
+            final String value = SystemProperties.readProperty(name);
+            if (value != null) {
+                return Long.parseLong(value.trim());
+            }
+        } catch (ConfigurationException | NumberFormatException ex) {
+            ServiceLogger.LOG.error("Invalid MQTT session setting " + name + " - using default", ex);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * A callback that completes a future with the result of an operation.
+     * @param <T> The result type.
+     * @param result The future to complete.
+     * @return The callback.
+     */
+    private static <T> Callback<T> complete(final CompletableFuture<T> result) {
+        return new Callback<T>() {
+            @Override
+            public void onSuccess(final T value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onFailure(final Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        };
+    }
+
+    /**
+     * Get the session for a broker and client identity, connecting a new
+     * session if there is none.
+     * @param host The broker host.
+     * @param port The broker port.
+     * @param clientId The client identity; null or empty for a session with
+     * a generated identity that is shared by all such messages.
+     * @return The connected session.
+     * @throws UnexpectedEventException Unable to connect to the broker.
+     */
+    private Session session(final String host, final int port, final String clientId) throws UnexpectedEventException {
+        if (closed) {
+            throw new IllegalStateException("MQTT session pool has been shut down");
+        }
+        final String identity = clientId == null ? "" : clientId;
+        final String sessionKey = host + ":" + port + "#" + identity;
+        Session session = sessions.get(sessionKey);
+        if (session != null) {
+            return session;
+        }
+        synchronized (sessions) {
+            session = sessions.get(sessionKey);
+            if (session == null) {
+                final MQTT mqtt = new MQTT();
+                try {
+                    mqtt.setHost(host, port);
+                } catch (URISyntaxException ex) {
+                    throw new UnexpectedEventException(ex.getMessage(), ex);
+                }
+                if (!identity.isEmpty()) {
+                    mqtt.setClientId(identity);
+                }
+                // Report an unreachable broker rather than retrying forever
+                mqtt.setConnectAttemptsMax(1);
+                session = new Session(sessionKey, mqtt);
+                session.connect();
+                sessions.put(sessionKey, session);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Publish a message through the session for a broker and client
+     * identity. Returns once the message is queued for sending, or for QoS 1
+     * and 2 with a window, once there is a place in the window.
+     * @param host The broker host.
+     * @param port The broker port.
+     * @param clientId The client identity; may be null.
+     * @param topic The topic to publish to.
+     * @param payload The message body.
+     * @param qos The quality of service.
+     * @param retain Whether the broker retains the message.
+     * @throws UnexpectedEventException Unable to connect, or the window stayed full.
+     */
+    public void publish(final String host, final int port, final String clientId, final String topic,
+            final byte[] payload, final QoS qos, final boolean retain) throws UnexpectedEventException {
+        session(host, port, clientId).publish(topic, payload, qos, retain);
+    }
+
+    /**
+     * Subscribe to topics through the session for a broker and client identity.
+     * @param host The broker host.
+     * @param port The broker port.
+     * @param clientId The client identity; may be null.
+     * @param topics The topics to subscribe to.
+     * @return The broker's return codes, one per topic.
+     * @throws UnexpectedEventException Unable to connect, or no acknowledgement.
+     */
+    public byte[] subscribe(final String host, final int port, final String clientId, final Topic[] topics)
+            throws UnexpectedEventException {
+        return session(host, port, clientId).subscribe(topics);
+    }
+
+    /**
+     * Unsubscribe from topics through the session for a broker and client identity.
+     * @param host The broker host.
+     * @param port The broker port.
+     * @param clientId The client identity; may be null.
+     * @param topics The topics to unsubscribe from.
+     * @throws UnexpectedEventException Unable to connect, or no acknowledgement.
+     */
+    public void unsubscribe(final String host, final int port, final String clientId, final UTF8Buffer[] topics)
+            throws UnexpectedEventException {
+        session(host, port, clientId).unsubscribe(topics);
+    }
+
+    /**
+     * The number of sessions currently held by the pool.
+     * @return The count of pooled sessions.
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Disconnect all of the pooled sessions, after the publishes in flight
+     * have been acknowledged (or the timeout has passed). The pool cannot be
+     * used afterwards.
+     */
+    public void shutdown() {
+        closed = true;
+        final Session[] open;
+        synchronized (sessions) {
+            open = sessions.values().toArray(new Session[0]);
+            sessions.clear();
+        }
+        for (Session session : open) {
+            session.close();
+        }
+    }
+}
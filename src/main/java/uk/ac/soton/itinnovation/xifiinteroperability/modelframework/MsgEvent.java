@@ -30,6 +30,7 @@ import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSONEvaluationContext;
 
 /**
  * Capture the data held in each rest event. Note we use a builder pattern
@@ -121,6 +122,21 @@ public abstract class MsgEvent implements Serializable {
         dataBody = newBody;
     }
 
+    /**
+     * Get the parsed-document handle of the event's json body, so that all
+     * of the guards and data references applied to the event share one parse.
+     * @return The handle of the data content, or a new handle when the event
+     * has no content.
+     */
+    public JSONEvaluationContext getJSONContext() {
+        // The subclasses keep their own content, so read it through the getter
+        final Content body = getDataBody();
+        if (body == null) {
+            return new JSONEvaluationContext();
+        }
+        return body.getJSONContext();
+    }
+
     /**
      * Each rest events has a series of parameters e.g. HTTP headers,
      * Query parameters, even parameters in the body.
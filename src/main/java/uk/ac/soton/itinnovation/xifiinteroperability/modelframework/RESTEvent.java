@@ -75,6 +75,13 @@ public class RESTEvent extends MsgEvent implements  Serializable {
     /** A creatable header field. */
     public static final String HTTP_CONFIG_HEAD = "http.";
 
+    /**
+     * The size in bytes of a message body whose content was cut at the
+     * capture limit, or -1 if that size is not known. Absent when the
+     * content holds the whole body.
+     */
+    public static final String HTTP_CONTENT_TRUNCATED = "http.content-truncated";
+
     /** A response time label **/
     public static final String RESPONSE_TIME = "response-time";
 
@@ -129,7 +136,23 @@ public class RESTEvent extends MsgEvent implements  Serializable {
      * Each rest events has a series of parameters e.g. HTTP headers,
      * Query parameters, even parameters in the body.
      */
-    private final Map<String, Parameter> inputParams = new HashMap();
+    private final Map<String, Parameter> inputParams;
+
+    /**
+     * Create an empty event.
+     */
+    public RESTEvent() {
+        this.inputParams = new HashMap();
+    }
+
+    /**
+     * Create an empty event whose parameter set is sized for the expected
+     * number of parameters, so that it is not resized as the event is built.
+     * @param expectedParameters The number of parameters expected.
+     */
+    public RESTEvent(final int expectedParameters) {
+        this.inputParams = new HashMap(Math.max(expectedParameters, 3) * 4 / 3 + 1);
+    }
 
     /**
      * Retrieve the parameters list.
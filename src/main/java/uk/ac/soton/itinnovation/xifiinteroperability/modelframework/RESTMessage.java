@@ -278,16 +278,23 @@ public class RESTMessage extends ProtocolMessage{
      */
     @Override
     public RESTEvent invokeMessage() throws UnexpectedEventException {
+        HttpClientPool.Lease lease = null;
         try {
             String rPath = parseData(this.path);
-            // Instantiate the client connector, and configure it.
-            Client client = new Client(new Context(), Protocol.HTTPS);
-            client.getContext().getParameters().add("useForwardedForHeader","false");
 
             this.url = url + rPath;
             System.out.println(this.url);
             final ClientResource clientRes =   new ClientResource(url);
-            clientRes.setNext(client);
+            if (this.stateMachine != null) {
+                // Borrow the architecture's pooled connector for this host
+                lease = this.stateMachine.getHttpClients().acquire(clientRes.getReference());
+                clientRes.setNext(lease.getClient());
+            } else {
+                // Instantiate the client connector, and configure it.
+                final Client client = new Client(new Context(), Protocol.HTTPS);
+                client.getContext().getParameters().add("useForwardedForHeader","false");
+                clientRes.setNext(client);
+            }
             System.out.println(clientRes.getReference().getHostDomain());
             System.out.println(clientRes.getReference().getHostPort());
             System.out.println(clientRes.getReference().getPath());
@@ -348,7 +355,8 @@ public class RESTMessage extends ProtocolMessage{
             }
             long time=0;
             try {
-                time = System.currentTimeMillis();
+                // Only time the request itself, not the message preparation
+                time = System.nanoTime();
                 switch(method) {
                     case GET_LABEL: clientRes.get();
                         break;
@@ -359,7 +367,7 @@ public class RESTMessage extends ProtocolMessage{
                     case DELETE_LABEL: clientRes.delete();
                        break;
                  }
-                time = System.currentTimeMillis() - time;
+                time = (System.nanoTime() - time) / 1000000;
             } catch (ResourceException excep) {
                 ServiceLogger.LOG.error("Error constructing HTTP message", excep);
             }
@@ -369,6 +377,15 @@ public class RESTMessage extends ProtocolMessage{
             throw new UnexpectedEventException(ex.getMessage(), ex);
         } catch (InvalidPatternReferenceException ex) {
             throw new UnexpectedEventException(ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            throw new UnexpectedEventException("Interrupted waiting for a connection to " + url, ex);
+        } catch (IllegalStateException ex) {
+            // The architecture's connection pool was shut down, e.g. the test was stopped
+            throw new UnexpectedEventException("No connection to " + url + ": " + ex.getMessage(), ex);
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
         }
     }
 
@@ -35,15 +35,17 @@ import com.github.fge.jsonschema.core.exceptions.ProcessingException;
 import com.github.fge.jsonschema.main.JsonSchema;
 import com.github.fge.jsonschema.main.JsonSchemaFactory;
 import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.InvalidJsonException;
+import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.PathNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
@@ -66,6 +68,54 @@ public final class JSON {
         // empty implementation.
     }
 
+    /**
+     * The maximum number of compiled JSON path expressions kept.
+     */
+    private static final int MAX_CACHED_PATHS = 256;
+
+    /**
+     * Compiled JSON path expressions keyed by the expression. Compiled paths
+     * are immutable and can be shared between threads; the (least recently
+     * used) map itself is guarded by its own lock.
+     */
+    private static final Map<String, JsonPath> COMPILED_PATHS = new LinkedHashMap<String, JsonPath>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, JsonPath> eldest) {
+            return size() > MAX_CACHED_PATHS;
+        }
+    };
+
+    /**
+     * Return the compiled form of a JSON path expression, compiling it on
+     * first use.
+     * @param reference The JSON path expression.
+     * @return The compiled (and cached) path.
+     * @throws com.jayway.jsonpath.InvalidPathException Invalid path expression.
+     */
+    public static JsonPath compile(final String reference) {
+        synchronized (COMPILED_PATHS) {
+            JsonPath path = COMPILED_PATHS.get(reference);
+            if (path == null) {
+                path = JsonPath.compile(reference);
+                COMPILED_PATHS.put(reference, path);
+            }
+            return path;
+        }
+    }
+
+    /**
+     * Parse a JSON document once so that it can be queried by any number of
+     * path expressions.
+     * @param jsondoc The json content.
+     * @return The parsed document.
+     * @throws InvalidJsonException The content is not valid json.
+     */
+    public static DocumentContext parse(final String jsondoc) {
+        return JsonPath.using(Configuration.defaultConfiguration()).parse(jsondoc);
+    }
+
     /**
      * Assert that a JSON document reference (jsonpath expr) evaluates to
      * a given value.
@@ -78,7 +128,26 @@ public final class JSON {
     public static PathEvaluationResult assertJSON(final String jsondoc,
                         final String reference, final Object value) throws InvalidJSONPathException {
         try {
-            final String xprVal = readValue(jsondoc, reference);
+            return assertJSON(parse(jsondoc), reference, value);
+        }
+        catch (InvalidJsonException ex) {
+            throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
+        }
+    }
+
+    /**
+     * Assert that a reference (jsonpath expr) of an already parsed JSON
+     * document evaluates to a given value.
+     * @param document The parsed document to check.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     */
+    public static PathEvaluationResult assertJSON(final DocumentContext document,
+                        final String reference, final Object value) throws InvalidJSONPathException {
+        try {
+            final String xprVal = readValue(document, reference);
             final String jsonVal = ((String) value).toLowerCase(Locale.ENGLISH);
             return new PathEvaluationResult(jsonVal.equalsIgnoreCase(xprVal), xprVal, DataFormat.JSON);
         }
@@ -109,7 +178,29 @@ public final class JSON {
                         final String reference, final Object value, final Guard.ComparisonType comparisonType)
             throws InvalidJSONPathException {
         try {
-            final String xprVal = readValue(jsondoc, reference);
+            return compareJSON(parse(jsondoc), reference, value, comparisonType);
+        }
+        catch (InvalidJsonException ex) {
+            throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
+        }
+    }
+
+    /**
+     * Compare a reference (jsonpath expr) of an already parsed JSON document
+     * against a particular value. LESSTHAN or GREATERTHAN comparisons only.
+     *
+     * @param document The parsed document to check.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @param comparisonType The type of the comparison, GREATERTHAN or LESSTHAN
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     */
+    public static PathEvaluationResult compareJSON(final DocumentContext document,
+                        final String reference, final Object value, final Guard.ComparisonType comparisonType)
+            throws InvalidJSONPathException {
+        try {
+            final String xprVal = readValue(document, reference);
             final String jsonVal = ((String) value);
             if (comparisonType == Guard.ComparisonType.GREATERTHAN){
                 try{
@@ -153,9 +244,30 @@ public final class JSON {
     public static PathEvaluationResult regexJSON(final String jsondoc,
             final String reference, final Object value) throws InvalidJSONPathException, InvalidRegexException {
         try {
-            final String xprVal = readValue(jsondoc, reference);
+            return regexJSON(parse(jsondoc), reference, value);
+        }
+        catch (InvalidJsonException ex) {
+            throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
+        }
+    }
+
+    /**
+     * Check if a reference (jsonpath expr) of an already parsed JSON document
+     * matches a particular regex.
+     *
+     * @param document the parsed json document to check
+     * @param reference the JSON path expression
+     * @param value the regular expression to check against
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @throws InvalidRegexException Thrown in case of an invalid regex
+     */
+    public static PathEvaluationResult regexJSON(final DocumentContext document,
+            final String reference, final Object value) throws InvalidJSONPathException, InvalidRegexException {
+        try {
+            final String xprVal = readValue(document, reference);
             final String jsonVal = ((String) value);
-            boolean boolResult = Pattern.matches(jsonVal, xprVal);
+            boolean boolResult = PatternCache.matches(jsonVal, xprVal);
             return new PathEvaluationResult(boolResult, xprVal, DataFormat.JSON);
         }
         catch (PathNotFoundException ex) {
@@ -183,8 +295,28 @@ public final class JSON {
                         final String reference, final Object value)
             throws InvalidJSONPathException {
         try {
-            final Object document = Configuration.defaultConfiguration().jsonProvider().parse(jsondoc);
-            Map<String, String> childFields = JsonPath.read(document, reference);
+            return containsJSON(parse(jsondoc), reference, value);
+        }
+        catch (InvalidJsonException ex) {
+            throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
+        }
+    }
+
+    /**
+     * Check if a reference (jsonpath expr) of an already parsed JSON document
+     * contains a particular key field.
+     *
+     * @param document The parsed document to check.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @return PathEvaluationResult with the boolean result and the fields of the JSONPath expression (array list)
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     */
+    public static PathEvaluationResult containsJSON(final DocumentContext document,
+                        final String reference, final Object value)
+            throws InvalidJSONPathException {
+        try {
+            Map<String, String> childFields = document.read(compile(reference));
             List<String> childFieldsList = new ArrayList<>();
 
             boolean containsResult = false;
@@ -202,7 +334,7 @@ public final class JSON {
             probably returned a list and not a map, hence there are no child fields */
             return new PathEvaluationResult(false, new ArrayList<>(), DataFormat.JSON);
         }
-        catch (PathNotFoundException | InvalidJsonException ex) {
+        catch (PathNotFoundException | InvalidPathException ex) {
             throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
         }
     }
@@ -242,7 +374,21 @@ public final class JSON {
         if (pathexpr.equalsIgnoreCase("*")) {
             return jsondoc;
         }
-        return JsonPath.read(jsondoc, pathexpr).toString();
+        return readValue(parse(jsondoc), pathexpr);
+    }
+
+    /**
+     * Read a JSON value from an already parsed doc based on a JSON Path
+     * expression.
+     * @param document The parsed json content.
+     * @param pathexpr The json path expression.
+     * @return The data value as a string (Can be typed later).
+     */
+    public static String readValue(final DocumentContext document, final String pathexpr) {
+        if (pathexpr.equalsIgnoreCase("*")) {
+            return document.jsonString();
+        }
+        return document.read(compile(pathexpr)).toString();
     }
 
     /**
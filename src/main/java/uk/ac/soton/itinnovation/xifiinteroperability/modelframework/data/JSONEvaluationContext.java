@@ -0,0 +1,164 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Nikolay Stanchev
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.InvalidJsonException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+
+/**
+ * Parsed-document handle for the JSON body of one event. The body is parsed
+ * the first time a guard or a data reference needs it, and all of the later
+ * path evaluations (e.g. every guard of every transition, or every element
+ * read by a data loop over a stored event) use that single parse rather than
+ * re-parsing the body per expression.
+ *
+ * The handle is kept by the event content, hence access to the parsed
+ * document is synchronized; the document itself is only read.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Nikolay Stanchev
+ */
+public class JSONEvaluationContext {
+
+    /**
+     * The body that was last parsed.
+     */
+    private String body;
+
+    /**
+     * The parsed form of the body.
+     */
+    private DocumentContext document;
+
+    /**
+     * Return the parsed form of a json message body, parsing it only if it
+     * is not the body that was parsed last.
+     *
+     * @param jsonDoc The json message body.
+     * @return The parsed document.
+     * @throws InvalidJsonException The body is not valid json.
+     * @throws IllegalArgumentException There is no body.
+     */
+    public final synchronized DocumentContext getDocument(final String jsonDoc) {
+        if (document == null || (jsonDoc != body && (jsonDoc == null || !jsonDoc.equals(body)))) {
+            document = null;
+            body = null;
+            document = JSON.parse(jsonDoc);
+            body = jsonDoc;
+        }
+        return document;
+    }
+
+    /**
+     * Read a JSON value from the (once) parsed body.
+     * @param jsonDoc The json message body.
+     * @param pathexpr The json path expression.
+     * @return The data value as a string.
+     * @see JSON#readValue(String, String)
+     */
+    public final String readValue(final String jsonDoc, final String pathexpr) {
+        if (pathexpr.equalsIgnoreCase("*")) {
+            return jsonDoc;
+        }
+        return JSON.readValue(getDocument(jsonDoc), pathexpr);
+    }
+
+    /**
+     * JSON path equality assertion against the (once) parsed body.
+     * @param jsonDoc The json message body.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @see JSON#assertJSON(DocumentContext, String, Object)
+     */
+    public final PathEvaluationResult assertJSON(final String jsonDoc, final String reference, final Object value)
+            throws InvalidJSONPathException {
+        return JSON.assertJSON(parsed(jsonDoc, reference), reference, value);
+    }
+
+    /**
+     * JSON path less than/greater than comparison against the (once) parsed body.
+     * @param jsonDoc The json message body.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @param comparisonType The type of the comparison, GREATERTHAN or LESSTHAN
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @see JSON#compareJSON(DocumentContext, String, Object, Guard.ComparisonType)
+     */
+    public final PathEvaluationResult compareJSON(final String jsonDoc, final String reference, final Object value,
+            final Guard.ComparisonType comparisonType) throws InvalidJSONPathException {
+        return JSON.compareJSON(parsed(jsonDoc, reference), reference, value, comparisonType);
+    }
+
+    /**
+     * JSON path regular expression match against the (once) parsed body.
+     * @param jsonDoc The json message body.
+     * @param reference The JSON path expression.
+     * @param value The regular expression to check against.
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @throws InvalidRegexException Thrown in case of an invalid regex
+     * @see JSON#regexJSON(DocumentContext, String, Object)
+     */
+    public final PathEvaluationResult regexJSON(final String jsonDoc, final String reference, final Object value)
+            throws InvalidJSONPathException, InvalidRegexException {
+        return JSON.regexJSON(parsed(jsonDoc, reference), reference, value);
+    }
+
+    /**
+     * JSON path contains key field check against the (once) parsed body.
+     * @param jsonDoc The json message body.
+     * @param reference The JSON path expression.
+     * @param value The required key field.
+     * @return PathEvaluationResult with the boolean result and the fields of the JSONPath expression (array list)
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @see JSON#containsJSON(DocumentContext, String, Object)
+     */
+    public final PathEvaluationResult containsJSON(final String jsonDoc, final String reference, final Object value)
+            throws InvalidJSONPathException {
+        return JSON.containsJSON(parsed(jsonDoc, reference), reference, value);
+    }
+
+    /**
+     * Return the parsed body, reporting invalid json as the string based
+     * JSON guard operations do.
+     * @param jsonDoc The json message body.
+     * @param reference The JSON path expression being evaluated.
+     * @return The parsed document.
+     * @throws InvalidJSONPathException The body is not valid json.
+     */
+    private DocumentContext parsed(final String jsonDoc, final String reference) throws InvalidJSONPathException {
+        try {
+            return getDocument(jsonDoc);
+        } catch (InvalidJsonException | IllegalArgumentException ex) {
+            throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Nikolay Stanchev
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Cache of compiled regular expressions shared by the regex guards of
+ * messages (Guard), of json content (JSON) and of xml content (XML). The
+ * expressions of a pattern are fixed for its life, so each is compiled
+ * once rather than per event. The cache is bounded, evicting the least
+ * recently used expression, and is thread-safe. Utility class.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Nikolay Stanchev
+ */
+public final class PatternCache {
+
+    /**
+     * The maximum number of compiled expressions kept.
+     */
+    private static final int MAX_CACHED_PATTERNS = 512;
+
+    /**
+     * The compiled expressions keyed by the expression; guarded by its own lock.
+     */
+    private static final Map<String, Pattern> PATTERNS = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Pattern> eldest) {
+            return size() > MAX_CACHED_PATTERNS;
+        }
+    };
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    private static final AtomicLong HITS = new AtomicLong();
+
+    /**
+     * The number of lookups that compiled the expression.
+     */
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /**
+     * Utility class. Private constructor.
+     */
+    private PatternCache() {
+        // empty implementation.
+    }
+
+    /**
+     * Return the compiled form of a regular expression, compiling it on
+     * first use.
+     * @param regex The regular expression.
+     * @return The compiled (and cached) pattern.
+     * @throws PatternSyntaxException The expression is invalid.
+     */
+    public static Pattern compile(final String regex) {
+        synchronized (PATTERNS) {
+            final Pattern pattern = PATTERNS.get(regex);
+            if (pattern != null) {
+                HITS.incrementAndGet();
+                return pattern;
+            }
+        }
+        MISSES.incrementAndGet();
+        // Compile outside of the lock; a concurrent miss may compile twice
+        final Pattern pattern = Pattern.compile(regex);
+        synchronized (PATTERNS) {
+            PATTERNS.put(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Match an input against a regular expression, as Pattern.matches().
+     * @param regex The regular expression.
+     * @param input The character sequence to be matched.
+     * @return True if the entire input matches the expression.
+     * @throws PatternSyntaxException The expression is invalid.
+     */
+    public static boolean matches(final String regex, final CharSequence input) {
+        return compile(regex).matcher(input).matches();
+    }
+
+    /**
+     * Check a regular expression, e.g. when a pattern is loaded.
+     * @param regex The regular expression.
+     * @throws InvalidRegexException The expression is invalid.
+     */
+    public static void validate(final String regex) throws InvalidRegexException {
+        try {
+            compile(regex);
+        } catch (PatternSyntaxException ex) {
+            throw new InvalidRegexException("Invalid regular expression '" + regex + "': " + ex.getDescription(), ex);
+        }
+    }
+
+    /**
+     * The number of lookups answered from the cache.
+     * @return The hit count.
+     */
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    /**
+     * The number of lookups that had to compile the expression.
+     * @return The miss count.
+     */
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    /**
+     * The number of compiled expressions currently cached.
+     * @return The cache size.
+     */
+    public static int size() {
+        synchronized (PATTERNS) {
+            return PATTERNS.size();
+        }
+    }
+}
@@ -32,9 +32,10 @@ import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -83,6 +84,148 @@ public final class XML {
         // no implementation required.
     }
 
+    /**
+     * The maximum number of compiled XPath expressions kept per thread.
+     */
+    private static final int MAX_CACHED_EXPRESSIONS = 256;
+
+    /**
+     * Per-thread namespace aware document builder. DocumentBuilder instances
+     * are not thread-safe, but can be reused by the same thread.
+     */
+    private static final ThreadLocal<DocumentBuilder> BUILDERS = new ThreadLocal();
+
+    /**
+     * Per-thread XPath engine with a bounded cache of compiled expressions.
+     * Neither XPath nor XPathExpression instances are thread-safe.
+     */
+    private static final ThreadLocal<CompiledXPaths> XPATHS = new ThreadLocal<CompiledXPaths>() {
+        @Override
+        protected CompiledXPaths initialValue() {
+            return new CompiledXPaths();
+        }
+    };
+
+    /**
+     * A thread's XPath engine and the expressions it has compiled.
+     */
+    private static final class CompiledXPaths extends LinkedHashMap<String, XPathExpression> {
+
+        /**
+         * Portable serializable class.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The XPath engine that compiles the expressions.
+         */
+        private final transient XPath xpath = XPathFactory.newInstance().newXPath();
+
+        /**
+         * Create an access ordered (least recently used) cache.
+         */
+        CompiledXPaths() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, XPathExpression> eldest) {
+            return size() > MAX_CACHED_EXPRESSIONS;
+        }
+
+        /**
+         * Return the compiled form of an expression, compiling it on first use.
+         * @param reference The XPath expression.
+         * @return The compiled expression.
+         * @throws XPathExpressionException Invalid XPath expression.
+         */
+        XPathExpression compile(final String reference) throws XPathExpressionException {
+            XPathExpression expr = get(reference);
+            if (expr == null) {
+                expr = xpath.compile(reference);
+                put(reference, expr);
+            }
+            return expr;
+        }
+    }
+
+    /**
+     * Get the calling thread's document builder, creating it on first use.
+     * @return A namespace aware document builder.
+     * @throws ParserConfigurationException Error configuring the xml parser.
+     */
+    private static DocumentBuilder builder() throws ParserConfigurationException {
+        DocumentBuilder builder = BUILDERS.get();
+        if (builder == null) {
+            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
+                .newInstance();
+            domFactory.setNamespaceAware(true);
+            builder = domFactory.newDocumentBuilder();
+            BUILDERS.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /**
+     * Compile an XPath expression with the calling thread's XPath engine.
+     * @param reference The XPath expression.
+     * @return The compiled (and cached) expression.
+     * @throws XPathExpressionException Invalid XPath expression.
+     */
+    private static XPathExpression compile(final String reference) throws XPathExpressionException {
+        return XPATHS.get().compile(reference);
+    }
+
+    /**
+     * Parse an xml string into a DOM document. The document can then be
+     * passed to the evaluation operations of this class so that multiple
+     * expressions are evaluated against a single parse.
+     *
+     * @param xmlDoc The xml content to parse.
+     * @return The parsed document.
+     * @throws SAXException Error parsing the xml document.
+     * @throws IOException Error buffering the xml string data.
+     * @throws ParserConfigurationException Error configuring the xml parser.
+     */
+    public static Document parse(final String xmlDoc) throws SAXException, IOException, ParserConfigurationException {
+        return builder().parse(new InputSource(new StringReader(xmlDoc)));
+    }
+
+    /**
+     * Evaluate an XPath expression against a document, failing if the
+     * expression does not select anything.
+     * @param doc The parsed xml document.
+     * @param reference The XPATH reference expression to evaluate.
+     * @return The compiled expression.
+     * @throws XPathExpressionException Invalid XPath expression.
+     * @throws InvalidXPathException The expression does not exist in the document.
+     */
+    private static XPathExpression existing(final Document doc, final String reference)
+            throws XPathExpressionException, InvalidXPathException {
+        final XPathExpression expr = compile(reference);
+        final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
+        if (!xPathExist){
+            throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
+        }
+        return expr;
+    }
+
+    /**
+     * Log the error of a failed parse of an xml string.
+     * @param ex The parse exception.
+     */
+    private static void logParseError(final Exception ex) {
+        if (ex instanceof SAXException) {
+            ServiceLogger.LOG.error("Error parsing the xml document", ex);
+        } else if (ex instanceof IOException) {
+            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
+        } else {
+            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
+        }
+    }
+
     /**
      * XPATH based method to assert that particular expressions in an
      * XML data structure e.g. /Resp/Address/Street == Main St. Given an XML
@@ -97,31 +240,31 @@ public final class XML {
     public static PathEvaluationResult xmlAssert(final String xmlDoc, final String reference, final Object value)
             throws InvalidXPathException {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
-            }
-            final Object result = expr.evaluate(doc);
+            return xmlAssert(parse(xmlDoc), reference, value);
+        } catch (SAXException | IOException | ParserConfigurationException ex) {
+            logParseError(ex);
+        }
+        return new PathEvaluationResult(false, null, DataFormat.XML);
+    }
+
+    /**
+     * As xmlAssert(String, String, Object) but against an already parsed document.
+     *
+     * @param doc The parsed xml document to apply an XPATH expression to
+     * @param reference The XPATH reference expression to evaluate
+     * @param value The value to compare against
+     * @return PathEvaluationResult with the boolean result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     */
+    public static PathEvaluationResult xmlAssert(final Document doc, final String reference, final Object value)
+            throws InvalidXPathException {
+        try {
+            final Object result = existing(doc, reference).evaluate(doc);
             return new PathEvaluationResult(result.equals(value.toString()), result, DataFormat.XML);
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
         }
-        return new PathEvaluationResult(false, null, DataFormat.XML);
     }
 
     /**
@@ -139,19 +282,28 @@ public final class XML {
     public static PathEvaluationResult xmlCompare(final String xmlDoc, final String reference, final Object value,
             final Guard.ComparisonType comparisonType) throws InvalidXPathException {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
-            }
-            final Object result = expr.evaluate(doc);
+            return xmlCompare(parse(xmlDoc), reference, value, comparisonType);
+        } catch (SAXException | IOException | ParserConfigurationException ex) {
+            logParseError(ex);
+        }
+        return new PathEvaluationResult(false, null, DataFormat.XML);
+    }
+
+    /**
+     * As xmlCompare(String, String, Object, ComparisonType) but against an
+     * already parsed document.
+     *
+     * @param doc The parsed xml document to apply an XPATH expression to
+     * @param reference The XPATH reference expression to evaluate
+     * @param value The value to compare against
+     * @param comparisonType The type of the comparison, GREATERTHAN or LESSTHAN
+     * @return PathEvaluationResult with the boolean result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     */
+    public static PathEvaluationResult xmlCompare(final Document doc, final String reference, final Object value,
+            final Guard.ComparisonType comparisonType) throws InvalidXPathException {
+        try {
+            final Object result = existing(doc, reference).evaluate(doc);
             if (comparisonType == Guard.ComparisonType.GREATERTHAN){
                 try{
                     double a = new Double(result.toString());
@@ -170,12 +322,6 @@ public final class XML {
                     return new PathEvaluationResult(false, result, DataFormat.XML);
                 }
             }
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
@@ -198,27 +344,29 @@ public final class XML {
     public static PathEvaluationResult xmlRegex(final String xmlDoc, final String reference, final Object value)
             throws InvalidXPathException, InvalidRegexException {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
-            }
-            final Object result = expr.evaluate(doc);
-            boolean boolResult = Pattern.matches(value.toString(), result.toString());
+            return xmlRegex(parse(xmlDoc), reference, value);
+        } catch (SAXException | IOException | ParserConfigurationException ex) {
+            logParseError(ex);
+        }
+        return new PathEvaluationResult(false, null, DataFormat.XML);
+    }
+
+    /**
+     * As xmlRegex(String, String, Object) but against an already parsed document.
+     *
+     * @param doc The parsed xml document to apply an XPATH expression to
+     * @param reference the XPATH reference expression to evaluate
+     * @param value the regex to match against
+     * @return the evaluation result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in guard
+     * @throws InvalidRegexException Thrown in case of an invalid regex in guard
+     */
+    public static PathEvaluationResult xmlRegex(final Document doc, final String reference, final Object value)
+            throws InvalidXPathException, InvalidRegexException {
+        try {
+            final Object result = existing(doc, reference).evaluate(doc);
+            boolean boolResult = PatternCache.matches(value.toString(), result.toString());
             return new PathEvaluationResult(boolResult, result, DataFormat.XML);
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
@@ -226,7 +374,6 @@ public final class XML {
             ServiceLogger.LOG.error("Error with invalid regular expression", ex);
             throw new InvalidRegexException("There is a regex guard with an invalid regular expression.");
         }
-        return new PathEvaluationResult(false, null, DataFormat.XML);
     }
 
     /**
@@ -243,18 +390,26 @@ public final class XML {
     public static PathEvaluationResult xmlContains(final String xmlDoc, final String reference, final Object value)
             throws InvalidXPathException {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
-            }
+            return xmlContains(parse(xmlDoc), reference, value);
+        } catch (SAXException | IOException | ParserConfigurationException ex) {
+            logParseError(ex);
+        }
+        return new PathEvaluationResult(false, null, DataFormat.XML);
+    }
+
+    /**
+     * As xmlContains(String, String, Object) but against an already parsed document.
+     *
+     * @param doc The parsed xml document to apply an XPATH expression to
+     * @param reference The XPATH reference expression to evaluate
+     * @param value The value to compare against
+     * @return PathEvaluationResult with the boolean result and the fields of the XPath expression (array list)
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     */
+    public static PathEvaluationResult xmlContains(final Document doc, final String reference, final Object value)
+            throws InvalidXPathException {
+        try {
+            final XPathExpression expr = existing(doc, reference);
 
             final Node resultNode = (Node) expr.evaluate(doc, XPathConstants.NODE);
             final NodeList resultNodeList = (NodeList) resultNode.getChildNodes();
@@ -275,17 +430,10 @@ public final class XML {
                 }
             }
             return new PathEvaluationResult(containsResult, elementNodesList, DataFormat.XML);
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
         }
-        return new PathEvaluationResult(false, null, DataFormat.XML);
     }
 
 
@@ -304,29 +452,33 @@ public final class XML {
         validator.validate(source);
     }
 
+    /**
+     * Count the nodes selected by an xpath expression.
+     * @param xmlDoc The xml content to apply an XPATH expression to.
+     * @param reference The XPATH reference expression to evaluate.
+     * @return The number of selected nodes (0 on error).
+     */
     public static int getArraySize(final String xmlDoc, final String reference) {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-
+            return getArraySize(parse(xmlDoc), reference);
+        } catch (SAXException | IOException | ParserConfigurationException ex) {
+            logParseError(ex);
+        }
+        return 0;
+    }
 
-            Object result = expr.evaluate(doc, XPathConstants.NODESET);
-            NodeList products = (NodeList) result;
+    /**
+     * Count the nodes selected by an xpath expression.
+     * @param doc The parsed xml document to apply an XPATH expression to.
+     * @param reference The XPATH reference expression to evaluate.
+     * @return The number of selected nodes (0 on error).
+     */
+    public static int getArraySize(final Document doc, final String reference) {
+        try {
+            final NodeList products = (NodeList) compile(reference).evaluate(doc, XPathConstants.NODESET);
             return products.getLength();
-
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
+            ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
         }
         return 0;
     }
@@ -384,21 +536,26 @@ public final class XML {
      */
     public static String readValue(final String xmlDoc, final String pathexpr) {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                    .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(pathexpr);
-            return expr.evaluate(doc);
+            return readValue(parse(xmlDoc), pathexpr);
         } catch (SAXException ex) {
             ServiceLogger.LOG.error("Error parsing the xml string", ex);
         } catch (IOException ex) {
             ServiceLogger.LOG.error("Error reading the xml into buffer", ex);
         } catch (ParserConfigurationException ex) {
             ServiceLogger.LOG.error("Error configuring the parser", ex);
+        }
+        return null;
+    }
+
+    /**
+     * Given an xpath expression: read that value from a parsed xml document.
+     * @param doc The xml document to read from.
+     * @param pathexpr The xpath expression.
+     * @return The xml value read.
+     */
+    public static String readValue(final Document doc, final String pathexpr) {
+        try {
+            return compile(pathexpr).evaluate(doc);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Invalid XML XPATH check", ex);
         }
@@ -414,15 +571,9 @@ public final class XML {
      */
     public static String writeValue(final String xmlDoc, final String pathexpr, final String val) {
          try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                    .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(pathexpr);
-            final Node param =  (Node) expr.evaluate(doc, XPathConstants.NODESET);
+            // The document is changed, so it is always parsed afresh
+            final Document doc = parse(xmlDoc);
+            final Node param =  (Node) compile(pathexpr).evaluate(doc, XPathConstants.NODESET);
             param.setNodeValue(val);
 
             final TransformerFactory tFact = TransformerFactory.newInstance();
@@ -445,4 +596,3 @@ public final class XML {
         return null;
     }
 }
-
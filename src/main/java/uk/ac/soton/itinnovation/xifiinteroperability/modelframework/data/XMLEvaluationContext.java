@@ -0,0 +1,178 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Nikolay Stanchev
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import java.io.IOException;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+
+/**
+ * Evaluation context for the XML guards applied to one event. The message
+ * body is parsed into a DOM the first time a guard needs it, and all of the
+ * remaining guards (of every transition of the state) are evaluated against
+ * that single tree rather than re-parsing the body per guard.
+ *
+ * A context belongs to a single evaluation and is not thread-safe.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Nikolay Stanchev
+ */
+public class XMLEvaluationContext {
+
+    /**
+     * The body that was last parsed.
+     */
+    private String body;
+
+    /**
+     * The parsed form of the body.
+     */
+    private Document document;
+
+    /**
+     * The body that could not be parsed, so that it is not parsed again.
+     */
+    private String invalidBody;
+
+    /**
+     * Return the parsed DOM of an xml message body, parsing it only if it
+     * is not the body that was parsed last.
+     *
+     * @param xmlDoc The xml message body.
+     * @return The parsed document.
+     * @throws SAXException Error parsing the xml document.
+     * @throws IOException Error buffering the xml string data.
+     * @throws ParserConfigurationException Error configuring the xml parser.
+     */
+    public final Document getDocument(final String xmlDoc)
+            throws SAXException, IOException, ParserConfigurationException {
+        if (document == null || (xmlDoc != body && !xmlDoc.equals(body))) {
+            document = null;
+            body = null;
+            document = XML.parse(xmlDoc);
+            body = xmlDoc;
+        }
+        return document;
+    }
+
+    /**
+     * XPATH equality assertion against the (once) parsed body.
+     * @param xmlDoc The xml message body.
+     * @param reference The XPATH reference expression to evaluate.
+     * @param value The value to compare against.
+     * @return PathEvaluationResult with the boolean result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     * @see XML#xmlAssert(Document, String, Object)
+     */
+    public final PathEvaluationResult xmlAssert(final String xmlDoc, final String reference, final Object value)
+            throws InvalidXPathException {
+        final Document doc = parsed(xmlDoc);
+        if (doc == null) {
+            return new PathEvaluationResult(false, null, PathEvaluationResult.DataFormat.XML);
+        }
+        return XML.xmlAssert(doc, reference, value);
+    }
+
+    /**
+     * XPATH less than/greater than comparison against the (once) parsed body.
+     * @param xmlDoc The xml message body.
+     * @param reference The XPATH reference expression to evaluate.
+     * @param value The value to compare against.
+     * @param comparisonType The type of the comparison, GREATERTHAN or LESSTHAN
+     * @return PathEvaluationResult with the boolean result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     * @see XML#xmlCompare(Document, String, Object, Guard.ComparisonType)
+     */
+    public final PathEvaluationResult xmlCompare(final String xmlDoc, final String reference, final Object value,
+            final Guard.ComparisonType comparisonType)
+            throws InvalidXPathException {
+        final Document doc = parsed(xmlDoc);
+        if (doc == null) {
+            return new PathEvaluationResult(false, null, PathEvaluationResult.DataFormat.XML);
+        }
+        return XML.xmlCompare(doc, reference, value, comparisonType);
+    }
+
+    /**
+     * XPATH regular expression match against the (once) parsed body.
+     * @param xmlDoc The xml message body.
+     * @param reference The XPATH reference expression to evaluate.
+     * @param value The regex to match against.
+     * @return the evaluation result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in guard
+     * @throws InvalidRegexException Thrown in case of an invalid regex in guard
+     * @see XML#xmlRegex(Document, String, Object)
+     */
+    public final PathEvaluationResult xmlRegex(final String xmlDoc, final String reference, final Object value)
+            throws InvalidXPathException, InvalidRegexException {
+        final Document doc = parsed(xmlDoc);
+        if (doc == null) {
+            return new PathEvaluationResult(false, null, PathEvaluationResult.DataFormat.XML);
+        }
+        return XML.xmlRegex(doc, reference, value);
+    }
+
+    /**
+     * XPATH contains child field check against the (once) parsed body.
+     * @param xmlDoc The xml message body.
+     * @param reference The XPATH reference expression to evaluate.
+     * @param value The child field name.
+     * @return PathEvaluationResult with the boolean result and the fields of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     * @see XML#xmlContains(Document, String, Object)
+     */
+    public final PathEvaluationResult xmlContains(final String xmlDoc, final String reference, final Object value)
+            throws InvalidXPathException {
+        final Document doc = parsed(xmlDoc);
+        if (doc == null) {
+            return new PathEvaluationResult(false, null, PathEvaluationResult.DataFormat.XML);
+        }
+        return XML.xmlContains(doc, reference, value);
+    }
+
+    /**
+     * Return the parsed body, logging (rather than throwing) parse errors as
+     * the string based XML operations do.
+     * @param xmlDoc The xml message body.
+     * @return The parsed document or null if the body is not valid xml.
+     */
+    private Document parsed(final String xmlDoc) {
+        if (xmlDoc == null || xmlDoc == invalidBody) {
+            return null;
+        }
+        try {
+            return getDocument(xmlDoc);
+        } catch (SAXException | IOException | ParserConfigurationException ex) {
+            ServiceLogger.LOG.error("Error parsing the xml document", ex);
+            invalidBody = xmlDoc;
+            return null;
+        }
+    }
+}
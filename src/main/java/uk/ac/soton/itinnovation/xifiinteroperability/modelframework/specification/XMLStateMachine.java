@@ -46,6 +46,8 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MQTTMessage;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTMessage;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PatternCache;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateNode;
@@ -277,11 +279,16 @@ public final class XMLStateMachine {
                             guardValue, archDesc));
                 }
                 else if (eltIndex.getName().equalsIgnoreCase(MsgEvent.REGEX)) {
-                    arrayOfGuards.add(new Guard(
+                    final Guard regexGuard = new Guard(
                             eltIndex.getChildTextTrim(MsgEvent.PARAM_LABEL),
                             String.class,
                             Guard.ComparisonType.REGEX,
-                            guardValue, archDesc));
+                            guardValue, archDesc);
+                    // Report an invalid (constant) expression now, not on every event
+                    if (!regexGuard.getGuardCompare().contains("$$")) {
+                        PatternCache.validate(regexGuard.getGuardCompare());
+                    }
+                    arrayOfGuards.add(regexGuard);
                 }
                 else if (eltIndex.getName().equalsIgnoreCase("counter")) {
                     arrayOfGuards.add(new Guard(
@@ -298,6 +305,9 @@ public final class XMLStateMachine {
          } catch (InvalidGuard ex) {
              ServiceLogger.LOG.error("Invalid guard specification");
              throw new InvalidTransitionException("Error in guard spec", ex);
+         } catch (InvalidRegexException ex) {
+             ServiceLogger.LOG.error("Invalid regex guard specification: " + ex.getMessage());
+             throw new InvalidTransitionException("Error in guard spec", ex);
          }
 
          return arrayOfGuards;
@@ -612,6 +622,15 @@ public final class XMLStateMachine {
              throw new InvalidStateMachineException("State machine: <behaviour> "
                      + "description does not contain a start node");
          }
+         /**
+          * Compile the guards of every transition into their evaluation
+          * plans, so that guards are not re-interpreted per event.
+          */
+         for (State state : states.values()) {
+             for (Transition transition : state.getTransitions()) {
+                 transition.compileGuards();
+             }
+         }
          /**
           * Build the StateMachine type with the identified first state and
           * state set.
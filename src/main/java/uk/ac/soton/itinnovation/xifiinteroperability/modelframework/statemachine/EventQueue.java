@@ -0,0 +1,630 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * The bounded queue of events input to a state machine. Events are pushed
+ * by the proxy threads that observe the system under test, and taken by the
+ * state machine thread.
+ *
+ * When the queue is full, the overflow policy decides what happens to a
+ * new event: the pushing thread blocks until there is room (the original
+ * behaviour), the oldest queued event is dropped, or the event is spilled
+ * to a temporary file and read back in order as room becomes available.
+ * Only the blocking policy can add latency to the proxied exchange.
+ *
+ * The queue depth, its high-water mark and the number of dropped and
+ * spilled events are counted so they can be reported.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventQueue extends AbstractQueue<MsgEvent> implements BlockingQueue<MsgEvent> {
+
+    /**
+     * What to do with a new event when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Block the pushing thread until there is room. */
+        BLOCK,
+        /** Drop the oldest queued event to make room. */
+        DROP_OLDEST,
+        /** Write the event to a disk-backed buffer. */
+        SPILL
+    }
+
+    /**
+     * The capacity used when none is configured.
+     */
+    public static final int DEFAULT_CAPACITY = 50;
+
+    /**
+     * Property setting the number of events held in memory.
+     */
+    public static final String CAPACITY_PROPERTY = "event_queue_capacity";
+
+    /**
+     * Property setting the overflow policy: block, drop-oldest or spill.
+     */
+    public static final String OVERFLOW_PROPERTY = "event_queue_overflow";
+
+    /**
+     * The maximum number of events held in memory.
+     */
+    private final transient int capacity;
+
+    /**
+     * The policy applied when the in memory queue is full.
+     */
+    private final transient OverflowPolicy policy;
+
+    /**
+     * The events held in memory, oldest first. Guarded by lock.
+     */
+    private final transient ArrayDeque<MsgEvent> events;
+
+    /**
+     * Lock guarding all of the queue state.
+     */
+    private final transient ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when an event is added.
+     */
+    private final transient Condition notEmpty = lock.newCondition();
+
+    /**
+     * Signalled when an event is removed.
+     */
+    private final transient Condition notFull = lock.newCondition();
+
+    /**
+     * The temporary file that events are spilled to; created on first use.
+     */
+    private transient File spillLocation;
+
+    /**
+     * Access to the spill file. Records are a length followed by the
+     * serialised event.
+     */
+    private transient RandomAccessFile spillFile;
+
+    /**
+     * The file position of the next spilled event to read.
+     */
+    private transient long spillRead;
+
+    /**
+     * The file position the next spilled event is written to.
+     */
+    private transient long spillWrite;
+
+    /**
+     * The number of events currently held in the spill file. While this is
+     * above zero all new events are spilled, so that the order is kept.
+     */
+    private transient int spillCount;
+
+    /**
+     * The largest depth the queue has reached.
+     */
+    private transient int highWaterMark;
+
+    /**
+     * The number of events lost to overflow.
+     */
+    private transient long dropped;
+
+    /**
+     * The number of events written to the spill file.
+     */
+    private transient long spilled;
+
+    /**
+     * Create a new event queue.
+     * @param size The number of events held in memory.
+     * @param overflow The policy applied when the memory queue is full.
+     */
+    public EventQueue(final int size, final OverflowPolicy overflow) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Event queue capacity must be at least 1");
+        }
+        if (overflow == null) {
+            throw new IllegalArgumentException("No event queue overflow policy");
+        }
+        this.capacity = size;
+        this.policy = overflow;
+        this.events = new ArrayDeque(size);
+    }
+
+    /**
+     * Create an event queue configured by the event_queue_capacity and
+     * event_queue_overflow properties. Missing or invalid values fall back
+     * to a blocking queue of the default capacity.
+     * @return The configured event queue.
+     */
+    public static EventQueue fromProperties() {
+        int size = DEFAULT_CAPACITY;
+        OverflowPolicy overflow = OverflowPolicy.BLOCK;
+        try {
+            final String sizeValue = SystemProperties.readProperty(CAPACITY_PROPERTY);
+            if (sizeValue != null) {
+                size = Integer.parseInt(sizeValue.trim());
+            }
+            final String overflowValue = SystemProperties.readProperty(OVERFLOW_PROPERTY);
+            if (overflowValue != null) {
+                overflow = OverflowPolicy.valueOf(overflowValue.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+            }
+        } catch (ConfigurationException | IllegalArgumentException ex) {
+            ServiceLogger.LOG.error("Invalid event queue configuration - using defaults: " + ex.getMessage());
+        }
+        if (size < 1) {
+            ServiceLogger.LOG.error("Invalid event queue capacity " + size + " - using " + DEFAULT_CAPACITY);
+            size = DEFAULT_CAPACITY;
+        }
+        return new EventQueue(size, overflow);
+    }
+
+    /**
+     * Push an event, applying the overflow policy if the queue is full.
+     * @param event The event to queue.
+     * @return The event dropped to make room for this one, or null if no
+     * event was dropped.
+     * @throws InterruptedException Interrupted while blocked waiting for room.
+     */
+    public final MsgEvent putEvent(final MsgEvent event) throws InterruptedException {
+        checkEvent(event);
+        lock.lockInterruptibly();
+        try {
+            while (!insert(event)) {
+                if (policy == OverflowPolicy.DROP_OLDEST) {
+                    final MsgEvent oldest = events.poll();
+                    dropped++;
+                    events.add(event);
+                    added();
+                    return oldest;
+                }
+                notFull.await();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final void put(final MsgEvent event) throws InterruptedException {
+        final MsgEvent oldest = putEvent(event);
+        if (oldest != null) {
+            ServiceLogger.LOG.warn("Event queue full - dropped the oldest event");
+        }
+    }
+
+    @Override
+    public final boolean offer(final MsgEvent event) {
+        checkEvent(event);
+        lock.lock();
+        try {
+            if (insert(event)) {
+                return true;
+            }
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                events.poll();
+                dropped++;
+                events.add(event);
+                added();
+                ServiceLogger.LOG.warn("Event queue full - dropped the oldest event");
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final boolean offer(final MsgEvent event, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            return offer(event);
+        }
+        checkEvent(event);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!insert(event)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final MsgEvent take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (events.isEmpty()) {
+                notEmpty.await();
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final MsgEvent poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (events.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final MsgEvent poll() {
+        lock.lock();
+        try {
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final MsgEvent peek() {
+        lock.lock();
+        try {
+            return events.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of queued events, including those spilled to disk.
+     * @return The queue depth.
+     */
+    @Override
+    public final int size() {
+        lock.lock();
+        try {
+            return events.size() + spillCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final int remainingCapacity() {
+        if (policy != OverflowPolicy.BLOCK) {
+            return Integer.MAX_VALUE;
+        }
+        lock.lock();
+        try {
+            return capacity - events.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterate over a snapshot of the events held in memory; events spilled
+     * to disk are not included.
+     * @return The snapshot iterator.
+     */
+    @Override
+    public final Iterator<MsgEvent> iterator() {
+        lock.lock();
+        try {
+            return new ArrayList(events).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final int drainTo(final Collection<? super MsgEvent> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public final int drainTo(final Collection<? super MsgEvent> target, final int maxElements) {
+        if (target == this) {
+            throw new IllegalArgumentException("Cannot drain a queue to itself");
+        }
+        lock.lock();
+        try {
+            int count = 0;
+            MsgEvent next;
+            while (count < maxElements && (next = extract()) != null) {
+                target.add(next);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discard any spilled events and delete the spill file.
+     */
+    public final void close() {
+        lock.lock();
+        try {
+            dropped += spillCount;
+            resetSpill();
+            if (spillFile != null) {
+                try {
+                    spillFile.close();
+                } catch (IOException ex) {
+                    ServiceLogger.LOG.error("Unable to close the event spill file", ex);
+                }
+                if (!spillLocation.delete()) {
+                    ServiceLogger.LOG.debug("Event spill file not deleted: " + spillLocation);
+                }
+                spillFile = null;
+                spillLocation = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The maximum number of events held in memory.
+     * @return The queue capacity.
+     */
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The policy applied when the queue is full.
+     * @return The overflow policy.
+     */
+    public final OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * The largest depth the queue has reached.
+     * @return The high-water mark.
+     */
+    public final int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of events lost because the queue overflowed (or because a
+     * spilled event could not be read back).
+     * @return The dropped event count.
+     */
+    public final long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of events that have been spilled to disk.
+     * @return The spilled event count.
+     */
+    public final long getSpilled() {
+        lock.lock();
+        try {
+            return spilled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reject null events, as the queue uses null for empty.
+     * @param event The event to check.
+     */
+    private static void checkEvent(final MsgEvent event) {
+        if (event == null) {
+            throw new NullPointerException("Null event pushed to the event queue");
+        }
+    }
+
+    /**
+     * Add the event if there is room, or spill it when that is the policy.
+     * Called holding the lock.
+     * @param event The event to add.
+     * @return false if the event was not added.
+     */
+    private boolean insert(final MsgEvent event) {
+        if (spillCount == 0 && events.size() < capacity) {
+            events.add(event);
+        } else if (policy != OverflowPolicy.SPILL || !spill(event)) {
+            return false;
+        }
+        added();
+        return true;
+    }
+
+    /**
+     * Record a new event and wake the state machine. Called holding the lock.
+     */
+    private void added() {
+        final int depth = events.size() + spillCount;
+        if (depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+        notEmpty.signal();
+    }
+
+    /**
+     * Remove the oldest event, refilling memory from the spill file.
+     * Called holding the lock.
+     * @return The oldest event, or null if the queue is empty.
+     */
+    private MsgEvent extract() {
+        final MsgEvent event = events.poll();
+        if (event == null) {
+            return null;
+        }
+        while (spillCount > 0 && events.size() < capacity) {
+            final MsgEvent next = unspill();
+            if (next != null) {
+                events.add(next);
+            }
+        }
+        notFull.signal();
+        return event;
+    }
+
+    /**
+     * Append an event to the spill file. Called holding the lock.
+     * @param event The event to spill.
+     * @return false if the event could not be written.
+     */
+    private boolean spill(final MsgEvent event) {
+        try {
+            if (spillFile == null) {
+                spillLocation = File.createTempFile("events", ".spill");
+                spillLocation.deleteOnExit();
+                spillFile = new RandomAccessFile(spillLocation, "rw");
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(event);
+            out.close();
+            spillFile.seek(spillWrite);
+            spillFile.writeInt(bytes.size());
+            spillFile.write(bytes.toByteArray());
+            spillWrite = spillFile.getFilePointer();
+            spillCount++;
+            spilled++;
+            return true;
+        } catch (IOException ex) {
+            ServiceLogger.LOG.error("Unable to spill event to disk", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Read the oldest event back from the spill file. The file is emptied
+     * once every spilled event has been read. Called holding the lock.
+     * @return The event, or null if it could not be read (and is dropped).
+     */
+    private MsgEvent unspill() {
+        final byte[] bytes;
+        try {
+            spillFile.seek(spillRead);
+            bytes = new byte[spillFile.readInt()];
+            spillFile.readFully(bytes);
+            spillRead = spillFile.getFilePointer();
+            spillCount--;
+            if (spillCount == 0) {
+                resetSpill();
+            }
+        } catch (IOException ex) {
+            ServiceLogger.LOG.error("Unable to read spilled events - discarding them", ex);
+            dropped += spillCount;
+            resetSpill();
+            return null;
+        }
+        try {
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (MsgEvent) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            ServiceLogger.LOG.error("Unable to read spilled event - discarding it", ex);
+            dropped++;
+            return null;
+        }
+    }
+
+    /**
+     * Empty the spill file. Called holding the lock.
+     */
+    private void resetSpill() {
+        spillCount = 0;
+        spillRead = 0;
+        spillWrite = 0;
+        if (spillFile != null) {
+            try {
+                spillFile.setLength(0);
+            } catch (IOException ex) {
+                ServiceLogger.LOG.error("Unable to truncate the event spill file", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+/**
+ * Optional observer of a running state machine, e.g. the editor animating
+ * the test model. A state machine run without a listener (headless) behaves
+ * the same; only the notifications are skipped.
+ *
+ * The methods are called on the state machine thread.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public interface ExecutionListener {
+
+    /**
+     * The state machine has moved to a state (including the start state).
+     * @param label The label of the state.
+     */
+    void stateEntered(String label);
+
+    /**
+     * The state machine is waiting for an event with a timeout transition.
+     * @param timeout The timeout in milliseconds.
+     */
+    void timeoutStarted(long timeout);
+
+    /**
+     * The wait started by timeoutStarted is over: an event arrived or the
+     * timeout transition was taken.
+     */
+    void timeoutEnded();
+}
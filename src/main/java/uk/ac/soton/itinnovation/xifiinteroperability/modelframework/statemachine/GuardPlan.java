@@ -0,0 +1,406 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PatternCache;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
+
+/**
+ * The evaluation plan of a guard. A plan is compiled once, when the state
+ * machine is created, from the guard specification: what the guard is
+ * applied to (a message parameter, or a path in the message content), the
+ * path expression, the template slots of the guard label and value that
+ * must be resolved against the running test (loop counters and data
+ * references), and the precompiled forms of a constant guard value (regex
+ * and number).
+ *
+ * Plans are immutable; evaluating a guard never changes the plan or the
+ * guard, so transitions can be evaluated concurrently.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public final class GuardPlan {
+
+    /**
+     * What the guard is applied to.
+     */
+    public enum Target {
+        /**
+         * A named parameter of the event, e.g. an http header.
+         */
+        PARAMETER,
+        /**
+         * The set of event parameters (contains guards on parameters).
+         */
+        PARAMETERS,
+        /**
+         * A path in the content, xml or json according to the content type.
+         */
+        CONTENT,
+        /**
+         * A path in json content (jsoncontent[...] label).
+         */
+        JSON_CONTENT,
+        /**
+         * A path in xml content (xmlcontent[...] label).
+         */
+        XML_CONTENT;
+    }
+
+    /**
+     * Where the comparison value of the guard comes from.
+     */
+    public enum Source {
+        /**
+         * A constant value.
+         */
+        CONSTANT,
+        /**
+         * A pattern data reference $$patterndata.id$$.
+         */
+        DATA,
+        /**
+         * Data of a previously executed test $$test.id...$$.
+         */
+        TEST,
+        /**
+         * A field of an event stored by a state $$state|field|path$$.
+         */
+        STATE;
+    }
+
+    /**
+     * Constant to the content label of a rest event.
+     */
+    private static final String CONTENTLABEL = "content";
+
+    /**
+     * Json content label.
+     */
+    private static final String JSONCONTENTLABEL = "jsoncontent";
+
+    /**
+     * Xml content label.
+     */
+    private static final String XMLCONTENTLABEL = "xmlcontent";
+
+    /**
+     * The guard the plan was compiled from.
+     */
+    private final Guard guard;
+
+    /**
+     * What the guard is applied to.
+     */
+    private final Target target;
+
+    /**
+     * The guard label (as reported), or the text before the counter slot.
+     */
+    private final String label;
+
+    /**
+     * The state whose loop counter is inserted in the label, or null if the
+     * label has no %counter.state% slot.
+     */
+    private final String counterState;
+
+    /**
+     * The text of the label after the counter slot.
+     */
+    private final String labelSuffix;
+
+    /**
+     * The length of the label prefix before a content path expression.
+     */
+    private final int pathOffset;
+
+    /**
+     * The content path expression, null when not a content guard or when it
+     * depends on the counter slot.
+     */
+    private final String path;
+
+    /**
+     * Where the comparison value comes from.
+     */
+    private final Source source;
+
+    /**
+     * The constant comparison value, or the reference to resolve it from
+     * (the data id for a DATA source; null if the data reference is invalid).
+     */
+    private final String compare;
+
+    /**
+     * The compiled regular expression of a constant regex guard value.
+     */
+    private final Pattern regex;
+
+    /**
+     * The numeric value of a constant less than/greater than guard value.
+     */
+    private final Double number;
+
+    /**
+     * Compile the evaluation plan of a guard.
+     * @param grd The guard specification.
+     */
+    public GuardPlan(final Guard grd) {
+        this.guard = grd;
+        final Guard.ComparisonType type = grd.getType();
+        String grdLabel = grd.getGuardLabel();
+
+        // Target and the offset of the path expression in the label
+        if (type == Guard.ComparisonType.CONTAINS) {
+            if (grdLabel.startsWith(JSONCONTENTLABEL)) {
+                this.target = Target.JSON_CONTENT;
+                this.pathOffset = JSONCONTENTLABEL.length() + 1;
+            } else if (grdLabel.startsWith(CONTENTLABEL)) {
+                this.target = Target.CONTENT;
+                this.pathOffset = CONTENTLABEL.length() + 1;
+            } else {
+                this.target = Target.PARAMETERS;
+                this.pathOffset = 0;
+            }
+        } else if (grdLabel.startsWith(CONTENTLABEL)) {
+            this.target = Target.CONTENT;
+            this.pathOffset = CONTENTLABEL.length() + 1;
+        } else if (grdLabel.startsWith(JSONCONTENTLABEL)) {
+            // json content guards are reported as content guards
+            this.target = Target.JSON_CONTENT;
+            grdLabel = grdLabel.replaceAll(JSONCONTENTLABEL, CONTENTLABEL);
+            this.pathOffset = CONTENTLABEL.length() + 1;
+        } else if (grdLabel.startsWith(XMLCONTENTLABEL)) {
+            this.target = Target.XML_CONTENT;
+            this.pathOffset = XMLCONTENTLABEL.length() + 1;
+        } else {
+            this.target = Target.PARAMETER;
+            this.pathOffset = 0;
+        }
+
+        // The label template: prefix%counter.state%suffix
+        final String[] split = grdLabel.contains("%counter") ? grdLabel.split("%") : null;
+        if (split != null && split.length == 3) {
+            this.label = split[0];
+            this.counterState = split[1].replace("counter.", "");
+            this.labelSuffix = split[2];
+            this.path = null;
+        } else {
+            this.label = grdLabel;
+            this.counterState = null;
+            this.labelSuffix = null;
+            this.path = isContent() ? contentPath(grdLabel) : null;
+        }
+
+        // The source of the comparison value
+        final String grdCompare = grd.getGuardCompare();
+        if (grdCompare != null && grdCompare.contains("$$")) {
+            if (grdCompare.contains(XMLStateMachine.DATA_TAG) && !grdCompare.contains(XMLStateMachine.TEST_TAG)) {
+                this.source = Source.DATA;
+                this.compare = dataName(grdCompare);
+            } else if (grdCompare.contains(XMLStateMachine.TEST_TAG)) {
+                this.source = Source.TEST;
+                this.compare = grdCompare;
+            } else {
+                this.source = Source.STATE;
+                this.compare = grdCompare;
+            }
+            this.regex = null;
+            this.number = null;
+        } else {
+            this.source = Source.CONSTANT;
+            this.compare = grdCompare;
+            this.regex = type == Guard.ComparisonType.REGEX ? compileRegex(grdCompare) : null;
+            this.number = type == Guard.ComparisonType.LESSTHAN || type == Guard.ComparisonType.GREATERTHAN
+                    ? parseNumber(grdCompare) : null;
+        }
+    }
+
+    /**
+     * Extract the data id from a pattern data reference.
+     * @param expression The $$patterndata.id$$ reference.
+     * @return The data id or null if the reference is invalid.
+     */
+    private static String dataName(final String expression) {
+        final String reference = expression.replaceAll("\\$", "");
+        final int indexElement = reference.indexOf('.') + 1;
+        if (indexElement != XMLStateMachine.DATA_TAG.length() + 1) {
+            return null;
+        }
+        return reference.substring(indexElement);
+    }
+
+    /**
+     * Compile a constant regular expression.
+     * @param expression The regular expression.
+     * @return The compiled pattern or null if invalid (constant expressions
+     * are validated when the pattern is loaded).
+     */
+    private static Pattern compileRegex(final String expression) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            return PatternCache.compile(expression);
+        } catch (PatternSyntaxException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse a constant numeric comparison value.
+     * @param value The value text.
+     * @return The number or null if the value is not a number.
+     */
+    private static Double parseNumber(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the guard the plan was compiled from.
+     * @return The guard.
+     */
+    public Guard getGuard() {
+        return guard;
+    }
+
+    /**
+     * Get the comparison type of the guard.
+     * @return The type enumeration.
+     */
+    public Guard.ComparisonType getType() {
+        return guard.getType();
+    }
+
+    /**
+     * Get what the guard is applied to.
+     * @return The target of the guard.
+     */
+    public Target getTarget() {
+        return target;
+    }
+
+    /**
+     * Check if the guard is applied to a path in the message content.
+     * @return True for content guards.
+     */
+    public boolean isContent() {
+        return target == Target.CONTENT || target == Target.JSON_CONTENT || target == Target.XML_CONTENT;
+    }
+
+    /**
+     * Get the state whose loop counter is part of the guard label.
+     * @return The state label, or null if the label has no counter slot.
+     */
+    public String getCounterState() {
+        return counterState;
+    }
+
+    /**
+     * Get the guard label.
+     * @param counter The value of the counter slot (ignored if there is none).
+     * @return The guard label with the counter value inserted.
+     */
+    public String getLabel(final int counter) {
+        if (counterState == null) {
+            return label;
+        }
+        return label + counter + labelSuffix;
+    }
+
+    /**
+     * Get the content path expression of a content guard.
+     * @param resolvedLabel The guard label returned by getLabel().
+     * @return The path expression.
+     */
+    public String getPath(final String resolvedLabel) {
+        if (path != null) {
+            return path;
+        }
+        return contentPath(resolvedLabel);
+    }
+
+    /**
+     * Extract the path expression from a content[...] label.
+     * @param contentLabel The guard label.
+     * @return The path expression.
+     */
+    private String contentPath(final String contentLabel) {
+        if (contentLabel.length() <= pathOffset) {
+            return "";
+        }
+        return contentLabel.substring(pathOffset, contentLabel.length() - 1);
+    }
+
+    /**
+     * Get where the comparison value comes from.
+     * @return The source of the value.
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Get the constant comparison value, or the reference that the value
+     * is resolved from.
+     * @return The value or reference; the data id for DATA sources.
+     */
+    public String getCompare() {
+        return compare;
+    }
+
+    /**
+     * Evaluate the guard function against an input value, using the
+     * precompiled form of the comparison value when it is the constant one.
+     * @param input The input value (or the parameter set for a PARAMETERS guard).
+     * @param resolvedCompare The comparison value.
+     * @return The result of the evaluation.
+     * @throws InvalidInputException Error in input and exception thrown during compare.
+     * @throws InvalidRegexException Thrown in case of an invalid regex syntax
+     */
+    public boolean evaluate(final Object input, final String resolvedCompare)
+            throws InvalidInputException, InvalidRegexException {
+        if (source == Source.CONSTANT) {
+            return guard.evaluate(input, resolvedCompare, regex, number);
+        }
+        return guard.evaluate(input, resolvedCompare, null, null);
+    }
+}
@@ -0,0 +1,780 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Nikolay Stanchev
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+
+/**
+ * This class represents the execution manager, which handles the remembering of values 
+ * from previous tests while doing a multiple tests execution
+ * 
+ * The values are kept in a single concurrent map keyed by (kind, test, state, field), so
+ * reads do not take a lock. Writes and removals take the lock of the test they refer to
+ * only, so tests running at the same time do not contend. Optionally the store is bounded:
+ * by the number of values held (the least recently written tests are evicted as a whole),
+ * by the age of a test's values, and large captured contents can be spilled to a temporary
+ * file instead of being kept on the heap. The spill file is compacted into a new one once
+ * most of its bytes belong to values no longer held; a file is never written again after
+ * it is replaced, so a value can not read another value's bytes.
+ * 
+ * @author ns17
+ */
+public final class MultiTestsExecutionManager implements TestDataStore {
+    
+    /**
+     * configuration property for the maximum number of values held, 0 for no bound
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "test_data_max_entries";
+    
+    /**
+     * configuration property for the time (ms) the values of a test are held since it last wrote one, 0 for no bound
+     */
+    public static final String MAX_AGE_PROPERTY = "test_data_max_age";
+    
+    /**
+     * configuration property for the size (characters) above which captured content is spilled to disk, 0 to never spill
+     */
+    public static final String SPILL_PROPERTY = "test_data_spill_threshold";
+    
+    /**
+     * a reference to the content stored by a test: $$test.{test-id}.{label-id}.content
+     */
+    private static final Pattern CONTENT_REFERENCE = Pattern.compile("\\$\\$test\\.([^.$]+)\\.[^.$]+\\.content");
+    
+    /**
+     * the minimum time (ms) between two scans for expired tests
+     */
+    private static final long EXPIRY_INTERVAL = 1000;
+    
+    /**
+     * spill files smaller than this many bytes are not compacted
+     */
+    private static final long COMPACT_MIN_BYTES = 1 << 20;
+    
+    /**
+     * the kinds of values remembered from a test
+     */
+    private enum Kind { HEADER, CONTENT, PATTERN }
+    
+    /**
+     * the flat key of a value: kind, test name, state label and field (header name or pattern value id)
+     */
+    private static final class Key {
+        
+        private final Kind kind;
+        private final String test;
+        private final String state;
+        private final String field;
+        
+        Key(Kind kind, String test, String state, String field){
+            this.kind = kind;
+            this.test = test;
+            this.state = state;
+            this.field = field;
+        }
+        
+        @Override
+        public boolean equals(Object other){
+            if (!(other instanceof Key)){
+                return false;
+            }
+            final Key key = (Key) other;
+            return kind == key.kind && test.equals(key.test) && Objects.equals(state, key.state) && Objects.equals(field, key.field);
+        }
+        
+        @Override
+        public int hashCode(){
+            return Objects.hash(kind, test, state, field);
+        }
+    }
+    
+    /**
+     * a spill file and the number of its bytes still used by stored values (guarded by the spill lock)
+     */
+    private static final class SpillFile {
+        
+        private final File file;
+        private final RandomAccessFile data;
+        private long live;
+        private boolean closed;
+        
+        SpillFile() throws IOException {
+            file = File.createTempFile("testdata", ".spill");
+            file.deleteOnExit();
+            data = new RandomAccessFile(file, "rw");
+        }
+        
+        // closes and deletes the file, the values still pointing at it can no longer be read
+        void close(){
+            closed = true;
+            try {
+                data.close();
+            } catch (IOException ex){
+                ServiceLogger.LOG.error("Unable to close the test data spill file: " + ex.getMessage());
+            }
+            if (!file.delete()){
+                file.deleteOnExit();
+            }
+        }
+    }
+    
+    /**
+     * a stored value, either held in memory or at an offset in a spill file
+     */
+    private static final class Value {
+        
+        private final String data;
+        private final SpillFile file;
+        private final long offset;
+        private final int length;
+        
+        Value(String data){
+            this.data = data;
+            this.file = null;
+            this.offset = -1;
+            this.length = 0;
+        }
+        
+        Value(SpillFile file, long offset, int length){
+            this.data = null;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * the keys of the values of a single test, and when it last wrote one; the object is the lock for writes to the test
+     */
+    private static final class TestEntries {
+        
+        private final Set<Key> keys = ConcurrentHashMap.newKeySet();
+        private volatile long updated = System.currentTimeMillis();
+        private boolean removed;
+    }
+    
+    /**
+     * all values remembered from past tests
+     */
+    private final Map<Key, Value> values = new ConcurrentHashMap<>();
+    
+    /**
+     * test name linked to the keys of its values
+     */
+    private final Map<String, TestEntries> tests = new ConcurrentHashMap<>();
+    
+    /**
+     * the maximum number of values held, 0 for no bound
+     */
+    private final int maxEntries;
+    
+    /**
+     * the time (ms) a test's values are held since it last wrote one, 0 for no bound
+     */
+    private final long maxAge;
+    
+    /**
+     * content longer than this many characters is spilled to disk, 0 to never spill
+     */
+    private final int spillThreshold;
+    
+    /**
+     * the tests whose content is referenced by the patterns given to addReferences
+     */
+    private final Set<String> contentReferenced = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * whether any pattern has been given to addReferences; until then the content of every test may be read
+     */
+    private volatile boolean referencesKnown;
+    
+    /**
+     * the last time expired tests were evicted
+     */
+    private volatile long lastExpiry;
+    
+    /**
+     * lock for the spill file
+     */
+    private final Object spillLock = new Object();
+    
+    /**
+     * the file spilled content is appended to, created on first use (guarded by the spill lock)
+     */
+    private SpillFile spill;
+    
+    /**
+     * replaced spill files still holding the bytes of a value, deleted once none are used (guarded by the spill lock)
+     */
+    private final Set<SpillFile> retired = new HashSet<>();
+    
+    /**
+     * a constructor for the execution manager, with no bounds on the values held
+     */
+    public MultiTestsExecutionManager(){
+        this(0, 0, 0);
+    }
+    
+    /**
+     * a constructor for a bounded execution manager
+     * @param maxEntries the maximum number of values held, 0 for no bound
+     * @param maxAge the time (ms) a test's values are held since it last wrote one, 0 for no bound
+     * @param spillThreshold content longer than this many characters is spilled to disk, 0 to never spill
+     */
+    public MultiTestsExecutionManager(int maxEntries, long maxAge, int spillThreshold){
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxAge = Math.max(0, maxAge);
+        this.spillThreshold = Math.max(0, spillThreshold);
+    }
+    
+    /**
+     * creates an execution manager with the bounds set in the configuration properties
+     * @return the execution manager
+     */
+    public static MultiTestsExecutionManager fromProperties(){
+        try {
+            return new MultiTestsExecutionManager(readInt(MAX_ENTRIES_PROPERTY), readInt(MAX_AGE_PROPERTY), readInt(SPILL_PROPERTY));
+        } catch (ConfigurationException | NumberFormatException ex){
+            ServiceLogger.LOG.error("Invalid test data configuration - values will not be bounded: " + ex.getMessage());
+            return new MultiTestsExecutionManager();
+        }
+    }
+    
+    /**
+     * reads an optional integer configuration property
+     * @param property the property name
+     * @return the value, 0 if not set
+     * @throws ConfigurationException error reading the properties
+     */
+    private static int readInt(String property) throws ConfigurationException {
+        final String value = SystemProperties.readProperty(property);
+        return value == null ? 0 : Integer.parseInt(value.trim());
+    }
+    
+    /**
+     * tests are referenced with or without the .xml extension of the model file
+     * @param testName the test name
+     * @return the test name without the extension
+     */
+    private static String normalise(String testName){
+        return testName.replace(".xml", "");
+    }
+    
+    /**
+     * reads a value, without locking unless it has been spilled to disk
+     * @param key the key of the value
+     * @return the value or null if none is held
+     */
+    private String get(Key key){
+        final Value value = values.get(key);
+        if (value == null){
+            return null;
+        }
+        if (maxAge > 0){
+            final TestEntries entries = tests.get(key.test);
+            if (entries != null && System.currentTimeMillis() - entries.updated > maxAge){
+                return null;
+            }
+        }
+        Value current = value;
+        while (current.data == null){
+            final String data = readSpilled(current);
+            if (data != null){
+                return data;
+            }
+            // the value may have been moved by a compaction of the spill file meanwhile
+            final Value moved = values.get(key);
+            if (moved == null || moved == current){
+                return null;
+            }
+            current = moved;
+        }
+        return current.data;
+    }
+    
+    /**
+     * stores a value under the lock of its test, then applies the bounds
+     * @param key the key of the value
+     * @param data the value, null removes it
+     */
+    private void put(Key key, String data){
+        final Value value = data == null ? null : store(key.kind, data);
+        while (true){
+            final TestEntries entries = tests.computeIfAbsent(key.test, test -> new TestEntries());
+            synchronized (entries){
+                if (entries.removed){
+                    // the test was evicted meanwhile, retry with a new entry
+                    continue;
+                }
+                if (value == null){
+                    entries.keys.remove(key);
+                    discard(values.remove(key));
+                }
+                else {
+                    entries.keys.add(key);
+                    discard(values.put(key, value));
+                }
+                entries.updated = System.currentTimeMillis();
+            }
+            break;
+        }
+        applyBounds(key.test);
+        compactSpill();
+    }
+    
+    /**
+     * removes the values of a test matching a condition, under the lock of the test
+     * @param testName the test name
+     * @param matching the condition on the keys to remove
+     */
+    private void remove(String testName, Predicate<Key> matching){
+        final TestEntries entries = tests.get(normalise(testName));
+        if (entries == null){
+            return;
+        }
+        synchronized (entries){
+            final Iterator<Key> iterator = entries.keys.iterator();
+            while (iterator.hasNext()){
+                final Key key = iterator.next();
+                if (matching.test(key)){
+                    iterator.remove();
+                    discard(values.remove(key));
+                }
+            }
+        }
+        compactSpill();
+    }
+    
+    /**
+     * removes all values remembered from a test, e.g. when the test is deleted or evicted
+     * @param testName the test name
+     */
+    public void removeTest(String testName){
+        final String test = normalise(testName);
+        final TestEntries entries = tests.get(test);
+        if (entries == null){
+            return;
+        }
+        synchronized (entries){
+            entries.removed = true;
+            tests.remove(test, entries);
+            for (Key key : entries.keys){
+                discard(values.remove(key));
+            }
+            entries.keys.clear();
+        }
+        compactSpill();
+    }
+    
+    /**
+     * evicts expired tests, and the least recently written tests while there are more values than allowed
+     * @param current the test just written to, which is never evicted
+     */
+    private void applyBounds(String current){
+        final long now = System.currentTimeMillis();
+        if (maxAge > 0 && now - lastExpiry > EXPIRY_INTERVAL){
+            lastExpiry = now;
+            for (Map.Entry<String, TestEntries> entry : tests.entrySet()){
+                if (!entry.getKey().equals(current) && now - entry.getValue().updated > maxAge){
+                    removeTest(entry.getKey());
+                }
+            }
+        }
+        if (maxEntries > 0 && values.size() > maxEntries){
+            synchronized (tests){
+                while (values.size() > maxEntries){
+                    String oldest = null;
+                    long oldestUpdate = Long.MAX_VALUE;
+                    for (Map.Entry<String, TestEntries> entry : tests.entrySet()){
+                        if (!entry.getKey().equals(current) && entry.getValue().updated < oldestUpdate){
+                            oldest = entry.getKey();
+                            oldestUpdate = entry.getValue().updated;
+                        }
+                    }
+                    if (oldest == null){
+                        break;
+                    }
+                    removeTest(oldest);
+                }
+            }
+        }
+    }
+    
+    /**
+     * creates the stored form of a value, spilling large captured content to disk
+     * @param kind the kind of the value
+     * @param data the value
+     * @return the stored value
+     */
+    private Value store(Kind kind, String data){
+        if (kind != Kind.CONTENT || spillThreshold == 0 || data.length() <= spillThreshold){
+            return new Value(data);
+        }
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        synchronized (spillLock){
+            try {
+                return append(bytes);
+            } catch (IOException ex){
+                ServiceLogger.LOG.error("Unable to spill test data to disk - keeping it in memory: " + ex.getMessage());
+                return new Value(data);
+            }
+        }
+    }
+    
+    /**
+     * appends bytes to the current spill file, creating it if needed; the caller holds the spill lock
+     * @param bytes the bytes of the value
+     * @return the stored value
+     * @throws IOException error writing the file
+     */
+    private Value append(byte[] bytes) throws IOException {
+        if (spill == null){
+            spill = new SpillFile();
+        }
+        final long offset = spill.data.length();
+        spill.data.seek(offset);
+        spill.data.write(bytes);
+        spill.live += bytes.length;
+        return new Value(spill, offset, bytes.length);
+    }
+    
+    /**
+     * reads a value spilled to disk
+     * @param value the stored value
+     * @return the value, or null if it could not be read or its spill file has been deleted
+     */
+    private String readSpilled(Value value){
+        final byte[] bytes = new byte[value.length];
+        synchronized (spillLock){
+            if (value.file.closed){
+                return null;
+            }
+            try {
+                value.file.data.seek(value.offset);
+                value.file.data.readFully(bytes);
+            } catch (IOException ex){
+                ServiceLogger.LOG.error("Unable to read spilled test data: " + ex.getMessage());
+                return null;
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * releases the bytes of a value no longer held, deleting its spill file if it has been replaced and is unused
+     * @param value the value removed from the map, may be null
+     */
+    private void discard(Value value){
+        if (value == null || value.file == null){
+            return;
+        }
+        synchronized (spillLock){
+            value.file.live -= value.length;
+            if (value.file != spill && value.file.live == 0 && retired.remove(value.file)){
+                value.file.close();
+            }
+        }
+    }
+    
+    /**
+     * replaces a spill file, deleting it at once if no value uses it; the caller holds the spill lock
+     * @param file the spill file no longer appended to
+     */
+    private void retire(SpillFile file){
+        if (file.live == 0){
+            file.close();
+        }
+        else {
+            retired.add(file);
+        }
+    }
+    
+    /**
+     * copies the values still held to a new spill file once more than half of the current one is unused
+     */
+    private void compactSpill(){
+        if (spillThreshold == 0){
+            return;
+        }
+        synchronized (spillLock){
+            if (spill == null){
+                return;
+            }
+            final SpillFile old = spill;
+            try {
+                final long size = old.data.length();
+                if (size < COMPACT_MIN_BYTES || old.live * 2 > size){
+                    return;
+                }
+                spill = null;
+                for (Map.Entry<Key, Value> entry : values.entrySet()){
+                    final Value value = entry.getValue();
+                    if (value.file != old){
+                        continue;
+                    }
+                    final byte[] bytes = new byte[value.length];
+                    old.data.seek(value.offset);
+                    old.data.readFully(bytes);
+                    final Value moved = append(bytes);
+                    if (values.replace(entry.getKey(), value, moved)){
+                        old.live -= value.length;
+                    }
+                    else {
+                        // replaced or removed meanwhile, whoever did so discards the old value
+                        spill.live -= moved.length;
+                    }
+                }
+            } catch (IOException ex){
+                ServiceLogger.LOG.error("Unable to compact the test data spill file: " + ex.getMessage());
+            } finally {
+                if (spill != old){
+                    retire(old);
+                }
+            }
+        }
+    }
+    
+    /**
+     * the size of the file content is currently spilled to
+     * @return the size in bytes, 0 if nothing has been spilled since the last reset
+     */
+    public long spillFileSize(){
+        synchronized (spillLock){
+            try {
+                return spill == null ? 0 : spill.data.length();
+            } catch (IOException ex){
+                return 0;
+            }
+        }
+    }
+    
+    /**
+     * the number of values currently held
+     * @return the number of header, content and pattern values
+     */
+    public int size(){
+        return values.size();
+    }
+    
+    /**
+     * an accessor method for the tests headers, retrieves a header value
+     * @param testName the name of the test this header value refers to
+     * @param stateLabel the name of the state where this header has been captured
+     * @param headerName the header name 
+     * @return the header value, null if there is none
+     */
+    @Override
+    public String getTestHeader(String testName, String stateLabel, String headerName){
+        return get(new Key(Kind.HEADER, normalise(testName), stateLabel, headerName));
+    }
+    
+    /**
+     * a mutator method for putting a header value in the tests headers
+     * @param testName the name of the test this header value refers to
+     * @param stateLabel the name of the state where this header has been captured
+     * @param headerName the name of header to insert
+     * @param headerValue the header value to insert
+     */
+    @Override
+    public void putTestHeader(String testName, String stateLabel, String headerName, String headerValue){
+        put(new Key(Kind.HEADER, normalise(testName), stateLabel, headerName), headerValue);
+    }
+    
+    /**
+     * A method, which removes all headers of a given test
+     * @param testName the test name to remove
+     */
+    public void removeAllTestHeaders (String testName){
+        remove(testName, key -> key.kind == Kind.HEADER);
+    }
+    
+    /**
+     * A method, which removes all headers of a given state label in a given test
+     * @param testName the test name
+     * @param stateLabel the state label to remove
+     */
+    public void removeAllStateHeaders (String testName, String stateLabel){
+        remove(testName, key -> key.kind == Kind.HEADER && Objects.equals(key.state, stateLabel));
+    }
+    
+    /**
+     * A method which removes a given headerID in a state in a given test
+     * @param testName the test name
+     * @param stateLabel the state label
+     * @param headerID the header ID to remove
+     */
+    public void removeHeaderID (String testName, String stateLabel, String headerID){
+        remove(testName, key -> key.kind == Kind.HEADER && Objects.equals(key.state, stateLabel) && Objects.equals(key.field, headerID));
+    }
+    
+    /**
+     * an accessor method for the tests content, retrieves event content
+     * @param testName the name of the test this content refers to
+     * @param stateLabel the name of the state where this content has been captured
+     * @return the content associated with the given state label within the given test, null if there is none
+     */
+    @Override
+    public String getTestContent(String testName, String stateLabel){
+        return get(new Key(Kind.CONTENT, normalise(testName), stateLabel, null));
+    }
+    
+    /**
+     * a mutator method for putting content in the tests content
+     * @param testName the test name the content refers to
+     * @param stateLabel the name of the state where this content has been captured
+     * @param content the content to be inserted
+     */
+    @Override
+    public void putTestContent(String testName, String stateLabel, String content){
+        put(new Key(Kind.CONTENT, normalise(testName), stateLabel, null), content);
+    }
+    
+    /**
+     * A method, which removes all content of a given test
+     * @param testName the test name to remove
+     */
+    public void removeAllTestContent (String testName){
+        remove(testName, key -> key.kind == Kind.CONTENT);
+    }
+    
+    /**
+     * A method, which removes the content of a given state label in a given test
+     * @param testName the test name
+     * @param stateLabel the state label to remove
+     */
+    public void removeAllStateContent (String testName, String stateLabel){
+        remove(testName, key -> key.kind == Kind.CONTENT && Objects.equals(key.state, stateLabel));
+    }
+    
+    /**
+     * an accessor method for the tests pattern values, retrieves test pattern value
+     * @param testName the name of the test this pattern value refers to
+     * @param patternValueID the pattern value identifier
+     * @return the pattern value, null if there is none
+     */
+    @Override
+    public String getPatternValue(String testName, String patternValueID){
+        return get(new Key(Kind.PATTERN, normalise(testName), null, patternValueID));
+    }
+    
+    /**
+     * a mutator method for putting a pattern value in the tests pattern values
+     * @param testName the test name the pattern value refers to
+     * @param patternValueID the identifier of the pattern value to insert
+     * @param patternValue the actual pattern value to insert
+     */
+    @Override
+    public void putPatternValue(String testName, String patternValueID, String patternValue){
+        put(new Key(Kind.PATTERN, normalise(testName), null, patternValueID), patternValue);
+    }
+    
+    /**
+     * A method, which removes all pattern values of a given test
+     * @param testName the test name to remove
+     */
+    public void removeAllTestPatternValues (String testName){
+        remove(testName, key -> key.kind == Kind.PATTERN);
+    }
+    
+    /**
+     * A method which removes a given pattern value ID in a given test
+     * @param testName the test name
+     * @param patternValueID the pattern value ID to remove
+     */
+    public void removePatternValueID (String testName, String patternValueID){
+        remove(testName, key -> key.kind == Kind.PATTERN && Objects.equals(key.field, patternValueID));
+    }
+    
+    /**
+     * records the tests whose content a pattern references
+     * @param patternXml the pattern specification
+     */
+    @Override
+    public void addReferences(String patternXml){
+        final Matcher matcher = CONTENT_REFERENCE.matcher(patternXml);
+        while (matcher.find()){
+            contentReferenced.add(matcher.group(1));
+        }
+        referencesKnown = true;
+    }
+    
+    /**
+     * whether the content of a test is referenced by a pattern given to addReferences; true for
+     * every test while no pattern has been given
+     * @param testName the test name
+     * @return true if the content stored by the test may be read
+     */
+    @Override
+    public boolean isContentReferenced(String testName){
+        if (!referencesKnown){
+            return true;
+        }
+        return testName != null && contentReferenced.contains(normalise(testName));
+    }
+    
+    // removes all values of all tests and starts a new spill file; the old one is deleted once
+    // no value being stored concurrently still uses it, so it is never overwritten
+    public void resetMaps(){
+        for (String test : tests.keySet()){
+            removeTest(test);
+        }
+        synchronized (spillLock){
+            if (spill != null){
+                retire(spill);
+                spill = null;
+            }
+        }
+    }
+    
+    /**
+     * removes all values and deletes the spill file, if any
+     */
+    public void close(){
+        resetMaps();
+        synchronized (spillLock){
+            for (SpillFile file : retired){
+                file.close();
+            }
+            retired.clear();
+        }
+    }
+}
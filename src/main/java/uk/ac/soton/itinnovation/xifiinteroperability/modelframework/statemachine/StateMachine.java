@@ -30,17 +30,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.ProtocolMessage;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.UnexpectedEventException;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
-import uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.collections.CollectionsBrowserForm;
-import uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.tables.ExecutionPanel;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSONEvaluationContext;
 
 /**
  * The java data representation of a set of states that form a state machine.
@@ -71,9 +69,18 @@ public class StateMachine implements EventCapture {
      * Synchronised blocking queue for execution input. That is,
      * the only input to this machine comes via this queue. The RESTLET
      * framework captures REST operations and pushes them as events to
-     * this queue.
+     * this queue. Its capacity and overflow policy are configured in
+     * Interoperability.properties.
      */
-    private final transient BlockingQueue<MsgEvent> eventQueue;
+    private final transient EventQueue eventQueue;
+
+    /**
+     * a getter for the event queue, e.g. to read its depth and overflow counters
+     * @return the event queue of the state machine
+     */
+    public EventQueue getEventQueue(){
+        return eventQueue;
+    }
 
     /**
      * Each state machine is a set of states. We use a hash map to
@@ -98,13 +105,23 @@ public class StateMachine implements EventCapture {
     /**
      * a boolean to represent if the test was manually stopped by the user
      */
-    private transient boolean stopped;
+    private transient volatile boolean stopped;
+
+    /**
+     * Monitor that a machine paused in debug mode waits on until the next
+     * step is requested or the machine is stopped.
+     */
+    private final transient Object stepMonitor = new Object();
 
     /**
-     * a setter for the stopped attribute, stops the state machine
+     * a setter for the stopped attribute, stops the state machine (waking it
+     * if it is paused in debug mode)
      */
     public void stop(){
-        stopped = true;
+        synchronized (stepMonitor) {
+            stopped = true;
+            stepMonitor.notifyAll();
+        }
     }
 
     /**
@@ -121,7 +138,23 @@ public class StateMachine implements EventCapture {
      * a method to force the state machine to continue execution
      */
     public void next(){
-        nextClicked = true;
+        synchronized (stepMonitor) {
+            nextClicked = true;
+            stepMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * In debug mode, block (without using the processor) until the next
+     * step is requested or the machine is stopped.
+     * @throws InterruptedException The machine thread was interrupted while paused.
+     */
+    private void awaitStep() throws InterruptedException {
+        synchronized (stepMonitor) {
+            while (debugMode && !nextClicked && !stopped) {
+                stepMonitor.wait();
+            }
+        }
     }
 
     /**
@@ -138,21 +171,56 @@ public class StateMachine implements EventCapture {
     }
 
     /**
-     * a reference to the execution panel used for testing animation
+     * the optional observer of the execution e.g. used for testing animation
      */
-    private transient ExecutionPanel execPanel;
-    
+    private transient ExecutionListener listener;
+
+    /**
+     * the data remembered from previous tests for multiple tests execution;
+     * null when the test is run on its own
+     */
+    private transient TestDataStore testData;
+
+    /**
+     * the name the data of this test is stored under in the test data store
+     */
+    private transient String testName;
+
+    /**
+     * the parsed form of the json content last read from the test data store,
+     * so that several $$test...content$$ references to the same stored
+     * content use a single parse
+     */
+    private final transient JSONEvaluationContext testContent = new JSONEvaluationContext();
+
+    /**
+     * Whether the states of the machine can read the content of events;
+     * null until it is first worked out for the current set of states.
+     */
+    private transient volatile Boolean contentUsed;
+
     /**
-     * a reference to the collections explorer panel used for multiple tests execution
+     * a getter for the data remembered from previous tests
+     * @return the test data store, or null if there is none
      */
-    private transient CollectionsBrowserForm collectionsExplorer;
+    public TestDataStore getTestData(){
+        return testData;
+    }
+
+    /**
+     * a getter for the name the data of this test is stored under
+     * @return the test name
+     */
+    public String getTestName(){
+        return testName;
+    }
 
     /**
-     * a getter for the collections explorer reference
-     * @return the collectionsExplorer reference
+     * a getter for the parsed json content of the previous tests data
+     * @return the evaluation context for stored json content
      */
-    public CollectionsBrowserForm getCollectionsExplorer(){
-        return collectionsExplorer;
+    public JSONEvaluationContext getTestContentContext(){
+        return testContent;
     }
     
     /**
@@ -160,7 +228,17 @@ public class StateMachine implements EventCapture {
      * @param debugMode whether the state machine is in debug mode or not
      */
     public StateMachine(boolean debugMode) {
-        this.eventQueue = new ArrayBlockingQueue(50);
+        this(EventQueue.fromProperties(), debugMode);
+    }
+
+    /**
+     * Construct a new state machine with a given event queue and create an
+     * interoperability report.
+     * @param queue the queue that input events are pushed to
+     * @param debugMode whether the state machine is in debug mode or not
+     */
+    public StateMachine(final EventQueue queue, boolean debugMode) {
+        this.eventQueue = queue;
         outputReport = new InteroperabilityReport();
         stopped = false;
         this.debugMode = debugMode;
@@ -169,15 +247,18 @@ public class StateMachine implements EventCapture {
     }
 
     /**
-     * the same constructor as the one above, however it also sets the execution panel reference
+     * the same constructor as the one above, however it also sets the execution listener
+     * and the data of previous tests
      * @param debugMode whether the state machine is in debug mode or not
-     * @param execPanel reference to the execution panel
-     * @param collectionsExplorer reference to the collections explorer
+     * @param listener the observer of the execution, may be null
+     * @param testData the data remembered from previous tests, may be null
+     * @param testName the name the data of this test is stored under
      */
-    public StateMachine(boolean debugMode, ExecutionPanel execPanel, CollectionsBrowserForm collectionsExplorer){
+    public StateMachine(boolean debugMode, ExecutionListener listener, TestDataStore testData, String testName){
         this(debugMode);
-        this.execPanel = execPanel;
-        this.collectionsExplorer = collectionsExplorer;
+        this.listener = listener;
+        this.testData = testData;
+        this.testName = testName;
     }
 
     /**
@@ -185,18 +266,20 @@ public class StateMachine implements EventCapture {
      * already provided.
      * @param rep The interoperability report reference.
      * @param debugMode whether the state machine is in debug mode or not
-     * @param execPanel reference to the execution panel
-     * @param collectionsExplorer reference to the collections explorer
+     * @param listener the observer of the execution, may be null
+     * @param testData the data remembered from previous tests, may be null
+     * @param testName the name the data of this test is stored under
      */
-    public StateMachine(final InteroperabilityReport rep, boolean debugMode, ExecutionPanel execPanel, CollectionsBrowserForm collectionsExplorer) {
-        this.eventQueue = new ArrayBlockingQueue(50);
+    public StateMachine(final InteroperabilityReport rep, boolean debugMode, ExecutionListener listener, TestDataStore testData, String testName) {
+        this.eventQueue = EventQueue.fromProperties();
         outputReport = rep;
         stopped = false;
         this.debugMode = debugMode;
         nextClicked = true;
         finished =false;
-        this.execPanel = execPanel;
-        this.collectionsExplorer = collectionsExplorer;
+        this.listener = listener;
+        this.testData = testData;
+        this.testName = testName;
     }
 
     /**
@@ -245,18 +328,121 @@ public class StateMachine implements EventCapture {
      */
     public final void addState(final State newState) {
 	this.states.put(newState.getLabel().toLowerCase(), newState);
+        this.contentUsed = null;
+    }
+
+    /**
+     * Event interface implementation. The content of events is required if
+     * a guard is applied to the content or to a parameter that may be read
+     * from the body (e.g. a form field), if a guard value or trigger message
+     * may refer to the content of an earlier event, if the events are
+     * observed by a listener, or if a known test references the content this
+     * test stores. Otherwise the guards read the headers and other
+     * parameters only.
+     * @return true if events must carry their content.
+     */
+    @Override
+    public final boolean requiresContent() {
+        Boolean used = this.contentUsed;
+        if (used == null) {
+            used = listener != null || statesUseContent()
+                    || testData != null && testData.isContentReferenced(testName);
+            this.contentUsed = used;
+        }
+        return used;
+    }
+
+    /**
+     * Check the transitions of all states for uses of event content.
+     * @return true if a guard or trigger may read the content of an event.
+     */
+    private boolean statesUseContent() {
+        if (this.states == null) {
+            return false;
+        }
+        for (State state : this.states.values()) {
+            for (Transition transition : state.getTransitions()) {
+                for (GuardPlan plan : transition.listGuardPlans()) {
+                    if (plan.getType() != Guard.ComparisonType.COUNTER && guardUsesContent(plan)) {
+                        return true;
+                    }
+                }
+                final ProtocolMessage trigger = transition.getTrigger();
+                if (trigger != null && (refersToContent(trigger.getURL())
+                        || refersToContent(trigger.getContent().getData())
+                        || refersToContent(String.valueOf(trigger.getHeaders())))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a guard may read the content of an event.
+     * @param plan The compiled guard.
+     * @return true if the guard is applied to the content, to a parameter
+     * that may come from the body, or compares with a reference to content.
+     */
+    private static boolean guardUsesContent(final GuardPlan plan) {
+        if (plan.isContent()) {
+            return true;
+        }
+        if (plan.getSource() != GuardPlan.Source.CONSTANT) {
+            // A contains guard checks for the referenced parameter name
+            return plan.getTarget() == GuardPlan.Target.PARAMETERS || refersToContent(plan.getCompare());
+        }
+        if (plan.getTarget() == GuardPlan.Target.PARAMETERS) {
+            return isBodyParameter(plan.getCompare());
+        }
+        return isBodyParameter(plan.getGuard().getGuardLabel());
+    }
+
+    /**
+     * Check whether an event parameter may be read from the message body:
+     * any parameter other than the http. fields and headers, the query.
+     * parameters and the response time, e.g. the content or a form field.
+     * @param name The parameter name.
+     * @return true if the parameter may come from the body.
+     */
+    private static boolean isBodyParameter(final String name) {
+        if (name == null) {
+            return false;
+        }
+        final String lower = name.toLowerCase(Locale.ENGLISH);
+        return !lower.startsWith("http.") && !lower.startsWith("query.") && !lower.equals("response-time");
+    }
+
+    /**
+     * Check whether a value holds a reference to the content of an event,
+     * i.e. $$state|content|path$$ or $$test.id.label.content|path$$.
+     * @param text The value.
+     * @return true if the text refers to content.
+     */
+    private static boolean refersToContent(final String text) {
+        if (text == null || !text.contains("$$")) {
+            return false;
+        }
+        final String lower = text.toLowerCase(Locale.ENGLISH);
+        return lower.contains("|content|") || lower.contains(".content|");
     }
 
     /**
      * Event interface implemenation. When a discrete event is detected it is
-     * sent here to move the state machine execution.
+     * sent here to move the state machine execution. If the queue is full
+     * the configured overflow policy is applied; a dropped event is reported.
      * @param restEvent The new event detected in the distributed system e.g. a
      * rest message.
      */
     @Override
     public final void pushEvent(final MsgEvent restEvent) {
         try {
-            this.eventQueue.put(restEvent);
+            final MsgEvent dropped = this.eventQueue.putEvent(restEvent);
+            if (dropped != null) {
+                ServiceLogger.LOG.warn("Event queue full - dropped the oldest event");
+                outputReport.println("Event queue full (capacity " + eventQueue.getCapacity()
+                        + ") - the oldest event was dropped");
+            }
         } catch (InterruptedException ex) {
             ServiceLogger.LOG.debug("Event queue interupted", ex);
         }
@@ -286,8 +472,8 @@ public class StateMachine implements EventCapture {
             return outputReport;
         }
 
-        if(execPanel != null) {
-            execPanel.setTestState(currentState.getLabel());
+        if(listener != null) {
+            listener.stateEntered(currentState.getLabel());
         }
 
         outputReport.clear();
@@ -296,10 +482,11 @@ public class StateMachine implements EventCapture {
         outputReport.println("Starting trace at Node:" + currentState.getLabel());
 
         while (!(currentState.isEndNode() || stopped)) {
-            if (debugMode && !nextClicked){
-                continue;
-            }
             try {
+                awaitStep();
+                if (stopped) {
+                    continue;
+                }
                 if (currentState.isTrigger()) {
                     currentState = getState(currentState.executeTransition(this.eventQueue, outputReport));
                 }
@@ -370,14 +557,17 @@ public class StateMachine implements EventCapture {
                         currentState = getState(currentState.evaluateTransition(event, outputReport));
                     }
                     else {
-                        TimerDialog timerDialog = new TimerDialog();
-                        timerDialog.initGUI(timeout);
+                        if (listener != null) {
+                            listener.timeoutStarted(timeout);
+                        }
                         event = this.eventQueue.poll(timeout, TimeUnit.MILLISECONDS);
+                        if (listener != null) {
+                            listener.timeoutEnded();
+                        }
                         if (event == null){
                             currentState = getState(timeoutTransition.readLabel());
                         }
                         else {
-                            timerDialog.dispose();
                             currentState = getState(currentState.evaluateTransition(event, outputReport));
                         }
                     }
@@ -392,8 +582,8 @@ public class StateMachine implements EventCapture {
                     outputReport.println("Transition Success - move to state:" + currentState.getLabel());
                 }
                 nextClicked = false;
-                if(execPanel != null) {
-                    execPanel.setTestState(currentState.getLabel());
+                if(listener != null) {
+                    listener.stateEntered(currentState.getLabel());
                 }
             } catch (UnexpectedEventException ex) {
                logException(ex);
@@ -425,6 +615,10 @@ public class StateMachine implements EventCapture {
             outputReport.setSuccess("false");
             outputReport.println("The test execution was stopped.");
         }
+        if (eventQueue.getDropped() > 0 || eventQueue.getSpilled() > 0) {
+            outputReport.println("Event queue: high-water mark " + eventQueue.getHighWaterMark()
+                    + ", dropped " + eventQueue.getDropped() + ", spilled " + eventQueue.getSpilled());
+        }
         finished = true;
         return outputReport;
     }
@@ -36,7 +36,6 @@ import java.util.concurrent.BlockingQueue;
 import org.w3c.dom.Node;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Architecture;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
-import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
@@ -54,6 +53,8 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.Invalid
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidXPathException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PathEvaluationResult;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PathEvaluationResult.DataFormat;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSONEvaluationContext;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XMLEvaluationContext;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
 
 /**
@@ -103,8 +104,11 @@ public class StateNode implements State {
      * Constant to the content label of a rest event.
      */
     private static final String CONTENTLABEL = "content";
-    private static final String JSONCONTENTLABEL = "jsoncontent";
-    private static final String XMLCONTENTLABEL = "xmlcontent";
+
+    /**
+     * Constant to the content type label of a rest event.
+     */
+    private static final String CONTENTTYPELABEL = "http.content-type";
 
         /**
      * A node has a report field that is used to annotate information about
@@ -405,27 +409,34 @@ public class StateNode implements State {
         // Find transitions with matching resource locations
 
         this.savedEvent = input;
-        this.stateMachine.getCollectionsExplorer().getMultiTestsManager().putTestContent(this.stateMachine.getCollectionsExplorer().getCurrentModel(),
-                this.name, this.savedEvent.getDataBody().getData());
-        this.savedEvent.getParameterMap().keySet().stream().filter((headerKey) -> !(headerKey.equals("content"))).forEachOrdered((headerKey) -> {
-            this.stateMachine.getCollectionsExplorer().getMultiTestsManager().putTestHeader(this.stateMachine.getCollectionsExplorer().getCurrentModel(),
-                    this.name, headerKey, this.savedEvent.getParameterMap().get(headerKey).getValue());
-            if (headerKey.startsWith("http.")){
-                this.stateMachine.getCollectionsExplorer().getMultiTestsManager().putTestHeader(this.stateMachine.getCollectionsExplorer().getCurrentModel(),
-                    this.name, headerKey.replaceFirst("http.", ""), this.savedEvent.getParameterMap().get(headerKey).getValue());
-            }
-        });
+        // Remember the event for later tests (when run as part of a collection)
+        final TestDataStore testData = this.stateMachine.getTestData();
+        if (testData != null) {
+            final String testName = this.stateMachine.getTestName();
+            testData.putTestContent(testName, this.name,
+                    this.savedEvent.getDataBody() == null ? null : this.savedEvent.getDataBody().getData());
+            this.savedEvent.getParameterMap().keySet().stream().filter((headerKey) -> !(headerKey.equals("content"))).forEachOrdered((headerKey) -> {
+                testData.putTestHeader(testName, this.name, headerKey, this.savedEvent.getParameterMap().get(headerKey).getValue());
+                if (headerKey.startsWith("http.")){
+                    testData.putTestHeader(testName, this.name, headerKey.replaceFirst("http.", ""),
+                            this.savedEvent.getParameterMap().get(headerKey).getValue());
+                }
+            });
+        }
 
         /**
          * Iterate through each potential event transition to find a matching
          * next state. If no matches then we have an interoperability fail.
          * Report in the exception.
          */
+        // The message body is parsed at most once for all of the guards
+        final XMLEvaluationContext xmlContext = new XMLEvaluationContext();
+        final JSONEvaluationContext jsonContext = input.getJSONContext();
         final Iterator<Transition> transIt = this.nextStates.iterator();
         while (transIt.hasNext()) {
             final Transition evTrans = transIt.next();
             if (!evTrans.listGuards().isEmpty()) {
-                if (evaluateGuards(evTrans.listGuards(), evTrans.readLabel(), input.getParameterMap(), outputReport)) {
+                if (evaluateGuards(evTrans.listGuardPlans(), evTrans.readLabel(), input.getParameterMap(), xmlContext, jsonContext, outputReport)) {
                     outputReport.println("Transition to state " + evTrans.readLabel() + " - Guard evaluation successful");
                         return evTrans.readLabel();
                 }
@@ -493,7 +504,7 @@ public class StateNode implements State {
             if (rEv.getDataBody().getType().contains("xml")) {
                 return XML.readValue(content, exprSplit[2]);
             } else {
-                return JSON.readValue(content, "$." + exprSplit[2]);
+                return rEv.getJSONContext().readValue(content, "$." + exprSplit[2]);
             }
         } else if (exprSplit[1].equalsIgnoreCase("headers")) {
             return rEv.getParameterMap().get(exprSplit[2]).getValue();
@@ -503,30 +514,6 @@ public class StateNode implements State {
         return null;
     }
 
-    /**
-     * get the pattern data based on the expression
-     * @param expression the expression to parse
-     * @return the pattern data
-     * @throws InvalidPatternReferenceException
-     */
-    private String getData(String expression)
-            throws InvalidPatternReferenceException {
-        expression = expression.replaceAll("\\$", "");
-        final int indexElement = expression.indexOf('.') + 1;
-        if (indexElement != XMLStateMachine.DATA_TAG.length() + 1) {
-            throw new InvalidPatternReferenceException("Invalid data tag: " + expression.substring(0, indexElement));
-        }
-        final String dataName = expression.substring(indexElement);
-        if (dataName != null) {
-            final String dataValue = this.dataConstants.get(dataName);
-            if (dataValue == null) {
-                throw new InvalidPatternReferenceException("Data field does not exist");
-            }
-            return dataValue;
-        }
-        throw new InvalidPatternReferenceException("Data field does not exist");
-    }
-
     /**
      * get data fetched from previously executed test
      * @param expression the expression to fetch
@@ -546,12 +533,17 @@ public class StateNode implements State {
             throw new InvalidPatternReferenceException("Invalid data reference for previous tests - " + expression + ".");
         }
 
+        final TestDataStore testData = this.stateMachine.getTestData();
+        if (testData == null){
+            throw new InvalidPatternReferenceException("No data from previous tests - " + expression + " can only be used when running a collection of tests.");
+        }
+
         final String testID = split[1];
 
         // pattern data extraction, format $$test.{test-id}.patterndata.{data-id}$$
         if (split[2].equals(XMLStateMachine.DATA_TAG)){
             final String patternDataID = split[3];
-            final String dataValue = this.stateMachine.getCollectionsExplorer().getMultiTestsManager().getPatternValue(testID, patternDataID);
+            final String dataValue = testData.getPatternValue(testID, patternDataID);
             if (dataValue == null){
                 throw new InvalidPatternReferenceException("No data value associated with the reference for previous tests data - " + expression + ".");
             }
@@ -571,7 +563,7 @@ public class StateNode implements State {
             }
 
             final String path = secondSplit[1];
-            final String data = this.stateMachine.getCollectionsExplorer().getMultiTestsManager().getTestContent(testID, labelID);
+            final String data = testData.getTestContent(testID, labelID);
             if (data == null){
                 throw new InvalidPatternReferenceException("No data value associated with the reference for previous tests data - " + expression + ".");
             }
@@ -581,7 +573,7 @@ public class StateNode implements State {
                 value = XML.readValue(data, path);
             }
             else {
-                value = JSON.readValue(data, "$." + path);
+                value = this.stateMachine.getTestContentContext().readValue(data, "$." + path);
             }
 
             if (value == null){
@@ -604,7 +596,7 @@ public class StateNode implements State {
             }
 
             final String headerID = secondSplit[1];
-            final String headerValue = this.stateMachine.getCollectionsExplorer().getMultiTestsManager().getTestHeader(testID, labelID, headerID);
+            final String headerValue = testData.getTestHeader(testID, labelID, headerID);
             if (headerValue == null){
                 throw new InvalidPatternReferenceException("No data value associated with the reference for previous tests data - " + expression + ".");
             }
@@ -617,97 +609,94 @@ public class StateNode implements State {
 
     /**
      * The guard failure is reported to the interoperability report.
-     * @param chGuard The rule that has failed.
+     * @param type The comparison type of the rule that has failed.
+     * @param label The label of the rule that has failed.
+     * @param compare The value the rule compared against.
      * @param value The input to the failed rule.
      * @param report The output location to report the failure.
      */
-    private void reportGuardFailure(final Guard chGuard, final Parameter value, final InteroperabilityReport report) {
-        String originalGuardCompare = chGuard.getGuardCompare();
-        String originalValue = value.getValue();
-        if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)) {
-            chGuard.setGuardCompare(originalGuardCompare + "ms");
-            value.setValue(originalValue + "ms");
-        }
-        switch (chGuard.getType()) {
+    private void reportGuardFailure(final Guard.ComparisonType type, final String label, final String compare,
+            final String value, final InteroperabilityReport report) {
+        final String units = label.equalsIgnoreCase(RESTEvent.RESPONSE_TIME) ? "ms" : "";
+        switch (type) {
             case EQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be equal to the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value + units + "', while it was supposed to be equal to the guard value: '" + compare + units + "'");
                 break;
             case NOTEQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be not equal to the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value + units + "', while it was supposed to be not equal to the guard value: '" + compare + units + "'");
                 break;
             case GREATERTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be greater than the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value + units + "', while it was supposed to be greater than the guard value: '" + compare + units + "'");
                 break;
             case LESSTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be less than the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value + units + "', while it was supposed to be less than the guard value: '" + compare + units + "'");
                 break;
             case REGEX:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "' while it was supposed to match the regular expression: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value + units + "' while it was supposed to match the regular expression: '" + compare + units + "'");
                 break;
             default:
                 report.printtabline("Guard test failed!");
         }
-        if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)) {
-            chGuard.setGuardCompare(originalGuardCompare);
-            value.setValue(originalValue);
-        }
     }
 
     /**
      * The guard failure(due to a content evaluation) is reported to the interoperability report.
-     * @param chGuard The rule that has failed.
+     * @param type The comparison type of the rule that has failed.
+     * @param label The label of the rule that has failed.
+     * @param compare The value the rule compared against.
      * @param value The input to the failed rule.
      * @param report The output location to report the failure.
      */
-    private void reportGuardFailure(final Guard chGuard, final PathEvaluationResult value, final InteroperabilityReport report) {
-        switch (chGuard.getType()) {
+    private void reportGuardFailure(final Guard.ComparisonType type, final String label, final String compare,
+            final PathEvaluationResult value, final InteroperabilityReport report) {
+        switch (type) {
             case EQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be equal to the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value.getValue().toString() + "', while it was supposed to be equal to the guard value: '" + compare + "'");
                 break;
             case NOTEQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be not equal to the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value.getValue().toString() + "', while it was supposed to be not equal to the guard value: '" + compare + "'");
                 break;
             case GREATERTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be greater than the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value.getValue().toString() + "', while it was supposed to be greater than the guard value: '" + compare + "'");
                 break;
             case LESSTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be less than the guard value: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value.getValue().toString() + "', while it was supposed to be less than the guard value: '" + compare + "'");
                 break;
             case REGEX:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to match the regular expression: '" + chGuard.getGuardCompare() + "'");
+                report.printtabline("Guard test failed: '" + label + "' is '" + value.getValue().toString() + "', while it was supposed to match the regular expression: '" + compare + "'");
                 break;
             case CONTAINS:
                 if (value.getType() == DataFormat.XML){
                     List<Node> nodesList = (List<Node>) value.getValue();
 
                     if (nodesList.isEmpty()){
-                        report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' doesn't contain any child fields");
+                        report.printtabline("Guard test failed: '" + label + "' doesn't contain any child fields");
                     }
                     else {
-                        String msg = "Guard test failed: '" + chGuard.getGuardLabel() + "' contains child fields (";
+                        final StringBuilder msg = new StringBuilder("Guard test failed: '").append(label).append("' contains child fields (");
 
                         for (int i=0; i<nodesList.size()-1; i++){
-                            msg += "'" + nodesList.get(i).getNodeName() + "' ";
+                            msg.append('\'').append(nodesList.get(i).getNodeName()).append("' ");
                         }
 
-                        msg += "'" + nodesList.get(nodesList.size()-1).getNodeName() + "') but doesn't contain child field '" + chGuard.getGuardCompare() + "'";
-                        report.printtabline(msg);
+                        msg.append('\'').append(nodesList.get(nodesList.size()-1).getNodeName()).append("') but doesn't contain child field '").append(compare).append('\'');
+                        report.printtabline(msg.toString());
                     }
                 }
                 else if (value.getType() == DataFormat.JSON) {
                     List<String> childFields = (List<String>) value.getValue();
                     if (childFields.isEmpty()){
-                        report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' doesn't contain any child fields");
+                        report.printtabline("Guard test failed: '" + label + "' doesn't contain any child fields");
                     }
                     else {
-                        String msg = "Guard test failed: '" + chGuard.getGuardLabel() + "' contains child fields (";
+                        final StringBuilder msg = new StringBuilder("Guard test failed: '").append(label).append("' contains child fields (");
 
                         for (int i=0; i < childFields.size()-1; i++){
-                            msg += "'" + childFields.get(i) + "' ";
+                            msg.append('\'').append(childFields.get(i)).append("' ");
                         }
 
-                        msg += "'" + childFields.get(childFields.size()-1) + "') but doesn't contain child field '" + chGuard.getGuardCompare() + "'";
-                        report.printtabline(msg);
+                        msg.append('\'').append(childFields.get(childFields.size()-1)).append("') but doesn't contain child field '").append(compare).append('\'');
+                        report.printtabline(msg.toString());
                     }
                 }
 
@@ -717,6 +706,40 @@ public class StateNode implements State {
         }
     }
 
+    /**
+     * The guard success is reported to the interoperability report.
+     * @param type The comparison type of the rule.
+     * @param label The label of the rule.
+     * @param compare The value the rule compared against.
+     * @param report The output location to report the success.
+     */
+    private void reportGuardSuccess(final Guard.ComparisonType type, final String label, final String compare,
+            final InteroperabilityReport report) {
+        final String value = label.equalsIgnoreCase(RESTEvent.RESPONSE_TIME) ? compare + "ms" : compare;
+        switch (type) {
+            case NOTEQUALS:
+                report.printtabline("Guard test succeeded: '" + label + "' is not equal to '" + value + "'");
+                break;
+            case EQUALS:
+                report.printtabline("Guard test succeeded: '" + label + "' is equal to '" + value + "'");
+                break;
+            case GREATERTHAN:
+                report.printtabline("Guard test succeeded: '" + label + "' is greater than '" + value + "'");
+                break;
+            case LESSTHAN:
+                report.printtabline("Guard test succeeded: '" + label + "' is less than '" + value + "'");
+                break;
+            case CONTAINS:
+                report.printtabline("Guard test succeeded: '" + label + "' contains child field '" + value + "'");
+                break;
+            case REGEX:
+                report.printtabline("Guard test succeeded: '" + label + "' matches the regular expression '" + value + "'");
+                break;
+            default:
+                report.printtabline("Guard test succeeded: '" + label + "' is '" + value + "'");
+                break;
+        }
+    }
      /**
      * The guard failure(due to an exception) is reported to the interoperability report.
      * @param chGuard The rule that has failed.
@@ -731,80 +754,65 @@ public class StateNode implements State {
 
     /**
      * Evaluate a guard based on the contains operation.
-     * @param chGuard The guard to evaluate
+     * @param plan The guard to evaluate
+     * @param label The guard label (with the loop counter inserted)
+     * @param compare The field the guard checks for (with references resolved)
      * @param conditions The set of events
+     * @param xmlContext The parsed form of an xml message body
+     * @param jsonContext The parsed form of a json message body
      * @param report The output report stream
      * @return True if the guard is true.
      */
-    private boolean guardContainsEvaluation(final Guard chGuard, final Map<String, Parameter> conditions,
-            final InteroperabilityReport report) {
+    private boolean guardContainsEvaluation(final GuardPlan plan, final String label, final String compare,
+            final Map<String, Parameter> conditions, final XMLEvaluationContext xmlContext,
+            final JSONEvaluationContext jsonContext, final InteroperabilityReport report) {
 
-        if (chGuard.getGuardLabel().startsWith("jsoncontent")) {
-            final String xpathExp = chGuard.getGuardLabel().substring(12, chGuard.getGuardLabel().length() - 1);
-            final Parameter value = conditions.get(CONTENTLABEL);
-            PathEvaluationResult evaluationResult;
+        if (plan.getTarget() == GuardPlan.Target.PARAMETERS) {
             try {
-                evaluationResult = JSON.containsJSON(value.getValue(), xpathExp, chGuard.getGuardCompare());
-                if (!evaluationResult.getResult()) {
-                    reportGuardFailure(chGuard, evaluationResult, report);
+                if (!plan.evaluate(conditions, compare)) {
+                    report.printtabline("Guard test failed: " + label + " doesn't contain " + compare);
                     return false;
                 }
-            }
-            catch (InvalidJSONPathException ex) {
+            } catch (InvalidInputException ex) {
+                return false;
+            } catch (InvalidRegexException ex) {
                 reportGuardFailure(report, ex);
                 return false;
             }
+            return true;
         }
 
-        else if (chGuard.getGuardLabel().startsWith(CONTENTLABEL)) {
-            final String xpathExp = chGuard.getGuardLabel().substring(8, chGuard.getGuardLabel().length() - 1);
-            final Parameter value = conditions.get(CONTENTLABEL);
-            final Parameter dataType = conditions.get("http.content-type");
-            PathEvaluationResult evaluationResult;
-            if (dataType.getValue().contains("xml")) {
-                try {
-                    evaluationResult = XML.xmlContains(value.getValue(), xpathExp, chGuard.getGuardCompare());
-                    if (!evaluationResult.getResult()) {
-                        reportGuardFailure(chGuard, evaluationResult, report);
-                        return false;
-                    }
-                }
-                catch (InvalidXPathException ex) {
-                    reportGuardFailure(report, ex);
-                    return false;
-                }
-            }
-            else if (dataType.getValue().contains("json")) {
-                try {
-                    evaluationResult = JSON.containsJSON(value.getValue(), xpathExp, chGuard.getGuardCompare());
-                    if (!evaluationResult.getResult()) {
-                        reportGuardFailure(chGuard, evaluationResult, report);
-                        return false;
-                    }
-                }
-                catch (InvalidJSONPathException ex) {
-                    reportGuardFailure(report, ex);
-                    return false;
-                }
-            }
+        final Parameter value = conditions.get(CONTENTLABEL);
+        if (value == null) {
+            report.printtabline("Guard test failed: " + label + " is not part of message");
+            return false;
         }
-        else {
-            try {
-                final Object compareVal = conditions;
-                if (!chGuard.evaluate(compareVal)) {
-                    report.printtabline("Guard test failed: " + chGuard.getGuardLabel() + " doesn't contain " + chGuard.getGuardCompare());
-                    return false;
+        final String pathExp = plan.getPath(label);
+        final PathEvaluationResult evaluationResult;
+        try {
+            if (plan.getTarget() == GuardPlan.Target.JSON_CONTENT) {
+                evaluationResult = jsonContext.containsJSON(value.getValue(), pathExp, compare);
+            } else {
+                final Parameter dataType = conditions.get(CONTENTTYPELABEL);
+                if (dataType != null && dataType.getValue().contains("xml")) {
+                    evaluationResult = xmlContext.xmlContains(value.getValue(), pathExp, compare);
+                } else if (dataType != null && dataType.getValue().contains("json")) {
+                    evaluationResult = jsonContext.containsJSON(value.getValue(), pathExp, compare);
+                } else {
+                    return true;
                 }
-            } catch (InvalidInputException ex) {
-                return false;
-            } catch (InvalidRegexException ex) {
-                reportGuardFailure(report, ex);
-                return false;
             }
         }
+        catch (InvalidXPathException | InvalidJSONPathException ex) {
+            reportGuardFailure(report, ex);
+            return false;
+        }
+        if (!evaluationResult.getResult()) {
+            reportGuardFailure(plan.getType(), label, compare, evaluationResult, report);
+            return false;
+        }
         return true;
     }
-
     /**
      * This evaluates an index of array
      * @param chGuard
@@ -837,110 +845,71 @@ public class StateNode implements State {
     /**
      *
      * Evaluate the guard content.
-     * @param chGuard The guard to evaluate with.
+     * @param plan The guard to evaluate with.
+     * @param label The guard label (with the loop counter inserted).
+     * @param compare The guard value (with references resolved).
      * @param conditions The list of conditions that occurred from the event.
+     * @param xmlContext The parsed form of an xml message body.
+     * @param jsonContext The parsed form of a json message body.
      * @param report The output stream to output the data.
      * @return True if all guards evaluate against the conditions.
      */
-    private boolean contentEvaluation(final Guard chGuard, final Map<String, Parameter> conditions,
-            final InteroperabilityReport report) {
-        final String pathExp = chGuard.getGuardLabel().substring(8, chGuard.getGuardLabel().length() - 1);
+    private boolean contentEvaluation(final GuardPlan plan, final String label, final String compare,
+            final Map<String, Parameter> conditions, final XMLEvaluationContext xmlContext,
+            final JSONEvaluationContext jsonContext, final InteroperabilityReport report) {
         final Parameter value = conditions.get(CONTENTLABEL);
-        final Parameter dataType = conditions.get("http.content-type");
-        PathEvaluationResult pathResult;
-        if (dataType.getValue().contains("xml")) {
-            try {
-                Object exprValue = null;
-                if(null != chGuard.getType()) switch (chGuard.getType()) {
-                    case NOTEQUALS:
-                        pathResult = XML.xmlAssert(value.getValue(), pathExp, chGuard.getGuardCompare());
-                        if (pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case EQUALS:
-                        pathResult = XML.xmlAssert(value.getValue(), pathExp, chGuard.getGuardCompare());
-                        if (!pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case GREATERTHAN:
-                        pathResult = XML.xmlCompare(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.GREATERTHAN);
-                        if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case LESSTHAN:
-                        pathResult = XML.xmlCompare(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.LESSTHAN);
-                        if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case REGEX:
-                        pathResult = XML.xmlRegex(value.getValue(), pathExp, chGuard.getGuardCompare());
-                        if (!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    default:
-                        reportGuardFailure(report, new InvalidInputException("Unknown condition type"));
-                        return false;
-                }
-            }
-            catch (InvalidXPathException | InvalidRegexException ex) {
-                reportGuardFailure(report, ex);
+        if (value == null) {
+            report.printtabline("Guard test failed: " + label + " is not part of message");
+            return false;
+        }
+        final boolean xml;
+        if (plan.getTarget() == GuardPlan.Target.CONTENT) {
+            final Parameter dataType = conditions.get(CONTENTTYPELABEL);
+            if (dataType != null && dataType.getValue().contains("xml")) {
+                xml = true;
+            } else if (dataType != null && dataType.getValue().contains("json")) {
+                xml = false;
+            } else {
                 return false;
             }
+        } else {
+            xml = plan.getTarget() == GuardPlan.Target.XML_CONTENT;
         }
-        else if (dataType.getValue().contains("json")) {
-            try {
-                if(null != chGuard.getType()) switch (chGuard.getType()) {
-                    case NOTEQUALS:
-                        pathResult = JSON.assertJSON(value.getValue(), pathExp, chGuard.getGuardCompare());
-                        if (pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case EQUALS:
-                        pathResult = JSON.assertJSON(value.getValue(), pathExp, chGuard.getGuardCompare());
-                        if (!pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case GREATERTHAN:
-                        pathResult = JSON.compareJSON(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.GREATERTHAN);
-                        if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case LESSTHAN:
-                        pathResult = JSON.compareJSON(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.LESSTHAN);
-                        if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    case REGEX:
-                        pathResult = JSON.regexJSON(value.getValue(), pathExp, chGuard.getGuardCompare());
-                        if (!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
-                            return false;
-                        }   break;
-                    default:
-                        reportGuardFailure(report, new InvalidInputException("Unknown condition type"));
-                        return false;
-                }
-            }
-            catch (InvalidJSONPathException | InvalidRegexException ex) {
-                reportGuardFailure(report, ex);
-                return false;
+
+        final String pathExp = plan.getPath(label);
+        final PathEvaluationResult pathResult;
+        try {
+            switch (plan.getType()) {
+                case NOTEQUALS:
+                case EQUALS:
+                    pathResult = xml ? xmlContext.xmlAssert(value.getValue(), pathExp, compare)
+                            : jsonContext.assertJSON(value.getValue(), pathExp, compare);
+                    break;
+                case GREATERTHAN:
+                case LESSTHAN:
+                    pathResult = xml ? xmlContext.xmlCompare(value.getValue(), pathExp, compare, plan.getType())
+                            : jsonContext.compareJSON(value.getValue(), pathExp, compare, plan.getType());
+                    break;
+                case REGEX:
+                    pathResult = xml ? xmlContext.xmlRegex(value.getValue(), pathExp, compare)
+                            : jsonContext.regexJSON(value.getValue(), pathExp, compare);
+                    break;
+                default:
+                    reportGuardFailure(report, new InvalidInputException("Unknown condition type"));
+                    return false;
             }
         }
-        else {
+        catch (InvalidXPathException | InvalidJSONPathException | InvalidRegexException ex) {
+            reportGuardFailure(report, ex);
+            return false;
+        }
+        // A not equals guard fails when the path value is equal
+        if (pathResult.getResult() == (plan.getType() == Guard.ComparisonType.NOTEQUALS)) {
+            reportGuardFailure(plan.getType(), label, compare, pathResult, report);
             return false;
         }
         return true;
     }
-
      /**
      * Evaluate the guards on a transition of this state.
      * @param checks The list of guards to evaluate with.
@@ -1011,144 +980,92 @@ public class StateNode implements State {
         return split[0] + getStateCounterValue(split[1]) + split[2];
     }
 
+    /**
+     * Resolve the value a guard compares against: a constant, or the current
+     * value of a pattern data, previous test or stored event reference.
+     * @param plan The guard plan.
+     * @return The comparison value, null if a reference cannot be resolved.
+     */
+    private String resolveCompare(final GuardPlan plan) {
+        switch (plan.getSource()) {
+            case DATA:
+                if (plan.getCompare() == null || this.dataConstants == null) {
+                    return null;
+                }
+                return this.dataConstants.get(plan.getCompare());
+            case TEST:
+                try {
+                    return getPreviousTestData(plan.getCompare());
+                }
+                catch (InvalidPatternReferenceException ex){
+                    return null;
+                }
+            case STATE:
+                return getStateValue(plan.getCompare());
+            default:
+                return plan.getCompare();
+        }
+    }
+
     /**
      * Evaluate the guards on a transition of this state.
-     * @param checks The list of guards to evaluate with.
+     * @param checks The compiled guards to evaluate with.
      * @param stateLabel The target state to move into if the guard evaluation is successful
      * @param conditions The list of conditions that occurred from the event.
+     * @param xmlContext The parsed form of an xml message body, shared by the guards.
+     * @param jsonContext The parsed form of a json message body, shared by the guards.
      * @param report The output stream to output the data.
      * @return True if all guards evaluate against the conditions.
      */
-    private boolean evaluateGuards(final List<Guard> checks, String stateLabel,
-            final Map<String, Parameter> conditions, final InteroperabilityReport report) {
+    private boolean evaluateGuards(final List<GuardPlan> checks, String stateLabel,
+            final Map<String, Parameter> conditions, final XMLEvaluationContext xmlContext,
+            final JSONEvaluationContext jsonContext, final InteroperabilityReport report) {
 
         report.println("Transition to state " + stateLabel + " - Evaluating " + checks.size() +  " " +
                 getSingularPlural(checks.size(), "guard", "guards") + ":");
 
-        final Iterator<Guard> itCheck = checks.iterator();
-        while (itCheck.hasNext()) {
-            try {
-                final Guard chGuard = itCheck.next();
-                String origLabel = chGuard.getGuardLabel();
-                if(chGuard.getGuardLabel().contains("%counter")){
-                    String newLabel = replaceStateCounterValue(chGuard.getGuardLabel());
-                    chGuard.setGuardLabel(newLabel);
-                }
-                if (chGuard.getGuardCompare().contains("$$")) {
-                    if (chGuard.getGuardCompare().contains(XMLStateMachine.DATA_TAG) && !chGuard.getGuardCompare().contains(XMLStateMachine.TEST_TAG)){
-                        try {
-                            chGuard.setGuardCompare(getData(chGuard.getGuardCompare()));
-                        }
-                        catch (InvalidPatternReferenceException ex){
-                            chGuard.setGuardCompare(null);
-                        }
-                    }
-                    else if (chGuard.getGuardCompare().contains(XMLStateMachine.TEST_TAG)){
-                        try {
-                            chGuard.setGuardCompare(getPreviousTestData(chGuard.getGuardCompare()));
-                        }
-                        catch (InvalidPatternReferenceException ex){
-                            chGuard.setGuardCompare(null);
-                        }
-                    }
-                    else {
-                        chGuard.setGuardCompare(getStateValue(chGuard.getGuardCompare()));
-                    }
-                }
+        for (GuardPlan plan : checks) {
+            final String label = plan.getCounterState() == null ? plan.getLabel(0)
+                    : plan.getLabel(this.stateMachine.getState(plan.getCounterState()).getCounter());
+            final String compare = resolveCompare(plan);
 
-                if (chGuard.getType() == Guard.ComparisonType.CONTAINS) {
-
-                    if (!guardContainsEvaluation(chGuard, conditions, report)) {
-                        chGuard.setGuardLabel(origLabel);
-                        return false;
-                    }
-                }
-                else if (chGuard.getGuardLabel().startsWith(CONTENTLABEL)) {
-                    if (!contentEvaluation(chGuard, conditions, report)) {
-                        chGuard.setGuardLabel(origLabel);
-                        return false;
-                    }
+            if (plan.getType() == Guard.ComparisonType.CONTAINS) {
+                if (!guardContainsEvaluation(plan, label, compare, conditions, xmlContext, jsonContext, report)) {
+                    return false;
                 }
-                else if (chGuard.getGuardLabel().startsWith(JSONCONTENTLABEL)) {
-                    conditions.put("http.content-type", new Parameter("http.content-type", "application/json"));
-                    String newjsonLabel = chGuard.getGuardLabel().replaceAll("jsoncontent", "content");
-                    chGuard.setGuardLabel(newjsonLabel);
-                    if (!contentEvaluation(chGuard, conditions, report)) {
-                        chGuard.setGuardLabel(origLabel);
-                        return false;
-                    }
+            }
+            else if (plan.isContent()) {
+                if (!contentEvaluation(plan, label, compare, conditions, xmlContext, jsonContext, report)) {
+                    return false;
                 }
-                else if (chGuard.getGuardLabel().startsWith(XMLCONTENTLABEL)) {
-                    conditions.put("content-type", new Parameter("content-type", "application/xml"));
-                    if (!contentEvaluation(chGuard, conditions, report)) {
-                        chGuard.setGuardLabel(origLabel);
-                        return false;
-                    }
+            }
+            else {
+                final Parameter value = conditions.get(label);
+                if (value == null) {
+                    report.printtabline("Guard test failed: " + label + " is not part of message");
+                    return false;
                 }
-                else {
-                    final Parameter value = conditions.get(chGuard.getGuardLabel());
-                    if (value == null) {
-                        report.printtabline("Guard test failed: " + chGuard.getGuardLabel() + " is not part of message");
-                        chGuard.setGuardLabel(origLabel);
-                        return false;
-                    }
-                    final Object compareVal = value.getValue();
-                    try {
-                        if (!chGuard.evaluate(compareVal)) {
-                            chGuard.setGuardLabel(origLabel);
-                            reportGuardFailure(chGuard, value, report);
-                            return false;
-                        }
-                    }
-                    catch (InvalidRegexException ex) {
-                        reportGuardFailure(report, ex);
-                        chGuard.setGuardLabel(origLabel);
+                try {
+                    if (!plan.evaluate(value.getValue(), compare)) {
+                        reportGuardFailure(plan.getType(), label, compare, value.getValue(), report);
                         return false;
                     }
                 }
-
-                String originalGuardCompare = chGuard.getGuardCompare();
-                if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)){
-                    chGuard.setGuardCompare(originalGuardCompare + "ms");
-                }
-                switch (chGuard.getType()) {
-                    case NOTEQUALS:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is not equal to '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case EQUALS:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is equal to '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case GREATERTHAN:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is greater than '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case LESSTHAN:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is less than '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case CONTAINS:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' contains child field '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case REGEX:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' matches the regular expression '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    default:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is '" + chGuard.getGuardCompare() + "'");
-                        break;
+                catch (InvalidRegexException ex) {
+                    reportGuardFailure(report, ex);
+                    return false;
                 }
-                if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)){
-                    chGuard.setGuardCompare(originalGuardCompare);
+                catch (InvalidInputException ex) {
+                    ServiceLogger.LOG.error("Invalid guard test specification", ex);
+                    return false;
                 }
-                chGuard.setGuardLabel(origLabel);
-            }
-            catch (InvalidInputException ex) {
-                ServiceLogger.LOG.error("Invalid guard test specification", ex);
-                return false;
             }
 
+            reportGuardSuccess(plan.getType(), label, compare, report);
         }
 
         return true;
     }
-
     @Override
     public final MsgEvent getStoredEvent() {
         return this.savedEvent;
@@ -0,0 +1,111 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+/**
+ * The data remembered from tests run earlier in a collection, which a test
+ * model can reference with $$test.{test-id}...$$ expressions. Each test
+ * stores the pattern data values, and the content and headers of the events
+ * captured at each of its states.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public interface TestDataStore {
+
+    /**
+     * Retrieve a header captured by a test.
+     * @param testName the name of the test
+     * @param stateLabel the state where the header was captured
+     * @param headerName the header name
+     * @return the header value, or null if there is none
+     */
+    String getTestHeader(String testName, String stateLabel, String headerName);
+
+    /**
+     * Store a header captured by a test.
+     * @param testName the name of the test
+     * @param stateLabel the state where the header was captured
+     * @param headerName the header name
+     * @param headerValue the header value
+     */
+    void putTestHeader(String testName, String stateLabel, String headerName, String headerValue);
+
+    /**
+     * Retrieve the event content captured by a test.
+     * @param testName the name of the test
+     * @param stateLabel the state where the content was captured
+     * @return the content, or null if there is none
+     */
+    String getTestContent(String testName, String stateLabel);
+
+    /**
+     * Store the event content captured by a test.
+     * @param testName the name of the test
+     * @param stateLabel the state where the content was captured
+     * @param content the content
+     */
+    void putTestContent(String testName, String stateLabel, String content);
+
+    /**
+     * Retrieve a pattern data value of a test.
+     * @param testName the name of the test
+     * @param patternValueID the id of the pattern data value
+     * @return the value, or null if there is none
+     */
+    String getPatternValue(String testName, String patternValueID);
+
+    /**
+     * Store a pattern data value of a test.
+     * @param testName the name of the test
+     * @param patternValueID the id of the pattern data value
+     * @param patternValue the value
+     */
+    void putPatternValue(String testName, String patternValueID, String patternValue);
+
+    /**
+     * Record the references a pattern makes to the data of other tests, so
+     * that the store knows which tests will have their content read.
+     * @param patternXml the pattern specification
+     */
+    default void addReferences(String patternXml) {
+    }
+
+    /**
+     * Whether the event content stored by a test may be read by a test,
+     * i.e. whether a pattern given to addReferences has a
+     * $$test.{test-id}.{label-id}.content|...$$ reference to it. A store that
+     * does not track references answers true.
+     * @param testName the name of the test
+     * @return true if the content of the test may be read
+     */
+    default boolean isContentReferenced(String testName) {
+        return true;
+    }
+}
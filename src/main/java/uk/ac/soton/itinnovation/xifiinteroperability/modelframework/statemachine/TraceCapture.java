@@ -27,11 +27,8 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.List;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
@@ -39,7 +36,11 @@ import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 /**
  * Capture a series of event, these can then be written to a file so
  * that they can be replayed multiple times through the state machines.
- * 
+ *
+ * Events are appended to the trace file in the binary trace format as they
+ * are captured (see TraceWriter), so memory use does not grow with the
+ * length of the trace.
+ *
  * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
  * & XIFI (http://www.fi-xifi.eu)
  *
@@ -48,27 +49,48 @@ import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 public class TraceCapture implements EventCapture {
 
     /**
-     * The list of events in the repeatable trace.
+     * The writer of the trace file; opened with the first event.
      */
-    private final transient List<MsgEvent> resourceName;
+    private transient TraceWriter writer;
 
     /**
      * The file location of the trace.
      */
     private final transient String fileName;
 
+    /**
+     * Whether the trace records are compressed.
+     */
+    private final transient boolean compress;
+
     /**
      * Create a trace capture object.
      * @param fileLocation The location to store the trace to.
      */
     public TraceCapture(final String fileLocation) {
-        this.resourceName = new ArrayList();
+        this(fileLocation, false);
+    }
+
+    /**
+     * Create a trace capture object.
+     * @param fileLocation The location to store the trace to.
+     * @param compressed Whether to compress the trace records.
+     */
+    public TraceCapture(final String fileLocation, final boolean compressed) {
         this.fileName = fileLocation;
+        this.compress = compressed;
     }
 
     @Override
-    public final void pushEvent(final MsgEvent httpMessage) {
-        resourceName.add(httpMessage);
+    public final synchronized void pushEvent(final MsgEvent httpMessage) {
+        try {
+            if (writer == null) {
+                writer = new TraceWriter(new File(this.fileName), compress);
+            }
+            writer.write(httpMessage);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.error("Unable to write trace to file", ex);
+        }
     }
 
     @Override
@@ -77,29 +99,19 @@ public class TraceCapture implements EventCapture {
     }
 
     /**
-     * Serialise the trace and store it to file.
+     * Complete the trace: flush the captured events and close the file.
+     * Events captured afterwards start a new trace in the same file.
      */
-    public final void storeTrace() {
-        FileOutputStream fout = null;
-        ObjectOutputStream oos = null;
+    public final synchronized void storeTrace() {
         try {
-            fout = new FileOutputStream(this.fileName);
-            oos = new ObjectOutputStream(fout);
-            oos.writeObject(this.resourceName);
+            if (writer == null) {
+                writer = new TraceWriter(new File(this.fileName), compress);
+            }
+            writer.close();
         } catch (IOException ex) {
             ServiceLogger.LOG.error("Unable to write trace to file", ex);
-        }  finally {
-            try {
-                if (oos != null) {
-                    oos.close();
-                }
-                if (fout != null) {
-                    fout.close();
-                }
-            } catch (IOException ex) {
-                ServiceLogger.LOG.error("Unable to write trace to file", ex);
-            }
+        } finally {
+            writer = null;
         }
-
     }
 }
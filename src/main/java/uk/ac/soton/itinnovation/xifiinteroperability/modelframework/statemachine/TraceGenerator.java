@@ -28,17 +28,22 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.util.ArrayList;
+import java.util.List;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 
 /**
  * Create a trace of HTTP events from raw data held on a file.
  *
+ * Binary traces (see TraceWriter) are streamed into the state machine one
+ * event at a time; traces of serialised events written by earlier versions
+ * are still read as a whole.
+ *
  * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
  * & XIFI (http://www.fi-xifi.eu)
  *
@@ -60,28 +65,93 @@ public final class TraceGenerator {
      * against,
      */
     public static void generateEvents(final String rawDataFile, final StateMachine sMachine) {
+        generateEvents(rawDataFile, sMachine, 0);
+    }
+
+    /**
+     * Generate the events that have been saved to a file, starting part way
+     * through the trace.
+     *
+     * @param rawDataFile The file with raw msg events stored as a trace
+     * @param sMachine The state machine pattern that the events will be tested
+     * against,
+     * @param offset The number of events at the start of the trace to skip.
+     */
+    public static void generateEvents(final String rawDataFile, final StateMachine sMachine, final long offset) {
+        final File file = new File(rawDataFile);
+        try {
+            if (!TraceReader.isBinaryTrace(file)) {
+                generateSerialisedEvents(file, sMachine, offset);
+                return;
+            }
+        } catch (IOException e) {
+            ServiceLogger.LOG.error("Unable to open trace file: " + rawDataFile, e);
+            return;
+        }
 
-        ArrayList<MsgEvent> fileContent = null;
+        TraceReader trace = null;
+        try {
+            trace = new TraceReader(file);
+            trace.skip(offset);
+            // Read an event one at a time until the end of the file
+            MsgEvent event = trace.next();
+            while (event != null) {
+                // Notify the state machine of the event
+                sMachine.pushEvent(event);
+                event = trace.next();
+            }
+        } catch (IOException e) {
+            ServiceLogger.LOG.error("Unable to read trace file: " + rawDataFile, e);
+        } finally {
+            if (trace != null) {
+                try {
+                    trace.close();
+                } catch (IOException e) {
+                    ServiceLogger.LOG.error("Unable to close trace file: " + rawDataFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generate the events of a trace written as a serialised list of events.
+     *
+     * @param rawDataFile The file with the serialised event list
+     * @param sMachine The state machine pattern that the events will be tested
+     * against,
+     * @param offset The number of events at the start of the trace to skip.
+     */
+    private static void generateSerialisedEvents(final File rawDataFile, final StateMachine sMachine, final long offset) {
+
+        List<MsgEvent> fileContent = null;
 
         // Open the trace file
+        ObjectInputStream httpEvents = null;
         try {
-            final InputStream file = new FileInputStream(rawDataFile);
-            final InputStream input = new BufferedInputStream(file);
-            final ObjectInputStream httpEvents = new ObjectInputStream(input);
-            fileContent = (ArrayList<MsgEvent>) httpEvents.readObject();
+            final InputStream input = new BufferedInputStream(new FileInputStream(rawDataFile));
+            httpEvents = new ObjectInputStream(input);
+            fileContent = (List<MsgEvent>) httpEvents.readObject();
         } catch (IOException e) {
             ServiceLogger.LOG.error("Unable to open trace file: " + rawDataFile, e);
             return;
         } catch (ClassNotFoundException ex) {
             ServiceLogger.LOG.error("Unable to open class file: " + rawDataFile, ex);
             return;
+        } finally {
+            if (httpEvents != null) {
+                try {
+                    httpEvents.close();
+                } catch (IOException e) {
+                    ServiceLogger.LOG.error("Unable to close trace file: " + rawDataFile, e);
+                }
+            }
         }
 
         if (fileContent != null) {
             // Read an HTTP event one at a time until the end of the file
-            for (MsgEvent e : fileContent) {
+            for (int i = (int) Math.min(offset, fileContent.size()); i < fileContent.size(); i++) {
                 // Notify the state machine of the event
-                sMachine.pushEvent(e);
+                sMachine.pushEvent(fileContent.get(i));
             }
         }
     }
@@ -0,0 +1,332 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MQTTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.SOAPEvent;
+
+/**
+ * Read a trace written by TraceWriter one event at a time, so that a trace
+ * of any length can be replayed without loading it into memory. Events can
+ * be skipped without decoding them to start a replay part way through.
+ *
+ * A record cut short at the end of the trace (e.g. the capture was not
+ * closed) is treated as the end of the trace.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class TraceReader implements Closeable {
+
+    /**
+     * The trace stream.
+     */
+    private final transient DataInputStream input;
+
+    /**
+     * The record decompressor; null if the trace is not compressed.
+     */
+    private final transient Inflater inflater;
+
+    /**
+     * The index of the next event in the trace.
+     */
+    private transient long position;
+
+    /**
+     * Open a trace file.
+     * @param file The trace file.
+     * @throws IOException Error opening the file, or it is not a binary trace.
+     */
+    public TraceReader(final File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * Read a trace from an input stream.
+     * @param stream The trace stream; closed with the reader.
+     * @throws IOException Error reading the stream, or it is not a binary trace.
+     */
+    public TraceReader(final InputStream stream) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(stream));
+        final int flags;
+        try {
+            if (input.readInt() != TraceWriter.MAGIC) {
+                throw new IOException("Not a binary event trace");
+            }
+            final int version = input.readUnsignedByte();
+            if (version != TraceWriter.VERSION) {
+                throw new IOException("Unsupported event trace version: " + version);
+            }
+            flags = input.readUnsignedByte();
+        } catch (IOException ex) {
+            input.close();
+            throw ex;
+        }
+        this.inflater = (flags & TraceWriter.FLAG_COMPRESSED) != 0 ? new Inflater() : null;
+    }
+
+    /**
+     * Check whether a file is a binary trace, rather than a trace of
+     * serialised events written by earlier versions.
+     * @param file The trace file.
+     * @return True if the file starts with the binary trace header.
+     * @throws IOException Error reading the file.
+     */
+    public static boolean isBinaryTrace(final File file) throws IOException {
+        final DataInputStream header = new DataInputStream(new FileInputStream(file));
+        try {
+            return header.readInt() == TraceWriter.MAGIC;
+        } catch (EOFException ex) {
+            return false;
+        } finally {
+            header.close();
+        }
+    }
+
+    /**
+     * Read the next event in the trace.
+     * @return The event, or null at the end of the trace.
+     * @throws IOException Error reading or decoding the event.
+     */
+    public final synchronized MsgEvent next() throws IOException {
+        final byte[] record = readRecord();
+        if (record == null) {
+            return null;
+        }
+        return decode(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    /**
+     * Skip events without decoding them.
+     * @param events The number of events to skip.
+     * @return The number of events skipped; fewer if the trace ended.
+     * @throws IOException Error reading the trace.
+     */
+    public final synchronized long skip(final long events) throws IOException {
+        long skipped = 0;
+        while (skipped < events) {
+            final int length = readLength();
+            if (length < 0) {
+                break;
+            }
+            try {
+                if (inflater != null) {
+                    input.readInt();
+                }
+                skipFully(length);
+            } catch (EOFException ex) {
+                ServiceLogger.LOG.warn("Event trace ends with an incomplete record");
+                break;
+            }
+            skipped++;
+            position++;
+        }
+        return skipped;
+    }
+
+    /**
+     * The index of the next event to be read, counting from zero.
+     * @return The position in the trace.
+     */
+    public final synchronized long getPosition() {
+        return position;
+    }
+
+    @Override
+    public final synchronized void close() throws IOException {
+        try {
+            input.close();
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Read the next record, inflating it if the trace is compressed.
+     * @return The record bytes, or null at the end of the trace.
+     * @throws IOException Error reading the trace.
+     */
+    private byte[] readRecord() throws IOException {
+        final int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] record;
+        try {
+            final int rawLength = inflater == null ? length : input.readInt();
+            final byte[] stored = new byte[length];
+            input.readFully(stored);
+            if (inflater == null) {
+                record = stored;
+            } else {
+                record = new byte[rawLength];
+                inflater.reset();
+                inflater.setInput(stored);
+                if (inflater.inflate(record) != rawLength) {
+                    throw new IOException("Corrupt event record at " + position);
+                }
+            }
+        } catch (EOFException ex) {
+            ServiceLogger.LOG.warn("Event trace ends with an incomplete record");
+            return null;
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt event record at " + position, ex);
+        }
+        position++;
+        return record;
+    }
+
+    /**
+     * Read the length prefix of the next record.
+     * @return The length, or -1 at the end of the trace.
+     * @throws IOException Error reading the trace.
+     */
+    private int readLength() throws IOException {
+        final int first = input.read();
+        if (first < 0) {
+            return -1;
+        }
+        try {
+            final int length = (first << 24) | (input.readUnsignedByte() << 16)
+                    | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+            if (length < 0) {
+                throw new IOException("Corrupt event record length at " + position);
+            }
+            return length;
+        } catch (EOFException ex) {
+            ServiceLogger.LOG.warn("Event trace ends with an incomplete record");
+            return -1;
+        }
+    }
+
+    /**
+     * Skip bytes of the trace.
+     * @param length The number of bytes to skip.
+     * @throws IOException Error reading, or the trace ended first.
+     */
+    private void skipFully(final int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int skipped = input.skipBytes(remaining);
+            if (skipped <= 0) {
+                // skipBytes may stop short of the end; read to tell
+                if (input.read() < 0) {
+                    throw new EOFException();
+                }
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    /**
+     * Decode an event record.
+     * @param in The record.
+     * @return The event.
+     * @throws IOException Error decoding the record.
+     */
+    private MsgEvent decode(final DataInputStream in) throws IOException {
+        final int type = in.readUnsignedByte();
+        final MsgEvent event;
+        switch (type) {
+            case TraceWriter.TYPE_SERIALIZED:
+                final ObjectInputStream objects = new ObjectInputStream(in);
+                try {
+                    return (MsgEvent) objects.readObject();
+                } catch (ClassNotFoundException ex) {
+                    throw new IOException("Unknown event class in trace at " + (position - 1), ex);
+                }
+            case TraceWriter.TYPE_REST:
+                event = new RESTEvent();
+                break;
+            case TraceWriter.TYPE_COAP:
+                event = new COAPEvent();
+                break;
+            case TraceWriter.TYPE_MQTT:
+                event = new MQTTEvent();
+                break;
+            case TraceWriter.TYPE_SOAP:
+                event = new SOAPEvent();
+                break;
+            default:
+                throw new IOException("Unknown event type " + type + " in trace at " + (position - 1));
+        }
+        event.setResponseTime(in.readLong());
+        if (in.readBoolean()) {
+            final String contentType = readString(in);
+            event.setDataBody(new Content(contentType, readString(in)));
+        }
+        final int params = in.readInt();
+        for (int i = 0; i < params; i++) {
+            final String name = readString(in);
+            event.addParameter(new Parameter(name, readString(in)));
+        }
+        return event;
+    }
+
+    /**
+     * Read a string written by TraceWriter.
+     * @param in The record.
+     * @return The string, or null.
+     * @throws IOException Error reading the record.
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == TraceWriter.NULL_STRING) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
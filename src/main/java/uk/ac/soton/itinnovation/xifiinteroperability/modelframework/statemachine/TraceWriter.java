@@ -0,0 +1,313 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.Deflater;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MQTTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.SOAPEvent;
+
+/**
+ * Write a trace of events in the binary trace format, one event at a time,
+ * so that a trace of any length can be captured without holding it in
+ * memory.
+ *
+ * The trace is a header (magic number, version, flags) followed by one
+ * length-prefixed record per event. A record holds the event type, response
+ * time, content and parameters; events of other types are stored with Java
+ * serialisation. When compressed, each record is deflated on its own so the
+ * trace can still be read and skipped one record at a time.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class TraceWriter implements Closeable {
+
+    /**
+     * The first four bytes of a binary trace ("ITRC").
+     */
+    static final int MAGIC = 0x49545243;
+
+    /**
+     * The version of the trace format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Header flag: records are deflated.
+     */
+    static final int FLAG_COMPRESSED = 1;
+
+    /**
+     * Record type of an event stored with Java serialisation.
+     */
+    static final int TYPE_SERIALIZED = 0;
+
+    /**
+     * Record type of a REST event.
+     */
+    static final int TYPE_REST = 1;
+
+    /**
+     * Record type of a COAP event.
+     */
+    static final int TYPE_COAP = 2;
+
+    /**
+     * Record type of an MQTT event.
+     */
+    static final int TYPE_MQTT = 3;
+
+    /**
+     * Record type of a SOAP event.
+     */
+    static final int TYPE_SOAP = 4;
+
+    /**
+     * The length written in place of a null string.
+     */
+    static final int NULL_STRING = -1;
+
+    /**
+     * The number of events written between flushes of the stream.
+     */
+    private static final int FLUSH_INTERVAL = 32;
+
+    /**
+     * The trace stream.
+     */
+    private final transient DataOutputStream output;
+
+    /**
+     * The record compressor; null if the trace is not compressed.
+     */
+    private final transient Deflater deflater;
+
+    /**
+     * Buffer the current record is encoded into.
+     */
+    private final transient ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+    /**
+     * Data view of the record buffer.
+     */
+    private final transient DataOutputStream recordData = new DataOutputStream(record);
+
+    /**
+     * Buffer the current record is compressed into.
+     */
+    private final transient ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+
+    /**
+     * Working space for the compressor.
+     */
+    private final transient byte[] chunk = new byte[4096];
+
+    /**
+     * The number of events written.
+     */
+    private transient long count;
+
+    /**
+     * The number of events written since the last flush.
+     */
+    private transient int unflushed;
+
+    /**
+     * Create a trace file (overwriting any existing file).
+     * @param file The file to write the trace to.
+     * @param compress Whether to deflate the event records.
+     * @throws IOException Error creating the file.
+     */
+    public TraceWriter(final File file, final boolean compress) throws IOException {
+        this(new FileOutputStream(file), compress);
+    }
+
+    /**
+     * Write a trace to an output stream.
+     * @param stream The stream to write the trace to; closed with the writer.
+     * @param compress Whether to deflate the event records.
+     * @throws IOException Error writing the trace header.
+     */
+    public TraceWriter(final OutputStream stream, final boolean compress) throws IOException {
+        this.output = new DataOutputStream(new BufferedOutputStream(stream));
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(compress ? FLAG_COMPRESSED : 0);
+        output.flush();
+    }
+
+    /**
+     * Append an event to the trace. The stream is flushed every few events
+     * so that a partly written trace can still be replayed.
+     * @param event The event to write.
+     * @throws IOException Error writing the event.
+     */
+    public final synchronized void write(final MsgEvent event) throws IOException {
+        record.reset();
+        encode(event, recordData);
+        recordData.flush();
+        if (deflater == null) {
+            output.writeInt(record.size());
+            record.writeTo(output);
+        } else {
+            final byte[] raw = record.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            deflated.reset();
+            while (!deflater.finished()) {
+                final int length = deflater.deflate(chunk);
+                deflated.write(chunk, 0, length);
+            }
+            output.writeInt(deflated.size());
+            output.writeInt(raw.length);
+            deflated.writeTo(output);
+        }
+        count++;
+        if (++unflushed >= FLUSH_INTERVAL) {
+            flush();
+        }
+    }
+
+    /**
+     * Flush the events written so far to the underlying stream.
+     * @throws IOException Error writing to the stream.
+     */
+    public final synchronized void flush() throws IOException {
+        output.flush();
+        unflushed = 0;
+    }
+
+    /**
+     * The number of events written to the trace.
+     * @return The event count.
+     */
+    public final synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Flush and close the trace.
+     * @throws IOException Error writing to the stream.
+     */
+    @Override
+    public final synchronized void close() throws IOException {
+        try {
+            output.close();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Encode an event as a trace record.
+     * @param event The event to encode.
+     * @param out The record to write to.
+     * @throws IOException Error writing the record.
+     */
+    private static void encode(final MsgEvent event, final DataOutputStream out) throws IOException {
+        final int type = typeOf(event);
+        out.writeByte(type);
+        if (type == TYPE_SERIALIZED) {
+            final ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeObject(event);
+            objects.flush();
+            return;
+        }
+        out.writeLong(event.getResponseTime());
+        final Content body = event.getDataBody();
+        out.writeBoolean(body != null);
+        if (body != null) {
+            writeString(out, body.getType());
+            writeString(out, body.getData());
+        }
+        final Map<String, Parameter> params = event.getParameterMap();
+        out.writeInt(params.size());
+        for (Parameter param : params.values()) {
+            writeString(out, param.getName());
+            writeString(out, param.getValue());
+        }
+    }
+
+    /**
+     * The record type of an event. Subclasses of the event types may hold
+     * more data, so they are serialised.
+     * @param event The event.
+     * @return The record type.
+     */
+    private static int typeOf(final MsgEvent event) {
+        final Class eventClass = event.getClass();
+        if (eventClass == RESTEvent.class) {
+            return TYPE_REST;
+        } else if (eventClass == COAPEvent.class) {
+            return TYPE_COAP;
+        } else if (eventClass == MQTTEvent.class) {
+            return TYPE_MQTT;
+        } else if (eventClass == SOAPEvent.class) {
+            return TYPE_SOAP;
+        }
+        return TYPE_SERIALIZED;
+    }
+
+    /**
+     * Write a UTF-8 string of any length, or null.
+     * @param out The record to write to.
+     * @param value The string.
+     * @throws IOException Error writing the record.
+     */
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -27,6 +27,7 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
@@ -61,6 +62,12 @@ public class Transition {
      */
     private transient List<Guard> conditions = new ArrayList();
 
+    /**
+     * The compiled evaluation plans of the guards, in the same order. Null
+     * until compiled.
+     */
+    private transient volatile List<GuardPlan> plans;
+
     /**
      * The rest event where this transition is a message not a guard. The
      * transition cannot be both.
@@ -133,8 +140,9 @@ public class Transition {
      * @param guard The guard rule.
      * @throws InvalidGuardException Error in the guard specification.
      */
-    public final void addGuard(final Guard guard) throws InvalidGuardException {
+    public final synchronized void addGuard(final Guard guard) throws InvalidGuardException {
         this.conditions.add(guard);
+        this.plans = null;
     }
 
     /**
@@ -145,6 +153,32 @@ public class Transition {
         return this.conditions;
     }
 
+    /**
+     * Compile the evaluation plans of the guards on the transition. This is
+     * done when the state machine is created; the plans are compiled on
+     * first use otherwise.
+     */
+    public final synchronized void compileGuards() {
+        final List<GuardPlan> compiled = new ArrayList(this.conditions.size());
+        for (Guard guard : this.conditions) {
+            compiled.add(new GuardPlan(guard));
+        }
+        this.plans = Collections.unmodifiableList(compiled);
+    }
+
+    /**
+     * Get the compiled evaluation plans of the guards on the transition.
+     * @return The (unmodifiable) list of guard plans.
+     */
+    public final List<GuardPlan> listGuardPlans() {
+        List<GuardPlan> compiled = this.plans;
+        if (compiled == null) {
+            compileGuards();
+            compiled = this.plans;
+        }
+        return compiled;
+    }
+
     /**
      * Get a guard with a specific id.
      * @param label The label/id of the guard.
@@ -0,0 +1,281 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Protocol;
+import org.restlet.representation.InputRepresentation;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.Proxy;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+
+/**
+ * Tests of the capture of request and reply bodies by the proxy. The body
+ * must reach the target, or the client, in full while the event holds at
+ * most the capture limit of it.
+ *
+ * @author Paul Grace
+ */
+public class AOPRedirectorCaptureTest {
+
+    /**
+     * The capture limit used by the tests.
+     */
+    private static final int LIMIT = 1024;
+
+    /**
+     * The stub server standing in for the system under test.
+     */
+    private Component stub;
+
+    /**
+     * The proxy in front of the stub server.
+     */
+    private Proxy proxy;
+
+    /**
+     * The port the proxy is listening on.
+     */
+    private int proxyPort;
+
+    /**
+     * Events captured by the proxy, in the order they were pushed.
+     */
+    private final List<MsgEvent> events = Collections.synchronizedList(new ArrayList<MsgEvent>());
+
+    @Before
+    public final void deploy() throws Exception {
+        final int stubPort = SystemProperties.getAvailablePort(9400);
+        stub = new Component();
+        stub.getServers().add(Protocol.HTTP, stubPort);
+        // The stub echoes plain text bodies, and answers other bodies with
+        // the number of bytes it received
+        stub.getDefaultHost().attach("/stub", new Restlet() {
+            @Override
+            public void handle(final Request request, final Response response) {
+                final ByteArrayOutputStream received = new ByteArrayOutputStream();
+                long size = 0;
+                try {
+                    if (request.isEntityAvailable()) {
+                        final InputStream in = request.getEntity().getStream();
+                        final byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            size += read;
+                            received.write(buffer, 0, read);
+                        }
+                    }
+                } catch (Exception ex) {
+                    size = -1;
+                }
+                if (request.isEntityAvailable()
+                        && MediaType.TEXT_PLAIN.equals(request.getEntity().getMediaType(), true)) {
+                    final byte[] echo = received.toByteArray();
+                    final InputRepresentation reply = new InputRepresentation(
+                            new ByteArrayInputStream(echo), MediaType.TEXT_PLAIN, echo.length);
+                    reply.setCharacterSet(CharacterSet.UTF_8);
+                    response.setEntity(reply);
+                } else {
+                    response.setEntity(Long.toString(size), MediaType.TEXT_PLAIN);
+                }
+            }
+        });
+        stub.start();
+
+        proxyPort = SystemProperties.getAvailablePort(stubPort + 1);
+        proxy = new Proxy(new URL("http://localhost:" + stubPort + "/stub"), Protocol.HTTP, proxyPort, new EventCapture() {
+            @Override
+            public void pushEvent(final MsgEvent httpMessage) {
+                events.add(httpMessage);
+            }
+
+            @Override
+            public void logException(final Exception excep) {
+                ServiceLogger.LOG.error("Proxy error", excep);
+            }
+        });
+        proxy.setCaptureLimit(LIMIT);
+        proxy.startup();
+    }
+
+    @After
+    public final void release() throws Exception {
+        proxy.shutdown();
+        stub.stop();
+    }
+
+    /**
+     * A body larger than the capture limit is forwarded in full. The event
+     * holds only its start, unchanged, and records the size of the body.
+     * @throws Exception Error sending the request.
+     */
+    @Test
+    public final void testLargeBodyIsForwardedInFullAndTruncatedInEvent() throws Exception {
+        final byte[] body = new byte[4 * 1024 * 1024];
+        Arrays.fill(body, (byte) 'x');
+        Assert.assertEquals(Integer.toString(body.length), post(body, "application/json"));
+
+        final RESTEvent request = requestEvent();
+        final String content = request.getDataBody().getData();
+        Assert.assertEquals(new String(body, 0, LIMIT, StandardCharsets.UTF_8), content);
+        Assert.assertEquals(content, request.getParameterMap().get("content").getValue());
+        Assert.assertEquals(Integer.toString(body.length),
+                request.getParameterMap().get(RESTEvent.HTTP_CONTENT_TRUNCATED).getValue());
+    }
+
+    /**
+     * A body within the capture limit is not flagged as truncated.
+     * @throws Exception Error sending the request.
+     */
+    @Test
+    public final void testSmallBodyIsNotTruncated() throws Exception {
+        post("{\"a\":1}".getBytes(StandardCharsets.UTF_8), "application/json");
+        final RESTEvent request = requestEvent();
+        Assert.assertEquals("{\"a\":1}", request.getDataBody().getData());
+        Assert.assertNull(request.getParameterMap().get(RESTEvent.HTTP_CONTENT_TRUNCATED));
+        Assert.assertNull(events.get(1).getParameterMap().get(RESTEvent.HTTP_CONTENT_TRUNCATED));
+    }
+
+    /**
+     * A reply body larger than the capture limit reaches the client in full
+     * while its event holds only the start of it.
+     * @throws Exception Error sending the request.
+     */
+    @Test
+    public final void testLargeReplyIsForwardedInFullAndTruncatedInEvent() throws Exception {
+        final byte[] body = new byte[1024 * 1024];
+        Arrays.fill(body, (byte) 'y');
+        Assert.assertEquals(new String(body, StandardCharsets.UTF_8), post(body, "text/plain; charset=UTF-8"));
+
+        requestEvent();
+        final RESTEvent reply = (RESTEvent) events.get(1);
+        Assert.assertEquals(new String(body, 0, LIMIT, StandardCharsets.UTF_8), reply.getDataBody().getData());
+        Assert.assertEquals(Integer.toString(body.length),
+                reply.getParameterMap().get(RESTEvent.HTTP_CONTENT_TRUNCATED).getValue());
+    }
+
+    /**
+     * A body is cut at the last whole character within the capture limit,
+     * not part way through a multi-byte character.
+     * @throws Exception Error sending the request.
+     */
+    @Test
+    public final void testBodyIsCutOnCharacterBoundary() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LIMIT; i++) {
+            // three bytes in UTF-8, so the limit falls inside a character
+            text.append('\u20ac');
+        }
+        final byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(body.length, post(body, "text/plain; charset=UTF-8").length());
+
+        final String start = text.substring(0, LIMIT / 3);
+        Assert.assertEquals(start, requestEvent().getDataBody().getData());
+        Assert.assertEquals(start, ((RESTEvent) events.get(1)).getDataBody().getData());
+    }
+
+    /**
+     * Only url encoded bodies are parsed into form parameters.
+     * @throws Exception Error sending the requests.
+     */
+    @Test
+    public final void testOnlyFormBodiesAreParsed() throws Exception {
+        post("a=1&b=2".getBytes(StandardCharsets.UTF_8), "application/x-www-form-urlencoded");
+        RESTEvent request = requestEvent();
+        Assert.assertEquals("a=1&b=2", request.getDataBody().getData());
+        Assert.assertEquals("1", request.getParameterMap().get("a").getValue());
+        Assert.assertEquals("2", request.getParameterMap().get("b").getValue());
+
+        events.clear();
+        post("{\"a\":\"1&b=2\"}".getBytes(StandardCharsets.UTF_8), "application/json");
+        request = requestEvent();
+        Assert.assertEquals("{\"a\":\"1&b=2\"}", request.getDataBody().getData());
+        Assert.assertNull(request.getParameterMap().get("b"));
+    }
+
+    /**
+     * Post a body through the proxy.
+     * @param body The body to send.
+     * @param contentType The content type of the body.
+     * @return The response body.
+     * @throws Exception Error sending the request.
+     */
+    private String post(final byte[] body, final String contentType) throws Exception {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(
+                "http://localhost:" + proxyPort + "/stub").openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", contentType);
+        conn.setFixedLengthStreamingMode(body.length);
+        final OutputStream out = conn.getOutputStream();
+        out.write(body);
+        out.close();
+        Assert.assertEquals(200, conn.getResponseCode());
+        final InputStream in = conn.getInputStream();
+        final StringBuilder reply = new StringBuilder();
+        int read;
+        while ((read = in.read()) != -1) {
+            reply.append((char) read);
+        }
+        in.close();
+        return reply.toString();
+    }
+
+    /**
+     * The request event of the last exchange.
+     * @return The captured request event.
+     */
+    private RESTEvent requestEvent() {
+        Assert.assertEquals(2, events.size());
+        final RESTEvent request = (RESTEvent) events.get(0);
+        Assert.assertEquals("POST", request.getParameterMap().get(RESTEvent.HTTP_MSG).getValue());
+        return request;
+    }
+}
@@ -0,0 +1,272 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Protocol;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.Proxy;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+
+/**
+ * Benchmark of the overhead the proxy adds to each request. The latency of
+ * requests sent straight to a local stub server is compared with requests
+ * sent through a proxy with event capture off, with capture of the headers
+ * only (the state machine does not use content) and with full capture. The
+ * p50 and p99 overhead per request is logged for each.
+ *
+ * @author Paul Grace
+ */
+public class AOPRedirectorOverheadTest {
+
+    /**
+     * Number of requests sent before measuring.
+     */
+    private static final int WARMUP = 200;
+
+    /**
+     * Number of requests measured.
+     */
+    private static final int REQUESTS = 1000;
+
+    /**
+     * The body returned by the stub server.
+     */
+    private static final String BODY;
+
+    static {
+        final char[] value = new char[1024];
+        Arrays.fill(value, 'x');
+        BODY = "{\"value\":\"" + new String(value) + "\"}";
+    }
+
+    /**
+     * The stub server standing in for the system under test.
+     */
+    private Component stub;
+
+    /**
+     * The port of the stub server.
+     */
+    private int stubPort;
+
+    /**
+     * The proxies started by the test.
+     */
+    private final List<Proxy> proxies = new ArrayList();
+
+    /**
+     * Events captured by the proxies.
+     */
+    private final List<MsgEvent> events = Collections.synchronizedList(new ArrayList<MsgEvent>());
+
+    @Before
+    public final void deploy() throws Exception {
+        stubPort = SystemProperties.getAvailablePort(9500);
+        stub = new Component();
+        stub.getServers().add(Protocol.HTTP, stubPort);
+        stub.getDefaultHost().attach("/stub", new Restlet() {
+            @Override
+            public void handle(final Request request, final Response response) {
+                response.setEntity(BODY, MediaType.APPLICATION_JSON);
+            }
+        });
+        stub.start();
+    }
+
+    @After
+    public final void release() throws Exception {
+        for (Proxy proxy : proxies) {
+            proxy.shutdown();
+        }
+        stub.stop();
+    }
+
+    /**
+     * Measure the proxy overhead with capture off, headers only and full.
+     * Every captured reply must carry its response time, and its body only
+     * when the state machine uses content.
+     * @throws Exception Error sending the requests.
+     */
+    @Test
+    public final void testOverheadPerRequest() throws Exception {
+        final long[] direct = measure(stubPort);
+        final long[] off = measure(startProxy(null));
+        final long[] headers = measure(startProxy(new Capture(false)));
+        Assert.assertEquals((WARMUP + REQUESTS) * 2, events.size());
+        checkReplies(false);
+
+        events.clear();
+        final long[] full = measure(startProxy(new Capture(true)));
+        Assert.assertEquals((WARMUP + REQUESTS) * 2, events.size());
+        checkReplies(true);
+
+        ServiceLogger.LOG.info("Direct request latency: p50 " + micros(direct, 50) + "us, p99 " + micros(direct, 99) + "us");
+        report("capture off", direct, off);
+        report("capture headers only", direct, headers);
+        report("capture on", direct, full);
+    }
+
+    /**
+     * Check the reply events captured.
+     * @param content Whether the replies must hold the body.
+     */
+    private void checkReplies(final boolean content) {
+        for (MsgEvent event : events) {
+            if (!event.getParameterMap().get(RESTEvent.HTTP_MSG).getValue().equalsIgnoreCase(MsgEvent.REPLY_LABEL)) {
+                continue;
+            }
+            Assert.assertEquals("200", event.getParameterMap().get(RESTEvent.HTTP_CODE).getValue());
+            Assert.assertNotNull(event.getParameterMap().get(RESTEvent.RESPONSE_TIME));
+            Assert.assertEquals("application/json", event.getParameterMap().get("http.content-type").getValue());
+            if (content) {
+                Assert.assertEquals(BODY, event.getDataBody().getData());
+            } else {
+                Assert.assertNull(event.getDataBody());
+            }
+        }
+    }
+
+    /**
+     * Start a proxy in front of the stub server.
+     * @param capture The event capture interface, or null for no capture.
+     * @return The port of the proxy.
+     * @throws Exception Error starting the proxy.
+     */
+    private int startProxy(final EventCapture capture) throws Exception {
+        final int port = SystemProperties.getAvailablePort(stubPort + 1 + proxies.size());
+        final Proxy proxy = new Proxy(new URL("http://localhost:" + stubPort + "/stub"), Protocol.HTTP, port, capture);
+        proxy.startup();
+        proxies.add(proxy);
+        return port;
+    }
+
+    /**
+     * Send requests one at a time and record the latency of each.
+     * @param port The port to send them to.
+     * @return The sorted latencies in nanoseconds.
+     * @throws Exception Error sending a request.
+     */
+    private long[] measure(final int port) throws Exception {
+        final URL url = new URL("http://localhost:" + port + "/stub");
+        final long[] latencies = new long[REQUESTS];
+        for (int i = 0; i < WARMUP + REQUESTS; i++) {
+            final long start = System.nanoTime();
+            final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(200, conn.getResponseCode());
+            final InputStream in = conn.getInputStream();
+            final byte[] buffer = new byte[4096];
+            int size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += read;
+            }
+            in.close();
+            Assert.assertEquals(BODY.length(), size);
+            if (i >= WARMUP) {
+                latencies[i - WARMUP] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * A percentile of sorted latencies in microseconds.
+     * @param latencies The sorted latencies in nanoseconds.
+     * @param percentile The percentile.
+     * @return The latency at the percentile.
+     */
+    private static long micros(final long[] latencies, final int percentile) {
+        final int index = Math.min(latencies.length - 1, latencies.length * percentile / 100);
+        return latencies[index] / 1000;
+    }
+
+    /**
+     * Log the overhead of the proxy over direct requests.
+     * @param mode The capture mode measured.
+     * @param direct The direct latencies.
+     * @param proxied The latencies through the proxy.
+     */
+    private static void report(final String mode, final long[] direct, final long[] proxied) {
+        ServiceLogger.LOG.info("Proxy overhead (" + mode + "): p50 "
+                + (micros(proxied, 50) - micros(direct, 50)) + "us, p99 "
+                + (micros(proxied, 99) - micros(direct, 99)) + "us per request");
+    }
+
+    /**
+     * Event capture that stores the events pushed to it.
+     */
+    private final class Capture implements EventCapture {
+
+        /**
+         * Whether the events must carry content.
+         */
+        private final boolean content;
+
+        /**
+         * Create the capture.
+         * @param useContent Whether the events must carry content.
+         */
+        Capture(final boolean useContent) {
+            this.content = useContent;
+        }
+
+        @Override
+        public void pushEvent(final MsgEvent httpMessage) {
+            events.add(httpMessage);
+        }
+
+        @Override
+        public void logException(final Exception excep) {
+            ServiceLogger.LOG.error("Proxy error", excep);
+        }
+
+        @Override
+        public boolean requiresContent() {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Protocol;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.Proxy;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+
+/**
+ * Benchmark of the proxy redirect path. A local stub server answers each
+ * request after a fixed delay; the throughput through the proxy is measured
+ * for an increasing number of client threads with the concurrent redirect
+ * mode switched on. The throughput figures are logged; the test checks that
+ * the exchanges of the client threads overlap in the proxy.
+ *
+ * @author Paul Grace
+ */
+public class AOPRedirectorThroughputTest {
+
+    /**
+     * Time the stub server takes to answer a request.
+     */
+    private static final long STUB_DELAY = 20;
+
+    /**
+     * Number of requests sent for each measurement.
+     */
+    private static final int REQUESTS = 64;
+
+    /**
+     * The stub server standing in for the system under test.
+     */
+    private Component stub;
+
+    /**
+     * The proxy in front of the stub server.
+     */
+    private Proxy proxy;
+
+    /**
+     * The port the proxy is listening on.
+     */
+    private int proxyPort;
+
+    /**
+     * Events captured by the proxy, in the order they were pushed.
+     */
+    private final List<MsgEvent> events = Collections.synchronizedList(new ArrayList<MsgEvent>());
+
+    /**
+     * Requests being answered by the stub server.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * The most requests the stub server answered at the same time.
+     */
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    @Before
+    public final void deploy() throws Exception {
+        final int stubPort = SystemProperties.getAvailablePort(9300);
+        stub = new Component();
+        stub.getServers().add(Protocol.HTTP, stubPort);
+        stub.getDefaultHost().attach("/stub", new Restlet() {
+            @Override
+            public void handle(final Request request, final Response response) {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(STUB_DELAY);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    active.decrementAndGet();
+                }
+                response.setEntity("ok", MediaType.TEXT_PLAIN);
+            }
+        });
+        stub.start();
+
+        proxyPort = SystemProperties.getAvailablePort(stubPort + 1);
+        proxy = new Proxy(new URL("http://localhost:" + stubPort + "/stub"), Protocol.HTTP, proxyPort, new EventCapture() {
+            @Override
+            public void pushEvent(final MsgEvent httpMessage) {
+                events.add(httpMessage);
+            }
+
+            @Override
+            public void logException(final Exception excep) {
+                ServiceLogger.LOG.error("Proxy error", excep);
+            }
+        });
+        proxy.setConcurrent(true);
+        proxy.startup();
+    }
+
+    @After
+    public final void release() throws Exception {
+        proxy.shutdown();
+        stub.stop();
+    }
+
+    /**
+     * The exchanges of concurrent client threads overlap in the proxy, and
+     * every exchange still produces its request and reply event, in order.
+     * The throughput for one and for eight client threads is logged.
+     * @throws Exception Error running the clients.
+     */
+    @Test
+    public final void testClientThreadsOverlap() throws Exception {
+        final double single = measure(1);
+        maxActive.set(0);
+        final double multi = measure(8);
+        ServiceLogger.LOG.info("Proxy throughput: 1 thread " + single + " req/s, 8 threads " + multi
+                + " req/s, ratio " + (multi / single) + ", most concurrent exchanges " + maxActive.get());
+        Assert.assertTrue("Concurrent redirect mode does not overlap the client exchanges", maxActive.get() > 1);
+
+        // the last events may still be pushed by another proxy thread
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (events.size() < REQUESTS * 2 * 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(REQUESTS * 2 * 2, events.size());
+        int requests = 0;
+        for (MsgEvent event : events) {
+            if (event.getParameterMap().get(RESTEvent.HTTP_MSG).getValue().equalsIgnoreCase(MsgEvent.REPLY_LABEL)) {
+                requests--;
+            } else {
+                requests++;
+            }
+            Assert.assertTrue("Reply event delivered before its request", requests >= 0);
+        }
+    }
+
+    /**
+     * Send a fixed number of requests through the proxy.
+     * @param threads The number of client threads to send them from.
+     * @return The requests per second achieved.
+     * @throws Exception Error running the clients.
+     */
+    private double measure(final int threads) throws Exception {
+        final ExecutorService clients = Executors.newFixedThreadPool(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        final long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            clients.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final HttpURLConnection conn = (HttpURLConnection) new URL(
+                                "http://localhost:" + proxyPort + "/stub").openConnection();
+                        if (conn.getResponseCode() != 200) {
+                            failures.incrementAndGet();
+                        }
+                        final InputStream in = conn.getInputStream();
+                        while (in.read() != -1) {
+                            // drain the response
+                        }
+                        in.close();
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(2, TimeUnit.MINUTES);
+        final long elapsed = System.nanoTime() - start;
+        Assert.assertEquals("Requests failed through the proxy", 0, failures.get());
+        return REQUESTS / (elapsed / 1e9);
+    }
+}
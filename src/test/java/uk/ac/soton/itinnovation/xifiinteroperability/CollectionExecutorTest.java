@@ -0,0 +1,148 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CollectionExecutor;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CollectionSummary;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.PatternExecutor;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.PatternResult;
+
+/**
+ * Tests the scheduling of a collection run by the CollectionExecutor: tests
+ * referencing the data of other tests wait for them, and the results are
+ * reported as they are produced. The patterns used are not valid, so each
+ * test finishes straight away with an error result.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class CollectionExecutorTest {
+
+    /**
+     * A (non valid) pattern referencing pattern data of other tests.
+     * @param referenced The identifiers of the referenced tests.
+     * @return The pattern text.
+     */
+    private static String pattern(final String... referenced) {
+        final StringBuilder xml = new StringBuilder("<pattern>");
+        for (String test : referenced) {
+            xml.append("<ref>$$test.").append(test).append(".patterndata.value$$</ref>");
+        }
+        return xml.append("</pattern>").toString();
+    }
+
+    /**
+     * Run a collection, recording the order the tests finish in.
+     * @param tests The tests of the collection.
+     * @param finished The list to record the test names in.
+     * @return The results of the run.
+     */
+    private static List<PatternResult> run(final Map<String, String> tests, final List<String> finished) {
+        final PatternExecutor executor = new PatternExecutor(null, 0);
+        try {
+            return new CollectionExecutor(executor, 4).execute(tests,
+                    (result, completed, total) -> finished.add(result.getName()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The references to other tests are found in a pattern.
+     */
+    @Test
+    public final void testReferencedTests() {
+        final Set<String> referenced = CollectionExecutor.getReferencedTests(
+                "<a>$$test.first.patterndata.id$$</a><b>$$test.second.A1.headers|Host$$</b><c>$$patterndata.x$$</c>");
+        Assert.assertEquals(2, referenced.size());
+        Assert.assertTrue(referenced.contains("first"));
+        Assert.assertTrue(referenced.contains("second"));
+    }
+
+    /**
+     * Tests wait for the tests they reference; results are returned in
+     * collection order.
+     */
+    @Test
+    public final void testDependencyOrder() {
+        final Map<String, String> tests = new LinkedHashMap();
+        tests.put("a.xml", pattern("b"));
+        tests.put("b.xml", pattern());
+        tests.put("c.xml", pattern("a", "outside"));
+        tests.put("d.xml", pattern());
+        final List<String> finished = Collections.synchronizedList(new ArrayList());
+        final List<PatternResult> results = run(tests, finished);
+
+        Assert.assertEquals(4, finished.size());
+        Assert.assertTrue(finished.indexOf("b.xml") < finished.indexOf("a.xml"));
+        Assert.assertTrue(finished.indexOf("a.xml") < finished.indexOf("c.xml"));
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals("a.xml", results.get(0).getName());
+        Assert.assertEquals("d.xml", results.get(3).getName());
+        for (PatternResult result : results) {
+            Assert.assertFalse(result.isSuccess());
+            Assert.assertNotNull(result.getError());
+        }
+    }
+
+    /**
+     * Tests referencing each other are still run.
+     */
+    @Test
+    public final void testCircularReferences() {
+        final Map<String, String> tests = new LinkedHashMap();
+        tests.put("a.xml", pattern("b"));
+        tests.put("b.xml", pattern("a"));
+        tests.put("c.xml", pattern("c"));
+        final List<String> finished = Collections.synchronizedList(new ArrayList());
+        Assert.assertEquals(3, run(tests, finished).size());
+        Assert.assertEquals(3, finished.size());
+    }
+
+    /**
+     * The summary report is built as each result is reported.
+     */
+    @Test
+    public final void testSummary() {
+        final CollectionSummary summary = new CollectionSummary();
+        summary.testCompleted(new PatternResult("a.xml", true, false, "[]", "", null, 5), 1, 2);
+        Assert.assertTrue(summary.getText().contains("Test identifier - a.xml"));
+        summary.testCompleted(new PatternResult("b.xml", false, true, "[]", "", null, 5), 2, 2);
+        summary.finish();
+        Assert.assertEquals(1, summary.getFailures());
+        Assert.assertTrue(summary.getText().contains("2 tests were executed with 1 failure detected"));
+    }
+}
@@ -0,0 +1,142 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Architecture;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.MultiTestsExecutionManager;
+
+/**
+ * Tests that the proxies of a pattern capture message content only when the
+ * pattern, or a test referencing its data, can read it. The architectures
+ * are built as the PatternExecutor builds them: the references of the
+ * pattern are given to the test data store first.
+ *
+ * @author Paul Grace
+ */
+public class ContentCaptureTest {
+
+    /**
+     * A guard of a header only pattern.
+     */
+    private static final String HEADER_GUARD = "<equal><param>http.content-type</param><value>application/json</value></equal>";
+
+    /**
+     * A pattern triggering a call to the interface and checking the reply.
+     * @param guard The guard applied to the reply, besides the status code.
+     * @return The pattern text.
+     */
+    private static String pattern(final String guard) {
+        return "<?xml version=\"1.0\"?><pattern><architecture><component><id>service</id>"
+                + "<address>127.0.0.1</address><interface><id>rest</id>"
+                + "<url>http://127.0.0.1:8080/api</url><protocol>http</protocol></interface>"
+                + "</component></architecture><behaviour>"
+                + "<state><label>A1</label><type>triggerstart</type><transition><to>A2</to><message>"
+                + "<url>component.service.rest</url><path>/data</path><method>GET</method><type>JSON</type>"
+                + "<headers><header><name>Accept</name><value>application/json</value></header></headers>"
+                + "<body></body></message></transition></state>"
+                + "<state><label>A2</label><type>normal</type><transition><to>A3</to><guards>"
+                + "<equal><param>http.code</param><value>200</value></equal>" + guard
+                + "</guards></transition></state>"
+                + "<state><label>A3</label><type>end</type><success>true</success><report>Success</report></state>"
+                + "</behaviour></pattern>";
+    }
+
+    /**
+     * Build the architecture of a pattern as the PatternExecutor does, and
+     * check whether its events must carry content.
+     * @param store The test data store shared by the patterns.
+     * @param name The test name.
+     * @param xml The pattern specification.
+     * @return Whether the state machine requires content.
+     * @throws Exception Error building the architecture.
+     */
+    private static boolean requiresContent(final MultiTestsExecutionManager store, final String name,
+            final String xml) throws Exception {
+        store.addReferences(xml);
+        final Architecture arch = new Architecture(xml, new InteroperabilityReport(), false, null, store, name);
+        try {
+            return arch.getStateMachine().requiresContent();
+        } finally {
+            arch.cleanup();
+        }
+    }
+
+    /**
+     * A pattern whose guards read headers only does not capture content,
+     * although it is run with a test data store.
+     * @throws Exception Error building the architecture.
+     */
+    @Test
+    public final void testHeaderOnlyPatternCapturesNoContent() throws Exception {
+        final MultiTestsExecutionManager store = MultiTestsExecutionManager.fromProperties();
+        try {
+            Assert.assertFalse(requiresContent(store, "headers", pattern(HEADER_GUARD)));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Content and form field guards need the content.
+     * @throws Exception Error building the architectures.
+     */
+    @Test
+    public final void testContentGuardsCaptureContent() throws Exception {
+        final MultiTestsExecutionManager store = MultiTestsExecutionManager.fromProperties();
+        try {
+            Assert.assertTrue(requiresContent(store, "json",
+                    pattern("<equal><param>content[$.name]</param><value>x</value></equal>")));
+            Assert.assertTrue(requiresContent(store, "form",
+                    pattern("<equal><param>name</param><value>x</value></equal>")));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * A header only pattern captures content once a known test references
+     * the content it stores.
+     * @throws Exception Error building the architecture.
+     */
+    @Test
+    public final void testReferencedTestCapturesContent() throws Exception {
+        final MultiTestsExecutionManager store = MultiTestsExecutionManager.fromProperties();
+        try {
+            store.addReferences(pattern("<equal><param>http.etag</param>"
+                    + "<value>$$test.headers.A2.content|$.etag$$</value></equal>"));
+            Assert.assertTrue(requiresContent(store, "headers.xml", pattern(HEADER_GUARD)));
+            Assert.assertFalse(requiresContent(store, "other", pattern(HEADER_GUARD)));
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.EventQueue;
+
+/**
+ * Tests the overflow policies and counters of the state machine event queue.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventQueueTest {
+
+    /**
+     * The number of events held in memory by the tested queues.
+     */
+    private static final int CAPACITY = 4;
+
+    /**
+     * Create a test event; the response time field is used as its number.
+     * @param number The number of the event.
+     * @return The event.
+     */
+    private static MsgEvent event(final int number) {
+        final RESTEvent event = new RESTEvent();
+        event.setResponseTime(number);
+        return event;
+    }
+
+    /**
+     * A blocking queue refuses events beyond its capacity without blocking
+     * an offer, and times out a timed offer.
+     * @throws InterruptedException Test interrupted.
+     */
+    @Test
+    public final void testBlock() throws InterruptedException {
+        final EventQueue queue = new EventQueue(CAPACITY, EventQueue.OverflowPolicy.BLOCK);
+        for (int i = 0; i < CAPACITY; i++) {
+            Assert.assertTrue(queue.offer(event(i)));
+        }
+        Assert.assertFalse(queue.offer(event(CAPACITY)));
+        Assert.assertFalse(queue.offer(event(CAPACITY), 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertEquals(0, queue.take().getResponseTime());
+        Assert.assertTrue(queue.offer(event(CAPACITY)));
+        Assert.assertEquals(CAPACITY, queue.getHighWaterMark());
+        Assert.assertEquals(0, queue.getDropped());
+    }
+
+    /**
+     * A drop-oldest queue never blocks; the oldest events are dropped,
+     * returned and counted.
+     * @throws InterruptedException Test interrupted.
+     */
+    @Test
+    public final void testDropOldest() throws InterruptedException {
+        final EventQueue queue = new EventQueue(CAPACITY, EventQueue.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < CAPACITY; i++) {
+            Assert.assertNull(queue.putEvent(event(i)));
+        }
+        Assert.assertEquals(0, queue.putEvent(event(CAPACITY)).getResponseTime());
+        queue.put(event(CAPACITY + 1));
+        Assert.assertEquals(2, queue.getDropped());
+        Assert.assertEquals(CAPACITY, queue.size());
+        for (int i = 2; i < CAPACITY + 2; i++) {
+            Assert.assertEquals(i, queue.poll(1, TimeUnit.SECONDS).getResponseTime());
+        }
+        Assert.assertNull(queue.poll());
+    }
+
+    /**
+     * A spilling queue keeps every event, in order, reading spilled events
+     * back from disk as room becomes available.
+     * @throws InterruptedException Test interrupted.
+     */
+    @Test
+    public final void testSpill() throws InterruptedException {
+        final int total = 100;
+        final EventQueue queue = new EventQueue(CAPACITY, EventQueue.OverflowPolicy.SPILL);
+        for (int i = 0; i < total / 2; i++) {
+            queue.put(event(i));
+        }
+        Assert.assertEquals(total / 2, queue.size());
+        int next = 0;
+        for (; next < CAPACITY; next++) {
+            Assert.assertEquals(next, queue.take().getResponseTime());
+        }
+        for (int i = total / 2; i < total; i++) {
+            queue.put(event(i));
+        }
+        for (; next < total; next++) {
+            Assert.assertEquals(next, queue.take().getResponseTime());
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(total - CAPACITY, queue.getSpilled());
+        Assert.assertEquals(0, queue.getDropped());
+        Assert.assertEquals(total - CAPACITY, queue.getHighWaterMark());
+
+        // The spill file is emptied and reused once drained
+        for (int i = 0; i < 2 * CAPACITY; i++) {
+            queue.put(event(i));
+        }
+        for (int i = 0; i < 2 * CAPACITY; i++) {
+            Assert.assertEquals(i, queue.take().getResponseTime());
+        }
+        queue.close();
+    }
+}
@@ -0,0 +1,152 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.EventSequencer;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+
+/**
+ * Tests that the event sequencer pushes events in sequence order when the
+ * positions are completed by many threads, without holding its lock while
+ * the event capture runs.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventSequencerTest {
+
+    /**
+     * Events completed by concurrent threads are pushed in sequence order,
+     * outside of the sequencer's lock.
+     * @throws InterruptedException Interrupted waiting for the threads.
+     */
+    @Test
+    public final void testConcurrentCompletion() throws InterruptedException {
+        final int count = 10000;
+        final List<MsgEvent> created = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            created.add(new RESTEvent());
+        }
+        final List<MsgEvent> pushed = Collections.synchronizedList(new ArrayList<MsgEvent>());
+        final AtomicBoolean underLock = new AtomicBoolean();
+        final EventSequencer[] sequencer = new EventSequencer[1];
+        sequencer[0] = new EventSequencer(new EventCapture() {
+            @Override
+            public void pushEvent(final MsgEvent event) {
+                if (Thread.holdsLock(sequencer[0])) {
+                    underLock.set(true);
+                }
+                pushed.add(event);
+            }
+
+            @Override
+            public void logException(final Exception excep) {
+                ServiceLogger.LOG.error("Capture error", excep);
+            }
+        });
+
+        final ExecutorService threads = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < count; i++) {
+            threads.execute(() -> {
+                final long sequence = sequencer[0].nextSequence();
+                // every other position produces no event
+                sequencer[0].complete(sequence, sequence % 2 == 0 ? created.get((int) sequence) : null);
+            });
+        }
+        threads.shutdown();
+        Assert.assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+
+        Assert.assertFalse("Event pushed while holding the sequencer lock", underLock.get());
+        Assert.assertEquals(0, sequencer[0].pending());
+        Assert.assertEquals(count / 2, pushed.size());
+        for (int i = 0; i < pushed.size(); i++) {
+            Assert.assertSame(created.get(i * 2), pushed.get(i));
+        }
+    }
+
+    /**
+     * When the event capture fails, the events released after the failed one
+     * are not lost; the next completion pushes them, still in order.
+     */
+    @Test
+    public final void testFailedPushKeepsLaterEvents() {
+        final List<MsgEvent> created = new ArrayList();
+        for (int i = 0; i < 5; i++) {
+            created.add(new RESTEvent());
+        }
+        final List<MsgEvent> pushed = new ArrayList();
+        final EventSequencer sequencer = new EventSequencer(new EventCapture() {
+            @Override
+            public void pushEvent(final MsgEvent event) {
+                if (event == created.get(1)) {
+                    throw new IllegalStateException("Capture failed");
+                }
+                pushed.add(event);
+            }
+
+            @Override
+            public void logException(final Exception excep) {
+                ServiceLogger.LOG.error("Capture error", excep);
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(i, sequencer.nextSequence());
+        }
+        // positions 1 to 3 are held back until position 0 completes
+        for (int i = 1; i < 4; i++) {
+            sequencer.complete(i, created.get(i));
+        }
+        try {
+            sequencer.complete(0, created.get(0));
+            Assert.fail("Expected the capture failure");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("Capture failed", ex.getMessage());
+        }
+        Assert.assertEquals(1, pushed.size());
+        Assert.assertSame(created.get(0), pushed.get(0));
+
+        sequencer.complete(4, created.get(4));
+        Assert.assertEquals(4, pushed.size());
+        Assert.assertSame(created.get(2), pushed.get(1));
+        Assert.assertSame(created.get(3), pushed.get(2));
+        Assert.assertSame(created.get(4), pushed.get(3));
+        Assert.assertEquals(0, sequencer.pending());
+    }
+}
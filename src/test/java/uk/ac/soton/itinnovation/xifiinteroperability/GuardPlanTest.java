@@ -0,0 +1,227 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidGuard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.GuardPlan;
+
+/**
+ * Tests of the compiled evaluation plans of guards: the target and source
+ * of every kind of guard label and value, the content paths and counter
+ * slots, and evaluating constant and referenced comparison values.
+ *
+ * @author Paul Grace
+ */
+public class GuardPlanTest {
+
+    /**
+     * The guard labels and types of each target: label, comparison type,
+     * expected target, expected content path (null if not a content guard).
+     */
+    private static final Object[][] TARGETS = {
+        {"http.code", Guard.ComparisonType.EQUALS, GuardPlan.Target.PARAMETER, null},
+        {"http.content-type", Guard.ComparisonType.CONTAINS, GuardPlan.Target.PARAMETERS, null},
+        {"content[$.id]", Guard.ComparisonType.EQUALS, GuardPlan.Target.CONTENT, "$.id"},
+        {"content[$.items]", Guard.ComparisonType.CONTAINS, GuardPlan.Target.CONTENT, "$.items"},
+        {"jsoncontent[$.id]", Guard.ComparisonType.EQUALS, GuardPlan.Target.JSON_CONTENT, "$.id"},
+        {"jsoncontent[$.items]", Guard.ComparisonType.CONTAINS, GuardPlan.Target.JSON_CONTENT, "$.items"},
+        {"xmlcontent[//id]", Guard.ComparisonType.EQUALS, GuardPlan.Target.XML_CONTENT, "//id"},
+    };
+
+    /**
+     * The guard values of each source: value, expected source, expected
+     * compare value of the plan.
+     */
+    private static final Object[][] SOURCES = {
+        {"200", GuardPlan.Source.CONSTANT, "200"},
+        {"$$patterndata.id$$", GuardPlan.Source.DATA, "id"},
+        {"$$test.previous.http.code$$", GuardPlan.Source.TEST, "$$test.previous.http.code$$"},
+        {"$$a1|http.code|$$", GuardPlan.Source.STATE, "$$a1|http.code|$$"},
+    };
+
+    /**
+     * Compile the plan of a guard.
+     * @param label The guard label.
+     * @param type The comparison type.
+     * @param value The guard value.
+     * @return The plan.
+     * @throws InvalidGuard Error creating the guard.
+     */
+    private static GuardPlan plan(final String label, final Guard.ComparisonType type, final String value)
+            throws InvalidGuard {
+        final Class dataType = type == Guard.ComparisonType.CONTAINS ? Map.class : String.class;
+        return new GuardPlan(new Guard(label, dataType, type, value, null));
+    }
+
+    /**
+     * Every target is recognised with every source of the value, and the
+     * guard itself is left unchanged.
+     * @throws InvalidGuard Error creating a guard.
+     */
+    @Test
+    public final void testTargetsAndSources() throws InvalidGuard {
+        for (Object[] target : TARGETS) {
+            for (Object[] source : SOURCES) {
+                final String label = (String) target[0];
+                final String value = (String) source[0];
+                final GuardPlan plan = plan(label, (Guard.ComparisonType) target[1], value);
+                final String combination = label + " / " + value;
+
+                Assert.assertEquals(combination, target[2], plan.getTarget());
+                Assert.assertEquals(combination, target[3] != null, plan.isContent());
+                if (plan.isContent()) {
+                    Assert.assertEquals(combination, target[3], plan.getPath(plan.getLabel(0)));
+                }
+                Assert.assertNull(combination, plan.getCounterState());
+                Assert.assertEquals(combination, source[1], plan.getSource());
+                Assert.assertEquals(combination, source[2], plan.getCompare());
+                Assert.assertEquals(combination, label, plan.getGuard().getGuardLabel());
+                Assert.assertEquals(combination, value, plan.getGuard().getGuardCompare());
+            }
+        }
+    }
+
+    /**
+     * An equality guard on json content is reported as a content guard;
+     * a contains guard keeps its label.
+     * @throws InvalidGuard Error creating a guard.
+     */
+    @Test
+    public final void testJsonContentLabel() throws InvalidGuard {
+        Assert.assertEquals("content[$.id]", plan("jsoncontent[$.id]", Guard.ComparisonType.EQUALS, "1").getLabel(0));
+        Assert.assertEquals("jsoncontent[$.items]",
+                plan("jsoncontent[$.items]", Guard.ComparisonType.CONTAINS, "a").getLabel(0));
+        Assert.assertEquals("http.code", plan("http.code", Guard.ComparisonType.EQUALS, "200").getLabel(0));
+    }
+
+    /**
+     * The counter slot of a label is filled with the loop counter, and the
+     * content path is taken from the filled label.
+     * @throws InvalidGuard Error creating a guard.
+     */
+    @Test
+    public final void testCounterSlot() throws InvalidGuard {
+        final GuardPlan content = plan("content[$.items[%counter.a2%].id]", Guard.ComparisonType.EQUALS, "1");
+        Assert.assertEquals(GuardPlan.Target.CONTENT, content.getTarget());
+        Assert.assertEquals("a2", content.getCounterState());
+        Assert.assertEquals("content[$.items[3].id]", content.getLabel(3));
+        Assert.assertEquals("$.items[3].id", content.getPath(content.getLabel(3)));
+        Assert.assertEquals("$.items[0].id", content.getPath(content.getLabel(0)));
+
+        final GuardPlan parameter = plan("http.item%counter.a2%.code", Guard.ComparisonType.EQUALS, "1");
+        Assert.assertEquals(GuardPlan.Target.PARAMETER, parameter.getTarget());
+        Assert.assertEquals("http.item5.code", parameter.getLabel(5));
+    }
+
+    /**
+     * A pattern data reference without a data id has no compare value.
+     * @throws InvalidGuard Error creating a guard.
+     */
+    @Test
+    public final void testInvalidDataReference() throws InvalidGuard {
+        final GuardPlan plan = plan("http.code", Guard.ComparisonType.EQUALS, "$$patterndata$$");
+        Assert.assertEquals(GuardPlan.Source.DATA, plan.getSource());
+        Assert.assertNull(plan.getCompare());
+    }
+
+    /**
+     * A constant value is evaluated with its precompiled regex or number.
+     * @throws Exception Error creating or evaluating a guard.
+     */
+    @Test
+    public final void testConstantEvaluation() throws Exception {
+        final GuardPlan regex = plan("http.code", Guard.ComparisonType.REGEX, "2\\d\\d");
+        Assert.assertTrue(regex.evaluate("204", regex.getCompare()));
+        Assert.assertFalse(regex.evaluate("404", regex.getCompare()));
+
+        final GuardPlan less = plan("content[$.value]", Guard.ComparisonType.LESSTHAN, "10");
+        Assert.assertTrue(less.evaluate("9.5", less.getCompare()));
+        Assert.assertFalse(less.evaluate("10", less.getCompare()));
+        Assert.assertFalse(less.evaluate("not a number", less.getCompare()));
+
+        final GuardPlan greater = plan("xmlcontent[//value]", Guard.ComparisonType.GREATERTHAN, "10");
+        Assert.assertTrue(greater.evaluate("11", greater.getCompare()));
+        Assert.assertFalse(greater.evaluate("10", greater.getCompare()));
+
+        final GuardPlan equals = plan("http.code", Guard.ComparisonType.EQUALS, "OK");
+        Assert.assertTrue(equals.evaluate("ok", equals.getCompare()));
+        final GuardPlan notEquals = plan("http.code", Guard.ComparisonType.NOTEQUALS, "OK");
+        Assert.assertFalse(notEquals.evaluate("ok", notEquals.getCompare()));
+    }
+
+    /**
+     * A referenced value is evaluated against the value it resolves to, so
+     * the same plan gives the result of each resolved value.
+     * @throws Exception Error creating or evaluating a guard.
+     */
+    @Test
+    public final void testReferenceEvaluation() throws Exception {
+        final GuardPlan regex = plan("http.code", Guard.ComparisonType.REGEX, "$$patterndata.codes$$");
+        Assert.assertTrue(regex.evaluate("204", "2\\d\\d"));
+        Assert.assertFalse(regex.evaluate("204", "4\\d\\d"));
+
+        final GuardPlan less = plan("content[$.value]", Guard.ComparisonType.LESSTHAN, "$$test.previous.value$$");
+        Assert.assertTrue(less.evaluate("5", "10"));
+        Assert.assertFalse(less.evaluate("5", "1"));
+
+        final GuardPlan greater = plan("content[$.value]", Guard.ComparisonType.GREATERTHAN, "$$a1|content|$.value$$");
+        Assert.assertTrue(greater.evaluate("5", "1"));
+        Assert.assertFalse(greater.evaluate("5", "10"));
+
+        final GuardPlan equals = plan("http.code", Guard.ComparisonType.EQUALS, "$$a1|http.code|$$");
+        Assert.assertTrue(equals.evaluate("200", "200"));
+        Assert.assertFalse(equals.evaluate("200", "404"));
+        Assert.assertEquals("$$a1|http.code|$$", equals.getGuard().getGuardCompare());
+    }
+
+    /**
+     * A contains guard on the event parameters checks the parameter names,
+     * for a constant or a referenced name.
+     * @throws Exception Error creating or evaluating a guard.
+     */
+    @Test
+    public final void testParametersEvaluation() throws Exception {
+        final Map<String, Parameter> parameters = new HashMap();
+        parameters.put("http.content-type", new Parameter("http.content-type", "application/json"));
+
+        final GuardPlan constant = plan("http.headers", Guard.ComparisonType.CONTAINS, "http.content-type");
+        Assert.assertEquals(GuardPlan.Target.PARAMETERS, constant.getTarget());
+        Assert.assertTrue(constant.evaluate(parameters, constant.getCompare()));
+        Assert.assertFalse(constant.evaluate(new HashMap(), constant.getCompare()));
+
+        final GuardPlan reference = plan("http.headers", Guard.ComparisonType.CONTAINS, "$$patterndata.header$$");
+        Assert.assertEquals(GuardPlan.Target.PARAMETERS, reference.getTarget());
+        Assert.assertTrue(reference.evaluate(parameters, "http.content-type"));
+        Assert.assertFalse(reference.evaluate(parameters, "http.location"));
+    }
+}
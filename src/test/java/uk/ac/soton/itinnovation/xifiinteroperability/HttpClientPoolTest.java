@@ -0,0 +1,188 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.restlet.data.Reference;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.HttpClientPool;
+
+/**
+ * Tests of the pool of HTTP client connectors: leasing and reusing the
+ * connector of a host, the per-host limit, eviction of idle connectors and
+ * shutting the pool down.
+ *
+ * @author Paul Grace
+ */
+public class HttpClientPoolTest {
+
+    /**
+     * Acquire a lease on another thread.
+     * @param pool The pool.
+     * @param target The target of the lease.
+     * @param lease Set to the lease once acquired.
+     * @param error Set to the exception if the lease could not be acquired.
+     * @return The started thread.
+     */
+    private static Thread acquireLater(final HttpClientPool pool, final Reference target,
+            final AtomicReference<HttpClientPool.Lease> lease, final AtomicReference<Exception> error) {
+        final Thread thread = new Thread(() -> {
+            try {
+                lease.set(pool.acquire(target));
+            } catch (InterruptedException | IllegalStateException ex) {
+                error.set(ex);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Requests to the same scheme, host and port share one connector;
+     * another host has its own.
+     * @throws InterruptedException Interrupted waiting for a lease.
+     */
+    @Test
+    public final void testLeaseReuse() throws InterruptedException {
+        final HttpClientPool pool = new HttpClientPool(4, 60000);
+        try {
+            final HttpClientPool.Lease first = pool.acquire(new Reference("http://127.0.0.1:8080/a"));
+            final HttpClientPool.Lease second = pool.acquire(new Reference("http://127.0.0.1:8080/b?c=d"));
+            Assert.assertNotNull(first.getClient());
+            Assert.assertSame(first.getClient(), second.getClient());
+            Assert.assertEquals(1, pool.size());
+            first.release();
+            second.release();
+
+            // the default port is the same route as the explicit one
+            final HttpClientPool.Lease third = pool.acquire(new Reference("http://127.0.0.1/a"));
+            final HttpClientPool.Lease fourth = pool.acquire(new Reference("http://127.0.0.1:80/b"));
+            Assert.assertSame(third.getClient(), fourth.getClient());
+            Assert.assertNotSame(first.getClient(), third.getClient());
+            Assert.assertEquals(2, pool.size());
+            third.release();
+            fourth.release();
+
+            // a released connector is leased again
+            final HttpClientPool.Lease again = pool.acquire(new Reference("http://127.0.0.1:8080/a"));
+            Assert.assertSame(first.getClient(), again.getClient());
+            again.release();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A request to a host with the maximum number of requests in flight
+     * waits until one of them is released.
+     * @throws InterruptedException Interrupted waiting for a lease.
+     */
+    @Test
+    public final void testPerHostLimit() throws InterruptedException {
+        final HttpClientPool pool = new HttpClientPool(1, 60000);
+        try {
+            final Reference target = new Reference("http://127.0.0.1:8080/a");
+            final HttpClientPool.Lease first = pool.acquire(target);
+
+            final AtomicReference<HttpClientPool.Lease> lease = new AtomicReference();
+            final AtomicReference<Exception> error = new AtomicReference();
+            final Thread waiting = acquireLater(pool, target, lease, error);
+            waiting.join(200);
+            Assert.assertTrue(waiting.isAlive());
+
+            first.release();
+            waiting.join(5000);
+            Assert.assertFalse(waiting.isAlive());
+            Assert.assertNull(error.get());
+            Assert.assertSame(first.getClient(), lease.get().getClient());
+            lease.get().release();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A connector that has been idle for longer than the idle timeout is
+     * removed; one with a request in flight is kept.
+     * @throws InterruptedException Interrupted waiting for a lease.
+     */
+    @Test
+    public final void testIdleEviction() throws InterruptedException {
+        final HttpClientPool pool = new HttpClientPool(2, 50);
+        try {
+            final HttpClientPool.Lease idle = pool.acquire(new Reference("http://127.0.0.1:8080/a"));
+            final HttpClientPool.Lease busy = pool.acquire(new Reference("http://127.0.0.1:8081/a"));
+            idle.release();
+            Thread.sleep(100);
+
+            pool.evictIdle();
+            Assert.assertEquals(1, pool.size());
+            final HttpClientPool.Lease lease = pool.acquire(new Reference("http://127.0.0.1:8081/b"));
+            Assert.assertSame(busy.getClient(), lease.getClient());
+            lease.release();
+            busy.release();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Shutting the pool down removes the connectors and fails both the
+     * requests waiting for a connector and any later request.
+     * @throws InterruptedException Interrupted waiting for a lease.
+     */
+    @Test
+    public final void testShutdown() throws InterruptedException {
+        final HttpClientPool pool = new HttpClientPool(1, 60000);
+        final Reference target = new Reference("http://127.0.0.1:8080/a");
+        final HttpClientPool.Lease first = pool.acquire(target);
+
+        final AtomicReference<HttpClientPool.Lease> lease = new AtomicReference();
+        final AtomicReference<Exception> error = new AtomicReference();
+        final Thread waiting = acquireLater(pool, target, lease, error);
+        waiting.join(200);
+        Assert.assertTrue(waiting.isAlive());
+
+        pool.shutdown();
+        waiting.join(5000);
+        Assert.assertFalse(waiting.isAlive());
+        Assert.assertNull(lease.get());
+        Assert.assertTrue(error.get() instanceof IllegalStateException);
+        Assert.assertEquals(0, pool.size());
+
+        // releasing a lease of the stopped pool is harmless
+        first.release();
+        try {
+            pool.acquire(target);
+            Assert.fail("A shut down pool must not lease connectors");
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals("HTTP client pool has been shut down", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.proxy.HttpStack;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Load benchmark of the HTTP-to-CoAP bridge (HttpStack). Concurrent HTTP
+ * clients are answered by a simulated CoAP server with a fixed delay; the
+ * benchmark reports the p99 latency and the number of threads the stack
+ * creates under load. Running the same load against a stack that starts two
+ * threads per request shows the thread count growing with the clients.
+ *
+ * @author Paul Grace
+ */
+public class HttpStackLoadTest {
+
+    /**
+     * Number of concurrent HTTP clients.
+     */
+    private static final int CLIENTS = 200;
+
+    /**
+     * Number of requests sent by each client.
+     */
+    private static final int REQUESTS = 5;
+
+    /**
+     * Delay (ms) of the simulated CoAP server.
+     */
+    private static final long COAP_DELAY = 20;
+
+    /**
+     * The worker threads of the stack.
+     */
+    private static final int WORKERS = 16;
+
+    /**
+     * The stack under test.
+     */
+    private BenchStack stack;
+
+    /**
+     * Delivers the simulated CoAP responses.
+     */
+    private final ScheduledExecutorService coapServer = Executors.newScheduledThreadPool(2);
+
+    /**
+     * Exposes the response delivery of the stack to the simulated server.
+     */
+    private static final class BenchStack extends HttpStack {
+
+        BenchStack(final int port, final int workers, final int maxInFlight) throws IOException {
+            super(port, workers, maxInFlight);
+        }
+
+        void respond(final Request request) {
+            final Response response = new Response(ResponseCode.CONTENT);
+            response.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+            response.setPayload("bench");
+            try {
+                doSendResponse(request, response);
+            } catch (IOException ex) {
+                ServiceLogger.LOG.error("Unable to send the response", ex);
+            }
+        }
+    }
+
+    @After
+    public final void release() {
+        if (stack != null) {
+            stack.stop();
+        }
+        coapServer.shutdownNow();
+    }
+
+    /**
+     * Send a GET request through the stack.
+     * @param port The port of the stack.
+     * @return The HTTP status code.
+     * @throws IOException Error in the request.
+     */
+    private static int get(final int port) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + port + "/proxy/coap://localhost:5683/bench").openConnection();
+        connection.setReadTimeout(30000);
+        final int status = connection.getResponseCode();
+        final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            while (body.read() != -1) {
+                // read the whole body so the connection can be reused
+            }
+            body.close();
+        }
+        return status;
+    }
+
+    /**
+     * All requests from many concurrent clients are answered, with a thread
+     * count bounded by the worker pool rather than the number of clients.
+     * @throws Exception Error in the benchmark.
+     */
+    @Test
+    public final void testLoad() throws Exception {
+        final int port = SystemProperties.getAvailablePort(8300);
+        stack = new BenchStack(port, WORKERS, CLIENTS);
+        stack.setRequestHandler(request ->
+            coapServer.schedule(() -> stack.respond(request), COAP_DELAY, TimeUnit.MILLISECONDS));
+        // warm up the stack and the client
+        Assert.assertEquals(200, get(port));
+
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch ready = new CountDownLatch(CLIENTS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> clients = new ArrayList();
+        for (int i = 0; i < CLIENTS; i++) {
+            final Thread client = new Thread(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                    for (int r = 0; r < REQUESTS; r++) {
+                        final long begin = System.nanoTime();
+                        if (get(port) != 200) {
+                            failures.incrementAndGet();
+                        }
+                        latencies.add(System.nanoTime() - begin);
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    failures.incrementAndGet();
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+        ready.await();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int baseline = threads.getThreadCount();
+        final long started = threads.getTotalStartedThreadCount();
+        threads.resetPeakThreadCount();
+        start.countDown();
+        for (Thread client : clients) {
+            client.join(60000);
+        }
+        final int peakThreads = threads.getPeakThreadCount() - baseline;
+        final long stackThreads = threads.getTotalStartedThreadCount() - started;
+
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(CLIENTS * REQUESTS, latencies.size());
+        final List<Long> sorted = new ArrayList(latencies);
+        Collections.sort(sorted);
+        final long p50 = sorted.get(sorted.size() / 2) / 1000000;
+        final long p99 = sorted.get(sorted.size() * 99 / 100) / 1000000;
+        ServiceLogger.LOG.info("HttpStack load: " + CLIENTS + " clients, p50 " + p50 + "ms, p99 " + p99
+                + "ms, threads started under load " + stackThreads + ", peak live " + peakThreads);
+        Assert.assertTrue("Too many threads started under load: " + stackThreads,
+                stackThreads <= WORKERS + Runtime.getRuntime().availableProcessors() + 8);
+    }
+
+    /**
+     * Requests beyond the maximum in flight are rejected with 503.
+     * @throws Exception Error in the test.
+     */
+    @Test
+    public final void testSaturation() throws Exception {
+        final int port = SystemProperties.getAvailablePort(8300);
+        final int maxInFlight = 4;
+        stack = new BenchStack(port, WORKERS, maxInFlight);
+        // the simulated server never responds, so the requests stay in flight
+        stack.setRequestHandler(request -> { });
+
+        final List<Thread> waiting = new ArrayList();
+        for (int i = 0; i < maxInFlight; i++) {
+            final Thread client = new Thread(() -> {
+                try {
+                    get(port);
+                } catch (IOException ex) {
+                    // the stack is stopped under the request
+                }
+            });
+            waiting.add(client);
+            client.start();
+        }
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (stack.getInFlight() < maxInFlight && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(maxInFlight, stack.getInFlight());
+        Assert.assertEquals(503, get(port));
+
+        stack.stop();
+        stack = null;
+        for (Thread client : waiting) {
+            client.join(10000);
+        }
+    }
+
+    /**
+     * A request keeps its place in flight until its worker returns, even
+     * once its response has been sent.
+     * @throws Exception Error in the test.
+     */
+    @Test
+    public final void testWorkerHoldsPlace() throws Exception {
+        final int port = SystemProperties.getAvailablePort(8300);
+        stack = new BenchStack(port, WORKERS, 1);
+        final CountDownLatch busy = new CountDownLatch(1);
+        // respond at once, then keep the worker busy
+        stack.setRequestHandler(request -> {
+            stack.respond(request);
+            try {
+                busy.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Assert.assertEquals(200, get(port));
+        Assert.assertEquals(503, get(port));
+
+        busy.countDown();
+        final long deadline = System.currentTimeMillis() + 10000;
+        int status = get(port);
+        while (status != 200 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            status = get(port);
+        }
+        Assert.assertEquals(200, status);
+    }
+}
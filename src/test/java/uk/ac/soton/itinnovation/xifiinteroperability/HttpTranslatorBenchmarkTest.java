@@ -0,0 +1,189 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.nio.charset.StandardCharsets;
+import junit.framework.Assert;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.proxy.HttpTranslator;
+import org.junit.Test;
+
+/**
+ * Micro benchmark of the HTTP/CoAP translations of the cross-proxy. Each
+ * translation is checked and then run in a warm-up loop before the timed
+ * loop; the average time per translation is reported.
+ *
+ * @author Paul Grace
+ */
+public class HttpTranslatorBenchmarkTest {
+
+    /**
+     * Iterations run before timing.
+     */
+    private static final int WARMUP = 20000;
+
+    /**
+     * Iterations timed.
+     */
+    private static final int ITERATIONS = 100000;
+
+    /**
+     * The JSON body of the translated messages.
+     */
+    private static final byte[] BODY = "{\"temperature\":21.5,\"unit\":\"C\"}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * A translation under benchmark.
+     */
+    private interface Translation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Run a translation in a warm-up then a timed loop.
+     * @param name The name reported.
+     * @param translation The translation to run.
+     * @return The average time of a translation in nanoseconds.
+     * @throws Exception Error in the translation.
+     */
+    private static long measure(final String name, final Translation translation) throws Exception {
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += translation.run().hashCode();
+        }
+        final long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += translation.run().hashCode();
+        }
+        final long perOp = (System.nanoTime() - begin) / ITERATIONS;
+        ServiceLogger.LOG.info("HttpTranslator " + name + ": " + perOp + " ns/op (" + sink % 2 + ")");
+        return perOp;
+    }
+
+    /**
+     * Build the HTTP request translated to CoAP.
+     * @return A POST with headers and a JSON body.
+     */
+    private static BasicHttpEntityEnclosingRequest httpRequest() {
+        final BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/sensors/temperature");
+        request.addHeader("Host", "localhost");
+        request.addHeader("ETag", "abcd");
+        request.addHeader("If-None-Match", "*");
+        request.addHeader("Cache-Control", "max-age=30");
+        request.addHeader("User-Agent", "benchmark");
+        final ByteArrayEntity entity = new ByteArrayEntity(BODY);
+        entity.setContentType("application/json; charset=UTF-8");
+        request.setEntity(entity);
+        request.addHeader("Content-Type", "application/json; charset=UTF-8");
+        return request;
+    }
+
+    /**
+     * Build the CoAP response translated to HTTP.
+     * @return A 2.05 response with options and a text body.
+     */
+    private static Response coapResponse() {
+        final Response response = new Response(ResponseCode.CONTENT);
+        response.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+        response.getOptions().setMaxAge(30);
+        response.getOptions().addETag(new byte[] {1, 2, 3, 4});
+        response.setPayload(BODY);
+        return response;
+    }
+
+    /**
+     * HTTP requests are translated to CoAP requests.
+     * @throws Exception Error in the translation.
+     */
+    @Test
+    public final void testRequestTranslation() throws Exception {
+        final Request coap = HttpTranslator.getCoapRequest(httpRequest(), "proxy", true);
+        Assert.assertEquals(Code.POST, coap.getCode());
+        Assert.assertEquals(30, coap.getOptions().getMaxAge().intValue());
+        Assert.assertEquals(MediaTypeRegistry.APPLICATION_JSON, coap.getOptions().getContentFormat());
+        Assert.assertEquals(new String(BODY, StandardCharsets.UTF_8), coap.getPayloadString());
+
+        measure("HTTP to CoAP request", () -> HttpTranslator.getCoapRequest(httpRequest(), "proxy", true));
+    }
+
+    /**
+     * CoAP responses are translated to HTTP responses.
+     * @throws Exception Error in the translation.
+     */
+    @Test
+    public final void testResponseTranslation() throws Exception {
+        final BasicHttpRequest request = new BasicHttpRequest("GET", "/proxy/coap://localhost/sensors");
+        final HttpResponse http = new BasicHttpResponse(HttpVersion.HTTP_1_1, 500, null);
+        HttpTranslator.getHttpResponse(request, coapResponse(), http);
+        Assert.assertEquals(200, http.getStatusLine().getStatusCode());
+        Assert.assertEquals("max-age=30", http.getFirstHeader("Cache-Control").getValue());
+        Assert.assertNotNull(http.getFirstHeader("Etag"));
+        Assert.assertTrue(http.getFirstHeader("content-type").getValue().startsWith("text/plain"));
+        Assert.assertEquals(new String(BODY, StandardCharsets.UTF_8), EntityUtils.toString(http.getEntity()));
+
+        measure("CoAP to HTTP response", () -> {
+            final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 500, null);
+            HttpTranslator.getHttpResponse(request, coapResponse(), response);
+            return response.getStatusLine();
+        });
+    }
+
+    /**
+     * CoAP requests are translated to HTTP requests, and HTTP responses to
+     * CoAP responses.
+     * @throws Exception Error in the translation.
+     */
+    @Test
+    public final void testReverseTranslation() throws Exception {
+        final Request coap = Request.newGet();
+        coap.getOptions().setProxyUri("http://localhost:8080/sensors");
+        coap.getOptions().addETag(new byte[] {1, 2});
+        final Header[] headers = HttpTranslator.getHttpRequest(coap).getAllHeaders();
+        Assert.assertEquals(1, headers.length);
+        Assert.assertEquals("Etag", headers[0].getName());
+
+        final BasicHttpResponse http = new BasicHttpResponse(HttpVersion.HTTP_1_1, 404, "Not Found");
+        Assert.assertEquals(ResponseCode.NOT_FOUND, HttpTranslator.getCoapResponse(http, coap).getCode());
+
+        measure("CoAP to HTTP request", () -> HttpTranslator.getHttpRequest(coap));
+        measure("HTTP to CoAP response", () -> HttpTranslator.getCoapResponse(
+                new BasicHttpResponse(HttpVersion.HTTP_1_1, 404, "Not Found"), coap));
+    }
+}
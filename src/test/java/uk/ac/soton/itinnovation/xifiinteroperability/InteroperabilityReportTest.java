@@ -0,0 +1,111 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.File;
+import java.io.IOException;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+
+/**
+ * Micro-benchmark of the interoperability report builder: appends 100k
+ * trace lines in memory and streamed to a file with a bounded tail. The
+ * times are logged; the tests check the content of the report.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class InteroperabilityReportTest {
+
+    /**
+     * The number of lines to append.
+     */
+    private static final int LINES = 100000;
+
+    /**
+     * Append the benchmark lines to a report.
+     * @param report The report to write to.
+     * @return The time taken in milliseconds.
+     */
+    private static long appendLines(final InteroperabilityReport report) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < LINES; i++) {
+            if (i % 2 == 0) {
+                report.println("Guard evaluation " + i + " - successful");
+            } else {
+                report.printtabline("content[$.items[" + i + "].id] == " + i);
+            }
+            report.addReport("{\"guard\":" + i + "}");
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Test appending 100k lines to an in-memory report.
+     */
+    @Test
+    public final void testInMemoryAppend() {
+        final InteroperabilityReport report = new InteroperabilityReport();
+        final long time = appendLines(report);
+        ServiceLogger.LOG.info("Report: " + LINES + " lines in memory in " + time + "ms");
+
+        final String trace = report.outputTrace();
+        Assert.assertTrue(trace.startsWith("Beginning test: \n\nGuard evaluation 0 - successful\n"));
+        Assert.assertTrue(trace.endsWith("\tcontent[$.items[" + (LINES - 1) + "].id] == " + (LINES - 1) + "\n"));
+        final String json = report.getReport();
+        Assert.assertTrue(json.startsWith("[{\"guard\":0},{\"guard\":1},"));
+        Assert.assertTrue(json.endsWith(",{\"guard\":" + (LINES - 1) + "}]"));
+        Assert.assertEquals(json, report.getReport());
+    }
+
+    /**
+     * Test appending 100k lines to a report streamed to a file, keeping a
+     * small tail in memory; the full trace must still be output.
+     * @throws IOException Error writing the trace file.
+     */
+    @Test
+    public final void testStreamedAppend() throws IOException {
+        final InteroperabilityReport memory = new InteroperabilityReport();
+        appendLines(memory);
+
+        final File traceFile = File.createTempFile("report", ".txt");
+        traceFile.deleteOnExit();
+        final InteroperabilityReport streamed = new InteroperabilityReport(traceFile, 4096);
+        final long time = appendLines(streamed);
+        ServiceLogger.LOG.info("Report: " + LINES + " lines streamed in " + time + "ms");
+
+        Assert.assertEquals(memory.outputTrace(), streamed.outputTrace());
+
+        streamed.clear();
+        streamed.println("restarted");
+        Assert.assertEquals("\nrestarted\n", streamed.outputTrace());
+        streamed.close();
+    }
+}
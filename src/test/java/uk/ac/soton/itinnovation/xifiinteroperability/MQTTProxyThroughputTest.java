@@ -0,0 +1,193 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import io.moquette.server.MQTTProxy;
+import io.moquette.server.Server;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.fusesource.mqtt.client.BlockingConnection;
+import org.fusesource.mqtt.client.Future;
+import org.fusesource.mqtt.client.FutureConnection;
+import org.fusesource.mqtt.client.MQTT;
+import org.fusesource.mqtt.client.Message;
+import org.fusesource.mqtt.client.QoS;
+import org.fusesource.mqtt.client.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * Benchmark of the MQTT proxy relay. An embedded Moquette broker stands in
+ * for the target broker; messages published to it on a topic subscribed to
+ * through the proxy must all be relayed to the proxy's subscriber. The relay
+ * rate is logged (the previous polling relay managed about 5 messages a
+ * second).
+ *
+ * @author Paul Grace
+ */
+public class MQTTProxyThroughputTest {
+
+    /**
+     * The topic the messages are relayed on.
+     */
+    private static final String TOPIC = "relay/test";
+
+    /**
+     * Number of messages relayed.
+     */
+    private static final int MESSAGES = 500;
+
+    /**
+     * The port of the proxy.
+     */
+    private int proxyPort;
+
+    /**
+     * The broker standing in for the target broker.
+     */
+    private Server target;
+
+    /**
+     * The port of the target broker.
+     */
+    private int targetPort;
+
+    /**
+     * The proxy in front of the target broker.
+     */
+    private MQTTProxy proxy;
+
+    /**
+     * Released once the subscription has been made on the target broker.
+     */
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+
+    /**
+     * The number of publish events captured by the proxy.
+     */
+    private final AtomicInteger published = new AtomicInteger();
+
+    @Before
+    public final void deploy() throws Exception {
+        targetPort = SystemProperties.getAvailablePort(1890);
+        final Properties config = new Properties();
+        config.setProperty("port", Integer.toString(targetPort));
+        config.setProperty("websocket_port", Integer.toString(SystemProperties.getAvailablePort(targetPort + 1)));
+        config.setProperty("host", "127.0.0.1");
+        config.setProperty("allow_anonymous", "true");
+        config.setProperty("persistent_store", "");
+        target = new Server();
+        target.startServer(config);
+
+        final EventCapture capture = new EventCapture() {
+            @Override
+            public void pushEvent(final MsgEvent event) {
+                final Parameter type = event.getParameterMap().get("mqtt.msg");
+                if (type == null) {
+                    return;
+                }
+                if ("subscribe".equals(type.getValue())) {
+                    subscribed.countDown();
+                } else if ("publish".equals(type.getValue())) {
+                    published.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void logException(final Exception excep) {
+                ServiceLogger.LOG.error("Proxy error", excep);
+            }
+        };
+        proxyPort = SystemProperties.getAvailablePort(1884);
+        proxy = new MQTTProxy("127.0.0.1", targetPort, capture);
+        proxy.startServer(capture, proxyPort);
+        Assert.assertTrue("The relay connections were not established", proxy.awaitReady(0));
+    }
+
+    @After
+    public final void release() {
+        proxy.stopServer();
+        target.stopServer();
+    }
+
+    /**
+     * Every message published to the target broker reaches the subscriber of
+     * the proxy, over the persistent relay connections.
+     * @throws Exception Error in a client.
+     */
+    @Test
+    public final void testRelayThroughput() throws Exception {
+        final MQTT subscriberClient = new MQTT();
+        subscriberClient.setHost("127.0.0.1", proxyPort);
+        final BlockingConnection subscriber = subscriberClient.blockingConnection();
+        subscriber.connect();
+        subscriber.subscribe(new Topic[]{new Topic(TOPIC, QoS.AT_LEAST_ONCE)});
+        Assert.assertTrue("Subscription not made on the target broker", subscribed.await(10, TimeUnit.SECONDS));
+
+        final MQTT publisherClient = new MQTT();
+        publisherClient.setHost("127.0.0.1", targetPort);
+        final FutureConnection publisher = publisherClient.futureConnection();
+        publisher.connect().await(10, TimeUnit.SECONDS);
+
+        final long start = System.nanoTime();
+        final List<Future<Void>> sent = new ArrayList();
+        for (int i = 0; i < MESSAGES; i++) {
+            sent.add(publisher.publish(TOPIC, ("message " + i).getBytes("UTF-8"), QoS.AT_LEAST_ONCE, false));
+        }
+        int received = 0;
+        while (received < MESSAGES) {
+            final Message message = subscriber.receive(10, TimeUnit.SECONDS);
+            Assert.assertNotNull("Only " + received + " of " + MESSAGES + " messages were relayed", message);
+            message.ack();
+            received++;
+        }
+        final double rate = MESSAGES / ((System.nanoTime() - start) / 1e9);
+        ServiceLogger.LOG.info("MQTT relay throughput: " + rate + " msg/s");
+
+        for (Future<Void> future : sent) {
+            future.await(10, TimeUnit.SECONDS);
+        }
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (proxy.getRelayed() < MESSAGES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(MESSAGES, proxy.getRelayed());
+        Assert.assertTrue(published.get() >= MESSAGES);
+
+        publisher.disconnect().await(10, TimeUnit.SECONDS);
+        subscriber.disconnect();
+    }
+}
@@ -0,0 +1,150 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import io.moquette.server.Server;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.fusesource.mqtt.client.BlockingConnection;
+import org.fusesource.mqtt.client.MQTT;
+import org.fusesource.mqtt.client.Message;
+import org.fusesource.mqtt.client.QoS;
+import org.fusesource.mqtt.client.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MQTTSessionPool;
+
+/**
+ * Tests of the MQTT sessions shared by the MQTT messages of an architecture,
+ * against an embedded Moquette broker.
+ *
+ * @author Paul Grace
+ */
+public class MQTTSessionPoolTest {
+
+    /**
+     * The number of messages published.
+     */
+    private static final int MESSAGES = 200;
+
+    /**
+     * The embedded broker.
+     */
+    private Server broker;
+
+    /**
+     * The port of the embedded broker.
+     */
+    private int port;
+
+    @Before
+    public final void deploy() throws Exception {
+        port = SystemProperties.getAvailablePort(1890);
+        final Properties config = new Properties();
+        config.setProperty("port", Integer.toString(port));
+        config.setProperty("websocket_port", Integer.toString(SystemProperties.getAvailablePort(port + 1)));
+        config.setProperty("host", "127.0.0.1");
+        config.setProperty("allow_anonymous", "true");
+        config.setProperty("persistent_store", "");
+        broker = new Server();
+        broker.startServer(config);
+    }
+
+    @After
+    public final void release() {
+        broker.stopServer();
+    }
+
+    /**
+     * Publishes with the same broker and identity share one session, and
+     * every message reaches a subscriber with a small in-flight window.
+     * @throws Exception Error in a client.
+     */
+    @Test
+    public final void testSharedSession() throws Exception {
+        final MQTT subscriberClient = new MQTT();
+        subscriberClient.setHost("127.0.0.1", port);
+        final BlockingConnection subscriber = subscriberClient.blockingConnection();
+        subscriber.connect();
+        subscriber.subscribe(new Topic[]{new Topic("sensors/test", QoS.AT_LEAST_ONCE)});
+
+        final MQTTSessionPool sessions = new MQTTSessionPool(4, 10000);
+        for (int i = 0; i < MESSAGES; i++) {
+            sessions.publish("127.0.0.1", port, "sensor", "sensors/test",
+                    ("reading " + i).getBytes("UTF-8"), QoS.AT_LEAST_ONCE, false);
+        }
+        Assert.assertEquals(1, sessions.size());
+        sessions.subscribe("127.0.0.1", port, "sensor", new Topic[]{new Topic("sensors/other", QoS.AT_LEAST_ONCE)});
+        Assert.assertEquals(1, sessions.size());
+        sessions.subscribe("127.0.0.1", port, "actuator", new Topic[]{new Topic("sensors/other", QoS.AT_LEAST_ONCE)});
+        Assert.assertEquals(2, sessions.size());
+
+        for (int i = 0; i < MESSAGES; i++) {
+            final Message message = subscriber.receive(10, TimeUnit.SECONDS);
+            Assert.assertNotNull("Only " + i + " of " + MESSAGES + " messages were published", message);
+            Assert.assertEquals("reading " + i, new String(message.getPayload(), "UTF-8"));
+            message.ack();
+        }
+
+        sessions.shutdown();
+        Assert.assertEquals(0, sessions.size());
+        subscriber.disconnect();
+    }
+
+    /**
+     * Shutting the pool down straight after publishing waits for the
+     * publishes in flight, so every message still reaches the subscriber.
+     * @throws Exception Error in a client.
+     */
+    @Test
+    public final void testShutdownWaitsForPublishes() throws Exception {
+        final MQTT subscriberClient = new MQTT();
+        subscriberClient.setHost("127.0.0.1", port);
+        final BlockingConnection subscriber = subscriberClient.blockingConnection();
+        subscriber.connect();
+        subscriber.subscribe(new Topic[]{new Topic("sensors/test", QoS.AT_LEAST_ONCE)});
+
+        final MQTTSessionPool sessions = new MQTTSessionPool(0, 10000);
+        for (int i = 0; i < MESSAGES; i++) {
+            sessions.publish("127.0.0.1", port, "sensor", "sensors/test",
+                    ("reading " + i).getBytes("UTF-8"), QoS.AT_LEAST_ONCE, false);
+        }
+        final long start = System.currentTimeMillis();
+        sessions.shutdown();
+        ServiceLogger.LOG.info("MQTT session pool shut down in " + (System.currentTimeMillis() - start) + "ms");
+        Assert.assertEquals(0, sessions.size());
+
+        for (int i = 0; i < MESSAGES; i++) {
+            final Message message = subscriber.receive(10, TimeUnit.SECONDS);
+            Assert.assertNotNull("Only " + i + " of " + MESSAGES + " messages were published", message);
+            message.ack();
+        }
+        subscriber.disconnect();
+    }
+}
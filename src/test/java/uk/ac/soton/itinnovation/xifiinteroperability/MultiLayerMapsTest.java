@@ -26,9 +26,13 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
 import org.junit.Assert;
 import org.junit.Test;
-import uk.ac.soton.itinnovation.xifiinteroperability.guitool.editor.MultiTestsExecutionManager;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.MultiTestsExecutionManager;
 
 /**
  * Tests the multi layer maps in the multi-tests execution manager
@@ -120,4 +124,165 @@ public class MultiLayerMapsTest {
         Assert.assertTrue("Two-layer pattern values map doesn't return correct results after removing an entry", 
                 execManager.getPatternValue("test1", "id2") == null);
     }
+
+    @Test
+    public final void testEntriesBound() throws InterruptedException {
+        final MultiTestsExecutionManager bounded = new MultiTestsExecutionManager(4, 0, 0);
+        bounded.putPatternValue("old", "id1", "value1");
+        bounded.putPatternValue("old", "id2", "value2");
+        Thread.sleep(5);
+        bounded.putPatternValue("new", "id1", "value1");
+        bounded.putTestContent("new", "label", "content");
+        Assert.assertEquals(4, bounded.size());
+
+        // the least recently written test is evicted as a whole
+        bounded.putTestHeader("new", "label", "header", "value");
+        Assert.assertEquals(3, bounded.size());
+        Assert.assertNull(bounded.getPatternValue("old", "id1"));
+        Assert.assertNull(bounded.getPatternValue("old", "id2"));
+        Assert.assertEquals("value", bounded.getTestHeader("new.xml", "label", "header"));
+
+        bounded.removeTest("new.xml");
+        Assert.assertEquals(0, bounded.size());
+    }
+
+    @Test
+    public final void testAgeBound() throws InterruptedException {
+        final MultiTestsExecutionManager bounded = new MultiTestsExecutionManager(0, 50, 0);
+        bounded.putPatternValue("test", "id", "value");
+        Assert.assertEquals("value", bounded.getPatternValue("test", "id"));
+        Thread.sleep(100);
+        Assert.assertNull("Expired values were returned", bounded.getPatternValue("test", "id"));
+    }
+
+    @Test
+    public final void testSpilledContent() {
+        final MultiTestsExecutionManager spilling = new MultiTestsExecutionManager(0, 0, 16);
+        try {
+            final StringBuilder large = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                large.append("{\"value\":\u00e9").append(i).append('}');
+            }
+            spilling.putTestContent("test", "small", "{}");
+            spilling.putTestContent("test", "large", large.toString());
+            spilling.putTestContent("test", "other", large.reverse().toString());
+            Assert.assertEquals("{}", spilling.getTestContent("test", "small"));
+            Assert.assertEquals(large.toString(), spilling.getTestContent("test", "other"));
+            Assert.assertEquals(large.reverse().toString(), spilling.getTestContent("test", "large"));
+        } finally {
+            spilling.close();
+        }
+    }
+
+    @Test
+    public final void testSpillCompaction() {
+        final MultiTestsExecutionManager spilling = new MultiTestsExecutionManager(0, 0, 16);
+        try {
+            final String large = content(10000);
+            spilling.putTestContent("kept", "label", "kept" + large);
+            for (int i = 0; i < 300; i++) {
+                spilling.putTestContent("test", "label", i + large);
+            }
+            // 3MB were written but only two values are held
+            Assert.assertTrue("Spill file was not compacted: " + spilling.spillFileSize(), spilling.spillFileSize() < 1 << 20);
+            Assert.assertEquals("kept" + large, spilling.getTestContent("kept", "label"));
+            Assert.assertEquals(299 + large, spilling.getTestContent("test", "label"));
+        } finally {
+            spilling.close();
+        }
+    }
+
+    @Test
+    public final void testSpillReset() {
+        final MultiTestsExecutionManager spilling = new MultiTestsExecutionManager(0, 0, 16);
+        try {
+            final String large = content(1000);
+            spilling.putTestContent("test", "label", "old" + large);
+            spilling.resetMaps();
+            Assert.assertEquals(0, spilling.spillFileSize());
+            Assert.assertNull(spilling.getTestContent("test", "label"));
+            spilling.putTestContent("test", "other", "new" + large);
+            Assert.assertNull(spilling.getTestContent("test", "label"));
+            Assert.assertEquals("new" + large, spilling.getTestContent("test", "other"));
+        } finally {
+            spilling.close();
+        }
+    }
+
+    @Test
+    public final void testConcurrentSpill() throws InterruptedException {
+        final MultiTestsExecutionManager spilling = new MultiTestsExecutionManager(0, 0, 16);
+        try {
+            final String large = content(5000);
+            runConcurrently(4, test -> {
+                for (int i = 0; i < 200; i++) {
+                    spilling.putTestContent(test, "state" + (i % 4), i + large);
+                    Assert.assertEquals(i + large, spilling.getTestContent(test, "state" + (i % 4)));
+                    if (i % 50 == 0) {
+                        spilling.removeAllTestContent(test);
+                    }
+                }
+            });
+            Assert.assertEquals(4 * 4, spilling.size());
+            Assert.assertEquals(199 + large, spilling.getTestContent("test2", "state3"));
+            Assert.assertTrue("Spill file was not compacted", spilling.spillFileSize() < 4 * 200 * large.length() / 2);
+        } finally {
+            spilling.close();
+        }
+    }
+
+    @Test
+    public final void testConcurrentTests() throws InterruptedException {
+        final MultiTestsExecutionManager shared = new MultiTestsExecutionManager();
+        runConcurrently(8, test -> {
+            for (int i = 0; i < 1000; i++) {
+                shared.putTestHeader(test, "state" + (i % 10), "header" + i, "value" + i);
+                Assert.assertEquals("value" + i, shared.getTestHeader(test, "state" + (i % 10), "header" + i));
+            }
+            shared.removeAllStateHeaders(test, "state0");
+        });
+        Assert.assertEquals(8 * 900, shared.size());
+        Assert.assertNull(shared.getTestHeader("test3", "state0", "header10"));
+        Assert.assertEquals("value11", shared.getTestHeader("test3", "state1", "header11"));
+    }
+
+    /**
+     * Runs a body on a thread per test, named test0..testN, and fails with the first failure
+     * of any thread once all have finished.
+     * @param threads the number of threads
+     * @param body the body run with the test name of its thread
+     * @throws InterruptedException interrupted waiting for the threads
+     */
+    private static void runConcurrently(final int threads, final Consumer<String> body)
+            throws InterruptedException {
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String test = "test" + t;
+            writers.add(new Thread(() -> {
+                try {
+                    body.accept(test);
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.size() + " of " + threads + " threads failed", failures.get(0));
+        }
+    }
+
+    private static String content(final int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
 }
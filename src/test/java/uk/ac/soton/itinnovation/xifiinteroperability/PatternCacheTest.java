@@ -0,0 +1,87 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By : Nikolay Stanchev
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.regex.Pattern;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PatternCache;
+
+/**
+ * Set of tests for the compiled regular expression cache used by the regex
+ * guards.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Nikolay Stanchev
+ */
+public class PatternCacheTest {
+
+    /**
+     * Test that an expression is compiled once and then reused.
+     */
+    @Test
+    public final void testCompiledOnce() {
+        final long misses = PatternCache.getMisses();
+        final long hits = PatternCache.getHits();
+
+        final Pattern first = PatternCache.compile("^sensor-[0-9]+$");
+        final Pattern second = PatternCache.compile("^sensor-[0-9]+$");
+        Assert.assertTrue(first == second);
+        Assert.assertTrue(PatternCache.matches("^sensor-[0-9]+$", "sensor-42"));
+        Assert.assertFalse(PatternCache.matches("^sensor-[0-9]+$", "sensor-x"));
+
+        Assert.assertEquals(misses + 1, PatternCache.getMisses());
+        Assert.assertEquals(hits + 3, PatternCache.getHits());
+    }
+
+    /**
+     * Test that the cache stays bounded.
+     */
+    @Test
+    public final void testBounded() {
+        for (int i = 0; i < 2000; i++) {
+            PatternCache.compile("value-" + i);
+        }
+        Assert.assertTrue(PatternCache.size() <= 512);
+    }
+
+    /**
+     * Test that invalid expressions are reported.
+     */
+    @Test
+    public final void testInvalid() {
+        try {
+            PatternCache.validate("[unclosed");
+            Assert.fail("Invalid regular expression not reported");
+        } catch (InvalidRegexException ex) {
+            ServiceLogger.LOG.info("Code correctly captures exception " + ex);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import junit.framework.Assert;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the command line runner of test patterns: the argument parsing, the
+ * exit codes and the timeout stopping a pattern that waits for ever. The
+ * patterns move on with timeout guards, so no service is needed.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class PatternRunnerTest {
+
+    /**
+     * The directory the patterns and results are written to.
+     */
+    private File dir;
+
+    /**
+     * The messages of the runner.
+     */
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    /**
+     * The results of the runner when no output file is given.
+     */
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Before
+    public final void create() throws IOException {
+        dir = Files.createTempDirectory("patternrunner").toFile();
+    }
+
+    @After
+    public final void delete() {
+        deleteAll(dir);
+    }
+
+    /**
+     * Delete a file, or a directory and its content.
+     * @param file The file to delete.
+     */
+    private static void deleteAll(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * A pattern whose start state waits for a message to its interface.
+     * @param guard The guard of the transition to the end state.
+     * @param success Whether the end state is a success.
+     * @return The pattern text.
+     * @throws ConfigurationException No free port for the interface.
+     */
+    private static String pattern(final String guard, final boolean success) throws ConfigurationException {
+        final int port = SystemProperties.getAvailablePort(8600);
+        return "<?xml version=\"1.0\"?><pattern><architecture><component><id>service</id>"
+                + "<address>127.0.0.1</address><interface><id>rest</id>"
+                + "<url>http://127.0.0.1:" + port + "/api</url><protocol>http</protocol></interface>"
+                + "</component></architecture><behaviour>"
+                + "<state><label>A1</label><type>start</type><transition><to>A2</to><guards>"
+                + guard + "</guards></transition></state>"
+                + "<state><label>A2</label><type>end</type><success>" + success + "</success>"
+                + "<report>Done</report></state>"
+                + "</behaviour></pattern>";
+    }
+
+    /**
+     * A pattern that ends after a short timeout.
+     * @param success Whether the end state is a success.
+     * @return The pattern text.
+     * @throws ConfigurationException No free port for the interface.
+     */
+    private static String timeoutPattern(final boolean success) throws ConfigurationException {
+        return pattern("<equal><param>timeout</param><value>100</value></equal>", success);
+    }
+
+    /**
+     * Write a pattern to the test directory.
+     * @param name The file name.
+     * @param xml The pattern text.
+     * @return The pattern file.
+     * @throws IOException Error writing the file.
+     */
+    private File write(final String name, final String xml) throws IOException {
+        final File file = new File(dir, name);
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Run the runner, capturing its output.
+     * @param args The command line arguments.
+     * @return The exit code.
+     */
+    private int run(final String... args) {
+        return PatternRunner.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    /**
+     * Read the results written by the runner.
+     * @param file The results file.
+     * @return The results summary.
+     * @throws Exception Error reading the results.
+     */
+    private static JSONObject results(final File file) throws Exception {
+        return new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Missing or malformed arguments are an error, reported with the usage.
+     */
+    @Test
+    public final void testUsage() {
+        Assert.assertEquals(PatternRunner.ERROR, run());
+        Assert.assertEquals(PatternRunner.ERROR, run("-t"));
+        Assert.assertEquals(PatternRunner.ERROR, run("-t", "soon", "a.xml"));
+        Assert.assertEquals(PatternRunner.ERROR, run("-p", "-1", dir.getPath()));
+        Assert.assertTrue(err.toString().startsWith("Usage: PatternRunner"));
+    }
+
+    /**
+     * Missing patterns, or a directory without patterns, are an error.
+     */
+    @Test
+    public final void testNoPatterns() {
+        Assert.assertEquals(PatternRunner.ERROR, run(new File(dir, "missing.xml").getPath()));
+        Assert.assertTrue(err.toString().contains("No such pattern file"));
+        Assert.assertEquals(PatternRunner.ERROR, run(dir.getPath()));
+    }
+
+    /**
+     * The exit code is 0 when every test passes, and each result and trace
+     * is written; the traces are streamed to their files.
+     * @throws Exception Error running the patterns.
+     */
+    @Test
+    public final void testPassed() throws Exception {
+        write("first.xml", timeoutPattern(true));
+        write("second.xml", timeoutPattern(true));
+        final File output = new File(dir, "results.json");
+        final File traces = new File(dir, "traces");
+        Assert.assertEquals(PatternRunner.PASSED, run("-o", output.getPath(), "-d", traces.getPath(), dir.getPath()));
+
+        final JSONObject results = results(output);
+        Assert.assertEquals(2, results.getInt("tests"));
+        Assert.assertEquals(2, results.getInt("passed"));
+        Assert.assertEquals("first.xml", results.getJSONArray("results").getJSONObject(0).getString("test"));
+        Assert.assertTrue(new File(traces, "first.txt").isFile());
+        Assert.assertTrue(new File(traces, "second.txt").isFile());
+        final String trace = new String(Files.readAllBytes(new File(traces, "first.txt").toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(trace.startsWith("Beginning test: \n"));
+        Assert.assertTrue(trace.length() > "Beginning test: \n".length());
+    }
+
+    /**
+     * The exit code is 1 when a test fails.
+     * @throws Exception Error running the patterns.
+     */
+    @Test
+    public final void testFailed() throws Exception {
+        final File passing = write("passing.xml", timeoutPattern(true));
+        final File failing = write("failing.xml", timeoutPattern(false));
+        Assert.assertEquals(PatternRunner.FAILED, run(passing.getPath(), failing.getPath()));
+
+        final JSONObject results = new JSONObject(out.toString("UTF-8"));
+        Assert.assertEquals(1, results.getInt("passed"));
+        Assert.assertEquals(1, results.getInt("failed"));
+        Assert.assertFalse(results.getJSONArray("results").getJSONObject(1).getBoolean("success"));
+    }
+
+    /**
+     * A pattern still waiting for an event when the timeout expires is
+     * stopped, and reported as a timed out failure.
+     * @throws Exception Error running the pattern.
+     */
+    @Test
+    public final void testTimeout() throws Exception {
+        final File waiting = write("waiting.xml",
+                pattern("<equal><param>http.code</param><value>200</value></equal>", true));
+        final File output = new File(dir, "results.json");
+        final long start = System.currentTimeMillis();
+        Assert.assertEquals(PatternRunner.FAILED, run("-t", "1", "-o", output.getPath(), waiting.getPath()));
+        Assert.assertTrue("The pattern was not stopped", System.currentTimeMillis() - start < 10000);
+
+        final JSONObject result = results(output).getJSONArray("results").getJSONObject(0);
+        Assert.assertFalse(result.getBoolean("success"));
+        Assert.assertTrue(result.getBoolean("timedOut"));
+    }
+}
@@ -0,0 +1,106 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of the ports handed out to proxies, and of the cached configuration
+ * and host address they are built from.
+ *
+ * @author Paul Grace
+ */
+public class PortAllocatorTest {
+
+    /**
+     * The number of interfaces of the simulated architecture.
+     */
+    private static final int INTERFACES = 40;
+
+    /**
+     * Interfaces asking for the same port are given different ports, which
+     * are handed out again once released.
+     * @throws Exception Error allocating the ports.
+     */
+    @Test
+    public final void testAllocate() throws Exception {
+        final PortAllocator allocator = new PortAllocator(12000);
+        final int first = SystemProperties.getAvailablePort(9300);
+        final Set<Integer> ports = new HashSet();
+        final long start = System.nanoTime();
+        for (int i = 0; i < INTERFACES; i++) {
+            final int port = allocator.allocate(first);
+            Assert.assertTrue(allocator.isReserved(port));
+            ports.add(port);
+        }
+        final long elapsed = (System.nanoTime() - start) / 1000000;
+        ServiceLogger.LOG.info("Allocated " + INTERFACES + " ports in " + elapsed + "ms");
+        Assert.assertEquals(INTERFACES, ports.size());
+        Assert.assertTrue(ports.contains(first));
+
+        allocator.release(first);
+        Assert.assertFalse(allocator.isReserved(first));
+        Assert.assertEquals(first, allocator.allocate(first));
+    }
+
+    /**
+     * Ports outside the valid range are rejected.
+     */
+    @Test
+    public final void testInvalidPort() {
+        try {
+            new PortAllocator(12000).allocate(-1);
+            Assert.fail("Allocated an invalid port");
+        } catch (ConfigurationException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+
+    /**
+     * The configuration and host address are read once and kept.
+     * @throws Exception Error reading the configuration.
+     */
+    @Test
+    public final void testCachedConfiguration() throws Exception {
+        final String maxPort = SystemProperties.readProperty("max_port");
+        Assert.assertNotNull(maxPort);
+        SystemProperties.reload();
+        Assert.assertEquals(maxPort, SystemProperties.readProperty("max_port"));
+
+        final String address = SystemProperties.getIP();
+        Assert.assertNotNull(address);
+        final long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(address, SystemProperties.getIP());
+        }
+        ServiceLogger.LOG.info("1000 host address lookups in " + (System.nanoTime() - start) / 1000 + "us");
+    }
+}
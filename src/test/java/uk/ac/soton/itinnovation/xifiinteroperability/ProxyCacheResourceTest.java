@@ -0,0 +1,220 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import junit.framework.Assert;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.proxy.resources.ProxyCacheResource;
+import org.junit.Test;
+
+/**
+ * Tests of the CoAP proxy cache: lookup of the cached representations and
+ * revalidation of expired responses.
+ *
+ * @author Paul Grace
+ */
+public class ProxyCacheResourceTest {
+
+    /**
+     * The ETag of the origin server's representation.
+     */
+    private static final byte[] ETAG = {1, 2, 3, 4};
+
+    /**
+     * Build a GET request for a proxied resource.
+     * @param proxyUri The URI of the resource.
+     * @param accept The accept option, or -1 for none.
+     * @return The request.
+     */
+    private static Request request(final String proxyUri, final int accept) {
+        final Request request = Request.newGet();
+        request.getOptions().setProxyUri(proxyUri);
+        if (accept >= 0) {
+            request.getOptions().setAccept(accept);
+        }
+        return request;
+    }
+
+    /**
+     * Build a cached 2.05 response.
+     * @param format The content format.
+     * @param age The time (s) since the response was received.
+     * @return The response.
+     */
+    private static Response content(final int format, final long age) {
+        final Response response = new Response(ResponseCode.CONTENT);
+        response.getOptions().setContentFormat(format);
+        response.getOptions().setMaxAge(60);
+        response.getOptions().addETag(ETAG);
+        response.setPayload("{}");
+        response.setTimestamp(System.nanoTime() - TimeUnit.SECONDS.toNanos(age));
+        return response;
+    }
+
+    /**
+     * A request with no accept option is answered by any cached
+     * representation; one that accepts another format is not.
+     */
+    @Test
+    public final void testLookup() {
+        final ProxyCacheResource cache = new ProxyCacheResource(true);
+        final String uri = "coap://127.0.0.1:5683/sensor";
+        cache.cacheResponse(request(uri, -1), content(MediaTypeRegistry.APPLICATION_JSON, 0));
+
+        Assert.assertNotNull(cache.getResponse(request(uri, -1)));
+        Assert.assertNotNull(cache.getResponse(request(uri, MediaTypeRegistry.APPLICATION_JSON)));
+        Assert.assertNull(cache.getResponse(request(uri, MediaTypeRegistry.APPLICATION_XML)));
+        Assert.assertNull(cache.getResponse(request("coap://127.0.0.1:5683/other", -1)));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+
+        // a change to the resource invalidates all of its representations
+        cache.invalidateRequest(request(uri, -1));
+        Assert.assertNull(cache.getResponse(request(uri, -1)));
+    }
+
+    /**
+     * Wait for a condition to hold.
+     * @param condition The condition.
+     * @return Whether the condition held within five seconds.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    private static boolean waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * An expired response is a miss while it is revalidated with the origin
+     * server in the background, and a 2.03 (Valid) response renews it. The
+     * origin holds its answer until the lookup has returned, so a lookup
+     * that waited for the revalidation would not return.
+     * @throws Exception Error starting the origin server.
+     */
+    @Test
+    public final void testRevalidation() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int port = SystemProperties.getAvailablePort(5800);
+        final CoapServer origin = new CoapServer(port);
+        origin.add(new CoapResource("sensor") {
+            @Override
+            public void handleGET(final CoapExchange exchange) {
+                received.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                final Response response;
+                if (!exchange.getRequestOptions().getETags().isEmpty()
+                        && Arrays.equals(ETAG, exchange.getRequestOptions().getETags().get(0))) {
+                    response = new Response(ResponseCode.VALID);
+                } else {
+                    response = new Response(ResponseCode.CONTENT);
+                    response.setPayload("{}");
+                }
+                response.getOptions().addETag(ETAG);
+                response.getOptions().setMaxAge(30);
+                exchange.respond(response);
+            }
+        });
+        origin.start();
+        try {
+            final ProxyCacheResource cache = new ProxyCacheResource(true);
+            final String uri = "coap://127.0.0.1:" + port + "/sensor";
+            cache.cacheResponse(request(uri, -1), content(MediaTypeRegistry.APPLICATION_JSON, 120));
+
+            Assert.assertNull(cache.getResponse(request(uri, -1)));
+            // the origin has the revalidation but has not answered it
+            Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, cache.getRevalidationCount());
+            release.countDown();
+            Assert.assertTrue(waitFor(() -> cache.getRevalidationCount() == 1));
+
+            final Response response = cache.getResponse(request(uri, -1));
+            Assert.assertNotNull(response);
+            Assert.assertEquals(30L, response.getOptions().getMaxAge().longValue());
+            Assert.assertEquals(1, cache.getRevalidationCount());
+            Assert.assertEquals(1, cache.getHitCount());
+            Assert.assertEquals(1, cache.getMissCount());
+        } finally {
+            origin.destroy();
+        }
+    }
+
+    /**
+     * A revalidation that the origin server does not answer within the
+     * validation timeout fails, and the expired response is invalidated.
+     * @throws Exception Error starting the origin server.
+     */
+    @Test
+    public final void testRevalidationTimeout() throws Exception {
+        final int port = SystemProperties.getAvailablePort(5810);
+        final CoapServer origin = new CoapServer(port);
+        origin.add(new CoapResource("sensor") {
+            @Override
+            public void handleGET(final CoapExchange exchange) {
+                // accept the request but never answer it
+                exchange.accept();
+            }
+        });
+        origin.start();
+        try {
+            final ProxyCacheResource cache = new ProxyCacheResource(true, 200);
+            final String uri = "coap://127.0.0.1:" + port + "/sensor";
+            cache.cacheResponse(request(uri, -1), content(MediaTypeRegistry.APPLICATION_JSON, 120));
+
+            Assert.assertNull(cache.getResponse(request(uri, -1)));
+
+            // one revalidation however often the expired response is requested
+            Assert.assertNull(cache.getResponse(request(uri, -1)));
+            Assert.assertTrue(waitFor(() -> cache.getFailedRevalidationCount() == 1));
+            Assert.assertEquals(0, cache.getRevalidationCount());
+            Assert.assertNull(cache.getResponse(request(uri, -1)));
+            Assert.assertEquals(1, cache.getFailedRevalidationCount());
+        } finally {
+            origin.destroy();
+        }
+    }
+}
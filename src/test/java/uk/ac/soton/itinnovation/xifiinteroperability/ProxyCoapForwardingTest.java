@@ -0,0 +1,232 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import junit.framework.Assert;
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.proxy.resources.ProxyCoapClientResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * Tests of the asynchronous forwarding of the CoAP proxy: responses and the
+ * captured events, the deadline and the late responses, and the limit on
+ * outstanding forwards to a target.
+ *
+ * @author Paul Grace
+ */
+public class ProxyCoapForwardingTest {
+
+    /**
+     * The deadline (ms) of the proxy under test.
+     */
+    private static final long DEADLINE = 500;
+
+    /**
+     * The CoAP server the proxy forwards to.
+     */
+    private CoapServer target;
+
+    /**
+     * The CoAP server holding the proxy resources.
+     */
+    private CoapServer proxy;
+
+    /**
+     * The port of the proxy.
+     */
+    private int proxyPort;
+
+    /**
+     * The host:port of the target, as counted by the proxy.
+     */
+    private String targetAddress;
+
+    /**
+     * The events captured by the proxy resources.
+     */
+    private final List<MsgEvent> events = new CopyOnWriteArrayList();
+
+    /**
+     * Create a proxy resource forwarding to a resource of the target.
+     * @param name The resource name.
+     * @param path The resource of the target.
+     * @param targetPort The port of the target.
+     * @param maxForwards The number of outstanding forwards allowed.
+     * @return The proxy resource.
+     */
+    private ProxyCoapClientResource forwarder(final String name, final String path, final int targetPort,
+            final int maxForwards) {
+        return new ProxyCoapClientResource(name, "coap://127.0.0.1:" + targetPort + "/" + path, new EventCapture() {
+            @Override
+            public void pushEvent(final MsgEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void logException(final Exception excep) {
+                ServiceLogger.LOG.error("Proxy error", excep);
+            }
+        }, true, DEADLINE, maxForwards);
+    }
+
+    private ProxyCoapClientResource fast;
+    private ProxyCoapClientResource slow;
+    private ProxyCoapClientResource capped;
+
+    @Before
+    public final void deploy() throws Exception {
+        final int targetPort = SystemProperties.getAvailablePort(5700);
+        target = new CoapServer(targetPort);
+        target.add(new CoapResource("fast") {
+            @Override
+            public void handleGET(final CoapExchange exchange) {
+                exchange.respond("hello");
+            }
+        });
+        target.add(new CoapResource("slow") {
+            @Override
+            public void handleGET(final CoapExchange exchange) {
+                try {
+                    Thread.sleep(DEADLINE * 2);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                exchange.respond("too late");
+            }
+        });
+        target.start();
+
+        targetAddress = "127.0.0.1:" + targetPort;
+
+        proxyPort = SystemProperties.getAvailablePort(targetPort + 1);
+        proxy = new CoapServer(proxyPort);
+        fast = forwarder("fast", "fast", targetPort, 4);
+        slow = forwarder("slow", "slow", targetPort, 4);
+        capped = forwarder("capped", "slow", targetPort, 1);
+        proxy.add(fast);
+        proxy.add(slow);
+        proxy.add(capped);
+        proxy.start();
+    }
+
+    @After
+    public final void release() {
+        proxy.destroy();
+        target.destroy();
+    }
+
+    /**
+     * A response is forwarded and both the request and response events are
+     * captured.
+     */
+    @Test
+    public final void testForward() {
+        final CoapResponse response = new CoapClient("coap://127.0.0.1:" + proxyPort + "/fast").get();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(ResponseCode.CONTENT, response.getCode());
+        Assert.assertEquals("hello", response.getResponseText());
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(0, fast.getTimeouts());
+    }
+
+    /**
+     * A target slower than the deadline is answered with a gateway timeout,
+     * and its response is counted as late. The forward stays outstanding
+     * until the late response arrives.
+     * @throws InterruptedException Interrupted waiting for the late response.
+     */
+    @Test
+    public final void testDeadline() throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final CoapResponse response = new CoapClient("coap://127.0.0.1:" + proxyPort + "/slow").get();
+        Assert.assertNotNull(response);
+        Assert.assertEquals(ResponseCode.GATEWAY_TIMEOUT, response.getCode());
+        Assert.assertTrue(System.currentTimeMillis() - start < DEADLINE * 2);
+        Assert.assertEquals(1, slow.getTimeouts());
+        Assert.assertEquals(1, slow.getOutstanding(targetAddress));
+
+        waitFor(() -> slow.getLateResponses() > 0);
+        Assert.assertEquals(1, slow.getLateResponses());
+        Assert.assertEquals(0, slow.getOutstanding(targetAddress));
+    }
+
+    /**
+     * A request to a target that already has the maximum number of
+     * outstanding forwards is answered with service unavailable, without
+     * being forwarded; the limit holds past the deadline of the outstanding
+     * forward.
+     * @throws InterruptedException Interrupted waiting for the forwards.
+     */
+    @Test
+    public final void testServiceUnavailable() throws InterruptedException {
+        final CoapClient client = new CoapClient("coap://127.0.0.1:" + proxyPort + "/capped");
+        final CoapResponse first = client.get();
+        Assert.assertNotNull(first);
+        Assert.assertEquals(ResponseCode.GATEWAY_TIMEOUT, first.getCode());
+        Assert.assertEquals(1, capped.getOutstanding(targetAddress));
+
+        final CoapResponse second = client.get();
+        Assert.assertNotNull(second);
+        Assert.assertEquals(ResponseCode.SERVICE_UNAVAILABLE, second.getCode());
+        Assert.assertEquals(1, capped.getRejected());
+        Assert.assertEquals(1, capped.getTimeouts());
+
+        // the other resources have their own limit for the same target
+        Assert.assertEquals(0, slow.getOutstanding(targetAddress));
+
+        waitFor(() -> capped.getOutstanding(targetAddress) == 0);
+        final CoapResponse third = client.get();
+        Assert.assertNotNull(third);
+        Assert.assertEquals(ResponseCode.GATEWAY_TIMEOUT, third.getCode());
+        Assert.assertEquals(1, capped.getRejected());
+        waitFor(() -> capped.getOutstanding(targetAddress) == 0);
+    }
+
+    /**
+     * Wait, for no more than 5 seconds, for a condition to hold.
+     * @param condition The condition.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
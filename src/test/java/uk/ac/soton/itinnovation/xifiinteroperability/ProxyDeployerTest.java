@@ -0,0 +1,129 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.jdom.Element;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.InvalidArchitectureException;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.ProxyDeployer;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.RESTInterface;
+
+/**
+ * Tests of the concurrent deployment and release of the proxies of an
+ * architecture.
+ *
+ * @author Paul Grace
+ */
+public class ProxyDeployerTest {
+
+    /**
+     * The number of interfaces deployed.
+     */
+    private static final int INTERFACES = 12;
+
+    /**
+     * Create the interfaces of a simulated architecture.
+     * @param count The number of interfaces.
+     * @return The interfaces, not yet deployed.
+     * @throws Exception Error creating an interface.
+     */
+    private static List<RESTInterface> createInterfaces(final int count) throws Exception {
+        final int first = SystemProperties.getAvailablePort(9500);
+        final List<RESTInterface> interfaces = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            final Element intf = new Element("interface");
+            intf.addContent(new Element("id").setText("intf" + i));
+            intf.addContent(new Element("url").setText("http://127.0.0.1:" + first + "/service" + i));
+            intf.addContent(new Element("protocol").setText("http"));
+            interfaces.add(new RESTInterface(intf, null));
+        }
+        return interfaces;
+    }
+
+    /**
+     * Check whether a proxy accepts connections.
+     * @param port The port of the proxy.
+     * @return true if a connection is accepted.
+     */
+    private static boolean listening(final int port) {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * All of the proxies are started, and stopped again on release.
+     * @throws Exception Error deploying the proxies.
+     */
+    @Test
+    public final void testDeployAndRelease() throws Exception {
+        final List<RESTInterface> interfaces = createInterfaces(INTERFACES);
+        final long start = System.nanoTime();
+        ProxyDeployer.deploy(interfaces, 30000);
+        final long deployed = System.nanoTime();
+        for (RESTInterface intf : interfaces) {
+            Assert.assertTrue(listening(intf.getPort()));
+        }
+        ProxyDeployer.release(interfaces, 30000);
+        final long released = System.nanoTime();
+        ServiceLogger.LOG.info(INTERFACES + " proxies deployed in " + (deployed - start) / 1000000
+                + "ms, released in " + (released - deployed) / 1000000 + "ms");
+        for (RESTInterface intf : interfaces) {
+            Assert.assertFalse(PortAllocator.getInstance().isReserved(intf.getPort()));
+        }
+    }
+
+    /**
+     * When one proxy fails to start, the proxies already started are
+     * stopped and all of the ports are freed.
+     * @throws Exception Error in the test.
+     */
+    @Test
+    public final void testRollback() throws Exception {
+        final List<RESTInterface> interfaces = createInterfaces(INTERFACES);
+        // a released interface cannot be deployed
+        interfaces.get(INTERFACES / 2).release();
+        try {
+            ProxyDeployer.deploy(interfaces, 30000);
+            Assert.fail("Deployed an architecture with a failing proxy");
+        } catch (InvalidArchitectureException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+        for (RESTInterface intf : interfaces) {
+            Assert.assertFalse(PortAllocator.getInstance().isReserved(intf.getPort()));
+            Assert.assertFalse(listening(intf.getPort()));
+        }
+    }
+}
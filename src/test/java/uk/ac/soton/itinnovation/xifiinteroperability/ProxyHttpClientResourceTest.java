@@ -0,0 +1,227 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import junit.framework.Assert;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.proxy.resources.ProxyHttpClientResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the CoAP to HTTP forwarding of the proxy against a local HTTP
+ * server: the forwarded response, a failed connection and the limit on the
+ * pooled connections to one route.
+ *
+ * @author Paul Grace
+ */
+public class ProxyHttpClientResourceTest {
+
+    /**
+     * The HTTP server the proxy forwards to.
+     */
+    private HttpServer origin;
+
+    /**
+     * The threads of the HTTP server.
+     */
+    private ExecutorService originThreads;
+
+    /**
+     * The CoAP server holding the proxy resource.
+     */
+    private CoapServer proxy;
+
+    /**
+     * The port of the HTTP server.
+     */
+    private int originPort;
+
+    /**
+     * The port of the proxy.
+     */
+    private int proxyPort;
+
+    /**
+     * The requests being handled by the held resource of the HTTP server,
+     * and the most handled at once.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    /**
+     * Released to answer the requests to the held resource.
+     */
+    private final CountDownLatch hold = new CountDownLatch(1);
+
+    /**
+     * Send a text response from the HTTP server.
+     * @param exchange The HTTP exchange.
+     * @param text The response body.
+     * @throws IOException Error writing the response.
+     */
+    private static void respond(final HttpExchange exchange, final String text) throws IOException {
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Before
+    public final void deploy() throws Exception {
+        originPort = SystemProperties.getAvailablePort(5900);
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", originPort), 0);
+        origin.createContext("/hello", exchange -> respond(exchange, "hello"));
+        origin.createContext("/hold", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                hold.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+            respond(exchange, "held");
+        });
+        originThreads = Executors.newCachedThreadPool();
+        origin.setExecutor(originThreads);
+        origin.start();
+
+        proxyPort = SystemProperties.getAvailablePort(originPort + 1);
+        proxy = new CoapServer(proxyPort);
+        proxy.add(new ProxyHttpClientResource());
+        proxy.start();
+    }
+
+    @After
+    public final void release() {
+        hold.countDown();
+        proxy.destroy();
+        origin.stop(0);
+        originThreads.shutdownNow();
+    }
+
+    /**
+     * Send a request through the proxy.
+     * @param proxyUri The HTTP URI to forward the request to.
+     * @return The sent request.
+     */
+    private Request send(final String proxyUri) {
+        final Request request = Request.newGet();
+        request.setURI("coap://127.0.0.1:" + proxyPort + "/httpClient");
+        request.getOptions().setProxyUri(proxyUri);
+        request.send();
+        return request;
+    }
+
+    /**
+     * The response of the HTTP server is translated and sent as the response
+     * of the CoAP request.
+     * @throws InterruptedException Interrupted waiting for the response.
+     */
+    @Test
+    public final void testForward() throws InterruptedException {
+        final Response response = send("http://127.0.0.1:" + originPort + "/hello").waitForResponse(5000);
+        Assert.assertNotNull(response);
+        Assert.assertEquals(ResponseCode.CONTENT, response.getCode());
+        Assert.assertEquals("hello", response.getPayloadString());
+    }
+
+    /**
+     * A request to an HTTP server that cannot be connected to is answered
+     * with an internal server error.
+     * @throws Exception Error finding a closed port.
+     */
+    @Test
+    public final void testConnectionFailure() throws Exception {
+        final int closedPort = SystemProperties.getAvailablePort(proxyPort + 1);
+        final Response response = send("http://127.0.0.1:" + closedPort + "/hello").waitForResponse(5000);
+        Assert.assertNotNull(response);
+        Assert.assertEquals(ResponseCode.INTERNAL_SERVER_ERROR, response.getCode());
+    }
+
+    /**
+     * No more requests than the per-route limit of the connection pool are
+     * sent to an HTTP server at once; the others wait for a connection and
+     * are all answered once the server responds.
+     * @throws InterruptedException Interrupted waiting for the responses.
+     */
+    @Test
+    public final void testPerRouteLimit() throws InterruptedException {
+        final int limit = ProxyHttpClientResource.DEFAULT_MAX_PER_ROUTE;
+        final List<Request> requests = new ArrayList();
+        for (int i = 0; i < limit + 10; i++) {
+            requests.add(send("http://127.0.0.1:" + originPort + "/hold"));
+        }
+
+        waitFor(() -> active.get() >= limit);
+        // give the waiting requests the chance to exceed the limit
+        Thread.sleep(200);
+        Assert.assertEquals(limit, active.get());
+
+        hold.countDown();
+        for (Request request : requests) {
+            final Response response = request.waitForResponse(5000);
+            Assert.assertNotNull(response);
+            Assert.assertEquals(ResponseCode.CONTENT, response.getCode());
+            Assert.assertEquals("held", response.getPayloadString());
+        }
+        Assert.assertEquals(limit, maxActive.get());
+    }
+
+    /**
+     * Wait, for no more than 5 seconds, for a condition to hold.
+     * @param condition The condition.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -34,6 +34,7 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTMessage;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidRESTMessage;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.UnexpectedEventException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSONEvaluationContext;
 
 /**
  * Set of tests for ensuring that the code for managing state behaviour in
@@ -104,6 +105,24 @@ public class RESTEventTest {
         }
     }
 
+    /**
+     * Test that the data references on one event share one parse of its
+     * json body.
+     */
+    @Test
+    public final void testJSONContextSharedByLookups() {
+        final RESTEvent event = new RESTEvent();
+        final String body = "{\"name\":\"value\",\"count\":2}";
+        event.addContent("application/json", body);
+
+        final JSONEvaluationContext first = event.getJSONContext();
+        Assert.assertSame(first, event.getJSONContext());
+        Assert.assertEquals("value", first.readValue(body, "$.name"));
+        final Object parsed = first.getDocument(body);
+        Assert.assertEquals("2", event.getJSONContext().readValue(body, "$.count"));
+        Assert.assertSame(parsed, event.getJSONContext().getDocument(body));
+    }
+
     /**
      * Test a badly constructed rest message is not allowed.
      */
@@ -0,0 +1,203 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import junit.framework.Assert;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Component;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Protocol;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.ProxyDeployer;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.RESTInterface;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.SharedProxyServer;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * Tests of many HTTP interface proxies sharing one listener: the calls to
+ * each interface are routed by path prefix (or Host header) to its own
+ * redirector and produce events for that interface only.
+ *
+ * @author Paul Grace
+ */
+public class SharedProxyServerTest {
+
+    /**
+     * The number of interfaces deployed on the shared listener.
+     */
+    private static final int INTERFACES = 200;
+
+    /**
+     * The stub server the interfaces redirect to; it answers with the path
+     * it was called on.
+     */
+    private Component stub;
+
+    /**
+     * The port of the stub server.
+     */
+    private int stubPort;
+
+    /**
+     * The shared listener.
+     */
+    private SharedProxyServer shared;
+
+    /**
+     * The interfaces attached to the shared listener.
+     */
+    private final List<RESTInterface> interfaces = new ArrayList();
+
+    /**
+     * The number of events captured for each interface.
+     */
+    private final AtomicIntegerArray events = new AtomicIntegerArray(INTERFACES);
+
+    @Before
+    public final void deploy() throws Exception {
+        stubPort = SystemProperties.getAvailablePort(9700);
+        stub = new Component();
+        stub.getServers().add(Protocol.HTTP, stubPort);
+        stub.getDefaultHost().attach("", new Restlet() {
+            @Override
+            public void handle(final Request request, final Response response) {
+                response.setEntity(request.getResourceRef().getPath(), MediaType.TEXT_PLAIN);
+            }
+        });
+        stub.start();
+
+        shared = new SharedProxyServer(PortAllocator.getInstance().allocate(stubPort + 1));
+        shared.start();
+        for (int i = 0; i < INTERFACES; i++) {
+            final int index = i;
+            final Element intf = new Element("interface");
+            intf.addContent(new Element("id").setText("intf" + i));
+            intf.addContent(new Element("url").setText("http://localhost:" + stubPort + "/svc" + i));
+            intf.addContent(new Element("protocol").setText("http"));
+            interfaces.add(new RESTInterface(intf, new EventCapture() {
+                @Override
+                public void pushEvent(final MsgEvent httpMessage) {
+                    events.incrementAndGet(index);
+                }
+
+                @Override
+                public void logException(final Exception excep) {
+                    ServiceLogger.LOG.error("Proxy error", excep);
+                }
+            }, shared, "comp"));
+        }
+        ProxyDeployer.deploy(interfaces, 60000);
+    }
+
+    @After
+    public final void release() throws Exception {
+        ProxyDeployer.release(interfaces, 60000);
+        Assert.assertEquals(0, shared.size());
+        shared.stop();
+        PortAllocator.getInstance().release(shared.getPort());
+        stub.stop();
+    }
+
+    /**
+     * Read the body of a call.
+     * @param in The response stream.
+     * @return The body as text.
+     * @throws IOException Error reading the stream.
+     */
+    private static String read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Every interface is reachable through the one port by its path prefix,
+     * and its events are captured by its own event interface.
+     * @throws Exception Error calling the interfaces.
+     */
+    @Test
+    public final void testPathRouting() throws Exception {
+        Assert.assertEquals(INTERFACES, shared.size());
+        for (int i = 0; i < INTERFACES; i++) {
+            Assert.assertEquals(shared.getPort(), interfaces.get(i).getPort());
+            final HttpURLConnection conn = (HttpURLConnection) new URL(
+                    "http://localhost:" + shared.getPort() + "/comp/intf" + i + "/svc" + i + "/data").openConnection();
+            Assert.assertEquals(200, conn.getResponseCode());
+            Assert.assertEquals("/svc" + i + "/data", read(conn.getInputStream()));
+        }
+        for (int i = 0; i < INTERFACES; i++) {
+            // a request and a reply event for each call
+            Assert.assertEquals(2, events.get(i));
+        }
+
+        final HttpURLConnection unknown = (HttpURLConnection) new URL(
+                "http://localhost:" + shared.getPort() + "/comp/none/data").openConnection();
+        Assert.assertEquals(404, unknown.getResponseCode());
+    }
+
+    /**
+     * An interface is reachable by its Host name when the path has no prefix.
+     * @throws Exception Error calling the interface.
+     */
+    @Test
+    public final void testHostRouting() throws Exception {
+        try (Socket socket = new Socket("localhost", shared.getPort())) {
+            final OutputStream out = socket.getOutputStream();
+            out.write(("GET /svc7/data HTTP/1.1\r\nHost: comp.intf7\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            final String response = read(socket.getInputStream());
+            Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            Assert.assertTrue(response, response.contains("/svc7/data"));
+        }
+        Assert.assertEquals(2, events.get(7));
+        Assert.assertEquals(0, events.get(8));
+    }
+}
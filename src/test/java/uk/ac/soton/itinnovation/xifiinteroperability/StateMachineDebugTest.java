@@ -0,0 +1,275 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.ExecutionListener;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.Transition;
+
+/**
+ * Tests that a state machine paused in debug mode waits for the next step
+ * without using the processor, and that stop() wakes it. Also tests that a
+ * machine runs headless, reporting its states to an execution listener.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class StateMachineDebugTest {
+
+    /**
+     * The time the machine is left paused for.
+     */
+    private static final long PAUSE_MILLIS = 1000;
+
+    /**
+     * The most processor time the paused machine may use.
+     */
+    private static final long MAX_CPU_MILLIS = 50;
+
+    /**
+     * A trigger state that transitions back to itself, counting the steps.
+     */
+    private static final class StepState implements State {
+
+        /**
+         * The number of transitions executed.
+         */
+        private final AtomicInteger steps = new AtomicInteger();
+
+        @Override
+        public boolean isEndNode() {
+            return false;
+        }
+
+        @Override
+        public void counter(final int change) {
+            // no counter.
+        }
+
+        @Override
+        public int getCounter() {
+            return 0;
+        }
+
+        @Override
+        public String getSuccess() {
+            return "true";
+        }
+
+        @Override
+        public String getReport() {
+            return "{}";
+        }
+
+        @Override
+        public String getEventLabel() {
+            return null;
+        }
+
+        @Override
+        public boolean isStartNode() {
+            return true;
+        }
+
+        @Override
+        public boolean isTrigger() {
+            return true;
+        }
+
+        @Override
+        public boolean isLoop() {
+            return false;
+        }
+
+        @Override
+        public boolean isDataLoop() {
+            return false;
+        }
+
+        @Override
+        public String getLabel() {
+            return "step";
+        }
+
+        @Override
+        public MsgEvent getStoredEvent() {
+            return null;
+        }
+
+        @Override
+        public void addTransition(final Transition newTransition) {
+            // no transitions.
+        }
+
+        @Override
+        public List<Transition> getTransitions() {
+            return new ArrayList();
+        }
+
+        @Override
+        public String evaluateTransition(final MsgEvent input, final InteroperabilityReport out) {
+            return getLabel();
+        }
+
+        @Override
+        public String evaluateConditionalTransition(final InteroperabilityReport out, final String current) {
+            return getLabel();
+        }
+
+        @Override
+        public String executeTransition(final BlockingQueue<MsgEvent> input,
+                final InteroperabilityReport outputReport) {
+            steps.incrementAndGet();
+            return getLabel();
+        }
+    }
+
+    /**
+     * Wait, for no more than 5 seconds, until the state has executed at
+     * least a number of steps.
+     * @param state The state to check.
+     * @param count The number of steps to wait for.
+     * @throws InterruptedException Test interrupted.
+     */
+    private static void waitForSteps(final StepState state, final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (state.steps.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("Expected " + count + " steps, executed " + state.steps.get(), state.steps.get() >= count);
+    }
+
+    /**
+     * Test that a paused machine uses (almost) no processor time, moves one
+     * step per next() and stops straight away when stopped.
+     * @throws InterruptedException Test interrupted.
+     */
+    @Test
+    public final void testPausedMachineIsIdle() throws InterruptedException {
+        final StepState state = new StepState();
+        final Map<String, State> states = new HashMap();
+        states.put(state.getLabel(), state);
+
+        final StateMachine machine = new StateMachine(true);
+        machine.inputContent(state.getLabel(), states);
+
+        final Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                machine.start();
+            }
+        });
+        runner.start();
+
+        // The first step runs straight away, then the machine pauses
+        waitForSteps(state, 1);
+        Assert.assertEquals(1, state.steps.get());
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final long cpuStart = threads.getThreadCpuTime(runner.getId());
+        Thread.sleep(PAUSE_MILLIS);
+        final long cpuMillis = (threads.getThreadCpuTime(runner.getId()) - cpuStart) / 1000000;
+        ServiceLogger.LOG.info("Paused state machine used " + cpuMillis + "ms cpu in " + PAUSE_MILLIS + "ms");
+        Assert.assertTrue("Paused state machine is using the processor", cpuMillis < MAX_CPU_MILLIS);
+        Assert.assertEquals(1, state.steps.get());
+
+        machine.next();
+        waitForSteps(state, 2);
+        Assert.assertEquals(2, state.steps.get());
+
+        machine.stop();
+        runner.join(1000);
+        Assert.assertFalse("Stopped state machine did not wake", runner.isAlive());
+        Assert.assertTrue(machine.isFinished());
+        Assert.assertEquals(2, state.steps.get());
+    }
+
+    /**
+     * Test that a machine runs without any editor components, and reports
+     * each state entered to its execution listener.
+     * @throws InterruptedException Test interrupted.
+     */
+    @Test
+    public final void testHeadlessListener() throws InterruptedException {
+        final StepState state = new StepState();
+        final Map<String, State> states = new HashMap();
+        states.put(state.getLabel(), state);
+
+        final List<String> entered = new CopyOnWriteArrayList();
+        final StateMachine machine = new StateMachine(false, new ExecutionListener() {
+            @Override
+            public void stateEntered(final String label) {
+                entered.add(label);
+            }
+
+            @Override
+            public void timeoutStarted(final long timeout) {
+                // no timeouts.
+            }
+
+            @Override
+            public void timeoutEnded() {
+                // no timeouts.
+            }
+        }, null, "step");
+        machine.inputContent(state.getLabel(), states);
+
+        final Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                machine.start();
+            }
+        });
+        runner.start();
+        try {
+            waitForSteps(state, 3);
+        } finally {
+            machine.stop();
+        }
+        runner.join(1000);
+        Assert.assertFalse("Stopped state machine did not finish", runner.isAlive());
+        // The start state, then one entry per step
+        Assert.assertTrue(entered.size() >= 4);
+        Assert.assertEquals(state.getLabel(), entered.get(0));
+    }
+}
@@ -0,0 +1,173 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.TraceReader;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.TraceWriter;
+
+/**
+ * Tests that events written in the binary trace format are read back
+ * unchanged, that the reader can seek to an event and that a trace cut
+ * short is read up to its last complete event.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ *
+ * @author Paul Grace
+ */
+public class TraceWriterTest {
+
+    /**
+     * The number of events in the test traces.
+     */
+    private static final int EVENTS = 1000;
+
+    /**
+     * Create a test event.
+     * @param number The number of the event, used in its fields.
+     * @return The event.
+     */
+    private static MsgEvent event(final int number) {
+        final MsgEvent event = number % 2 == 0 ? new RESTEvent() : new COAPEvent();
+        event.setResponseTime(number);
+        event.addParameter(new Parameter("http.code", "200"));
+        event.addParameter(new Parameter("http.path", "/sensors/" + number));
+        event.addParameter(new Parameter("empty", null));
+        if (number % 3 == 0) {
+            event.addContent("application/json", "{\"id\":" + number + ",\"name\":\"\u00e9v\u00e9nement\"}");
+        }
+        return event;
+    }
+
+    /**
+     * Write the test events as a trace.
+     * @param compress Whether to compress the trace.
+     * @return The trace bytes.
+     * @throws IOException Error writing the trace.
+     */
+    private static byte[] writeTrace(final boolean compress) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final TraceWriter writer = new TraceWriter(bytes, compress);
+        for (int i = 0; i < EVENTS; i++) {
+            writer.write(event(i));
+        }
+        Assert.assertEquals(EVENTS, writer.getCount());
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Check a read event against the event that was written.
+     * @param number The number of the event.
+     * @param read The event read from the trace.
+     */
+    private static void checkEvent(final int number, final MsgEvent read) {
+        final MsgEvent expected = event(number);
+        Assert.assertNotNull(read);
+        Assert.assertEquals(expected.getClass(), read.getClass());
+        Assert.assertEquals(expected.getResponseTime(), read.getResponseTime());
+        Assert.assertEquals(expected.getParameterMap(), read.getParameterMap());
+        if (expected.getDataBody() == null) {
+            Assert.assertNull(read.getDataBody());
+        } else {
+            Assert.assertEquals(expected.getDataBody().getType(), read.getDataBody().getType());
+            Assert.assertEquals(expected.getDataBody().getData(), read.getDataBody().getData());
+        }
+    }
+
+    /**
+     * Read a trace from the start and check every event.
+     * @param trace The trace bytes.
+     * @throws IOException Error reading the trace.
+     */
+    private static void checkTrace(final byte[] trace) throws IOException {
+        final TraceReader reader = new TraceReader(new ByteArrayInputStream(trace));
+        for (int i = 0; i < EVENTS; i++) {
+            checkEvent(i, reader.next());
+        }
+        Assert.assertNull(reader.next());
+        reader.close();
+    }
+
+    /**
+     * Uncompressed and compressed traces are read back unchanged, and the
+     * compressed trace is smaller.
+     * @throws IOException Error writing or reading the trace.
+     */
+    @Test
+    public final void testRoundTrip() throws IOException {
+        final byte[] plain = writeTrace(false);
+        final byte[] compressed = writeTrace(true);
+        checkTrace(plain);
+        checkTrace(compressed);
+        Assert.assertTrue(compressed.length < plain.length);
+    }
+
+    /**
+     * The reader skips to an event offset, and stops at the end of the trace.
+     * @throws IOException Error writing or reading the trace.
+     */
+    @Test
+    public final void testSeek() throws IOException {
+        for (boolean compress : new boolean[] {false, true}) {
+            final TraceReader reader = new TraceReader(new ByteArrayInputStream(writeTrace(compress)));
+            Assert.assertEquals(600, reader.skip(600));
+            Assert.assertEquals(600, reader.getPosition());
+            checkEvent(600, reader.next());
+            Assert.assertEquals(EVENTS - 601, reader.skip(EVENTS));
+            Assert.assertNull(reader.next());
+            reader.close();
+        }
+    }
+
+    /**
+     * A trace cut short in its last record is read up to the last complete
+     * event.
+     * @throws IOException Error writing or reading the trace.
+     */
+    @Test
+    public final void testTruncated() throws IOException {
+        final byte[] trace = writeTrace(true);
+        final TraceReader reader = new TraceReader(new ByteArrayInputStream(Arrays.copyOf(trace, trace.length - 5)));
+        for (int i = 0; i < EVENTS - 1; i++) {
+            checkEvent(i, reader.next());
+        }
+        Assert.assertNull(reader.next());
+        reader.close();
+    }
+}
@@ -0,0 +1,108 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XMLEvaluationContext;
+
+/**
+ * Tests that the XML content guards applied to one event are evaluated
+ * against a single parse of the message body, held by an
+ * XMLEvaluationContext. Uses a 1 MB SOAP payload and 20 guards.
+ *
+ * @author Paul Grace
+ */
+public class XMLGuardEvaluationTest {
+
+    /**
+     * The number of guards applied to the payload.
+     */
+    private static final int GUARDS = 20;
+
+    /**
+     * Build a SOAP envelope of roughly one megabyte.
+     * @return The SOAP payload.
+     */
+    private static String buildPayload() {
+        final StringBuilder xml = new StringBuilder(1100000);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+            .append("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body><readings>");
+        int i = 0;
+        while (xml.length() < 1024 * 1024) {
+            xml.append("<reading><id>").append(i).append("</id><sensor>sensor-").append(i % GUARDS)
+                .append("</sensor><value>").append(i % 100).append("</value></reading>");
+            i++;
+        }
+        xml.append("</readings></soap:Body></soap:Envelope>");
+        return xml.toString();
+    }
+
+    /**
+     * The same parsed document serves every guard on the body, including a
+     * body that is an equal but distinct string; a different body is parsed
+     * again. The time taken, and that of parsing the body for every guard,
+     * are logged only.
+     * @throws Exception Error parsing the payload.
+     */
+    @Test
+    public final void testParseOnceEvaluation() throws Exception {
+        final String payload = buildPayload();
+        final String[] paths = new String[GUARDS];
+        for (int i = 0; i < GUARDS; i++) {
+            paths[i] = "//*[local-name()='reading'][" + (i + 1) + "]/sensor";
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < GUARDS; i++) {
+            Assert.assertTrue(XML.xmlAssert(XML.parse(payload), paths[i], "sensor-" + i).getResult());
+        }
+        final long reparseTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final XMLEvaluationContext context = new XMLEvaluationContext();
+        final Document document = context.getDocument(payload);
+        for (int i = 0; i < GUARDS; i++) {
+            final String body = i % 2 == 0 ? payload : new String(payload);
+            Assert.assertTrue(context.xmlAssert(body, paths[i], "sensor-" + i).getResult());
+            Assert.assertSame(document, context.getDocument(body));
+        }
+        final long contextTime = System.nanoTime() - start;
+
+        ServiceLogger.LOG.info("XML guards: re-parse " + reparseTime / 1000000 + "ms, parse once "
+                + contextTime / 1000000 + "ms");
+
+        Assert.assertFalse(context.xmlAssert(payload, paths[0], "sensor-1").getResult());
+        Assert.assertSame(document, context.getDocument(payload));
+        final String other = "<readings><reading><sensor>sensor-0</sensor></reading></readings>";
+        Assert.assertTrue(context.xmlAssert(other, paths[0], "sensor-0").getResult());
+        Assert.assertNotSame(document, context.getDocument(other));
+    }
+}